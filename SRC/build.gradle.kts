@@ -13,10 +13,14 @@ repositories {
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.9.1"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 
     implementation("com.google.api-client:google-api-client:1.32.1")
     implementation("com.google.auth:google-auth-library-oauth2-http:1.2.0")
     implementation("com.google.apis:google-api-services-sheets:v4-rev20200424-1.30.9")
+    implementation("com.google.http-client:google-http-client-apache-v2:1.39.2")
+    implementation("com.google.code.gson:gson:2.8.8")
+    implementation("org.apache.httpcomponents:httpclient:4.5.13")
     implementation("org.apache.poi:poi:5.2.3")
     implementation("org.apache.poi:poi-ooxml:5.2.3")
 }
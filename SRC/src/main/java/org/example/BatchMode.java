@@ -0,0 +1,981 @@
+package org.example;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.example.services.CropImporter;
+import org.example.services.RequestScheduler;
+import org.example.util.CropSnapshotStore;
+import org.example.util.ExcelExporter;
+import org.example.util.FlatFileExporter;
+import org.example.util.HarvestDates;
+import org.example.util.IntIntHashMap;
+import org.example.util.QuantityDeltas;
+import org.example.util.RowFingerprint;
+import org.example.util.StagedChanges;
+
+import java.io.BufferedReader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs the application without the menu, for scheduled jobs such as a nightly export or an inventory sync.
+ * <p>
+ * A single command is taken from the command line; "run" reads commands one per line from a file or from
+ * standard input instead, and stops at the first one that fails. Sheets are fetched with batched requests,
+ * once per run, and every call goes through the BULK lane of the request scheduler. Google Sheets is only
+ * contacted by the first command that needs it, so a query with --offline starts instantly from the saved
+ * copies of the sheets. Staged changes of the interactive menu (and its journal) are left alone.
+ * <p>
+ * Data (query results, and exports written to "-") goes to standard output, and every progress message to
+ * standard error, so the output can be piped. When the commands have run, a timing summary is printed to
+ * standard error and the process exits with {@link #EXIT_OK}, {@link #EXIT_FAILED} or {@link #EXIT_USAGE}.
+ * <p>
+ * Usage examples:
+ * java -jar src.jar load
+ * java -jar src.jar query --sheet Sheet1 --in-season --in-stock --format csv &gt; in-stock.csv
+ * java -jar src.jar push --file changes.jsonl
+ * java -jar src.jar export --format csv --sheet Sheet1 --output Sheet1.csv.gz --gzip
+ * java -jar src.jar run --file nightly.txt
+ */
+public class BatchMode {
+    public static final int EXIT_OK = 0; // Every command succeeded.
+    public static final int EXIT_FAILED = 1; // A command failed, or some of the rows or changes it handled did.
+    public static final int EXIT_USAGE = 2; // The command line could not be understood.
+    private static final int DEFAULT_PUSH_BATCH = 500; // Changes per pushBatch call.
+    private static final String STANDARD_STREAM = "-"; // File name standing for standard input or output.
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Commands:",
+            "  load [--sheet NAME]...                 Fetch sheets (all by default) and save their copies.",
+            "  query --sheet NAME [--offline] [--in-season | --out-of-season] [--farm NAME] [--location NAME]",
+            "        [--from YYYY-MM-DD] [--to YYYY-MM-DD] [--in-stock] [--format jsonl|csv] [--output FILE|-] [--gzip]",
+            "  push --file FILE|- [--sheet NAME] [--batch N]",
+            "        Apply changes, one JSON object per line, for example:",
+            "        {\"op\":\"add\",\"sheetName\":\"Sheet1\",\"cropID\":7,\"farmName\":\"F\",\"farmLocation\":\"L\",\"cropName\":\"Kale\",",
+            "         \"quantityAvailable\":10,\"harvestDate\":\"2024-05-01\",\"inSeason\":true}",
+            "        {\"op\":\"update\",\"cropID\":7,\"quantityAvailable\":8}   {\"op\":\"delete\",\"cropID\":7}   {\"op\":\"adjust\",\"cropID\":7,\"delta\":-3}",
+            "  export (--sheet NAME... | --all) [--offline] [--format csv|jsonl|xlsx] [--output FILE|-] [--gzip] [--append]",
+            "  import --file FILE --sheet NAME [--batch N]   Append crops from an XLSX or CSV file.",
+            "  run [--file FILE|-]                    Run commands read one per line (standard input by default).",
+            "  help");
+
+    private final Callable<GoogleSheetsApplicationInterface> connector; // Connects to Google Sheets when first needed.
+    private final CropSnapshotStore snapshots; // Saved copies of the sheets, for --offline and for the menu.
+    private final PrintStream data; // Standard output, reserved for data.
+    private final Map<String, CropTable> tables = new HashMap<>(); // Sheets fetched (or read from their copies) during this run.
+    private final List<String> timings = new ArrayList<>(); // One line per command that ran.
+    private GoogleSheetsApplicationInterface service; // Null until a command needs Google Sheets.
+
+
+    /**
+     * A command line that could not be understood.
+     */
+    private static class UsageException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructs the exception.
+         *
+         * @param message What is wrong with the command line.
+         */
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+
+    /**
+     * Constructs a batch run.
+     *
+     * @param connector Connects to Google Sheets.
+     * @param snapshots The saved copies of the sheets.
+     * @param data Where data is written.
+     */
+    private BatchMode(Callable<GoogleSheetsApplicationInterface> connector, CropSnapshotStore snapshots, PrintStream data) {
+        this.connector = connector;
+        this.snapshots = snapshots;
+        this.data = data;
+    }
+
+
+    /**
+     * Runs the command given on the command line. From here on, System.out is redirected to standard error, so
+     * the progress messages printed by the services stay out of the data.
+     *
+     * @param args The command and its options, for example {"export", "--sheet", "Sheet1"}.
+     * @param connector Connects to Google Sheets when a command first needs it.
+     * @param snapshots The saved copies of the sheets.
+     * @return The exit status: {@link #EXIT_OK}, {@link #EXIT_FAILED} or {@link #EXIT_USAGE}.
+     */
+    public static int run(String[] args, Callable<GoogleSheetsApplicationInterface> connector, CropSnapshotStore snapshots) {
+        PrintStream data = System.out;
+        System.setOut(System.err);
+        long started = System.nanoTime();
+        BatchMode batch = new BatchMode(connector, snapshots, data);
+        int status = batch.execute(Arrays.asList(args));
+
+        System.err.println();
+        batch.timings.forEach(System.err::println);
+        System.err.println("Total " + (System.nanoTime() - started) / 1_000_000 + " ms, exit status " + status
+                + ". Google Sheets API: " + RequestScheduler.getDefault() + ".");
+        data.flush();
+        return status;
+    }
+
+
+    /**
+     * Runs one command and records how long it took.
+     *
+     * @param words The command followed by its options.
+     * @return The exit status of the command.
+     */
+    private int execute(List<String> words) {
+        if (words.isEmpty()) {
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        String command = words.get(0);
+        long started = System.nanoTime();
+        boolean ok;
+        try {
+            Options options = Options.parse(words.subList(1, words.size()));
+            switch (command) {
+                case "load":
+                    ok = RequestScheduler.runInLane(RequestScheduler.Lane.BULK, () -> load(options));
+                    break;
+                case "query":
+                    ok = RequestScheduler.runInLane(RequestScheduler.Lane.BULK, () -> query(options));
+                    break;
+                case "push":
+                    ok = RequestScheduler.runInLane(RequestScheduler.Lane.BULK, () -> push(options));
+                    break;
+                case "export":
+                    ok = RequestScheduler.runInLane(RequestScheduler.Lane.BULK, () -> export(options));
+                    break;
+                case "import":
+                    ok = RequestScheduler.runInLane(RequestScheduler.Lane.BULK, () -> importFile(options));
+                    break;
+                case "run":
+                    return runScript(options);
+                case "help":
+                    options.allow();
+                    data.println(USAGE);
+                    return EXIT_OK;
+                default:
+                    throw new UsageException("Unknown command: " + command);
+            }
+        } catch (UsageException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        } catch (Exception e) {
+            System.err.println(command + " failed: " + e.getMessage());
+            ok = false;
+        }
+        timings.add(String.format("%-7s %-6s %7d ms  %s", command, ok ? "ok" : "FAILED",
+                (System.nanoTime() - started) / 1_000_000, String.join(" ", words.subList(1, words.size()))));
+        return ok ? EXIT_OK : EXIT_FAILED;
+    }
+
+
+    /**
+     * Runs commands read one per line, skipping blank lines and lines starting with #. Words are separated by
+     * spaces; a word containing spaces can be put in double quotes. The first command that fails stops the run.
+     *
+     * @param options --file, the script to read (standard input if absent or "-").
+     * @return The exit status of the last command run.
+     * @throws Exception If the script cannot be read, or a line cannot be understood.
+     */
+    private int runScript(Options options) throws Exception {
+        options.allow("file");
+        String file = options.get("file", STANDARD_STREAM);
+        try (BufferedReader reader = openReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int status = execute(tokenize(line));
+                if (status != EXIT_OK) {
+                    return status;
+                }
+            }
+        }
+        return EXIT_OK;
+    }
+
+
+    /**
+     * Fetches sheets with a single batched request, keeps them for the rest of the run and saves their copies.
+     *
+     * @param options --sheet, repeatable (every sheet if absent).
+     * @return true.
+     * @throws Exception If the sheets cannot be fetched.
+     */
+    private boolean load(Options options) throws Exception {
+        options.allow("sheet");
+        List<String> names = options.has("sheet") ? options.getAll("sheet") : service().getAvailableSheets();
+        Map<String, CropTable> fetched = fetch(names);
+        long crops = fetched.values().stream().mapToLong(CropTable::size).sum();
+        System.err.println("Loaded " + crops + " crops from " + fetched.size() + " sheet(s).");
+        return true;
+    }
+
+
+    /**
+     * Writes the crops of a sheet that match the given filters, as JSON Lines (the default) or CSV.
+     *
+     * @param options The sheet, the filters and where to write.
+     * @return true.
+     * @throws Exception If the sheet cannot be read or the output cannot be written.
+     */
+    private boolean query(Options options) throws Exception {
+        options.allow("sheet", "offline", "in-season", "out-of-season", "farm", "location", "from", "to", "in-stock",
+                "format", "output", "gzip");
+        CropTable table = tables(Arrays.asList(options.require("sheet")), options.has("offline")).values().iterator().next();
+        CropQuery query = new CropCatalog(table).query();
+        if (options.has("in-season")) {
+            query.inSeason();
+        }
+        if (options.has("out-of-season")) {
+            query.outOfSeason();
+        }
+        if (options.has("farm")) {
+            query.farm(options.get("farm", null));
+        }
+        if (options.has("location")) {
+            query.location(options.get("location", null));
+        }
+        LocalDate from = options.getDate("from");
+        LocalDate to = options.getDate("to");
+        if (from != null || to != null) {
+            query.harvestedBetween(from, to);
+        }
+        if (options.has("in-stock")) {
+            query.minQuantity(1);
+        }
+
+        CropTable matches = query.toTable();
+        String format = options.get("format", "jsonl");
+        if (!format.equals("jsonl") && !format.equals("csv")) {
+            throw new UsageException("query --format must be jsonl or csv.");
+        }
+        writeFlat(Arrays.asList(matches), options.get("output", STANDARD_STREAM),
+                format.equals("csv") ? FlatFileExporter.Format.CSV : FlatFileExporter.Format.JSONL, options.has("gzip"), false);
+        System.err.println(matches.size() + " of " + table.size() + " crops matched.");
+        return true;
+    }
+
+
+    /**
+     * Exports sheets as CSV (the default), JSON Lines or XLSX. With several sheets, CSV and JSON Lines rows go
+     * into one file (their sheetName column tells them apart) and XLSX gets one worksheet per sheet.
+     *
+     * @param options The sheets, the format and where to write.
+     * @return true.
+     * @throws Exception If the sheets cannot be read or the output cannot be written.
+     */
+    private boolean export(Options options) throws Exception {
+        options.allow("sheet", "all", "offline", "format", "output", "gzip", "append");
+        String format = options.get("format", "csv");
+        if (!format.equals("csv") && !format.equals("jsonl") && !format.equals("xlsx")) {
+            throw new UsageException("export --format must be csv, jsonl or xlsx.");
+        }
+        if (options.has("sheet") == options.has("all")) {
+            throw new UsageException("export needs either --sheet NAME or --all.");
+        }
+        boolean offline = options.has("offline");
+        List<String> names;
+        if (options.has("sheet")) {
+            names = options.getAll("sheet");
+        } else {
+            names = offline ? snapshots.getSheetNames() : service().getAvailableSheets();
+        }
+        String baseName = options.has("all") || names.size() > 1 ? "AllCropsData" : names.get(0);
+        String output = options.get("output", baseName + "." + format + (options.has("gzip") ? ".gz" : ""));
+        Map<String, CropTable> cropsBySheet = tables(names, offline);
+
+        if (format.equals("xlsx")) {
+            if (options.has("gzip") || options.has("append") || output.equals(STANDARD_STREAM)) {
+                throw new UsageException("XLSX exports are written to a new file, without --gzip or --append.");
+            }
+            int window = Integer.getInteger("src.export.window", ExcelExporter.DEFAULT_WINDOW);
+            boolean compress = !"false".equalsIgnoreCase(System.getProperty("src.export.compressTempFiles"));
+            if (cropsBySheet.size() == 1) {
+                ExcelExporter.streamToXLSX(cropsBySheet.values().iterator().next().iterator(), Paths.get(output), window, compress);
+            } else {
+                ExcelExporter.exportWorkbook(cropsBySheet, Paths.get(output), window, compress);
+            }
+            return true;
+        }
+
+        long started = System.nanoTime();
+        long rows = writeFlat(cropsBySheet.values(), output, format.equals("csv") ? FlatFileExporter.Format.CSV : FlatFileExporter.Format.JSONL,
+                options.has("gzip"), options.has("append"));
+        System.err.println("Exported " + rows + " rows from " + cropsBySheet.size() + " sheet(s) to " + output + " in "
+                + (System.nanoTime() - started) / 1_000_000 + " ms.");
+        return true;
+    }
+
+
+    /**
+     * Applies the changes of a JSON Lines file (or standard input) as it is read. Each line is one change,
+     * checked against the sheet as fetched in this run: "add" needs every field and an unused crop ID,
+     * "update" sets the fields it names, "delete" clears the row and "adjust" adds "delta" to the quantity.
+     * Field names are those of the JSON Lines export, so exported rows can be replayed as adds. Changes of the
+     * same crop are merged, and every --batch changes are sent with one pushBatch call; adjustments are summed
+     * per crop and applied at the end, on top of the other changes.
+     * <p>
+     * Lines that cannot be applied are reported and skipped. The command fails if any line was skipped or any
+     * change was not applied (not found, in conflict with an edit made in the sheet, or failed).
+     *
+     * @param options --file, the changes; --sheet, the sheet of changes without a sheetName; --batch.
+     * @return true if every change was applied.
+     * @throws Exception If the file cannot be read or a batch cannot be sent at all.
+     */
+    private boolean push(Options options) throws Exception {
+        options.allow("file", "sheet", "batch");
+        String file = options.require("file");
+        String defaultSheet = options.get("sheet", null);
+        int batchSize = options.getInt("batch", DEFAULT_PUSH_BATCH);
+
+        StagedChanges staged = new StagedChanges();
+        QuantityDeltas deltas = new QuantityDeltas();
+        Map<PushResult.Status, Integer> counts = new EnumMap<>(PushResult.Status.class);
+        long skipped = 0;
+        try (BufferedReader reader = openReader(file)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    stageLine(line, defaultSheet, staged, deltas);
+                } catch (IllegalArgumentException e) {
+                    skipped++;
+                    System.err.println("Line " + lineNumber + " skipped: " + e.getMessage());
+                    continue;
+                }
+                if (staged.size() >= batchSize) {
+                    pushStaged(staged, counts);
+                }
+            }
+        }
+        pushStaged(staged, counts);
+        int adjusted = applyDeltas(deltas, counts);
+
+        System.err.println("Pushed: " + counts + ", quantities adjusted: " + adjusted + ", lines skipped: " + skipped
+                + " (" + staged.getMergedCount() + " changes merged into earlier ones).");
+        int notApplied = counts.getOrDefault(PushResult.Status.NOT_FOUND, 0) + counts.getOrDefault(PushResult.Status.CONFLICT, 0)
+                + counts.getOrDefault(PushResult.Status.FAILED, 0);
+        return skipped == 0 && notApplied == 0;
+    }
+
+
+    /**
+     * Turns one line of a push file into a staged change. The line is checked against the sheet as fetched in
+     * this run together with the changes staged before it; the fetched sheet itself only changes once a push
+     * reports that the change was applied.
+     *
+     * @param line The JSON object.
+     * @param defaultSheet The sheet of changes without a sheetName, or null.
+     * @param staged Receives adds, updates and deletes.
+     * @param deltas Receives quantity adjustments.
+     * @throws Exception If the sheet has to be fetched and cannot be; invalid lines throw IllegalArgumentException.
+     */
+    private void stageLine(String line, String defaultSheet, StagedChanges staged, QuantityDeltas deltas) throws Exception {
+        JsonElement parsed;
+        try {
+            parsed = JsonParser.parseString(line);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("not valid JSON.");
+        }
+        if (!parsed.isJsonObject()) {
+            throw new IllegalArgumentException("not a JSON object.");
+        }
+        JsonObject change = parsed.getAsJsonObject();
+        String op = text(change, "op", true);
+        String sheetName = change.has("sheetName") ? text(change, "sheetName", true) : defaultSheet;
+        if (sheetName == null) {
+            throw new IllegalArgumentException("no sheetName, and no --sheet given.");
+        }
+        int cropID = number(change, "cropID", true);
+        CropTable table = tables(Arrays.asList(sheetName), false).get(sheetName);
+        int row = table.indexOfCropID(cropID);
+        Crop pending = staged.find(sheetName, cropID); // A change of the crop from an earlier line, not pushed yet.
+        boolean exists = pending != null ? pending.getCropChanges() != 3 : row != -1;
+        if (!exists && !op.equals("add")) {
+            throw new IllegalArgumentException("no crop with ID " + cropID + " in " + sheetName + ".");
+        }
+
+        switch (op) {
+            case "add":
+                if (exists) {
+                    throw new IllegalArgumentException("a crop with ID " + cropID + " already exists in " + sheetName + ".");
+                }
+                String sheetID = table.isEmpty() ? service().getSheetIdByName(sheetName) : table.getSheetID(0);
+                Crop crop = new Crop(text(change, "farmName", true), text(change, "farmLocation", true), cropID,
+                        text(change, "cropName", true), number(change, "quantityAvailable", true),
+                        date(change, true), bool(change, "inSeason", true), sheetName, sheetID);
+                crop.setCropChanges(1);
+                staged.stage(crop, -1);
+                break;
+            case "update":
+                Crop current = pending != null ? pending : new Crop(table.get(row)); // Staged as it is, so a copy.
+                String before = current.toString();
+                int dirtyBefore = current.getDirtyFields();
+                if (change.has("farmName")) {
+                    current.setFarmName(text(change, "farmName", true));
+                }
+                if (change.has("farmLocation")) {
+                    current.setFarmLocation(text(change, "farmLocation", true));
+                }
+                if (change.has("cropName")) {
+                    current.setCropName(text(change, "cropName", true));
+                }
+                if (change.has("quantityAvailable")) {
+                    int waiting = deltas.getPendingDelta(sheetName, cropID);
+                    if (waiting != 0) {
+                        deltas.add(sheetName, cropID, -waiting, -1); // A quantity set outright replaces the adjustments still waiting.
+                    }
+                    current.setQuantityAvailable(number(change, "quantityAvailable", true));
+                }
+                if (change.has("harvestDate")) {
+                    current.setHarvestDate(date(change, true));
+                }
+                if (change.has("inSeason")) {
+                    current.setInSeason(bool(change, "inSeason", true));
+                }
+                if (current.getDirtyFields() == dirtyBefore && current.toString().equals(before)) {
+                    return; // Nothing changed.
+                }
+                current.setCropChanges(2);
+                staged.stage(current, -1);
+                break;
+            case "delete":
+                Crop deletion = pending != null ? pending : new Crop(table.get(row));
+                deletion.setCropChanges(3);
+                staged.stage(deletion, -1);
+                break;
+            case "adjust":
+                deltas.add(sheetName, cropID, number(change, "delta", true), -1);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown op '" + op + "' (expected add, update, delete or adjust).");
+        }
+    }
+
+
+    /**
+     * Pushes every staged change with one pushBatch call and counts the results. Changes that were applied are
+     * made to the fetched sheets; changes that were not applied are reported, but not staged again, and leave
+     * the fetched sheets as they were.
+     *
+     * @param staged The staged changes.
+     * @param counts The number of results of each status so far, updated by this method.
+     * @throws Exception If the batch could not be sent at all.
+     */
+    private void pushStaged(StagedChanges staged, Map<PushResult.Status, Integer> counts) throws Exception {
+        List<Crop> batch = staged.drain();
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<PushResult> results = service().pushBatch(batch);
+        for (PushResult result : results) {
+            counts.merge(result.getStatus(), 1, Integer::sum);
+            Crop pushed = result.getCrop();
+            CropTable table = tables.get(pushed.getSheetName());
+            if (table != null) {
+                switch (result.getStatus()) {
+                    case ADDED:
+                    case UPDATED:
+                        table.upsert(pushed);
+                        table.markWritten(pushed); // Later changes of the crop are checked against what was written.
+                        break;
+                    case DELETED:
+                        table.removeCropID(pushed.getCropID());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (!result.isSuccess()) {
+                System.err.println("Crop " + pushed.getCropID() + " in " + pushed.getSheetName() + ": " + result.getStatus()
+                        + (result.getMessage() == null || result.getMessage().isEmpty() ? "" : " (" + result.getMessage() + ")"));
+            }
+        }
+        staged.complete(batch);
+    }
+
+
+    /**
+     * Applies the summed quantity adjustments, one read and one write per sheet, and updates the fetched sheets
+     * with the quantities the sheet now holds.
+     *
+     * @param deltas The adjustments.
+     * @param counts The number of results of each status so far; crops that could not be found are added to it.
+     * @return The number of crops whose quantity was adjusted.
+     * @throws Exception If the quantities of a sheet could not be read or written.
+     */
+    private int applyDeltas(QuantityDeltas deltas, Map<PushResult.Status, Integer> counts) throws Exception {
+        int adjusted = 0;
+        for (QuantityDeltas.Pending pending : deltas.drain()) {
+            String sheetName = pending.getSheetName();
+            IntIntHashMap quantities = service().applyQuantityDeltas(sheetName, pending.getDeltas());
+            CropTable table = tables.get(sheetName);
+            int[] found = {0};
+            pending.getDeltas().forEach((cropID, delta) -> {
+                if (!quantities.containsKey(cropID)) {
+                    counts.merge(PushResult.Status.NOT_FOUND, 1, Integer::sum);
+                    System.err.println("Crop " + cropID + " in " + sheetName + ": NOT_FOUND (quantity not adjusted)");
+                    return;
+                }
+                found[0]++;
+                int row = table == null ? -1 : table.indexOfCropID(cropID);
+                if (row != -1) {
+                    int dirtyFields = table.getDirtyFields(row);
+                    table.setQuantityAvailable(row, quantities.getOrDefault(cropID, 0));
+                    table.setDirtyFields(row, dirtyFields);
+                    if (dirtyFields == 0) {
+                        table.setRowFingerprint(row, RowFingerprint.of(table.get(row))); // The row now holds this quantity.
+                    }
+                }
+            });
+            adjusted += found[0];
+        }
+        return adjusted;
+    }
+
+
+    /**
+     * Appends the crops of an XLSX or CSV file to a sheet.
+     *
+     * @param options --file, --sheet and --batch.
+     * @return true if no row of the file was invalid.
+     * @throws Exception If the file cannot be read or the crops cannot be appended.
+     */
+    private boolean importFile(Options options) throws Exception {
+        options.allow("file", "sheet", "batch");
+        String sheetName = options.require("sheet");
+        GoogleSheetsApplicationInterface sheets = service();
+        CropImporter importer = new CropImporter(sheets, options.getInt("batch", CropImporter.DEFAULT_BATCH_SIZE));
+        CropImporter.Result result = importer.importFile(Paths.get(options.require("file")), sheetName, sheets.getSheetIdByName(sheetName));
+        return result.getInvalidCount() == 0;
+    }
+
+
+    /**
+     * Returns the sheets with the given names, using the ones already fetched in this run. The others are
+     * fetched with a single batched request, or read from their saved copies when offline.
+     *
+     * @param names The sheet names.
+     * @param offline Whether to read saved copies instead of contacting Google Sheets.
+     * @return The crops of each sheet, in the order given.
+     * @throws Exception If a sheet cannot be fetched, or has no saved copy when offline.
+     */
+    private Map<String, CropTable> tables(List<String> names, boolean offline) throws Exception {
+        List<String> missing = new ArrayList<>();
+        for (String name : names) {
+            if (!tables.containsKey(name)) {
+                missing.add(name);
+            }
+        }
+        if (offline) {
+            for (String name : missing) {
+                CropSnapshotStore.Snapshot snapshot = snapshots.load(name);
+                if (snapshot == null) {
+                    throw new IOException("No saved copy of " + name + " is available.");
+                }
+                tables.put(name, asTable(snapshot.getCrops()));
+                System.err.println("Using the copy of " + name + " saved " + snapshot.getAgeMillis() / 60_000 + " minute(s) ago.");
+            }
+        } else if (!missing.isEmpty()) {
+            fetch(missing);
+        }
+
+        Map<String, CropTable> result = new LinkedHashMap<>();
+        for (String name : names) {
+            result.put(name, tables.get(name));
+        }
+        return result;
+    }
+
+
+    /**
+     * Fetches sheets from Google Sheets with a single batched request, keeps them for the rest of the run and
+     * saves their copies.
+     *
+     * @param names The sheet names.
+     * @return The crops of each sheet, in the order given.
+     * @throws Exception If the sheets cannot be fetched.
+     */
+    private Map<String, CropTable> fetch(Collection<String> names) throws Exception {
+        Map<String, CropTable> fetched = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Crop>> entry : service().getItemsInSheets(names).entrySet()) {
+            CropTable table = asTable(entry.getValue());
+            String sheetID = table.isEmpty() ? service().getSheetIdByName(entry.getKey()) : table.getSheetID(0);
+            try {
+                snapshots.save(entry.getKey(), sheetID, table);
+            } catch (IOException e) {
+                System.err.println("Could not save a copy of " + entry.getKey() + ": " + e.getMessage());
+            }
+            tables.put(entry.getKey(), table);
+            fetched.put(entry.getKey(), table);
+        }
+        return fetched;
+    }
+
+
+    /**
+     * Writes crops as CSV or JSON Lines to a file, or to standard output for "-".
+     *
+     * @param crops The crops to write, one collection after the other.
+     * @param output The file name, or "-".
+     * @param format How records are encoded.
+     * @param gzip Whether to compress the output.
+     * @param append Whether to add to the end of an existing file.
+     * @return The number of crops written.
+     * @throws IOException If the output cannot be written.
+     */
+    private long writeFlat(Collection<? extends Iterable<? extends Crop>> crops, String output, FlatFileExporter.Format format,
+                           boolean gzip, boolean append) throws IOException {
+        try (FlatFileExporter exporter = output.equals(STANDARD_STREAM)
+                ? FlatFileExporter.open(standardOutput(), format, gzip, true)
+                : FlatFileExporter.open(Paths.get(output), format, gzip, append)) {
+            for (Iterable<? extends Crop> sheet : crops) {
+                exporter.writeAll(sheet);
+            }
+            return exporter.getRowCount();
+        }
+    }
+
+
+    /**
+     * Returns a channel onto standard output that flushes, but does not close it, when it is closed.
+     *
+     * @return The channel.
+     */
+    private WritableByteChannel standardOutput() {
+        return Channels.newChannel(new FilterOutputStream(data) {
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                data.write(bytes, offset, length);
+            }
+
+            @Override
+            public void close() {
+                data.flush();
+            }
+        });
+    }
+
+
+    /**
+     * Opens a file, or standard input for "-", as UTF-8 text.
+     *
+     * @param file The file name, or "-".
+     * @return The reader.
+     * @throws IOException If the file cannot be opened.
+     */
+    private static BufferedReader openReader(String file) throws IOException {
+        if (file.equals(STANDARD_STREAM)) {
+            return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        }
+        return Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Returns the Google Sheets service, connecting on the first call.
+     *
+     * @return The service.
+     * @throws Exception If Google Sheets cannot be reached.
+     */
+    private GoogleSheetsApplicationInterface service() throws Exception {
+        if (service == null) {
+            long started = System.nanoTime();
+            service = connector.call();
+            System.err.println("Connected to Google Sheets in " + (System.nanoTime() - started) / 1_000_000 + " ms.");
+        }
+        return service;
+    }
+
+
+    /**
+     * Wraps crops in a CropTable, unless they already are one.
+     *
+     * @param crops The crops.
+     * @return The table.
+     */
+    private static CropTable asTable(List<Crop> crops) {
+        return crops instanceof CropTable ? (CropTable) crops : new CropTable(crops);
+    }
+
+
+    /**
+     * Splits a script line into words at spaces, keeping double-quoted text (without the quotes) together.
+     *
+     * @param line The line.
+     * @return The words.
+     * @throws UsageException If a quote is not closed.
+     */
+    private static List<String> tokenize(String line) throws UsageException {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean quoted = false;
+        boolean inWord = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inWord = true;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quoted) {
+            throw new UsageException("Unclosed quote in: " + line);
+        }
+        if (inWord) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+
+    /**
+     * Reads a text field of a change.
+     *
+     * @param change The change.
+     * @param name The field name.
+     * @param required Whether the field must be present and not empty.
+     * @return The trimmed text, or null if it is absent and not required.
+     */
+    private static String text(JsonObject change, String name, boolean required) {
+        JsonElement value = change.get(name);
+        if (value != null && !value.isJsonNull() && !value.isJsonPrimitive()) {
+            throw new IllegalArgumentException(name + " must be a single value.");
+        }
+        String text = value == null || value.isJsonNull() ? null : value.getAsString().trim();
+        if (required && (text == null || text.isEmpty())) {
+            throw new IllegalArgumentException(name + " is missing.");
+        }
+        return text;
+    }
+
+
+    /**
+     * Reads a whole-number field of a change.
+     *
+     * @param change The change.
+     * @param name The field name.
+     * @param required Whether the field must be present.
+     * @return The number (0 if it is absent and not required).
+     */
+    private static int number(JsonObject change, String name, boolean required) {
+        String text = text(change, name, required);
+        if (text == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " '" + text + "' is not a whole number.");
+        }
+    }
+
+
+    /**
+     * Reads the harvestDate field of a change.
+     *
+     * @param change The change.
+     * @param required Whether the field must be present.
+     * @return The date as YYYY-MM-DD, or null if it is absent and not required.
+     */
+    private static String date(JsonObject change, boolean required) {
+        String text = text(change, "harvestDate", required);
+        if (text == null) {
+            return null;
+        }
+        int day = HarvestDates.parse(text);
+        if (day == HarvestDates.NO_DATE) {
+            throw new IllegalArgumentException("harvestDate '" + text + "' is not a valid YYYY-MM-DD date.");
+        }
+        return HarvestDates.format(day);
+    }
+
+
+    /**
+     * Reads a true/false field of a change ("yes" and "no" are accepted too).
+     *
+     * @param change The change.
+     * @param name The field name.
+     * @param required Whether the field must be present.
+     * @return The value (false if it is absent and not required).
+     */
+    private static boolean bool(JsonObject change, String name, boolean required) {
+        String text = text(change, name, required);
+        if (text == null) {
+            return false;
+        }
+        switch (text.toLowerCase()) {
+            case "true":
+            case "yes":
+                return true;
+            case "false":
+            case "no":
+                return false;
+            default:
+                throw new IllegalArgumentException(name + " '" + text + "' is not true or false.");
+        }
+    }
+
+
+    /**
+     * The options of a command, such as --sheet Sheet1 --in-stock. An option followed by a word that does not
+     * start with -- takes it as its value; otherwise it is a flag. Options may be repeated.
+     */
+    private static final class Options {
+        private final Map<String, List<String>> values = new LinkedHashMap<>(); // Option name (without --) to its values.
+
+        /**
+         * Parses the words after a command.
+         *
+         * @param words The words.
+         * @return The options.
+         * @throws UsageException If a word is not an option or an option value.
+         */
+        static Options parse(List<String> words) throws UsageException {
+            Options options = new Options();
+            for (int i = 0; i < words.size(); i++) {
+                String word = words.get(i);
+                if (!word.startsWith("--") || word.length() == 2) {
+                    throw new UsageException("Unexpected argument: " + word);
+                }
+                String value = "true";
+                if (i + 1 < words.size() && !words.get(i + 1).startsWith("--")) {
+                    value = words.get(++i);
+                }
+                options.values.computeIfAbsent(word.substring(2), name -> new ArrayList<>()).add(value);
+            }
+            return options;
+        }
+
+        /**
+         * Checks that only the given options were used.
+         *
+         * @param names The options the command understands.
+         * @throws UsageException If another option was used.
+         */
+        void allow(String... names) throws UsageException {
+            List<String> allowed = Arrays.asList(names);
+            for (String name : values.keySet()) {
+                if (!allowed.contains(name)) {
+                    throw new UsageException("Unknown option: --" + name);
+                }
+            }
+        }
+
+        boolean has(String name) {return values.containsKey(name);}
+
+        List<String> getAll(String name) {return values.getOrDefault(name, new ArrayList<>());}
+
+        /**
+         * Returns the last value of an option.
+         *
+         * @param name The option.
+         * @param defaultValue The value if the option was not given.
+         * @return The value.
+         */
+        String get(String name, String defaultValue) {
+            List<String> list = values.get(name);
+            return list == null ? defaultValue : list.get(list.size() - 1);
+        }
+
+        /**
+         * Returns the value of an option that must be given.
+         *
+         * @param name The option.
+         * @return The value.
+         * @throws UsageException If the option was not given, or given without a value.
+         */
+        String require(String name) throws UsageException {
+            String value = get(name, null);
+            if (value == null || value.equals("true") && !name.equals("file")) {
+                throw new UsageException("Missing --" + name + " value.");
+            }
+            return value;
+        }
+
+        /**
+         * Returns the value of a whole-number option of at least 1.
+         *
+         * @param name The option.
+         * @param defaultValue The value if the option was not given.
+         * @return The value.
+         * @throws UsageException If the value is not a positive whole number.
+         */
+        int getInt(String name, int defaultValue) throws UsageException {
+            String value = get(name, null);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                int number = Integer.parseInt(value);
+                if (number >= 1) {
+                    return number;
+                }
+            } catch (NumberFormatException ignored) {
+                // Reported below.
+            }
+            throw new UsageException("--" + name + " must be a whole number of at least 1.");
+        }
+
+        /**
+         * Returns the value of a date option.
+         *
+         * @param name The option.
+         * @return The date, or null if the option was not given.
+         * @throws UsageException If the value is not a valid date.
+         */
+        LocalDate getDate(String name) throws UsageException {
+            String value = get(name, null);
+            if (value == null) {
+                return null;
+            }
+            int day = HarvestDates.parse(value);
+            if (day == HarvestDates.NO_DATE) {
+                throw new UsageException("--" + name + " must be a date as YYYY-MM-DD.");
+            }
+            return HarvestDates.toLocalDate(day);
+        }
+    }
+}
@@ -1,11 +1,30 @@
 package org.example;
 
+import org.example.util.HarvestDates;
+import org.example.util.RowFingerprint;
+
+import java.time.LocalDate;
+import java.util.Objects;
+
 public class Crop extends Farm{
+    // Bits of getDirtyFields(), one per sheet column: bit i stands for column B + i.
+    public static final int FARM_NAME = 1; // Column B.
+    public static final int FARM_LOCATION = 1 << 1; // Column C.
+    public static final int CROP_ID = 1 << 2; // Column D (never set by a setter, since cropID is final).
+    public static final int CROP_NAME = 1 << 3; // Column E.
+    public static final int QUANTITY_AVAILABLE = 1 << 4; // Column F.
+    public static final int HARVEST_DATE = 1 << 5; // Column G.
+    public static final int IN_SEASON = 1 << 6; // Column H.
+    public static final int ALL_FIELDS = (1 << 7) - 1; // Every column from B to H.
+
     private final int cropID; // Final because cropID cannot be changed (used for searching in database).
     private String cropName; // The name of the crop.
     private int quantityAvailable; // How much of the crop is on-hand.
     private int cropChanges; // Whether the crop has changed states (compared to the database).
-    private String harvestDate; // When the crop was harvested.
+    private int dirtyFields; // Which columns were changed by a setter since the crop was loaded (see FARM_NAME etc.).
+    private int rowFingerprint; // Fingerprint of the sheet row as it was when the crop was read (see RowFingerprint).
+    private String harvestDate; // When the crop was harvested (YYYY-MM-DD when it is a valid date).
+    private int harvestEpochDay; // harvestDate parsed once, in days since 1970-01-01 (or HarvestDates.NO_DATE).
     private boolean inSeason; // Whether the crop is currently in season.
     private String sheetName; // What Google Sheet is this crop under (such as Sheet1, Sheet2, etc.).
     private String sheetID; // The ID of the Google Sheet that this crop is under (such as 0, 1, 500, etc.).
@@ -23,6 +42,7 @@ public class Crop extends Farm{
         this.cropName = "";
         this.quantityAvailable = 0;
         this.harvestDate = "";
+        this.harvestEpochDay = HarvestDates.NO_DATE;
         this.inSeason = false;
         this.cropChanges = 0; // Set to 0 as Main.java will change this later.
     }
@@ -37,7 +57,8 @@ public class Crop extends Farm{
      * @param cropID A unique identifier for this specific Crop.
      * @param cropName The name of the Crop.
      * @param quantityAvailable How many of the crop is currently on hand.
-     * @param harvestDate When the Crop was harvested (presented in a format valid for Google Sheets)
+     * @param harvestDate When the Crop was harvested. Dates in any form accepted by {@link HarvestDates} are
+     *                    stored as YYYY-MM-DD; anything else is kept as is.
      * @param inSeason A boolean that indicates whether the Crop is currently in season.
      * @param sheetName What Google Sheet the Crop is under.
      * @param sheetID The numeric identifier for the Google Sheet (Ex: 0 = Sheet1, 1 = Sheet2, etc.).
@@ -48,11 +69,28 @@ public class Crop extends Farm{
         this.cropID = cropID;
         this.cropName = cropName;
         this.quantityAvailable = quantityAvailable;
-        this.harvestDate = harvestDate;
+        this.harvestEpochDay = HarvestDates.parse(harvestDate);
+        this.harvestDate = harvestEpochDay == HarvestDates.NO_DATE ? harvestDate : HarvestDates.format(harvestEpochDay);
         this.inSeason = inSeason;
         this.sheetName = sheetName;
         this.sheetID = sheetID;
         this.cropChanges = 0; // Set to 0 as Main.java will change this later.
+        this.rowFingerprint = RowFingerprint.of(this); // The values a crop is built from are taken to be the row as read.
+    }
+
+    /**
+     * Copy Constructor.
+     * Creates a detached copy of another Crop, including its change flag. Useful for keeping a row of a
+     * {@link CropTable} after the table changes.
+     *
+     * @param other The Crop to copy.
+     * */
+    public Crop(Crop other) {
+        this(other.getFarmName(), other.getFarmLocation(), other.getCropID(), other.getCropName(), other.getQuantityAvailable(),
+                other.getHarvestDate(), other.isInSeason(), other.getSheetName(), other.getSheetID());
+        this.cropChanges = other.getCropChanges();
+        this.dirtyFields = other.getDirtyFields();
+        this.rowFingerprint = other.getRowFingerprint();
     }
 
     // Getters
@@ -107,19 +145,45 @@ public class Crop extends Farm{
      * 1 indicates that the crop has just been created, but not in the database.
      * 2 indicates that the crop has been modified from its database form (but not pushed).
      * 3 indicates that the crop has been deleted, but not changed in the database yet.
+     * 4 indicates a quantity adjustment: quantityAvailable holds the amount to add, not the quantity (see QuantityDeltas).
      *
      * @return cropChanges The current relation to the database.
      * */
     public int getCropChanges(){ return cropChanges;}
 
+    /**
+     * Returns which fields have been changed by a setter since the Crop was created or last pushed,
+     * as a bitmask of FARM_NAME, FARM_LOCATION, CROP_NAME, QUANTITY_AVAILABLE, HARVEST_DATE and IN_SEASON.
+     * Setting a field to the value it already has does not mark it.
+     * 0 means that no change is known, in which case a push writes the whole row.
+     *
+     * @return dirtyFields The changed fields.
+     * */
+    public int getDirtyFields(){ return dirtyFields;}
+
     /**
      * Returns the harvest date for the Crop.
-     * Will be in the format that best suits sheets.v4.*
+     * Will be in the format that best suits sheets.v4 (YYYY-MM-DD), unless the date could not be read.
      *
      * @return harvestDate When the Crop was harvested.
      * */
     public String getHarvestDate() {return harvestDate;}
 
+    /**
+     * Returns the harvest date as a number of days since 1970-01-01.
+     * Comparing these numbers is the cheapest way to sort or range-filter Crops by date.
+     *
+     * @return The epoch day, or HarvestDates.NO_DATE if the harvest date is not a valid date.
+     * */
+    public int getHarvestEpochDay() {return harvestEpochDay;}
+
+    /**
+     * Returns the harvest date as a LocalDate.
+     *
+     * @return The harvest date, or null if it is not a valid date.
+     * */
+    public LocalDate getHarvestLocalDate() {return HarvestDates.toLocalDate(getHarvestEpochDay());}
+
     /**
      * Returns whether the current Crop is in season.
      *
@@ -135,7 +199,12 @@ public class Crop extends Farm{
      *
      * @param cropName The new name of the Crop object.
      * */
-    public void setCropName(String cropName){this.cropName = cropName;}
+    public void setCropName(String cropName){
+        if (!Objects.equals(this.cropName, cropName)) {
+            dirtyFields |= CROP_NAME;
+        }
+        this.cropName = cropName;
+    }
 
     /**
      * Changes the current quantity of the Crop available on hand.
@@ -143,6 +212,9 @@ public class Crop extends Farm{
      * @param quantityAvailable The new quantity of the Crop on hand.
      * */
     public void setQuantityAvailable(int quantityAvailable) {
+        if (this.quantityAvailable != quantityAvailable) {
+            dirtyFields |= QUANTITY_AVAILABLE;
+        }
         this.quantityAvailable = quantityAvailable;
     }
 
@@ -152,6 +224,7 @@ public class Crop extends Farm{
      * 1 indicates that the crop has just been created, but not in the database.
      * 2 indicates that the crop has been modified from its database form (but not pushed).
      * 3 indicates that the crop has been deleted, but not changed in the database yet.
+     * 4 indicates a quantity adjustment: quantityAvailable holds the amount to add, not the quantity (see QuantityDeltas).
      *
      * @param cropChanges Sets the condition of the Crop object in relation to the database.
      * */
@@ -159,10 +232,19 @@ public class Crop extends Farm{
 
     /**
      * Changes the harvest date of the Crop.
+     * The date is parsed once here; valid dates are stored as YYYY-MM-DD.
      *
      * @param harvestDate Changes the harvest date of the Crop.
      * */
-    public void setHarvestDate(String harvestDate) {this.harvestDate = harvestDate;}
+    public void setHarvestDate(String harvestDate) {
+        int epochDay = HarvestDates.parse(harvestDate);
+        String canonical = epochDay == HarvestDates.NO_DATE ? harvestDate : HarvestDates.format(epochDay);
+        if (!Objects.equals(this.harvestDate, canonical)) {
+            dirtyFields |= HARVEST_DATE;
+        }
+        this.harvestEpochDay = epochDay;
+        this.harvestDate = canonical;
+    }
 
     /**
      * Changes whether the Crop is currently harvestable.
@@ -170,9 +252,68 @@ public class Crop extends Farm{
      * @param inSeason Sets the value of the Crop to harvestable or not.
      * */
     public void setInSeason(boolean inSeason) {
+        if (this.inSeason != inSeason) {
+            dirtyFields |= IN_SEASON;
+        }
         this.inSeason = inSeason;
     }
 
+    /**
+     * Changes the name of the farm the Crop is under, marking the field as changed.
+     *
+     * @param farmName The new farm name.
+     * */
+    @Override
+    public void setFarmName(String farmName) {
+        if (!Objects.equals(getFarmName(), farmName)) {
+            dirtyFields |= FARM_NAME;
+        }
+        super.setFarmName(farmName);
+    }
+
+    /**
+     * Changes the location of the farm the Crop is under, marking the field as changed.
+     *
+     * @param farmLocation The new farm location.
+     * */
+    @Override
+    public void setFarmLocation(String farmLocation) {
+        if (!Objects.equals(getFarmLocation(), farmLocation)) {
+            dirtyFields |= FARM_LOCATION;
+        }
+        super.setFarmLocation(farmLocation);
+    }
+
+    /**
+     * Returns the fingerprint of the crop's sheet row as it was when the crop was read. Edits made through the
+     * setters do not change it, so a push can compare it with the row's current fingerprint to detect that
+     * someone else changed the row in the meantime.
+     *
+     * @return The fingerprint, or RowFingerprint.UNKNOWN if the row was never read.
+     * */
+    public int getRowFingerprint() {return rowFingerprint;}
+
+    /**
+     * Sets the fingerprint of the crop's sheet row. Called once the crop has been written, so that the next
+     * push compares against what this crop wrote.
+     *
+     * @param rowFingerprint The fingerprint (see RowFingerprint), or RowFingerprint.UNKNOWN.
+     * */
+    public void setRowFingerprint(int rowFingerprint) {this.rowFingerprint = rowFingerprint;}
+
+    /**
+     * Marks fields as changed, in addition to those already marked.
+     * Used when a Crop is rebuilt from a stored copy, or when two staged changes are merged.
+     *
+     * @param fields A bitmask of FARM_NAME, FARM_LOCATION, CROP_NAME, etc.
+     * */
+    public void markDirty(int fields) {this.dirtyFields |= fields & ALL_FIELDS;}
+
+    /**
+     * Forgets which fields were changed. Called once the Crop matches the sheet again.
+     * */
+    public void clearDirtyFields() {this.dirtyFields = 0;}
+
     /**
      * Sets the Sheet Identifier for the Crop.
      *
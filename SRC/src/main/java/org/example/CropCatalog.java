@@ -0,0 +1,197 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Answers questions about the crops of a {@link CropTable} from memory, without contacting the Google Sheets API.
+ * <p>
+ * The catalog keeps secondary indexes over the table: the rows of each farm name and each farm location (as
+ * BitSets, matched without regard to case), and every dated row sorted by harvest date. The in-season column of
+ * the table is already a BitSet and is used as is. The indexes are built on the first query and rebuilt
+ * whenever the table has changed since, so a catalog can be kept alongside a table that is being edited.
+ * <p>
+ * Usage example:
+ * CropCatalog catalog = new CropCatalog(table);
+ * List&lt;Crop&gt; top = catalog.query().inSeason().farm("Green Acres").minQuantity(1).topByQuantity(5);
+ * <p>
+ * Queries read the table without locking it; do not change the table while a query is running.
+ */
+public class CropCatalog {
+    static final int PARALLEL_THRESHOLD = 50_000; // Row count above which scans and aggregations run in parallel.
+
+    private final CropTable table; // The crops being queried.
+    private int indexedVersion = -1; // The table version the indexes were built for.
+    private Map<String, BitSet> rowsByFarm; // Lower-case farm name to its rows.
+    private Map<String, BitSet> rowsByLocation; // Lower-case farm location to its rows.
+    private long[] harvestKeys; // Dated rows sorted by harvest date, as (epoch day << 32 | row).
+
+
+    /**
+     * Constructs a catalog over a table. No index is built until the first query.
+     *
+     * @param table The crops to query.
+     */
+    public CropCatalog(CropTable table) {
+        this.table = table;
+    }
+
+
+    /**
+     * Returns the table this catalog queries.
+     *
+     * @return The CropTable.
+     */
+    public CropTable getTable() {
+        return table;
+    }
+
+
+    /**
+     * Starts a new query that matches every row until filters are added.
+     *
+     * @return A new CropQuery over this catalog.
+     */
+    public CropQuery query() {
+        return new CropQuery(this);
+    }
+
+
+    /**
+     * Returns the rows whose farm name matches, ignoring case.
+     *
+     * @param farmName The farm name to look for.
+     * @return The matching rows (an empty set if there are none). The caller must not modify it.
+     */
+    synchronized BitSet farmRows(String farmName) {
+        ensureIndexes();
+        return rowsByFarm.getOrDefault(key(farmName), new BitSet());
+    }
+
+
+    /**
+     * Returns the rows whose farm location matches, ignoring case.
+     *
+     * @param farmLocation The farm location to look for.
+     * @return The matching rows (an empty set if there are none). The caller must not modify it.
+     */
+    synchronized BitSet locationRows(String farmLocation) {
+        ensureIndexes();
+        return rowsByLocation.getOrDefault(key(farmLocation), new BitSet());
+    }
+
+
+    /**
+     * Returns the rows harvested between two dates, using binary search over the sorted harvest index.
+     * Rows whose harvest date could not be parsed never match.
+     *
+     * @param fromDay The first epoch day to include.
+     * @param toDay The last epoch day to include.
+     * @return The matching rows.
+     */
+    synchronized BitSet harvestRows(int fromDay, int toDay) {
+        ensureIndexes();
+        BitSet rows = new BitSet(table.size());
+        if (fromDay > toDay) {
+            return rows;
+        }
+        int start = lowerBound(harvestKeys, (long) fromDay << 32);
+        for (int i = start; i < harvestKeys.length && (int) (harvestKeys[i] >> 32) <= toDay; i++) {
+            rows.set((int) harvestKeys[i]);
+        }
+        return rows;
+    }
+
+
+    /**
+     * Builds the indexes if the table has changed since they were last built.
+     */
+    private void ensureIndexes() {
+        if (indexedVersion == table.getVersion() && rowsByFarm != null) {
+            return;
+        }
+        int size = table.size();
+
+        // Farm names and locations are dictionary-encoded, so group rows by code first and name each code once.
+        Map<Integer, BitSet> farmsByCode = new HashMap<>();
+        Map<Integer, BitSet> locationsByCode = new HashMap<>();
+        long[] keys = new long[size];
+        int dated = 0;
+        for (int row = 0; row < size; row++) {
+            farmsByCode.computeIfAbsent(table.getFarmNameCode(row), code -> new BitSet()).set(row);
+            locationsByCode.computeIfAbsent(table.getFarmLocationCode(row), code -> new BitSet()).set(row);
+            int day = table.getHarvestEpochDay(row);
+            if (day != CropTable.NO_DATE) {
+                keys[dated++] = ((long) day << 32) | row;
+            }
+        }
+        rowsByFarm = byName(farmsByCode, true);
+        rowsByLocation = byName(locationsByCode, false);
+
+        harvestKeys = Arrays.copyOf(keys, dated);
+        if (dated > PARALLEL_THRESHOLD) {
+            Arrays.parallelSort(harvestKeys);
+        } else {
+            Arrays.sort(harvestKeys);
+        }
+        indexedVersion = table.getVersion();
+    }
+
+
+    /**
+     * Turns rows grouped by dictionary code into rows grouped by lower-case name, merging codes whose names
+     * differ only in case.
+     *
+     * @param rowsByCode The rows of each code.
+     * @param farmNames true to name the codes by farm name, false by farm location.
+     * @return The rows of each lower-case name.
+     */
+    private Map<String, BitSet> byName(Map<Integer, BitSet> rowsByCode, boolean farmNames) {
+        Map<String, BitSet> rowsByName = new HashMap<>();
+        for (BitSet rows : rowsByCode.values()) {
+            int first = rows.nextSetBit(0);
+            String name = farmNames ? table.getFarmName(first) : table.getFarmLocation(first);
+            BitSet existing = rowsByName.putIfAbsent(key(name), rows);
+            if (existing != null) {
+                existing.or(rows);
+            }
+        }
+        return rowsByName;
+    }
+
+
+    /**
+     * Normalizes a farm name or location for case-insensitive matching.
+     *
+     * @param value The name or location.
+     * @return The lookup key.
+     */
+    private static String key(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+
+    /**
+     * Finds the first position in a sorted array whose value is at least the given key.
+     *
+     * @param sorted The sorted array.
+     * @param key The key to look for.
+     * @return The position of the first value that is not less than the key (sorted.length if there is none).
+     */
+    private static int lowerBound(long[] sorted, long key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,324 @@
+package org.example;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * A query over the crops of a {@link CropCatalog}, built by chaining filters. All filters are combined with AND.
+ * <p>
+ * Filters on season, farm, location and harvest date are answered from the catalog's indexes by intersecting
+ * BitSets; the quantity filter scans the quantity column of the remaining rows only, and custom predicates are
+ * evaluated last, on views of the rows that are still left. When many rows remain, the scans and aggregations
+ * run as parallel streams.
+ * <p>
+ * Usage example:
+ * Map&lt;String, Long&gt; totals = catalog.query().inSeason().minQuantity(1).totalQuantityByFarm();
+ */
+public class CropQuery {
+    private final CropCatalog catalog; // Provides the indexes.
+    private final CropTable table; // The crops being queried.
+    private final BitSet candidates; // Rows matching the index filters so far.
+    private int minQuantity = Integer.MIN_VALUE; // Smallest quantity a row may have.
+    private Predicate<Crop> predicate; // Extra condition on each row, or null.
+
+
+    /**
+     * Constructs a query that matches every row of the catalog's table.
+     *
+     * @param catalog The catalog to query.
+     */
+    CropQuery(CropCatalog catalog) {
+        this.catalog = catalog;
+        this.table = catalog.getTable();
+        this.candidates = new BitSet(table.size());
+        this.candidates.set(0, table.size());
+    }
+
+
+    /**
+     * Keeps only crops that are in season.
+     *
+     * @return This query.
+     */
+    public CropQuery inSeason() {
+        candidates.and(table.getInSeasonRows());
+        return this;
+    }
+
+
+    /**
+     * Keeps only crops that are out of season.
+     *
+     * @return This query.
+     */
+    public CropQuery outOfSeason() {
+        candidates.andNot(table.getInSeasonRows());
+        return this;
+    }
+
+
+    /**
+     * Keeps only crops of the given farm. Names are matched without regard to case.
+     *
+     * @param farmName The farm name.
+     * @return This query.
+     */
+    public CropQuery farm(String farmName) {
+        candidates.and(catalog.farmRows(farmName));
+        return this;
+    }
+
+
+    /**
+     * Keeps only crops of farms at the given location. Locations are matched without regard to case.
+     *
+     * @param farmLocation The farm location.
+     * @return This query.
+     */
+    public CropQuery location(String farmLocation) {
+        candidates.and(catalog.locationRows(farmLocation));
+        return this;
+    }
+
+
+    /**
+     * Keeps only crops harvested between two dates, both included. Either bound may be null to leave that
+     * side open. Crops whose harvest date cannot be read as a date never match.
+     *
+     * @param from The earliest harvest date, or null.
+     * @param to The latest harvest date, or null.
+     * @return This query.
+     */
+    public CropQuery harvestedBetween(LocalDate from, LocalDate to) {
+        int fromDay = from == null ? Integer.MIN_VALUE + 1 : (int) from.toEpochDay();
+        int toDay = to == null ? Integer.MAX_VALUE : (int) to.toEpochDay();
+        candidates.and(catalog.harvestRows(fromDay, toDay));
+        return this;
+    }
+
+
+    /**
+     * Keeps only crops with at least the given quantity available. Use 1 for "in stock".
+     *
+     * @param quantity The smallest quantity to keep.
+     * @return This query.
+     */
+    public CropQuery minQuantity(int quantity) {
+        minQuantity = Math.max(minQuantity, quantity);
+        return this;
+    }
+
+
+    /**
+     * Keeps only crops matching a custom condition. Several conditions can be added; all must hold.
+     *
+     * @param condition The condition, given a view of each remaining row.
+     * @return This query.
+     */
+    public CropQuery where(Predicate<Crop> condition) {
+        predicate = predicate == null ? condition : predicate.and(condition);
+        return this;
+    }
+
+
+    /**
+     * Runs the query.
+     *
+     * @return The positions of the matching rows in the table, in ascending order.
+     */
+    public int[] rows() {
+        IntStream rows = candidates.stream();
+        if (candidates.cardinality() > CropCatalog.PARALLEL_THRESHOLD) {
+            rows = rows.parallel();
+        }
+        if (minQuantity != Integer.MIN_VALUE) {
+            rows = rows.filter(row -> table.getQuantityAvailable(row) >= minQuantity);
+        }
+        if (predicate != null) {
+            Predicate<Crop> condition = predicate;
+            rows = rows.filter(row -> condition.test(table.get(row)));
+        }
+        return rows.toArray(); // Parallel streams keep the encounter order, so the rows stay sorted.
+    }
+
+
+    /**
+     * Counts the matching crops.
+     *
+     * @return The number of matching rows.
+     */
+    public int count() {
+        return rows().length;
+    }
+
+
+    /**
+     * Copies the matching crops into a new table.
+     *
+     * @return A CropTable holding the matching crops, in table order.
+     */
+    public CropTable toTable() {
+        int[] rows = rows();
+        CropTable result = new CropTable(rows.length);
+        for (int row : rows) {
+            result.add(table.get(row));
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the matching crops with the largest quantities, using a bounded heap so that only k rows are
+     * ever kept in order.
+     *
+     * @param k The number of crops to return.
+     * @return Up to k detached copies of the matching crops, largest quantity first.
+     */
+    public List<Crop> topByQuantity(int k) {
+        int[] rows = rows();
+        int[] heap = new int[Math.max(0, Math.min(k, rows.length))]; // Min-heap of rows, keyed by quantity.
+        int heapSize = 0;
+        for (int row : rows) {
+            if (heapSize < heap.length) {
+                heap[heapSize++] = row;
+                siftUp(heap, heapSize - 1);
+            } else if (heap.length > 0 && table.getQuantityAvailable(row) > table.getQuantityAvailable(heap[0])) {
+                heap[0] = row;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        Crop[] top = new Crop[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            top[i] = new Crop(table.get(heap[0]));
+            heap[0] = heap[i];
+            siftDown(heap, i);
+        }
+        return new ArrayList<>(List.of(top));
+    }
+
+
+    /**
+     * Adds up the quantity of the matching crops.
+     *
+     * @return The total quantity available.
+     */
+    public long totalQuantity() {
+        int[] rows = rows();
+        IntStream stream = IntStream.of(rows);
+        if (rows.length > CropCatalog.PARALLEL_THRESHOLD) {
+            stream = stream.parallel();
+        }
+        return stream.mapToLong(table::getQuantityAvailable).sum();
+    }
+
+
+    /**
+     * Adds up the quantity of the matching crops for each farm. Sums are accumulated per farm name code in
+     * plain long arrays, one per worker thread when running in parallel, and then merged.
+     *
+     * @return A Map from farm name to total quantity, largest total first.
+     */
+    public Map<String, Long> totalQuantityByFarm() {
+        int[] rows = rows();
+        int codes = 0;
+        for (int row : rows) {
+            codes = Math.max(codes, table.getFarmNameCode(row) + 1);
+        }
+        int codeCount = codes;
+
+        IntStream stream = IntStream.of(rows);
+        if (rows.length > CropCatalog.PARALLEL_THRESHOLD) {
+            stream = stream.parallel();
+        }
+        long[] totals = stream.collect(() -> new long[codeCount],
+                (sums, row) -> sums[table.getFarmNameCode(row)] += table.getQuantityAvailable(row),
+                (left, right) -> {
+                    for (int i = 0; i < left.length; i++) {
+                        left[i] += right[i];
+                    }
+                });
+
+        // Name each code once, merging codes whose farm names are equal.
+        Map<String, Long> byFarm = new LinkedHashMap<>();
+        boolean[] named = new boolean[codeCount];
+        for (int row : rows) {
+            int code = table.getFarmNameCode(row);
+            if (!named[code]) {
+                named[code] = true;
+                byFarm.merge(table.getFarmName(row), totals[code], Long::sum);
+            }
+        }
+
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        byFarm.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEachOrdered(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+
+    /**
+     * Restores the heap order after a row was added at the given position.
+     *
+     * @param heap The heap of rows.
+     * @param i The position of the new row.
+     */
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (table.getQuantityAvailable(heap[parent]) <= table.getQuantityAvailable(heap[i])) {
+                return;
+            }
+            swap(heap, parent, i);
+            i = parent;
+        }
+    }
+
+
+    /**
+     * Restores the heap order after the root was replaced.
+     *
+     * @param heap The heap of rows.
+     * @param size The number of rows in the heap.
+     */
+    private void siftDown(int[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && table.getQuantityAvailable(heap[right]) < table.getQuantityAvailable(heap[left])) {
+                smallest = right;
+            }
+            if (table.getQuantityAvailable(heap[i]) <= table.getQuantityAvailable(heap[smallest])) {
+                return;
+            }
+            swap(heap, i, smallest);
+            i = smallest;
+        }
+    }
+
+
+    /**
+     * Swaps two positions of the heap.
+     *
+     * @param heap The heap of rows.
+     * @param a The first position.
+     * @param b The second position.
+     */
+    private static void swap(int[] heap, int a, int b) {
+        int tmp = heap[a];
+        heap[a] = heap[b];
+        heap[b] = tmp;
+    }
+}
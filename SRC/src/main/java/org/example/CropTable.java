@@ -0,0 +1,992 @@
+package org.example;
+
+import org.example.util.HarvestDates;
+import org.example.util.IntIntHashMap;
+import org.example.util.RowFingerprint;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * Stores the crops of one or more sheets column by column instead of as one object per row.
+ * <p>
+ * Crop IDs and quantities are kept in int arrays, the in-season flags in a BitSet, and harvest dates as
+ * days since 1970-01-01 (parsed once, by {@link HarvestDates}). Farm names, farm locations, crop names, sheet names and sheet IDs repeat across many
+ * rows, so each distinct value is stored once in a dictionary and rows only keep its int code. Harvest dates
+ * that cannot be read as a date are kept as text (also dictionary-encoded) so that nothing is lost.
+ * <p>
+ * The table is a {@code List<Crop>}, so existing code keeps working: {@link #get(int)} returns a lightweight
+ * view of a row whose getters read the columns and whose setters write back to them. A view refers to a row
+ * position, so it only stays valid until rows are removed or the table is cleared; use {@link Crop#Crop(Crop)}
+ * to keep a detached copy. Code that scans many rows should use the column accessors, such as
+ * {@link #getCropID(int)}, which never create objects.
+ * <p>
+ * The table keeps a hash index from crop ID to row position, so {@link #indexOfCropID(int)} and
+ * {@link #findByCropID(int)} take constant time instead of scanning the ID column. The index is updated by
+ * every method that adds, moves or removes rows. If several rows share a crop ID, the first one is indexed.
+ * <p>
+ * Tables are not thread-safe.
+ */
+public class CropTable extends AbstractList<Crop> implements RandomAccess {
+    /** Returned by {@link #getHarvestEpochDay(int)} when a row's harvest date is not a valid date. */
+    public static final int NO_DATE = HarvestDates.NO_DATE;
+    private static final int DEFAULT_CAPACITY = 16; // Initial number of rows when no size is given.
+    private static final int CANONICAL = -1; // Raw harvest date code of rows whose date is stored as an epoch day.
+
+    private final Dictionary farmNames = new Dictionary(); // Distinct farm names.
+    private final Dictionary farmLocations = new Dictionary(); // Distinct farm locations.
+    private final Dictionary cropNames = new Dictionary(); // Distinct crop names.
+    private final Dictionary sheetNames = new Dictionary(); // Distinct sheet names.
+    private final Dictionary sheetIDs = new Dictionary(); // Distinct sheet IDs.
+    private final Dictionary rawHarvestDates = new Dictionary(); // Harvest dates that could not be stored as epoch days.
+    private final BitSet inSeason = new BitSet(); // Whether each row's crop is in season.
+    private final IntIntHashMap rowsByCropID; // Crop ID to the first row holding it.
+    private int shadowedRows; // Rows whose crop ID is indexed at an earlier row.
+
+    private int[] cropIDs; // The crop ID of each row.
+    private int[] quantities; // The quantity available of each row.
+    private int[] harvestDays; // The harvest date of each row, in days since 1970-01-01 (or NO_DATE).
+    private int[] harvestRawCodes; // Raw harvest date code of each row, or CANONICAL; null until a row needs it.
+    private int[] farmNameCodes; // Code of each row's farm name.
+    private int[] farmLocationCodes; // Code of each row's farm location.
+    private int[] cropNameCodes; // Code of each row's crop name.
+    private int[] sheetNameCodes; // Code of each row's sheet name.
+    private int[] sheetIDCodes; // Code of each row's sheet ID.
+    private byte[] cropChanges; // Each row's relation to the database (see Crop.getCropChanges()).
+    private byte[] dirtyFields; // Each row's changed fields (see Crop.getDirtyFields()).
+    private int[] rowFingerprints; // Fingerprint of each row as it was read (see Crop.getRowFingerprint()).
+    private int size; // Number of rows in use.
+    private int version; // Incremented on every change, so that derived indexes know when to rebuild.
+
+
+    /**
+     * Constructs an empty table.
+     */
+    public CropTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Constructs an empty table with room for the given number of rows.
+     *
+     * @param capacity The number of rows to allocate up front.
+     */
+    public CropTable(int capacity) {
+        capacity = Math.max(1, capacity);
+        rowsByCropID = new IntIntHashMap(capacity);
+        cropIDs = new int[capacity];
+        quantities = new int[capacity];
+        harvestDays = new int[capacity];
+        farmNameCodes = new int[capacity];
+        farmLocationCodes = new int[capacity];
+        cropNameCodes = new int[capacity];
+        sheetNameCodes = new int[capacity];
+        sheetIDCodes = new int[capacity];
+        cropChanges = new byte[capacity];
+        dirtyFields = new byte[capacity];
+        rowFingerprints = new int[capacity];
+    }
+
+
+    /**
+     * Constructs a table holding copies of the given crops, in order.
+     *
+     * @param crops The crops to copy into the table.
+     */
+    public CropTable(Collection<? extends Crop> crops) {
+        this(crops.size());
+        for (Crop crop : crops) {
+            add(crop);
+        }
+    }
+
+
+    /**
+     * Returns the number of rows in the table.
+     *
+     * @return The row count.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Returns a view of a row. The view reads and writes the table's columns directly.
+     *
+     * @param row The row position.
+     * @return A Crop view of the row.
+     */
+    @Override
+    public Crop get(int row) {
+        checkRow(row);
+        return new RowView(row);
+    }
+
+
+    /**
+     * Appends a copy of a crop's values as a new row.
+     *
+     * @param crop The crop to append.
+     * @return Always true.
+     */
+    @Override
+    public boolean add(Crop crop) {
+        int row = append(crop.getFarmName(), crop.getFarmLocation(), crop.getCropID(), crop.getCropName(),
+                crop.getQuantityAvailable(), crop.getHarvestDate(), crop.isInSeason(), crop.getSheetName(), crop.getSheetID());
+        cropChanges[row] = (byte) crop.getCropChanges();
+        dirtyFields[row] = (byte) crop.getDirtyFields();
+        rowFingerprints[row] = crop.getRowFingerprint();
+        return true;
+    }
+
+
+    /**
+     * Appends a row from its individual values, without creating a Crop.
+     *
+     * @param farmName What farm the crop is under.
+     * @param farmLocation Where said farm is located.
+     * @param cropID The crop's unique identifier.
+     * @param cropName The name of the crop.
+     * @param quantityAvailable How many of the crop is on hand.
+     * @param harvestDate When the crop was harvested.
+     * @param inSeason Whether the crop is in season.
+     * @param sheetName What sheet the crop is under.
+     * @param sheetID The ID of that sheet.
+     * @return The position of the new row.
+     */
+    public int append(String farmName, String farmLocation, int cropID, String cropName, int quantityAvailable,
+                      String harvestDate, boolean inSeason, String sheetName, String sheetID) {
+        ensureCapacity(size + 1);
+        int row = size++;
+        cropIDs[row] = cropID;
+        quantities[row] = quantityAvailable;
+        farmNameCodes[row] = farmNames.encode(farmName);
+        farmLocationCodes[row] = farmLocations.encode(farmLocation);
+        cropNameCodes[row] = cropNames.encode(cropName);
+        sheetNameCodes[row] = sheetNames.encode(sheetName);
+        sheetIDCodes[row] = sheetIDs.encode(sheetID);
+        cropChanges[row] = 0;
+        this.inSeason.set(row, inSeason);
+        setHarvestDate(row, harvestDate);
+        dirtyFields[row] = 0; // A new row starts out clean.
+        rowFingerprints[row] = RowFingerprint.of(farmName, farmLocation, cropID, cropName, quantityAvailable, harvestDate, inSeason);
+        if (rowsByCropID.containsKey(cropID)) {
+            shadowedRows++;
+        } else {
+            rowsByCropID.put(cropID, row);
+        }
+        modCount++;
+        version++;
+        return row;
+    }
+
+
+    /**
+     * Overwrites a row with a copy of a crop's values. Fields whose value changes are marked as changed,
+     * in addition to the fields the crop itself has marked.
+     *
+     * @param row The row position.
+     * @param crop The crop whose values to store.
+     * @return A detached copy of the row's previous values.
+     */
+    @Override
+    public Crop set(int row, Crop crop) {
+        Crop previous = new Crop(get(row));
+        setFarmName(row, crop.getFarmName());
+        setFarmLocation(row, crop.getFarmLocation());
+        if (cropIDs[row] != crop.getCropID()) {
+            changeCropID(row, crop.getCropID());
+            version++;
+        }
+        setCropName(row, crop.getCropName());
+        setQuantityAvailable(row, crop.getQuantityAvailable());
+        setHarvestDate(row, crop.getHarvestDate());
+        setInSeason(row, crop.isInSeason());
+        setSheetName(row, crop.getSheetName());
+        setSheetID(row, crop.getSheetID());
+        setCropChanges(row, crop.getCropChanges());
+        dirtyFields[row] |= (byte) crop.getDirtyFields();
+        return previous;
+    }
+
+
+    /**
+     * Replaces the row holding the crop's ID with a copy of the crop's values, or appends the crop if no row
+     * holds its ID yet.
+     *
+     * @param crop The crop to store.
+     * @return The position of the crop's row.
+     */
+    public int upsert(Crop crop) {
+        int row = indexOfCropID(crop.getCropID());
+        if (row == -1) {
+            add(crop);
+            return size - 1;
+        }
+        set(row, crop);
+        return row;
+    }
+
+
+    /**
+     * Removes the row holding a crop ID.
+     *
+     * @param cropID The crop ID to remove.
+     * @return true if a row was removed.
+     */
+    public boolean removeCropID(int cropID) {
+        int row = indexOfCropID(cropID);
+        if (row == -1) {
+            return false;
+        }
+        removeRange(row, row + 1);
+        return true;
+    }
+
+
+    /**
+     * Removes a row, shifting the rows after it up by one.
+     *
+     * @param row The row position.
+     * @return A detached copy of the removed row.
+     */
+    @Override
+    public Crop remove(int row) {
+        Crop removed = new Crop(get(row));
+        removeRange(row, row + 1);
+        return removed;
+    }
+
+
+    /**
+     * Removes every row matching the filter in a single pass over the columns.
+     *
+     * @param filter Returns true for the rows to remove. It is given a view of each row.
+     * @return true if any rows were removed.
+     */
+    @Override
+    public boolean removeIf(Predicate<? super Crop> filter) {
+        boolean reindex = shadowedRows > 0; // A removed row may have been indexed ahead of a duplicate that stays.
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if (filter.test(new RowView(row))) {
+                if (!reindex) {
+                    rowsByCropID.remove(cropIDs[row], -1);
+                }
+            } else {
+                if (kept != row) {
+                    moveRow(row, kept);
+                    if (!reindex) {
+                        rowsByCropID.put(cropIDs[kept], kept);
+                    }
+                }
+                kept++;
+            }
+        }
+        boolean removed = kept != size;
+        if (removed) {
+            truncate(kept);
+            if (reindex) {
+                rebuildIndex();
+            }
+        }
+        return removed;
+    }
+
+
+    /**
+     * Removes the rows from fromIndex (inclusive) to toIndex (exclusive).
+     *
+     * @param fromIndex The first row to remove.
+     * @param toIndex The row after the last row to remove.
+     */
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        boolean reindex = shadowedRows > 0; // A removed row may have been indexed ahead of a duplicate that stays.
+        if (!reindex) {
+            for (int row = fromIndex; row < toIndex; row++) {
+                rowsByCropID.remove(cropIDs[row], -1);
+            }
+        }
+        int moved = size - toIndex;
+        System.arraycopy(cropIDs, toIndex, cropIDs, fromIndex, moved);
+        System.arraycopy(quantities, toIndex, quantities, fromIndex, moved);
+        System.arraycopy(harvestDays, toIndex, harvestDays, fromIndex, moved);
+        if (harvestRawCodes != null) {
+            System.arraycopy(harvestRawCodes, toIndex, harvestRawCodes, fromIndex, moved);
+        }
+        System.arraycopy(farmNameCodes, toIndex, farmNameCodes, fromIndex, moved);
+        System.arraycopy(farmLocationCodes, toIndex, farmLocationCodes, fromIndex, moved);
+        System.arraycopy(cropNameCodes, toIndex, cropNameCodes, fromIndex, moved);
+        System.arraycopy(sheetNameCodes, toIndex, sheetNameCodes, fromIndex, moved);
+        System.arraycopy(sheetIDCodes, toIndex, sheetIDCodes, fromIndex, moved);
+        System.arraycopy(cropChanges, toIndex, cropChanges, fromIndex, moved);
+        System.arraycopy(dirtyFields, toIndex, dirtyFields, fromIndex, moved);
+        System.arraycopy(rowFingerprints, toIndex, rowFingerprints, fromIndex, moved);
+        for (int i = 0; i < moved; i++) {
+            inSeason.set(fromIndex + i, inSeason.get(toIndex + i));
+        }
+        truncate(size - (toIndex - fromIndex));
+        if (reindex) {
+            rebuildIndex();
+        } else {
+            for (int row = fromIndex; row < fromIndex + moved; row++) {
+                rowsByCropID.put(cropIDs[row], row); // Moved up by toIndex - fromIndex.
+            }
+        }
+    }
+
+
+    /**
+     * Removes every row. The dictionaries are kept, since the next rows usually reuse the same values.
+     */
+    @Override
+    public void clear() {
+        truncate(0);
+        rowsByCropID.clear();
+        shadowedRows = 0;
+    }
+
+
+    /**
+     * Returns the position of the first row with the given crop ID.
+     *
+     * @param cropID The crop ID to look for.
+     * @return The row position, or -1 if no row has the ID.
+     */
+    public int indexOfCropID(int cropID) {
+        return rowsByCropID.getOrDefault(cropID, -1);
+    }
+
+
+    /**
+     * Returns whether any row holds the given crop ID.
+     *
+     * @param cropID The crop ID to look for.
+     * @return true if a row has the ID.
+     */
+    public boolean containsCropID(int cropID) {
+        return rowsByCropID.containsKey(cropID);
+    }
+
+
+    /**
+     * Returns a view of the first row with the given crop ID.
+     *
+     * @param cropID The crop ID to look for.
+     * @return A Crop view of the row, or null if no row has the ID.
+     */
+    public Crop findByCropID(int cropID) {
+        int row = indexOfCropID(cropID);
+        return row == -1 ? null : new RowView(row);
+    }
+
+
+    /**
+     * Returns whether a row holds the same values as a crop in the seven columns written to the sheet.
+     *
+     * @param row The row position.
+     * @param crop The crop to compare with.
+     * @return true if the row would be written exactly like the crop.
+     */
+    public boolean holdsValues(int row, Crop crop) {
+        checkRow(row);
+        int harvestDay = HarvestDates.parse(crop.getHarvestDate());
+        return cropIDs[row] == crop.getCropID()
+                && quantities[row] == crop.getQuantityAvailable()
+                && inSeason.get(row) == crop.isInSeason()
+                && harvestDays[row] == harvestDay
+                && (harvestDay != NO_DATE || Objects.equals(getHarvestDate(row), crop.getHarvestDate()))
+                && Objects.equals(getCropName(row), crop.getCropName())
+                && Objects.equals(getFarmName(row), crop.getFarmName())
+                && Objects.equals(getFarmLocation(row), crop.getFarmLocation());
+    }
+
+
+    /**
+     * Records that a crop was written to the sheet. If the row holding its ID still holds exactly the written
+     * values, the row is marked unchanged and its fingerprint set to the written row. A row that was edited
+     * again after the crop was copied from it is left alone, since that newer change has yet to be pushed.
+     *
+     * @param written The crop that was written.
+     * @return true if the row was marked as written.
+     */
+    public boolean markWritten(Crop written) {
+        int row = indexOfCropID(written.getCropID());
+        if (row == -1 || !holdsValues(row, written)) {
+            return false;
+        }
+        cropChanges[row] = 0;
+        dirtyFields[row] = 0;
+        rowFingerprints[row] = RowFingerprint.of(written);
+        version++;
+        return true;
+    }
+
+
+    // Column accessors
+
+    /**
+     * Returns the crop ID of a row.
+     *
+     * @param row The row position.
+     * @return The crop ID.
+     */
+    public int getCropID(int row) {checkRow(row); return cropIDs[row];}
+
+    /**
+     * Returns the quantity available of a row.
+     *
+     * @param row The row position.
+     * @return The quantity available.
+     */
+    public int getQuantityAvailable(int row) {checkRow(row); return quantities[row];}
+
+    /**
+     * Returns whether a row's crop is in season.
+     *
+     * @param row The row position.
+     * @return true if the crop is in season.
+     */
+    public boolean isInSeason(int row) {checkRow(row); return inSeason.get(row);}
+
+    /**
+     * Returns the harvest date of a row as a number of days since 1970-01-01.
+     *
+     * @param row The row position.
+     * @return The epoch day, or {@link #NO_DATE} if the harvest date is not a valid date.
+     */
+    public int getHarvestEpochDay(int row) {checkRow(row); return harvestDays[row];}
+
+    /**
+     * Returns the harvest date of a row as text: YYYY-MM-DD for valid dates, or exactly as it was stored otherwise.
+     *
+     * @param row The row position.
+     * @return The harvest date.
+     */
+    public String getHarvestDate(int row) {
+        checkRow(row);
+        if (harvestRawCodes != null && harvestRawCodes[row] != CANONICAL) {
+            return rawHarvestDates.decode(harvestRawCodes[row]);
+        }
+        return HarvestDates.format(harvestDays[row]);
+    }
+
+    /**
+     * Returns the farm name of a row.
+     *
+     * @param row The row position.
+     * @return The farm name.
+     */
+    public String getFarmName(int row) {checkRow(row); return farmNames.decode(farmNameCodes[row]);}
+
+    /**
+     * Returns the farm location of a row.
+     *
+     * @param row The row position.
+     * @return The farm location.
+     */
+    public String getFarmLocation(int row) {checkRow(row); return farmLocations.decode(farmLocationCodes[row]);}
+
+    /**
+     * Returns the crop name of a row.
+     *
+     * @param row The row position.
+     * @return The crop name.
+     */
+    public String getCropName(int row) {checkRow(row); return cropNames.decode(cropNameCodes[row]);}
+
+    /**
+     * Returns the sheet name of a row.
+     *
+     * @param row The row position.
+     * @return The sheet name.
+     */
+    public String getSheetName(int row) {checkRow(row); return sheetNames.decode(sheetNameCodes[row]);}
+
+    /**
+     * Returns the sheet ID of a row.
+     *
+     * @param row The row position.
+     * @return The sheet ID.
+     */
+    public String getSheetID(int row) {checkRow(row); return sheetIDs.decode(sheetIDCodes[row]);}
+
+    /**
+     * Returns a row's relation to the database (see {@link Crop#getCropChanges()}).
+     *
+     * @param row The row position.
+     * @return The change flag.
+     */
+    public int getCropChanges(int row) {checkRow(row); return cropChanges[row];}
+
+    /**
+     * Returns which fields of a row have been changed (see {@link Crop#getDirtyFields()}).
+     *
+     * @param row The row position.
+     * @return The bitmask of changed fields.
+     */
+    public int getDirtyFields(int row) {checkRow(row); return dirtyFields[row];}
+
+
+    /**
+     * Returns the fingerprint of a row as it was read from the sheet (see {@link Crop#getRowFingerprint()}).
+     *
+     * @param row The row position.
+     * @return The fingerprint, or RowFingerprint.UNKNOWN.
+     */
+    public int getRowFingerprint(int row) {checkRow(row); return rowFingerprints[row];}
+
+    /**
+     * Returns a number that changes whenever any row of the table is added, removed or modified.
+     * Indexes built over the table compare it to decide whether they have to be rebuilt.
+     *
+     * @return The table's current version.
+     */
+    public int getVersion() {return version;}
+
+    /**
+     * Returns the dictionary code of a row's farm name. Rows with equal farm names have equal codes.
+     *
+     * @param row The row position.
+     * @return The farm name code.
+     */
+    public int getFarmNameCode(int row) {checkRow(row); return farmNameCodes[row];}
+
+    /**
+     * Returns the dictionary code of a row's farm location. Rows with equal locations have equal codes.
+     *
+     * @param row The row position.
+     * @return The farm location code.
+     */
+    public int getFarmLocationCode(int row) {checkRow(row); return farmLocationCodes[row];}
+
+    /**
+     * Returns the longest length, in characters, of any value in the crop name column.
+     * Only distinct values are measured, which makes this much cheaper than scanning every row.
+     *
+     * @return The longest crop name length, or 0 if the table is empty.
+     */
+    public int getMaxCropNameLength() {return size == 0 ? 0 : cropNames.maxLength();}
+
+    /**
+     * Returns the longest length, in characters, of any value in the sheet name column.
+     *
+     * @return The longest sheet name length, or 0 if the table is empty.
+     */
+    public int getMaxSheetNameLength() {return size == 0 ? 0 : sheetNames.maxLength();}
+
+    /**
+     * Returns a copy of the in-season column.
+     *
+     * @return A BitSet with a set bit for every row whose crop is in season.
+     */
+    public BitSet getInSeasonRows() {return (BitSet) inSeason.clone();}
+
+    /**
+     * Changes the farm name of a row.
+     *
+     * @param row The row position.
+     * @param farmName The new farm name.
+     */
+    public void setFarmName(int row, String farmName) {checkRow(row); farmNameCodes[row] = markIfChanged(row, farmNameCodes[row], farmNames.encode(farmName), Crop.FARM_NAME); version++;}
+
+    /**
+     * Changes the farm location of a row.
+     *
+     * @param row The row position.
+     * @param farmLocation The new farm location.
+     */
+    public void setFarmLocation(int row, String farmLocation) {checkRow(row); farmLocationCodes[row] = markIfChanged(row, farmLocationCodes[row], farmLocations.encode(farmLocation), Crop.FARM_LOCATION); version++;}
+
+    /**
+     * Changes the crop name of a row.
+     *
+     * @param row The row position.
+     * @param cropName The new crop name.
+     */
+    public void setCropName(int row, String cropName) {checkRow(row); cropNameCodes[row] = markIfChanged(row, cropNameCodes[row], cropNames.encode(cropName), Crop.CROP_NAME); version++;}
+
+    /**
+     * Changes the quantity available of a row.
+     *
+     * @param row The row position.
+     * @param quantityAvailable The new quantity.
+     */
+    public void setQuantityAvailable(int row, int quantityAvailable) {checkRow(row); quantities[row] = markIfChanged(row, quantities[row], quantityAvailable, Crop.QUANTITY_AVAILABLE); version++;}
+
+    /**
+     * Changes whether a row's crop is in season.
+     *
+     * @param row The row position.
+     * @param inSeason Whether the crop is in season.
+     */
+    public void setInSeason(int row, boolean inSeason) {
+        checkRow(row);
+        if (this.inSeason.get(row) != inSeason) {
+            dirtyFields[row] |= Crop.IN_SEASON;
+        }
+        this.inSeason.set(row, inSeason);
+        version++;
+    }
+
+    /**
+     * Changes the sheet name of a row.
+     *
+     * @param row The row position.
+     * @param sheetName The new sheet name.
+     */
+    public void setSheetName(int row, String sheetName) {checkRow(row); sheetNameCodes[row] = sheetNames.encode(sheetName); version++;}
+
+    /**
+     * Changes the sheet ID of a row.
+     *
+     * @param row The row position.
+     * @param sheetID The new sheet ID.
+     */
+    public void setSheetID(int row, String sheetID) {checkRow(row); sheetIDCodes[row] = sheetIDs.encode(sheetID); version++;}
+
+    /**
+     * Changes a row's relation to the database (see {@link Crop#setCropChanges(int)}).
+     *
+     * @param row The row position.
+     * @param changes The new change flag.
+     */
+    public void setCropChanges(int row, int changes) {checkRow(row); cropChanges[row] = (byte) changes; version++;}
+
+    /**
+     * Replaces the changed fields of a row (see {@link Crop#getDirtyFields()}). Use 0 once the row matches the sheet.
+     *
+     * @param row The row position.
+     * @param fields The bitmask of changed fields.
+     */
+    public void setDirtyFields(int row, int fields) {checkRow(row); dirtyFields[row] = (byte) (fields & Crop.ALL_FIELDS); version++;}
+
+
+    /**
+     * Replaces the fingerprint of a row, once the row has been written to the sheet.
+     *
+     * @param row The row position.
+     * @param fingerprint The fingerprint of the row as it now is in the sheet.
+     */
+    public void setRowFingerprint(int row, int fingerprint) {checkRow(row); rowFingerprints[row] = fingerprint;}
+
+
+    /**
+     * Changes the harvest date of a row. Dates in any form accepted by {@link HarvestDates#parse(CharSequence)}
+     * are stored as epoch days (and read back as YYYY-MM-DD); anything else is stored as text.
+     *
+     * @param row The row position.
+     * @param harvestDate The new harvest date.
+     */
+    public void setHarvestDate(int row, String harvestDate) {
+        checkRow(row);
+        int day = HarvestDates.parse(harvestDate);
+        int oldRawCode = harvestRawCodes == null ? CANONICAL : harvestRawCodes[row];
+        markIfChanged(row, harvestDays[row], day, Crop.HARVEST_DATE);
+        harvestDays[row] = day;
+        version++;
+        if (day != NO_DATE) {
+            if (harvestRawCodes != null) {
+                harvestRawCodes[row] = CANONICAL;
+            }
+            return;
+        }
+        if (harvestRawCodes == null) {
+            harvestRawCodes = new int[cropIDs.length];
+            Arrays.fill(harvestRawCodes, CANONICAL);
+        }
+        harvestRawCodes[row] = markIfChanged(row, oldRawCode, rawHarvestDates.encode(harvestDate), Crop.HARVEST_DATE);
+    }
+
+
+    /**
+     * Marks a field of a row as changed if its new value differs from the old one.
+     * Dictionary-encoded fields compare their codes, since equal strings always share a code.
+     *
+     * @param row The row position.
+     * @param oldValue The value (or code) stored in the row.
+     * @param newValue The value (or code) about to be stored.
+     * @param field The field's bit (see {@link Crop#getDirtyFields()}).
+     * @return The new value, so that the caller can store it.
+     */
+    private int markIfChanged(int row, int oldValue, int newValue, int field) {
+        if (oldValue != newValue) {
+            dirtyFields[row] |= (byte) field;
+        }
+        return newValue;
+    }
+
+
+    /**
+     * Copies a row's values to another position. Used when compacting the table.
+     *
+     * @param from The row to copy.
+     * @param to The row to overwrite.
+     */
+    private void moveRow(int from, int to) {
+        cropIDs[to] = cropIDs[from];
+        quantities[to] = quantities[from];
+        harvestDays[to] = harvestDays[from];
+        if (harvestRawCodes != null) {
+            harvestRawCodes[to] = harvestRawCodes[from];
+        }
+        farmNameCodes[to] = farmNameCodes[from];
+        farmLocationCodes[to] = farmLocationCodes[from];
+        cropNameCodes[to] = cropNameCodes[from];
+        sheetNameCodes[to] = sheetNameCodes[from];
+        sheetIDCodes[to] = sheetIDCodes[from];
+        cropChanges[to] = cropChanges[from];
+        dirtyFields[to] = dirtyFields[from];
+        rowFingerprints[to] = rowFingerprints[from];
+        inSeason.set(to, inSeason.get(from));
+    }
+
+
+    /**
+     * Gives a row a new crop ID and moves its entry in the crop ID index.
+     *
+     * @param row The row position.
+     * @param cropID The row's new crop ID.
+     */
+    private void changeCropID(int row, int cropID) {
+        int oldID = cropIDs[row];
+        cropIDs[row] = cropID;
+        if (shadowedRows > 0) {
+            rebuildIndex(); // Another row may have to take over the old ID.
+            return;
+        }
+        rowsByCropID.remove(oldID, -1);
+        int first = rowsByCropID.getOrDefault(cropID, -1);
+        if (first == -1) {
+            rowsByCropID.put(cropID, row);
+        } else {
+            shadowedRows++;
+            if (row < first) {
+                rowsByCropID.put(cropID, row);
+            }
+        }
+    }
+
+
+    /**
+     * Rebuilds the crop ID index from the ID column. Only needed when the table holds duplicate crop IDs, since
+     * the row that takes over an ID is then not known without a scan.
+     */
+    private void rebuildIndex() {
+        rowsByCropID.clear();
+        shadowedRows = 0;
+        for (int row = 0; row < size; row++) {
+            if (rowsByCropID.containsKey(cropIDs[row])) {
+                shadowedRows++;
+            } else {
+                rowsByCropID.put(cropIDs[row], row);
+            }
+        }
+    }
+
+
+    /**
+     * Drops every row from the given position onwards.
+     *
+     * @param newSize The number of rows to keep.
+     */
+    private void truncate(int newSize) {
+        inSeason.clear(newSize, Math.max(newSize, size));
+        size = newSize;
+        modCount++;
+        version++;
+    }
+
+
+    /**
+     * Grows the columns so that they can hold at least the given number of rows.
+     *
+     * @param capacity The number of rows needed.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= cropIDs.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, cropIDs.length + (cropIDs.length >> 1));
+        cropIDs = Arrays.copyOf(cropIDs, newCapacity);
+        quantities = Arrays.copyOf(quantities, newCapacity);
+        harvestDays = Arrays.copyOf(harvestDays, newCapacity);
+        if (harvestRawCodes != null) {
+            int oldCapacity = harvestRawCodes.length;
+            harvestRawCodes = Arrays.copyOf(harvestRawCodes, newCapacity);
+            Arrays.fill(harvestRawCodes, oldCapacity, newCapacity, CANONICAL);
+        }
+        farmNameCodes = Arrays.copyOf(farmNameCodes, newCapacity);
+        farmLocationCodes = Arrays.copyOf(farmLocationCodes, newCapacity);
+        cropNameCodes = Arrays.copyOf(cropNameCodes, newCapacity);
+        sheetNameCodes = Arrays.copyOf(sheetNameCodes, newCapacity);
+        sheetIDCodes = Arrays.copyOf(sheetIDCodes, newCapacity);
+        cropChanges = Arrays.copyOf(cropChanges, newCapacity);
+        dirtyFields = Arrays.copyOf(dirtyFields, newCapacity);
+        rowFingerprints = Arrays.copyOf(rowFingerprints, newCapacity);
+    }
+
+
+    /**
+     * Throws if a row position is outside the table.
+     *
+     * @param row The row position.
+     */
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " is outside a table of " + size + " rows.");
+        }
+    }
+
+
+    /**
+     * Maps each distinct string of a column to a small int code and back.
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>(); // String to its code.
+        private final List<String> values = new ArrayList<>(); // Code to its string.
+        private int maxLength; // Length of the longest string seen.
+
+        /**
+         * Returns the code of a string, adding it to the dictionary if it is new. Null is stored as "".
+         *
+         * @param value The string to encode.
+         * @return The string's code.
+         */
+        int encode(String value) {
+            String key = value == null ? "" : value;
+            Integer code = codes.get(key);
+            if (code == null) {
+                code = values.size();
+                codes.put(key, code);
+                values.add(key);
+                maxLength = Math.max(maxLength, key.length());
+            }
+            return code;
+        }
+
+        /**
+         * Returns the string of a code.
+         *
+         * @param code The code to decode.
+         * @return The string.
+         */
+        String decode(int code) {
+            return values.get(code);
+        }
+
+        /**
+         * Returns the length of the longest string in the dictionary.
+         *
+         * @return The longest length.
+         */
+        int maxLength() {
+            return maxLength;
+        }
+    }
+
+
+    /**
+     * A Crop whose values live in the table's columns. Reads and writes go straight to the row it points at.
+     */
+    private class RowView extends Crop {
+        private final int row; // The row this view points at.
+
+        /**
+         * Constructs a view of a row.
+         *
+         * @param row The row position.
+         */
+        RowView(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public String getFarmName() {return CropTable.this.getFarmName(row);}
+
+        @Override
+        public String getFarmLocation() {return CropTable.this.getFarmLocation(row);}
+
+        @Override
+        public int getCropID() {return CropTable.this.getCropID(row);}
+
+        @Override
+        public String getSheetName() {return CropTable.this.getSheetName(row);}
+
+        @Override
+        public String getSheetID() {return CropTable.this.getSheetID(row);}
+
+        @Override
+        public String getCropName() {return CropTable.this.getCropName(row);}
+
+        @Override
+        public int getQuantityAvailable() {return CropTable.this.getQuantityAvailable(row);}
+
+        @Override
+        public int getCropChanges() {return CropTable.this.getCropChanges(row);}
+
+        @Override
+        public int getDirtyFields() {return CropTable.this.getDirtyFields(row);}
+
+        @Override
+        public int getRowFingerprint() {return CropTable.this.getRowFingerprint(row);}
+
+        @Override
+        public void setRowFingerprint(int rowFingerprint) {CropTable.this.setRowFingerprint(row, rowFingerprint);}
+
+        @Override
+        public String getHarvestDate() {return CropTable.this.getHarvestDate(row);}
+
+        @Override
+        public int getHarvestEpochDay() {return CropTable.this.getHarvestEpochDay(row);}
+
+        @Override
+        public boolean isInSeason() {return CropTable.this.isInSeason(row);}
+
+        @Override
+        public void setFarmName(String farmName) {CropTable.this.setFarmName(row, farmName);}
+
+        @Override
+        public void setFarmLocation(String farmLocation) {CropTable.this.setFarmLocation(row, farmLocation);}
+
+        @Override
+        public void setCropName(String cropName) {CropTable.this.setCropName(row, cropName);}
+
+        @Override
+        public void setQuantityAvailable(int quantityAvailable) {CropTable.this.setQuantityAvailable(row, quantityAvailable);}
+
+        @Override
+        public void setCropChanges(int cropChanges) {CropTable.this.setCropChanges(row, cropChanges);}
+
+        @Override
+        public void markDirty(int fields) {CropTable.this.setDirtyFields(row, CropTable.this.getDirtyFields(row) | fields);}
+
+        @Override
+        public void clearDirtyFields() {CropTable.this.setDirtyFields(row, 0);}
+
+        @Override
+        public void setHarvestDate(String harvestDate) {CropTable.this.setHarvestDate(row, harvestDate);}
+
+        @Override
+        public void setInSeason(boolean inSeason) {CropTable.this.setInSeason(row, inSeason);}
+
+        @Override
+        public void setSheetID(String sheetID) {CropTable.this.setSheetID(row, sheetID);}
+
+        @Override
+        public void setSheetName(String sheetName) {CropTable.this.setSheetName(row, sheetName);}
+    }
+}
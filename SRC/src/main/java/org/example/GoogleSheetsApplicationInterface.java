@@ -1,6 +1,10 @@
 package org.example;
 
+import org.example.util.IntIntHashMap;
+
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface GoogleSheetsApplicationInterface {
 
@@ -26,6 +30,21 @@ public interface GoogleSheetsApplicationInterface {
      */
     List<Crop> getItemsInSheet(String sheetName) throws Exception;
 
+    /**
+     * Retrieves the Crop objects of several sheets in a single request.
+     * @param sheetNames The names of the sheets to retrieve items from.
+     * @return A Map from each sheet name to the Crop objects in that sheet, with each Crop's sheetName and sheetID filled in.
+     * @throws Exception if an error occurs during the operation.
+     */
+    Map<String, List<Crop>> getItemsInSheets(Collection<String> sheetNames) throws Exception;
+
+    /**
+     * Retrieves the Crop objects of every sheet in the spreadsheet in a single request.
+     * @return A Map from each sheet name to the Crop objects in that sheet, in spreadsheet order.
+     * @throws Exception if an error occurs during the operation.
+     */
+    Map<String, List<Crop>> getAllItems() throws Exception;
+
     /**
      * Adds a new Crop object as a row to the end of the specified sheet.
      * @param crop The Crop object to be added as a new row.
@@ -33,6 +52,25 @@ public interface GoogleSheetsApplicationInterface {
      */
     void addDataRow(Crop crop) throws Exception;
 
+    /**
+     * Adds Crop objects as new rows after the last row of data in a sheet, with a single write however many
+     * crops there are. Unlike addDataRow, rows left empty by deletes are not reused, and no crop ID is checked
+     * for duplicates; callers that need unique IDs should compare against getCropRows first.
+     * @param sheetName The name of the sheet to add the crops to.
+     * @param crops The Crop objects to add, in order.
+     * @return The row number of the first added crop (the others follow it), or -1 if crops is empty.
+     * @throws Exception if an error occurs during the operation; none of the crops may have been added in that case.
+     */
+    int appendRows(String sheetName, List<Crop> crops) throws Exception;
+
+    /**
+     * Retrieves the row of every crop in a sheet, reading only the Crop ID column.
+     * @param sheetName The name of the sheet to read.
+     * @return A map from crop ID to row number.
+     * @throws Exception if an error occurs during the operation.
+     */
+    IntIntHashMap getCropRows(String sheetName) throws Exception;
+
     /**
      * Checks the existence of a Crop by its ID and displays its information.
      * @param crop The Crop object to check and display.
@@ -76,6 +114,31 @@ public interface GoogleSheetsApplicationInterface {
      */
     String getSheetIdByName(String sheetName) throws Exception;
 
+    /**
+     * Pushes a batch of staged Crop objects to their sheets in as few round trips as possible.
+     * Each crop's getCropChanges() value decides what happens to it (1 = add, 2 = update, 3 = delete).
+     * Row positions are resolved once per sheet, then all adds and updates are sent as a single batch
+     * update and all deletes as a single batch clear. Updates and deletes of crops whose rows were changed in
+     * the sheet since they were loaded are not applied; they are reported with a CONFLICT result.
+     *
+     * @param crops The staged Crop objects to push.
+     * @return A List of PushResult objects, one per crop and in the same order as the given collection.
+     * @throws Exception if an error occurs that prevents the batch from being attempted at all.
+     */
+    List<PushResult> pushBatch(Collection<Crop> crops) throws Exception;
+
+    /**
+     * Adds amounts to the quantities of crops in a sheet. Each crop's current quantity is read from the sheet
+     * and the sum is written back, so quantities changed by other users since the sheet was loaded are kept
+     * rather than overwritten. All crops are read with one request and written with another.
+     *
+     * @param sheetName The name of the sheet the crops are in.
+     * @param deltas A map from crop ID to the amount to add to its quantity (negative to remove).
+     * @return A map from crop ID to its new quantity, for every crop that was found; crops missing from the sheet are left out.
+     * @throws Exception if the quantities could not be read or written; no quantity has been changed in that case.
+     */
+    IntIntHashMap applyQuantityDeltas(String sheetName, IntIntHashMap deltas) throws Exception;
+
 
     // Optional or future implementations (it time allows):
     // void createNewSheet(String sheetName) throws Exception;
@@ -1,43 +1,305 @@
 package org.example;
 
+import org.example.auth.SheetsClientFactory;
+import org.example.services.CropImporter;
 import org.example.services.GoogleSheetsService;
+import org.example.services.RequestScheduler;
+import org.example.util.ChangeJournal;
+import org.example.util.CropSnapshotStore;
 import org.example.util.ExcelExporter;
-
+import org.example.util.FlatFileExporter;
+import org.example.util.HarvestDates;
+import org.example.util.IntIntHashMap;
+import org.example.util.QuantityDeltas;
+import org.example.util.RowFingerprint;
+import org.example.util.StagedChanges;
+import org.example.util.WriteBehindFlusher;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Main {
     private static final String SPREADSHEET_ID = "18ksHaCHNrr6uICxtjAjhN3Zs_YqJMwIywf-eCbcfklc"; // The ID of the Google Sheets database.
-    private static GoogleSheetsApplicationInterface service; // Used to contact the Google Sheets API and make requests via the user.
-    private static Queue<Crop> changesToRow = new LinkedList<>(); // Used to stage the changes from the user to push onto the Google Sheets database.
-    public static List<Crop> dataRow = new ArrayList<>(); // Used to hold the contents of a specific sheet (within the Google Sheets database). Note: each object is a row in said sheet.
+    private static final long START_NANOS = System.nanoTime(); // When the application started, for start-up timing.
+    private static final boolean FAST_START = !"false".equalsIgnoreCase(System.getProperty("src.fastStart")); // Show the menu before the warm-up finishes.
+    private static volatile long clientReadyMillis; // How long the credentials and transport took to prepare.
+    private static CompletableFuture<GoogleSheetsApplicationInterface> warmUp; // Used to contact the Google Sheets API and make requests via the user, once warmed up.
+    private static final String JOURNAL_FILE = "staged-changes.journal"; // Where staged changes are journaled, relative to the working directory.
+    private static final StagedChanges changesToRow = new StagedChanges(); // Used to stage the changes from the user to push onto the Google Sheets database (one per changed row).
+    private static final QuantityDeltas quantityDeltas = new QuantityDeltas(); // Picks and restocks waiting to be added to the sheet's quantities.
+    private static final Object quantityPushLock = new Object(); // Held while adjustments are pushed, so two pushes never read the same quantity.
+    private static WriteBehindFlusher flusher; // Pushes staged changes in the background (null unless -Dsrc.writeBehind=true).
+    private static ChangeJournal journal; // Keeps staged changes on disk until they are pushed (null if it could not be opened).
+    private static final Object DATA_LOCK = new Object(); // Held for every read, change and replacement of dataRow, since background pushes update it.
+    public static CropTable dataRow = new CropTable(); // Used to hold the contents of a specific sheet (within the Google Sheets database). Note: each row is a row in said sheet. Only touch it while holding DATA_LOCK.
+    private static final CropSnapshotStore snapshots = new CropSnapshotStore(Paths.get("snapshots")); // Last known contents of each sheet, for instant and offline reads.
+    private static final Map<String, List<Crop>> refreshedSheets = new ConcurrentHashMap<>(); // Fresh sheet contents fetched in the background, waiting to replace dataRow.
+    private static final Queue<String> conflictNotices = new ConcurrentLinkedQueue<>(); // Conflicts found by background pushes, reported at the next menu prompt.
+    private static volatile String loadedSheetName; // The sheet whose crops are in dataRow (replaced together with it, under DATA_LOCK).
+    private static String loadedSheetID; // The ID of the sheet whose crops are in dataRow.
+    private static CropCatalog catalog; // Indexes over dataRow for searches; rebuilt when dataRow is replaced.
+    private static CropSnapshotStore.Snapshot staleSnapshot; // The snapshot dataRow was loaded from, or null if dataRow is fresh from Google Sheets.
     private static final Scanner input = new Scanner(System.in); // Global scanner for user input.
 
-    // Attempt to initiate GoogleSheetsService to use in the program.
-    // If it can't, exit the program as everything in this project requires
-    // GoogleSheetsService to work properly.
-    static {
+    /**
+     * Starts connecting to Google Sheets in the background. The credentials and the HTTP transport are
+     * prepared in parallel; once both are ready, the connection test and the sheet list are fetched in
+     * parallel as well. The menu can be shown while all of this happens, and the first command that needs
+     * the service waits for it through {@link #service()}.
+     */
+    private static void startWarmUp() {
+        CompletableFuture<GoogleSheetsApplicationInterface> client = SheetsClientFactory.getInstance().warmUp()
+                .thenApply(ready -> {
+                    clientReadyMillis = millisSinceStart();
+                    try {
+                        return new GoogleSheetsService(SPREADSHEET_ID, GoogleSheetsService.DEFAULT_METADATA_TTL_MILLIS,
+                                RequestScheduler.getDefault(), false);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                });
+
+        CompletableFuture<Void> connected = client.thenAcceptAsync(service -> {
+            try {
+                service.testConnection();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        CompletableFuture<List<String>> sheets = client.thenApplyAsync(service -> {
+            try {
+                return service.getAvailableSheets();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+
+        warmUp = connected.thenCombine(sheets, (ignored, sheetNames) -> {
+            System.out.println("\nConnected to Google Sheets successfully in " + millisSinceStart() + " ms (client ready after "
+                    + clientReadyMillis + " ms). Available sheets: " + sheetNames);
+            return client.join();
+        });
+        warmUp.exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            System.err.println("\nCould not connect to Google Sheets: " + cause.getMessage()
+                    + ". Saved copies of the sheets will be shown until the connection is back.");
+            return null;
+        });
+    }
+
+
+    /**
+     * Returns the Google Sheets service, waiting for the start-up warm-up to finish if it is still running.
+     * If the service could not be initialized (for example because Google Sheets is unreachable), a new
+     * connection attempt is started in the background for the next call, and this call fails.
+     *
+     * @return The initialized service.
+     * @throws IOException If the service could not be initialized.
+     */
+    private static GoogleSheetsApplicationInterface service() throws IOException {
         try {
-            service = new GoogleSheetsService(SPREADSHEET_ID);
-            System.out.println("Connected to Google Sheets successfully. Available sheets: " + service.getAvailableSheets());
-        } catch (Exception e) {
-            System.err.println("Initialization failed: " + e.getMessage());
-            System.exit(1);
+            return warmUp.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            startWarmUp(); // Try to connect again for the next call.
+            throw new IOException("Google Sheets is unavailable: " + cause.getMessage(), cause);
+        }
+    }
+
+
+    /**
+     * Returns the Google Sheets service if it is connected, without waiting.
+     *
+     * @return The initialized service, or null if it is still connecting or could not connect.
+     */
+    private static GoogleSheetsApplicationInterface serviceIfReady() {
+        if (!warmUp.isDone() || warmUp.isCompletedExceptionally()) {
+            return null;
+        }
+        return warmUp.join();
+    }
+
+
+    /**
+     * Opens the journal of staged changes and stages again every change that was not pushed before the
+     * application last stopped (for example because it crashed or lost its connection mid-push).
+     * If the journal cannot be opened, staged changes are only kept in memory.
+     */
+    private static void openJournal() {
+        try {
+            journal = ChangeJournal.open(Paths.get(JOURNAL_FILE));
+        } catch (IOException e) {
+            System.err.println("Could not open the journal of staged changes; changes will only be kept in memory: " + e.getMessage());
+            return;
+        }
+
+        Map<Long, Crop> pending = journal.getPending();
+        List<Long> cancelled = new ArrayList<>();
+        pending.forEach((seq, crop) -> {
+            if (crop.getCropChanges() == 4) {
+                quantityDeltas.add(crop.getSheetName(), crop.getCropID(), crop.getQuantityAvailable(), seq);
+            } else {
+                cancelled.addAll(changesToRow.recover(crop, seq));
+            }
+        });
+        acknowledgeSeqs(cancelled);
+        if (!pending.isEmpty()) {
+            System.out.println("Recovered " + (changesToRow.size() + quantityDeltas.size()) + " staged change(s) that were not pushed yet. Use \"Push Changes\" to send them.");
+        }
+    }
+
+
+    /**
+     * Stages a change to be pushed to the Google Sheets database, and records it in the journal so that it
+     * survives a crash. The journal entry is on disk before this method returns; concurrent and back-to-back
+     * entries share one disk flush. A change to a crop that already has a staged change is merged with it,
+     * so editing a crop five times still pushes it once.
+     *
+     * @param crop The crop to stage, with its change flag set.
+     */
+    private static void stageChange(Crop crop) {
+        long seq = -1;
+        if (journal != null) {
+            try {
+                seq = journal.append(crop);
+                journal.awaitDurable(seq);
+            } catch (IOException e) {
+                System.err.println("Could not journal the staged change; it will be lost if the application stops: " + e.getMessage());
+            }
+        }
+        acknowledgeSeqs(changesToRow.stage(crop, seq));
+        if (flusher != null) {
+            flusher.changeStaged();
+        }
+    }
+
+
+    /**
+     * Records in the journal that the given crops have been pushed, so they are not staged again at start-up.
+     *
+     * @param crops The crops whose staged changes have been applied.
+     */
+    private static void acknowledgeChanges(List<Crop> crops) {
+        acknowledgeSeqs(changesToRow.complete(crops));
+    }
+
+
+    /**
+     * Records in the journal that the given entries no longer need to be pushed.
+     *
+     * @param seqs The sequence numbers of the journal entries.
+     */
+    private static void acknowledgeSeqs(List<Long> seqs) {
+        if (journal == null || seqs.isEmpty()) {
+            return;
+        }
+        try {
+            journal.acknowledge(seqs);
+        } catch (IOException e) {
+            System.err.println("Could not record pushed changes in the journal; they may be pushed again next time: " + e.getMessage());
         }
     }
 
 
+    /**
+     * Adds an amount to a crop's quantity, for picks and restocks. Unlike setting the quantity, the amount is
+     * added to whatever the sheet holds when it is pushed, so picks made by other users in the meantime are not
+     * lost. The adjustment is journaled, summed with any other adjustment of the crop that is still waiting,
+     * and applied to the loaded crop straight away.
+     *
+     * @param crop The crop to adjust.
+     * @param delta The amount to add (negative to remove).
+     */
+    private static void adjustQuantity(Crop crop, int delta) {
+        long seq = journalAdjustment(crop, delta);
+        synchronized (DATA_LOCK) { // A push reconciles the same row with the sheet.
+            CropTable table = dataRow;
+            quantityDeltas.add(crop.getSheetName(), crop.getCropID(), delta, seq);
+            int row = table.indexOfCropID(crop.getCropID());
+            if (row != -1 && crop.getSheetName().equals(table.getSheetName(row))) {
+                int dirtyFields = table.getDirtyFields(row);
+                table.setQuantityAvailable(row, table.getQuantityAvailable(row) + delta);
+                table.setDirtyFields(row, dirtyFields); // The sheet gets the adjustment, not the local total.
+            }
+        }
+    }
+
+
+    /**
+     * Records a quantity adjustment in the journal, so that it survives a crash.
+     *
+     * @param crop The crop being adjusted.
+     * @param delta The amount to add.
+     * @return The sequence number of the journal entry, or -1 if it could not be journaled.
+     */
+    private static long journalAdjustment(Crop crop, int delta) {
+        if (journal == null) {
+            return -1;
+        }
+        Crop adjustment = new Crop(crop);
+        adjustment.setQuantityAvailable(delta);
+        adjustment.setCropChanges(4); // Replayed as an adjustment rather than as a modified crop.
+        adjustment.clearDirtyFields();
+        try {
+            long seq = journal.append(adjustment);
+            journal.awaitDurable(seq);
+            return seq;
+        } catch (IOException e) {
+            System.err.println("Could not journal the quantity adjustment; it will be lost if the application stops: " + e.getMessage());
+            return -1;
+        }
+    }
+
+
+    /**
+     * Returns the time elapsed since the application started.
+     *
+     * @return The elapsed time in milliseconds.
+     */
+    private static long millisSinceStart() {
+        return (System.nanoTime() - START_NANOS) / 1_000_000;
+    }
+
+
     /**
      * Allows the user to select and verify the sheet they wish to work with. Updates the dataRow with the data
      * from the selected sheet.
+     * <p>
+     * While Google Sheets is still connecting, or when it cannot be reached, the last saved snapshot of the sheet
+     * is shown instead and marked as stale. The sheet is then refreshed in the background once the connection is
+     * up, and the fresh data replaces the snapshot at the next menu prompt.
      *
      * @return The name of the sheet selected by the user.
-     * @throws Exception if there's an issue fetching the available sheets or items from the sheet.
+     * @throws Exception if there's an issue fetching the available sheets or items from the sheet, and there is
+     *                   no snapshot to fall back on.
      */
     private static String getAndVerifySheets() throws Exception {
         System.out.println("\nAvailable sheets:");
 
-        // Find and print sheets available in the Google Sheets database.
-        List<String> availableSheets = service.getAvailableSheets();
+        // Find and print sheets available in the Google Sheets database (or in the snapshots, if it cannot be reached yet).
+        List<String> availableSheets;
+        boolean offline = serviceIfReady() == null && !snapshots.getSheetNames().isEmpty();
+        if (offline) {
+            availableSheets = snapshots.getSheetNames();
+        } else {
+            try {
+                availableSheets = service().getAvailableSheets();
+            } catch (IOException e) {
+                availableSheets = snapshots.getSheetNames();
+                if (availableSheets.isEmpty()) {
+                    throw e;
+                }
+                System.out.println("(" + e.getMessage() + "; showing saved copies.)");
+                offline = true;
+            }
+        }
         availableSheets.forEach(System.out::println);
 
         // Verify user input.
@@ -54,6 +316,77 @@ public class Main {
             }
         }
 
+        // Load crops from the selected sheet.
+        refreshedSheets.remove(sheetName);
+        CropSnapshotStore.Snapshot snapshot = snapshots.load(sheetName);
+        if (!offline) {
+            try {
+                loadSheet(service(), sheetName);
+                System.out.println("Selected sheet: " + sheetName + " with " + loadedCropCount() + " crops loaded and sheet ID: " + loadedSheetID);
+                return sheetName;
+            } catch (IOException e) {
+                if (snapshot == null) {
+                    throw e;
+                }
+                System.out.println("Could not load the sheet from Google Sheets: " + e.getMessage());
+            }
+        } else {
+            if (warmUp.isCompletedExceptionally()) {
+                startWarmUp(); // The last attempt failed; try connecting again in the background.
+            }
+            // Fetch the sheet as soon as the connection is up and swap it in at the next prompt.
+            String finalSheetName = sheetName;
+            warmUp.thenAcceptAsync(service -> {
+                try {
+                    refreshedSheets.put(finalSheetName, fetchSheet(service, finalSheetName));
+                } catch (Exception e) {
+                    System.err.println("Background refresh of " + finalSheetName + " failed: " + e.getMessage());
+                }
+            });
+        }
+
+        if (snapshot == null) {
+            System.out.println("No saved copy of " + sheetName + " is available.");
+            replaceLoadedSheet(new CropTable(), sheetName);
+            loadedSheetID = null;
+            staleSnapshot = null;
+            return sheetName;
+        }
+        CropTable table = asTable(snapshot.getCrops());
+        replaceLoadedSheet(table, sheetName);
+        loadedSheetID = snapshot.getSheetID();
+        staleSnapshot = snapshot;
+        System.out.println("Selected sheet: " + sheetName + " with " + table.size() + " crops loaded from the copy saved "
+                + describeAge(snapshot.getAgeMillis()) + " (stale) and sheet ID: " + loadedSheetID);
+
+        return sheetName;
+    }
+
+
+    /**
+     * Downloads a sheet into dataRow and records it as the loaded sheet.
+     *
+     * @param service The connected service.
+     * @param sheetName The name of the sheet to load.
+     * @throws Exception if there's an issue fetching the sheet.
+     */
+    private static void loadSheet(GoogleSheetsApplicationInterface service, String sheetName) throws Exception {
+        List<Crop> crops = fetchSheet(service, sheetName);
+        replaceLoadedSheet(asTable(crops), sheetName);
+        loadedSheetID = crops.isEmpty() ? service.getSheetIdByName(sheetName) : crops.get(0).getSheetID();
+        staleSnapshot = null;
+    }
+
+
+    /**
+     * Downloads the crops of a sheet, tags them with the sheet's name and ID, and saves them as the sheet's snapshot.
+     *
+     * @param service The connected service.
+     * @param sheetName The name of the sheet to download.
+     * @return The crops of the sheet.
+     * @throws Exception if there's an issue fetching the sheet.
+     */
+    private static List<Crop> fetchSheet(GoogleSheetsApplicationInterface service, String sheetName) throws Exception {
         // Fetch the sheetID for the selected sheetName.
         String sheetID = service.getSheetIdByName(sheetName);
         if (sheetID == null) {
@@ -61,19 +394,97 @@ public class Main {
             // TODO: Consider how you want to handle this unlikely case. For now, return the sheetName anyway.
         }
 
-        // Clear the dataRow and load crops from the selected sheet.
-        dataRow.clear(); // So we don't have duplicate items everytime the user selects a sheet.
         List<Crop> crops = service.getItemsInSheet(sheetName);
-        String finalSheetName = sheetName;
         crops.forEach(crop -> {
-            crop.setSheetName(finalSheetName);
+            crop.setSheetName(sheetName);
             crop.setSheetID(sheetID);
         });
-        dataRow.addAll(crops);
 
-        System.out.println("Selected sheet: " + sheetName + " with " + dataRow.size() + " crops loaded and sheet ID: " + sheetID);
+        try {
+            snapshots.save(sheetName, sheetID, crops);
+        } catch (IOException e) {
+            System.err.println("Could not save a snapshot of " + sheetName + ": " + e.getMessage());
+        }
+        return crops;
+    }
 
-        return sheetName;
+
+    /**
+     * Replaces the stale snapshot in dataRow with the fresh copy of the sheet fetched in the background, if one
+     * has arrived since the sheet was selected.
+     */
+    private static void applyBackgroundRefresh() {
+        if (loadedSheetName == null) {
+            return;
+        }
+        String sheetName = loadedSheetName;
+        List<Crop> fresh = refreshedSheets.remove(sheetName);
+        if (fresh == null || staleSnapshot == null) {
+            return;
+        }
+        replaceLoadedSheet(asTable(fresh), sheetName);
+        if (!fresh.isEmpty()) {
+            loadedSheetID = fresh.get(0).getSheetID();
+        }
+        staleSnapshot = null;
+        System.out.println("\n" + sheetName + " has been refreshed from Google Sheets (" + fresh.size() + " crops).");
+    }
+
+
+    /**
+     * Makes a table the loaded sheet. dataRow and loadedSheetName are replaced together under DATA_LOCK, so a
+     * background push that reconciles a row always sees a table and the name of the sheet it holds.
+     *
+     * @param table The crops of the sheet.
+     * @param sheetName The name of the sheet.
+     */
+    private static void replaceLoadedSheet(CropTable table, String sheetName) {
+        synchronized (DATA_LOCK) {
+            dataRow = table;
+            loadedSheetName = sheetName;
+        }
+    }
+
+
+    /**
+     * Returns the number of crops in the loaded sheet.
+     *
+     * @return The size of dataRow.
+     */
+    private static int loadedCropCount() {
+        synchronized (DATA_LOCK) {
+            return dataRow.size();
+        }
+    }
+
+
+    /**
+     * Returns the crops of a sheet as a CropTable, reusing the list when it already is one.
+     *
+     * @param crops The crops of a sheet.
+     * @return A CropTable holding the crops.
+     */
+    private static CropTable asTable(List<Crop> crops) {
+        return crops instanceof CropTable ? (CropTable) crops : new CropTable(crops);
+    }
+
+
+    /**
+     * Describes how long ago something happened, for telling the user how old a snapshot is.
+     *
+     * @param ageMillis The age in milliseconds.
+     * @return A short description such as "5 minutes ago".
+     */
+    private static String describeAge(long ageMillis) {
+        long minutes = ageMillis / 60_000;
+        if (minutes < 1) {
+            return "less than a minute ago";
+        }
+        if (minutes < 120) {
+            return minutes + " minutes ago";
+        }
+        long hours = minutes / 60;
+        return hours < 48 ? hours + " hours ago" : (hours / 24) + " days ago";
     }
 
 
@@ -90,58 +501,95 @@ public class Main {
         // Find and select what sheet to get data from.
         getAndVerifySheets();
 
-        if (dataRow.isEmpty()) {
-            System.out.println("\nNo crops found.");
+        if (staleSnapshot != null) {
+            System.out.println("\nShowing the copy of " + loadedSheetName + " saved " + describeAge(staleSnapshot.getAgeMillis())
+                    + "; Google Sheets could not be reached, so it may be out of date.");
         }
-        else {
-            // Determine the maximum length of each field to ensure proper alignment (make the output look like a table).
-            int maxIdLength = "Crop ID".length();
-            int maxNameLength = "Crop Name".length();
-            int maxQuantityLength = "Quantity".length();
-            int maxHarvestDateLength = "Harvest Date".length();
-            int maxSeasonLength = "In Season".length();
-            int maxSheetNameLength = "Sheet Name".length();
 
-            for (Crop crop : dataRow) {
-                maxIdLength = Math.max(maxIdLength, String.valueOf(crop.getCropID()).length());
-                maxNameLength = Math.max(maxNameLength, crop.getCropName().length());
-                maxQuantityLength = Math.max(maxQuantityLength, String.valueOf(crop.getQuantityAvailable()).length());
-                maxHarvestDateLength = Math.max(maxHarvestDateLength, crop.getHarvestDate().toString().length());
-                maxSeasonLength = Math.max(maxSeasonLength, String.valueOf(crop.isInSeason()).length());
-                maxSheetNameLength = Math.max(maxSheetNameLength, crop.getSheetName().length());
+        synchronized (DATA_LOCK) {
+            CropTable table = dataRow;
+            if (table.isEmpty()) {
+                System.out.println("\nNo crops found.");
             }
+            else {
+                printCropTable(table);
+            }
+        }
+    }
 
-            // Print header of 'table'.
-            System.out.printf("\n%-" + maxIdLength + "s  %-"
-                            + maxNameLength + "s  %-"
-                            + maxQuantityLength + "s  %-"
-                            + maxHarvestDateLength + "s  %-"
-                            + maxSeasonLength + "s  %-"
-                            + maxSheetNameLength + "s%n",
-                    "Crop ID", "Crop Name", "Quantity", "Harvest Date", "In Season", "Sheet Name");
 
-            // Print a line under the header for better visual separation.
-            for (int i = 0; i < maxIdLength + maxNameLength + maxQuantityLength + maxHarvestDateLength + maxSeasonLength + maxSheetNameLength + 10; i++) {
-                System.out.print("-");
+    /**
+     * Prints the crops of a table, aligned in columns.
+     * This method calculates the maximum length of various fields such as Crop ID, Crop Name, Quantity,
+     * Harvest Date, In Season, and Sheet Name to align the data neatly.
+     *
+     * @param table The crops to print.
+     */
+    private static void printCropTable(CropTable table) {
+        // Determine the maximum length of each field to ensure proper alignment (make the output look like a table).
+        // The columns are scanned directly; text columns are measured once per distinct value.
+        int rows = table.size();
+        int maxIdLength = "Crop ID".length();
+        int maxNameLength = Math.max("Crop Name".length(), table.getMaxCropNameLength());
+        int maxQuantityLength = "Quantity".length();
+        int maxHarvestDateLength = "Harvest Date".length();
+        int maxSeasonLength = "In Season".length();
+        int maxSheetNameLength = Math.max("Sheet Name".length(), table.getMaxSheetNameLength());
+
+        for (int row = 0; row < rows; row++) {
+            maxIdLength = Math.max(maxIdLength, digitCount(table.getCropID(row)));
+            maxQuantityLength = Math.max(maxQuantityLength, digitCount(table.getQuantityAvailable(row)));
+            if (table.getHarvestEpochDay(row) == CropTable.NO_DATE) {
+                maxHarvestDateLength = Math.max(maxHarvestDateLength, table.getHarvestDate(row).length());
             }
-            System.out.println();
+        }
 
-            // Print each row.
-            for (Crop crop : dataRow) {
-                System.out.printf("%-" + maxIdLength + "d  %-"
-                                + maxNameLength + "s  %-"
-                                + maxQuantityLength + "d  %-"
-                                + maxHarvestDateLength + "s  %-"
-                                + maxSeasonLength + "s  %-"
-                                + maxSheetNameLength + "s%n",
-                        crop.getCropID(),
-                        crop.getCropName(),
-                        crop.getQuantityAvailable(),
-                        crop.getHarvestDate(),
-                        crop.isInSeason() ? "Yes" : "No",
-                        crop.getSheetName());
-            }
+        // Print header of 'table'.
+        String format = "%-" + maxIdLength + "d  %-"
+                + maxNameLength + "s  %-"
+                + maxQuantityLength + "d  %-"
+                + maxHarvestDateLength + "s  %-"
+                + maxSeasonLength + "s  %-"
+                + maxSheetNameLength + "s%n";
+        System.out.printf("\n%-" + maxIdLength + "s  %-"
+                        + maxNameLength + "s  %-"
+                        + maxQuantityLength + "s  %-"
+                        + maxHarvestDateLength + "s  %-"
+                        + maxSeasonLength + "s  %-"
+                        + maxSheetNameLength + "s%n",
+                "Crop ID", "Crop Name", "Quantity", "Harvest Date", "In Season", "Sheet Name");
+
+        // Print a line under the header for better visual separation.
+        System.out.println("-".repeat(maxIdLength + maxNameLength + maxQuantityLength + maxHarvestDateLength + maxSeasonLength + maxSheetNameLength + 10));
+
+        // Print each row.
+        for (int row = 0; row < rows; row++) {
+            System.out.printf(format,
+                    table.getCropID(row),
+                    table.getCropName(row),
+                    table.getQuantityAvailable(row),
+                    table.getHarvestDate(row),
+                    table.isInSeason(row) ? "Yes" : "No",
+                    table.getSheetName(row));
+        }
+    }
+
+
+    /**
+     * This is a helper function that counts the characters needed to print an integer.
+     *
+     * @param value the integer to measure.
+     * @return the number of characters in the integer's decimal form, including a minus sign.
+     */
+    private static int digitCount(int value) {
+        if (value == Integer.MIN_VALUE) {
+            return 11;
         }
+        int count = value < 0 ? 2 : 1;
+        for (int rest = Math.abs(value); rest >= 10; rest /= 10) {
+            count++;
+        }
+        return count;
     }
 
 
@@ -213,29 +661,25 @@ public class Main {
      * @return a boolean value indicating to the user whether the crop exists in dataRow.
      */
     private static boolean cropIDExists(int cropID) {
-        for (Crop crop : dataRow) {
-            if (crop.getCropID() == cropID) {
-                return true;
-            }
+        synchronized (DATA_LOCK) {
+            return dataRow.containsCropID(cropID); // Constant time, through the table's crop ID index.
         }
-        return false;
     }
 
 
     /**
      * This is a helper function that finds and returns
-     * a Crop object by its ID, or null if not found.
+     * a copy of a Crop object by its ID, or null if not found. A copy is returned since background
+     * pushes may move or remove the crop's row in dataRow.
      *
      * @param cropID the ID that the user wants to search for.
      * @return Crop or Null depending on whether the Crop was found via the cropID.
      */
     private static Crop findCropByID(int cropID) {
-        for (Crop crop : dataRow) {
-            if (crop.getCropID() == cropID) {
-                return crop;
-            }
+        synchronized (DATA_LOCK) {
+            Crop crop = dataRow.findByCropID(cropID);
+            return crop == null ? null : new Crop(crop);
         }
-        return null;
     }
 
 
@@ -259,26 +703,35 @@ public class Main {
         String farmLocation = promptForString("Enter farm location: ");
 
         int cropID; // The ID used to identify this crop.
+        boolean duplicate;
 
         do {
             cropID = promptForInt("Enter crop ID: ");
-            if (cropIDExists(cropID)) {
+            duplicate = cropIDExists(cropID);
+            if (duplicate) {
                 System.out.println("A crop with this ID already exists. Please enter a unique crop ID.\n");
             }
-        } while (cropIDExists(cropID));
+        } while (duplicate);
 
         String cropName = promptForString("Enter crop name: ");
         int quantityAvailable = promptForInt("Enter quantity available: ");
-        String harvestDate = promptForString("Enter harvest date (YYYY-MM-DD): "); // TODO: VALIDATE HARVEST DATE TO ENSURE COMPLIANCE WITH GOOGLE SHEETS API V4.
+        String harvestDate = promptForDate("Enter harvest date (YYYY-MM-DD): ");
         boolean inSeason = promptForBoolean("Is the crop in season?");
 
         // TODO: GET SHEETNAME AND SHEETID FROM SERVICE AS USER SHOULDN'T KNOW HOW THIS WORKS!!!
-        String sheetID = service.getSheetIdByName(sheetName);
+        String sheetID = sheetName.equals(loadedSheetName) && loadedSheetID != null ? loadedSheetID : service().getSheetIdByName(sheetName);
 
         // Create new Crop object (to stage changes for dataRow and changesToRow).
         Crop newCrop = new Crop(farmName, farmLocation, cropID, cropName, quantityAvailable, harvestDate, inSeason, sheetName, sheetID);
         newCrop.setCropChanges(1); // Set flag to let changesToRow know that this is a new addition to database.
-        changesToRow.add(newCrop);
+        // Keep the loaded sheet (and its crop ID index) in step, so the ID cannot be reused. This happens
+        // before staging, since a background push updates the same table once the crop is added.
+        synchronized (DATA_LOCK) {
+            if (sheetName.equals(loadedSheetName)) {
+                dataRow.add(newCrop);
+            }
+        }
+        stageChange(newCrop);
 
         System.out.println("New crop added and staged for changes.");
     }
@@ -325,40 +778,61 @@ public class Main {
             System.out.println("No crop with the specified ID found.");
             return;
         }
+        cropToModify.clearDirtyFields(); // From here on, only the fields changed below.
 
         // Display the selected crop in a table-like format.
         System.out.println("\nSelected Crop:");
         displaySingleCrop(cropToModify);
 
         boolean finished = false;
+        boolean modified = false; // Whether a field other than a quantity adjustment was changed.
         while (!finished) {
             System.out.println("\nOptions:");
             System.out.println("1: Modify Crop Name");
             System.out.println("2: Update Crop Quantity");
             System.out.println("3: Update Harvest Date");
             System.out.println("4: Update Crop Season");
-            System.out.println("5: Finish modifying crop");
+            System.out.println("5: Pick or Restock (change quantity by an amount)");
+            System.out.println("6: Finish modifying crop");
 
             int choice = promptForInt("Select an option: ");
             switch (choice) {
                 case 1:
                     cropToModify.setCropName(promptForString("Enter new crop name: "));
                     cropToModify.setCropChanges(2); // Flag Crop since it was changed from its original state.
+                    modified = true;
                     break;
                 case 2:
-                    cropToModify.setQuantityAvailable(promptForInt("Enter new quantity available: "));
+                    int quantity = promptForInt("Enter new quantity available: ");
+                    int waiting = quantityDeltas.getPendingDelta(cropToModify.getSheetName(), cropID);
+                    if (waiting != 0) {
+                        adjustQuantity(cropToModify, -waiting); // A quantity set outright replaces the picks and restocks still waiting.
+                        cropToModify.setQuantityAvailable(cropToModify.getQuantityAvailable() - waiting);
+                    }
+                    cropToModify.setQuantityAvailable(quantity);
                     cropToModify.setCropChanges(2); // Flag Crop since it was changed from its original state.
+                    modified = true;
                     break;
                 case 3:
-                    // TODO: MAKE SURE USER INPUTS CORRECT FORMAT MM-DD-YYYY
-                    cropToModify.setHarvestDate(promptForString("Enter new harvest date (MM-DD-YYYY): "));
+                    cropToModify.setHarvestDate(promptForDate("Enter new harvest date (YYYY-MM-DD): "));
                     cropToModify.setCropChanges(2); // Flag Crop since it was changed from its original state.
+                    modified = true;
                     break;
                 case 4:
                     cropToModify.setInSeason(promptForBoolean("Is the crop in season? (yes/no): "));
                     cropToModify.setCropChanges(2); // Flag Crop since it was changed from its original state.
+                    modified = true;
                     break;
                 case 5:
+                    int delta = promptForInt("Enter the amount picked as a negative number, or restocked as a positive one: ");
+                    adjustQuantity(cropToModify, delta);
+                    int changedFields = cropToModify.getDirtyFields();
+                    cropToModify.setQuantityAvailable(cropToModify.getQuantityAvailable() + delta); // Shown, not written back.
+                    cropToModify.clearDirtyFields();
+                    cropToModify.markDirty(changedFields);
+                    System.out.println("Quantity adjusted by " + delta + "; the adjustment is added to the sheet's quantity when pushed.");
+                    break;
+                case 6:
                     finished = true;
                     break;
                 default:
@@ -373,7 +847,43 @@ public class Main {
             }
         }
 
-        changesToRow.add(cropToModify); // Stage changes.
+        if (modified) {
+            saveModifiedCrop(cropToModify);
+        }
+    }
+
+
+    /**
+     * Writes the fields changed while modifying a crop into its row of dataRow, and stages the row. This is
+     * done under the table's lock, so a background push can neither reconcile the row in between nor have
+     * its own changes to the row's other fields overwritten.
+     *
+     * @param modified A copy of the crop, whose dirty fields are the ones the user changed.
+     */
+    private static void saveModifiedCrop(Crop modified) {
+        synchronized (DATA_LOCK) {
+            CropTable table = dataRow;
+            int row = table.indexOfCropID(modified.getCropID());
+            if (row == -1 || !modified.getSheetName().equals(table.getSheetName(row))) {
+                System.out.println("The crop was removed while it was being modified; the modifications were not staged.");
+                return;
+            }
+            int fields = modified.getDirtyFields();
+            if ((fields & Crop.CROP_NAME) != 0) {
+                table.setCropName(row, modified.getCropName());
+            }
+            if ((fields & Crop.QUANTITY_AVAILABLE) != 0) {
+                table.setQuantityAvailable(row, modified.getQuantityAvailable());
+            }
+            if ((fields & Crop.HARVEST_DATE) != 0) {
+                table.setHarvestDate(row, modified.getHarvestDate());
+            }
+            if ((fields & Crop.IN_SEASON) != 0) {
+                table.setInSeason(row, modified.isInSeason());
+            }
+            table.setCropChanges(row, 2); // Flag Crop since it was changed from its original state.
+            stageChange(new Crop(table.get(row))); // Stage a copy, since the row in dataRow may move once the sheet changes.
+        }
         System.out.println("Crop modifications staged for changes.");
     }
 
@@ -397,19 +907,20 @@ public class Main {
 
         // TODO: IMPLEMENT WAY FOR USER TO EXIT METHOD OR RETRY PUTTING IN CROPID.
         int cropID = promptForInt("Enter the crop ID of the crop you wish to delete: ");
-        Crop cropToDelete = findCropByID(cropID);
+        Crop deletion = findCropByID(cropID);
 
-        if (cropToDelete == null) {
+        if (deletion == null) {
             System.out.println("No crop with the specified ID found.");
             return;
         }
 
-        cropToDelete.setCropChanges(3); // Let changesToRow know that this will be deleted.
+        deletion.setCropChanges(3); // Let changesToRow know that this will be deleted.
+        stageChange(deletion); // Stage the deletion so it is pushed with the rest of the batch.
 
-        // Assuming cropToDelete is the Crop object you want to delete.
-        service.deleteDataRow(cropToDelete);
-        dataRow.removeIf(c -> c.getCropID() == cropToDelete.getCropID());
-        System.out.println("Crop with ID " + cropToDelete.getCropID() + " has been removed from local data.");
+        synchronized (DATA_LOCK) { // Background pushes update the same table.
+            dataRow.removeIf(c -> c.getCropID() == deletion.getCropID());
+        }
+        System.out.println("Crop with ID " + deletion.getCropID() + " has been removed from local data and staged for deletion.");
     }
 
 
@@ -447,36 +958,444 @@ public class Main {
 
 
     /**
-     * Pushes changes made to the dataRow back to the Google Sheet. It iterates through a queue of changes,
-     * applying each one to the sheet. This includes adding new crops, updating existing crop details,
-     * and deleting crops from the sheet. Each operation is performed using methods provided by the
-     * GoogleSheetsService class, ensuring that the in-memory data is synchronized with the persistent
-     * data stored in the Google Sheet.
+     * Pushes changes made to the dataRow back to the Google Sheet. Every staged change is drained from the
+     * queue and sent to the GoogleSheetsService as a single batch, which adds new crops, updates existing
+     * crop details and deletes crops in a fixed number of requests no matter how many changes are staged.
+     * Changes that could not be applied are put back on the queue so that they can be pushed again later.
+     * When automatic pushing is on, this waits for the background flusher to push everything instead.
+     * Picks and restocks are pushed afterwards, on top of the quantities the sheet then holds.
      *
      * @throws Exception if there's an issue applying changes to the Google Sheet, which may arise from
      *                   problems with the Google Sheets API, network issues, or authorization errors.
      */
     private static void pushChanges() throws Exception {
-        while (!changesToRow.isEmpty()) {
-            Crop crop = changesToRow.poll(); // Retrieve and remove the head of the queue
-            switch (crop.getCropChanges()) {
-                case 1: // Add new crop
-                    service.addDataRow(crop);
-                    System.out.println("New crop with ID " + crop.getCropID() + " added to the database.");
+        if (changesToRow.isEmpty() && quantityDeltas.isEmpty()) {
+            System.out.println("No staged changes to push.");
+            return;
+        }
+
+        try {
+            if (flusher != null) {
+                int settled = flusher.flush();
+                System.out.println("Pushed " + settled + " change(s); last batch took " + flusher.getLastFlushMillis() + " ms.");
+            } else {
+                pushStaged(Integer.MAX_VALUE, true);
+            }
+            pushQuantityDeltas(true); // Adds and absolute quantities land first, so adjustments apply on top of them.
+        } catch (IOException e) {
+            System.out.println(e.getMessage() + ". " + (changesToRow.size() + quantityDeltas.size()) + " change(s) remain staged; try again later.");
+            return;
+        }
+
+        if (!changesToRow.isEmpty() || !quantityDeltas.isEmpty()) {
+            System.out.println((changesToRow.size() + quantityDeltas.size()) + " change(s) could not be pushed and remain staged.");
+        }
+    }
+
+
+    /**
+     * Pushes up to the given number of the oldest staged changes as a single batch. Changes that were applied
+     * (or that no longer apply) are acknowledged in the journal and in the saved copies of the sheets; changes
+     * that failed are staged again. Used both by "Push Changes" and by the background flusher.
+     *
+     * @param maxChanges The largest number of changes to push.
+     * @param verbose Whether to report each crop; the background flusher pushes quietly.
+     * @return The number of changes that no longer need to be pushed.
+     * @throws Exception if Google Sheets is unavailable or the batch could not be sent; the changes stay staged.
+     */
+    private static int pushStaged(int maxChanges, boolean verbose) throws Exception {
+        GoogleSheetsApplicationInterface sheets = service();
+
+        List<Crop> batch = changesToRow.drain(maxChanges);
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        if (verbose && changesToRow.getMergedCount() > 0) {
+            System.out.println("Pushing " + batch.size() + " changed row(s); " + changesToRow.getMergedCount() + " of "
+                    + changesToRow.getStagedCount() + " edits so far were merged into earlier ones.");
+        }
+
+        // Pushes are bulk work, so interactive reads are allowed to go ahead of them when quota is tight.
+        List<PushResult> results;
+        try {
+            results = RequestScheduler.runInLane(RequestScheduler.Lane.BULK, () -> sheets.pushBatch(batch));
+        } catch (Exception e) {
+            acknowledgeSeqs(changesToRow.requeue(batch)); // Nothing was pushed; keep everything staged.
+            throw e;
+        }
+        List<Crop> done = new ArrayList<>(); // Crops whose changes no longer need to be replayed.
+        List<Crop> failed = new ArrayList<>(); // Crops whose changes have to be pushed again.
+        for (PushResult result : results) {
+            Crop crop = result.getCrop();
+            String message;
+            switch (result.getStatus()) {
+                case ADDED:
+                    message = "New crop with ID " + crop.getCropID() + " added to the database.";
+                    markWritten(crop);
+                    crop.setCropChanges(0);
+                    crop.clearDirtyFields();
+                    done.add(crop);
+                    break;
+                case UPDATED:
+                    message = "Crop with ID " + crop.getCropID() + " was modified in the database.";
+                    markWritten(crop);
+                    crop.setCropChanges(0);
+                    crop.clearDirtyFields();
+                    done.add(crop);
+                    break;
+                case DELETED:
+                    message = "Crop with ID " + crop.getCropID() + " was deleted from the database.";
+                    markDeleted(crop);
+                    crop.setCropChanges(0);
+                    done.add(crop);
                     break;
-                case 2: // Modify existing crop
-                    service.updateDataRow(crop);
-                    System.out.println("Crop with ID " + crop.getCropID() + " was modified in the database.");
+                case NOT_FOUND:
+                    message = "Crop with ID " + crop.getCropID() + " was not found in the database.";
+                    done.add(crop);
                     break;
-                case 3: // Delete crop
-                    service.deleteDataRow(crop);
-                    System.out.println("Crop with ID " + crop.getCropID() + " was deleted from the database.");
+                case CONFLICT:
+                    message = result.getMessage();
+                    done.add(crop); // Pushing it again would still overwrite the other edit.
+                    if (reloadConflictedRow(result)) {
+                        message += " The loaded sheet now shows the crop as it is in Google Sheets.";
+                    }
+                    if (!verbose) {
+                        conflictNotices.add(message); // Reported even after quiet pushes, since the change was dropped.
+                    }
                     break;
                 default:
-                    System.out.println("Unrecognized crop change for ID " + crop.getCropID());
+                    message = "Failed to push crop with ID " + crop.getCropID() + ": " + result.getMessage();
+                    failed.add(crop); // Stage the change again so it can be retried.
                     break;
             }
+            if (verbose) {
+                System.out.println(message);
+            }
+        }
+
+        acknowledgeChanges(done);
+        acknowledgeSeqs(changesToRow.requeue(failed));
+
+        // Keep the saved copies of the sheets in step with what was just pushed.
+        try {
+            snapshots.apply(results);
+        } catch (IOException e) {
+            System.err.println("Could not update the saved copies of the sheets: " + e.getMessage());
+        }
+        return done.size();
+    }
+
+
+    /**
+     * Records that a crop was written to its sheet. A later change to the crop that is still staged is moved
+     * onto the written row, and the crop's row in dataRow is marked as matching the sheet if it still holds
+     * the written values. A row edited again since the push was drained keeps its changes and flags.
+     *
+     * @param written The crop that was written.
+     */
+    private static void markWritten(Crop written) {
+        synchronized (DATA_LOCK) { // The menu edits and stages the same row under this lock.
+            changesToRow.rebase(written, RowFingerprint.of(written));
+            if (written.getSheetName().equals(loadedSheetName)) {
+                dataRow.markWritten(written);
+            }
+        }
+    }
+
+
+    /**
+     * Brings a crop's row in dataRow up to date with the sheet after a push found that the row had been changed
+     * there, so the menu stops showing the values that were not pushed and later edits are staged against the
+     * row as it now is. A crop that another change is still staged for is left alone, since that change will be
+     * checked against the sheet in turn.
+     *
+     * @param result The CONFLICT result, carrying the row as the push read it.
+     * @return true if dataRow was changed.
+     */
+    private static boolean reloadConflictedRow(PushResult result) {
+        Crop crop = result.getCrop();
+        synchronized (DATA_LOCK) {
+            if (!crop.getSheetName().equals(loadedSheetName) || changesToRow.find(crop.getSheetName(), crop.getCropID()) != null) {
+                return false;
+            }
+            CropTable table = dataRow;
+            Crop current = result.getCurrent();
+            if (current == null) {
+                return table.removeCropID(crop.getCropID()); // The row was emptied or now holds another crop.
+            }
+            int row = table.upsert(current);
+            table.setQuantityAvailable(row, current.getQuantityAvailable()
+                    + quantityDeltas.getPendingDelta(crop.getSheetName(), crop.getCropID())); // Picks not pushed yet still show.
+            table.setCropChanges(row, 0);
+            table.setDirtyFields(row, 0);
+            table.setRowFingerprint(row, current.getRowFingerprint());
+            return true;
+        }
+    }
+
+
+    /**
+     * Prints the conflicts found by background pushes since the last menu prompt.
+     */
+    private static void reportConflicts() {
+        for (String notice = conflictNotices.poll(); notice != null; notice = conflictNotices.poll()) {
+            System.out.println("\n" + notice);
+        }
+    }
+
+
+    /**
+     * Records that a crop's row was deleted from its sheet, by removing it from dataRow if it is still there
+     * unchanged (for example a deletion recovered from the journal). A crop added again under the same ID is kept.
+     *
+     * @param deleted The crop that was deleted.
+     */
+    private static void markDeleted(Crop deleted) {
+        synchronized (DATA_LOCK) {
+            if (!deleted.getSheetName().equals(loadedSheetName)) {
+                return;
+            }
+            CropTable table = dataRow;
+            int row = table.indexOfCropID(deleted.getCropID());
+            if (row != -1 && table.holdsValues(row, deleted)) {
+                table.remove(row);
+            }
+        }
+    }
+
+
+    /**
+     * Pushes the picks and restocks waiting for each sheet. Each sheet's adjustments, summed per crop, are added
+     * to the quantities the sheet holds right now with one read and one write, so many picks of a crop cost a
+     * single cell write and picks made elsewhere are not overwritten. The loaded crops are then set to the
+     * sheet's new quantity plus anything adjusted while the push was running. A sheet whose push fails keeps
+     * its adjustments for the next push.
+     *
+     * @param verbose Whether to report each sheet; the background flusher pushes quietly.
+     * @return The number of crops whose adjustments no longer need to be pushed.
+     * @throws Exception if Google Sheets is unavailable; the adjustments stay staged.
+     */
+    private static int pushQuantityDeltas(boolean verbose) throws Exception {
+        synchronized (quantityPushLock) {
+            if (quantityDeltas.isEmpty()) {
+                return 0;
+            }
+            GoogleSheetsApplicationInterface sheets = service();
+            int settled = 0;
+            Exception failure = null;
+            for (QuantityDeltas.Pending pending : quantityDeltas.drain()) {
+                IntIntHashMap quantities;
+                try {
+                    quantities = RequestScheduler.runInLane(RequestScheduler.Lane.BULK,
+                            () -> sheets.applyQuantityDeltas(pending.getSheetName(), pending.getDeltas()));
+                } catch (Exception e) {
+                    quantityDeltas.requeue(pending); // Nothing was written for this sheet; keep its adjustments.
+                    failure = failure == null ? e : failure;
+                    continue;
+                }
+                acknowledgeSeqs(pending.getJournalSeqs());
+                settled += pending.getDeltas().size();
+                reconcileQuantities(pending.getSheetName(), quantities);
+                if (verbose) {
+                    int missing = pending.getDeltas().size() - quantities.size();
+                    System.out.println("Adjusted the quantities of " + quantities.size() + " crop(s) in " + pending.getSheetName()
+                            + (missing > 0 ? "; " + missing + " crop(s) were not found" : "") + ".");
+                }
+                try {
+                    snapshots.applyQuantities(pending.getSheetName(), quantities);
+                } catch (IOException e) {
+                    System.err.println("Could not update the saved copies of the sheets: " + e.getMessage());
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return settled;
+        }
+    }
+
+
+    /**
+     * Sets the loaded crops to the quantities just written to the sheet, plus any adjustment made since the push
+     * started (which has already been applied locally but has not reached the sheet yet).
+     *
+     * @param sheetName The sheet that was adjusted.
+     * @param quantities A map from crop ID to the sheet's new quantity.
+     */
+    private static void reconcileQuantities(String sheetName, IntIntHashMap quantities) {
+        synchronized (DATA_LOCK) {
+            if (!sheetName.equals(loadedSheetName)) {
+                return;
+            }
+            CropTable table = dataRow;
+            quantities.forEach((cropID, quantity) -> {
+                int row = table.indexOfCropID(cropID);
+                if (row != -1) {
+                    int dirtyFields = table.getDirtyFields(row);
+                    if (dirtyFields == 0) { // The other columns still match the sheet, so the row's fingerprint can follow.
+                        table.setRowFingerprint(row, RowFingerprint.of(table.getFarmName(row), table.getFarmLocation(row), cropID,
+                                table.getCropName(row), quantity, table.getHarvestDate(row), table.isInSeason(row)));
+                    }
+                    table.setQuantityAvailable(row, quantity + quantityDeltas.getPendingDelta(sheetName, cropID));
+                    table.setDirtyFields(row, dirtyFields);
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Starts pushing staged changes in the background, if enabled with -Dsrc.writeBehind=true. A push starts
+     * once src.writeBehind.maxPending changes are staged (default 25) or the oldest staged change has waited
+     * src.writeBehind.maxDelayMs milliseconds (default 5000), whichever comes first. Batch sizes adapt so that
+     * a push takes about src.writeBehind.targetLatencyMs milliseconds (default 2000).
+     */
+    private static void startWriteBehind() {
+        if (!Boolean.getBoolean("src.writeBehind")) {
+            return;
+        }
+        int maxPending = Integer.getInteger("src.writeBehind.maxPending", 25);
+        long maxDelayMillis = Long.getLong("src.writeBehind.maxDelayMs", 5_000L);
+        long targetLatencyMillis = Long.getLong("src.writeBehind.targetLatencyMs", 2_000L);
+        flusher = new WriteBehindFlusher(changesToRow, maxChanges -> {
+            int settled = pushStaged(maxChanges, false);
+            try {
+                pushQuantityDeltas(false); // Adjustments ride along with every automatic push.
+            } catch (Exception e) {
+                System.err.println("Automatic push of quantity adjustments failed; they stay staged: " + e.getMessage());
+            }
+            return settled;
+        }, maxPending, maxDelayMillis, targetLatencyMillis);
+        flusher.changeStaged(); // Changes recovered from the journal count towards the first flush.
+        System.out.println("Automatic push is on: changes are pushed after " + maxPending + " edits or "
+                + maxDelayMillis + " ms.");
+    }
+
+
+    /**
+     * This is a helper function that prompts the user for a string
+     * that may be left empty.
+     *
+     * @param message the message shown to the user.
+     * @return the trimmed input, or null if the user entered nothing.
+     */
+    private static String promptForOptionalString(String message) {
+        System.out.print(message);
+        String inputStr = input.nextLine().trim();
+        return inputStr.isEmpty() ? null : inputStr;
+    }
+
+
+    /**
+     * This is a helper function that prompts the user for an optional date.
+     * Any form accepted by HarvestDates (YYYY-MM-DD, MM-DD-YYYY or M/D/YYYY) is allowed.
+     *
+     * @param message the message shown to the user.
+     * @return the entered date, or null if the user entered nothing.
+     */
+    private static LocalDate promptForOptionalDate(String message) {
+        while (true) {
+            String inputStr = promptForOptionalString(message);
+            if (inputStr == null) {
+                return null;
+            }
+            int day = HarvestDates.parse(inputStr);
+            if (day != HarvestDates.NO_DATE) {
+                return HarvestDates.toLocalDate(day);
+            }
+            System.out.println("Please enter a valid date as YYYY-MM-DD, or leave it empty.");
+        }
+    }
+
+
+    /**
+     * This is a helper function that prompts the user for a harvest date until a valid one is entered.
+     * Any form accepted by HarvestDates (YYYY-MM-DD, MM-DD-YYYY or M/D/YYYY) is allowed.
+     *
+     * @param message the message shown to the user.
+     * @return the date in YYYY-MM-DD format, which Google Sheets reads as a date.
+     */
+    private static String promptForDate(String message) {
+        while (true) {
+            System.out.print(message);
+            int day = HarvestDates.parse(input.nextLine());
+            if (day != HarvestDates.NO_DATE) {
+                return HarvestDates.format(day);
+            }
+            System.out.println("Please enter a valid date as YYYY-MM-DD.");
+        }
+    }
+
+
+    /**
+     * Answers questions such as "what is in season and in stock at farm X" from the loaded crops, without
+     * contacting Google Sheets. The user picks a sheet (or keeps the one already loaded), enters any
+     * combination of filters, and sees the matching crops, the largest stocks and the total per farm.
+     *
+     * @throws Exception if a sheet has to be loaded and there's an issue fetching it.
+     */
+    private static void searchCrops() throws Exception {
+        if (loadedSheetName == null || !promptForBoolean("Search the loaded sheet (" + loadedSheetName + ")?")) {
+            getAndVerifySheets();
+        }
+
+        System.out.println("\nLeave a filter empty to ignore it.");
+        String season = promptForOptionalString("In season? (yes/no): ");
+        String farm = promptForOptionalString("Farm name: ");
+        String location = promptForOptionalString("Farm location: ");
+        LocalDate from = promptForOptionalDate("Harvested on or after (YYYY-MM-DD): ");
+        LocalDate to = promptForOptionalDate("Harvested on or before (YYYY-MM-DD): ");
+        boolean inStock = promptForBoolean("Only crops in stock?");
+
+        CropTable matches;
+        List<Crop> top;
+        Map<String, Long> totals;
+        int searched;
+        long micros;
+        synchronized (DATA_LOCK) { // Queries hold row positions, which a background push could shift.
+            CropTable table = dataRow;
+            if (catalog == null || catalog.getTable() != table) {
+                catalog = new CropCatalog(table);
+            }
+            long started = System.nanoTime();
+            CropQuery query = catalog.query();
+            if ("yes".equalsIgnoreCase(season)) {
+                query.inSeason();
+            } else if ("no".equalsIgnoreCase(season)) {
+                query.outOfSeason();
+            }
+            if (farm != null) {
+                query.farm(farm);
+            }
+            if (location != null) {
+                query.location(location);
+            }
+            if (from != null || to != null) {
+                query.harvestedBetween(from, to);
+            }
+            if (inStock) {
+                query.minQuantity(1);
+            }
+            matches = query.toTable();
+            top = query.topByQuantity(5);
+            totals = query.totalQuantityByFarm();
+            searched = table.size();
+            micros = (System.nanoTime() - started) / 1_000;
+        }
+
+        if (matches.isEmpty()) {
+            System.out.println("\nNo crops match.");
+            return;
+        }
+        printCropTable(matches);
+
+        System.out.println("\nLargest stocks:");
+        for (Crop crop : top) {
+            System.out.println("  " + crop.getCropName() + " (ID " + crop.getCropID() + ", " + crop.getFarmName() + "): " + crop.getQuantityAvailable());
         }
+        System.out.println("\nTotal quantity per farm:");
+        totals.forEach((farmName, total) -> System.out.println("  " + farmName + ": " + total));
+        System.out.println("\n" + matches.size() + " of " + searched + " crops matched in " + micros + " microseconds.");
     }
 
 
@@ -492,11 +1411,121 @@ public class Main {
         // Push the pending changes
         pushChanges();
 
-        // Select sheet to download
-        getAndVerifySheets();
+        // Select sheet to download (as bulk work, so interactive reads are allowed to go first)
+        RequestScheduler.runInLane(RequestScheduler.Lane.BULK, Main::getAndVerifySheets);
+
+        // Ask ExcelExporter to stream dataRow into an XLSX file, keeping only a window of rows in memory.
+        String output = promptForOptionalString("Enter the file to write (leave empty for " + ExcelExporter.DEFAULT_FILE + "): ");
+        synchronized (DATA_LOCK) { // Background pushes update the same table.
+            ExcelExporter.streamToXLSX(dataRow.iterator(), Paths.get(output == null ? ExcelExporter.DEFAULT_FILE : output),
+                    exportWindow(), compressExportTempFiles());
+        }
+    }
+
+
+    /**
+     * Exports every sheet of the Google Sheets database into one XLSX workbook, with one worksheet per sheet.
+     * Pending changes are pushed first. All sheets are then fetched together with a single batched request,
+     * so the export waits for one round trip rather than one per sheet.
+     *
+     * @throws Exception if the sheets cannot be fetched or the file cannot be written.
+     */
+    private static void exportAllSheetsToXLSX() throws Exception {
+        pushChanges();
+
+        String output = promptForOptionalString("Enter the file to write (leave empty for " + ExcelExporter.DEFAULT_WORKBOOK_FILE + "): ");
+        GoogleSheetsApplicationInterface sheets = service();
+        long started = System.nanoTime();
+        Map<String, List<Crop>> cropsBySheet = RequestScheduler.runInLane(RequestScheduler.Lane.BULK, sheets::getAllItems);
+        System.out.println("Fetched " + cropsBySheet.size() + " sheets in " + (System.nanoTime() - started) / 1_000_000 + " ms.");
+
+        ExcelExporter.exportWorkbook(cropsBySheet, Paths.get(output == null ? ExcelExporter.DEFAULT_WORKBOOK_FILE : output),
+                exportWindow(), compressExportTempFiles());
+    }
+
 
-        // Ask ExcelExporter to convert dataRow to XLSX
-        ExcelExporter.convertToXLSX(dataRow);
+    /**
+     * Exports one sheet of the Google Sheets database as CSV or JSON Lines, optionally gzip-compressed. Pending
+     * changes are pushed first. In append mode the rows are added to the end of an existing file, which lets a
+     * reporting job collect several sheets (or several runs) in one file.
+     *
+     * @throws Exception if the sheet cannot be fetched or the file cannot be written.
+     */
+    private static void exportSheetToFlatFile() throws Exception {
+        pushChanges();
+        RequestScheduler.runInLane(RequestScheduler.Lane.BULK, Main::getAndVerifySheets);
+
+        FlatFileExporter.Format format = promptForBoolean("Write JSON Lines instead of CSV?")
+                ? FlatFileExporter.Format.JSONL : FlatFileExporter.Format.CSV;
+        boolean gzip = promptForBoolean("Compress with gzip?");
+        boolean append = promptForBoolean("Append to the file if it exists?");
+        String defaultFile = "DetailedCropsData" + (format == FlatFileExporter.Format.CSV ? ".csv" : ".jsonl") + (gzip ? ".gz" : "");
+        String output = promptForOptionalString("Enter the file to write (leave empty for " + defaultFile + "): ");
+        Path path = Paths.get(output == null ? defaultFile : output);
+
+        synchronized (DATA_LOCK) { // Background pushes update the same table.
+            CropTable table = dataRow;
+            if (!append) {
+                FlatFileExporter.export(table, path, format, gzip);
+                return;
+            }
+            long started = System.nanoTime();
+            try (FlatFileExporter exporter = FlatFileExporter.open(path, format, gzip, true)) {
+                exporter.writeAll(table);
+                System.out.println("Appended " + exporter.getRowCount() + " rows to " + path + " in "
+                        + (System.nanoTime() - started) / 1_000_000 + " ms.");
+            }
+        }
+    }
+
+
+    /**
+     * Imports crops from an XLSX or CSV file (such as an earlier export) into a sheet in bulk. Pending changes
+     * are pushed first, so that crops added by hand are counted as taken IDs. Rows are validated like the Add
+     * Crop prompts, rows whose crop ID is already in the sheet are skipped, and the rest are appended in batches
+     * of -Dsrc.import.batchSize rows (default 5000). The sheet is reloaded afterwards.
+     *
+     * @throws Exception if the file cannot be read or the crops cannot be appended.
+     */
+    private static void importCrops() throws Exception {
+        pushChanges();
+        String sheetName = RequestScheduler.runInLane(RequestScheduler.Lane.BULK, Main::getAndVerifySheets);
+        if (staleSnapshot != null) {
+            System.out.println("Google Sheets cannot be reached right now; please try the import again later.");
+            return;
+        }
+
+        Path file = Paths.get(promptForString("Enter the XLSX or CSV file to import: "));
+        GoogleSheetsApplicationInterface sheets = service();
+        CropImporter importer = new CropImporter(sheets, Integer.getInteger("src.import.batchSize", CropImporter.DEFAULT_BATCH_SIZE));
+        CropImporter.Result result = importer.importFile(file, sheetName, loadedSheetID);
+        if (result.getImportedCount() > 0) {
+            RequestScheduler.runInLane(RequestScheduler.Lane.BULK, () -> {
+                loadSheet(sheets, sheetName);
+                return null;
+            });
+            System.out.println("Reloaded " + sheetName + " with " + loadedCropCount() + " crops.");
+        }
+    }
+
+
+    /**
+     * Returns how many rows an export keeps in memory, set with -Dsrc.export.window (default 100).
+     *
+     * @return The row window of exports.
+     */
+    private static int exportWindow() {
+        return Integer.getInteger("src.export.window", ExcelExporter.DEFAULT_WINDOW);
+    }
+
+
+    /**
+     * Returns whether exports compress their temporary files, turned off with -Dsrc.export.compressTempFiles=false.
+     *
+     * @return true unless compression was turned off.
+     */
+    private static boolean compressExportTempFiles() {
+        return !"false".equalsIgnoreCase(System.getProperty("src.export.compressTempFiles"));
     }
 
 
@@ -512,6 +1541,10 @@ public class Main {
         do{
             System.out.println("\nUtility Menu");
             System.out.println("1: Convert sheet to XLSX");
+            System.out.println("2: Show Google Sheets API usage");
+            System.out.println("3: Export all sheets to one XLSX");
+            System.out.println("4: Export sheet to CSV / JSON Lines");
+            System.out.println("5: Import crops from XLSX / CSV");
             System.out.println("0: Return to Main Menu");
             System.out.print("Enter your choice: ");
             choice = Integer.parseInt(input.nextLine());
@@ -521,6 +1554,23 @@ public class Main {
                     convertSheetToXLSX();
                     break;
 
+                case 2: // Show how close the application is to its quotas
+                    System.out.println("Google Sheets API usage: " + RequestScheduler.getDefault());
+                    System.out.println("Access token: " + SheetsClientFactory.getInstance().getCredentialManager());
+                    break;
+
+                case 3: // One workbook with every sheet
+                    exportAllSheetsToXLSX();
+                    break;
+
+                case 4: // Flat files for reporting jobs
+                    exportSheetToFlatFile();
+                    break;
+
+                case 5: // Bulk import into a sheet
+                    importCrops();
+                    break;
+
                 case 0: // Return to main menu
                     break;
 
@@ -528,7 +1578,7 @@ public class Main {
                     System.out.println("Invalid choice! Please try again!");
             }
         }
-        while (choice != 0 || choice != 1);
+        while (choice != 0);
     }
 
 
@@ -544,35 +1594,50 @@ public class Main {
     private static void mainMenu() throws Exception {
         int choice;
         do {
+            applyBackgroundRefresh();
+            reportConflicts();
             System.out.println("\nMain Menu:");
+            if (flusher != null) {
+                System.out.println("(Automatic push: " + flusher.getPendingCount() + " change(s) waiting"
+                        + (flusher.getLastFlushMillis() < 0 ? "" : ", last push took " + flusher.getLastFlushMillis() + " ms") + ")");
+            }
             System.out.println("1: Display Crops");
             System.out.println("2: Manage Crop Data");
             System.out.println("3: Push Changes to Google Sheet");
             System.out.println("4: Utility Methods");
+            System.out.println("5: Search Crops");
             System.out.println("0: Exit");
             System.out.print("Enter your choice: ");
             choice = Integer.parseInt(input.nextLine()); // Using nextLine() to avoid Scanner issues.
 
-            switch (choice) {
-                case 1:
-                    displayCrops();
-                    break;
-                case 2:
-                    manageCropData();
-                    break;
-                case 3:
-                    pushChanges();
-                    System.out.println("All changes pushed to the sheet.");
-                    break;
-                case 4:
-                    utilityClassMenu();
-                    break;
-                case 0:
-                    System.out.println("Exiting application...");
-                    break;
-                default:
-                    System.out.println("Invalid choice. Please try again.");
-                    break;
+            try {
+                switch (choice) {
+                    case 1:
+                        displayCrops();
+                        break;
+                    case 2:
+                        manageCropData();
+                        break;
+                    case 3:
+                        pushChanges();
+                        System.out.println("All changes pushed to the sheet.");
+                        break;
+                    case 4:
+                        utilityClassMenu();
+                        break;
+                    case 5:
+                        searchCrops();
+                        break;
+                    case 0:
+                        System.out.println("Exiting application...");
+                        break;
+                    default:
+                        System.out.println("Invalid choice. Please try again.");
+                        break;
+                }
+            } catch (IOException e) {
+                // Usually Google Sheets being unreachable; staged changes are kept, so the user can carry on.
+                System.out.println("Could not reach Google Sheets: " + e.getMessage() + ". Please try again later.");
             }
         } while (choice != 0);
     }
@@ -583,16 +1648,42 @@ public class Main {
      * interaction process by calling the mainMenu method. It ensures that the application is properly set up
      * and that resources are managed correctly, such as closing the Scanner before exiting.
      *
-     * @param args The command-line arguments passed to the application (not used in this application).
+     * When arguments are given, the menu is skipped: they are run as a batch command (see {@link BatchMode}) and
+     * the process exits with its status.
+     *
+     * @param args The command-line arguments: a batch command and its options, or none for the menu.
      * @throws Exception if the application encounters a critical failure during initialization or execution,
      *                   such as failing to connect to Google Sheets or errors in user operations.
      */
     public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            System.exit(BatchMode.run(args, () -> new GoogleSheetsService(SPREADSHEET_ID,
+                    GoogleSheetsService.DEFAULT_METADATA_TTL_MILLIS, RequestScheduler.getDefault(), false), snapshots));
+        }
+        // Connect to Google Sheets in the background while the menu is shown.
+        startWarmUp();
+        openJournal();
+        startWriteBehind();
+        if (!FAST_START) {
+            try {
+                service(); // Wait for the connection before showing the menu.
+            } catch (IOException e) {
+                System.out.println(e.getMessage() + ". Continuing with the saved copies of the sheets.");
+            }
+        }
+        System.out.println("Start-up took " + millisSinceStart() + " ms" + (FAST_START ? " (connecting to Google Sheets in the background)." : "."));
+
         // Ensure the scanner is closed on application exit.
         try {
             mainMenu(); // Initiates the application.
         } finally {
             input.close();
+            if (flusher != null) {
+                flusher.close(); // Push what is left; anything that fails stays in the journal.
+            }
+            if (journal != null) {
+                journal.close();
+            }
         }
     }
 
@@ -0,0 +1,105 @@
+package org.example;
+
+/**
+ * Describes the outcome of pushing a single staged {@link Crop} to the Google Sheets database.
+ * A batch push (see {@link GoogleSheetsApplicationInterface#pushBatch(java.util.Collection)}) returns
+ * one PushResult per crop so that callers can tell which changes landed and which need to be retried,
+ * instead of aborting the whole push on the first failure.
+ */
+public class PushResult {
+
+    /**
+     * The possible outcomes of pushing a crop.
+     */
+    public enum Status {
+        ADDED,      // The crop was written to a new row.
+        UPDATED,    // The crop's existing row was overwritten.
+        DELETED,    // The crop's row was cleared.
+        NOT_FOUND,  // The crop's ID could not be found in its sheet.
+        CONFLICT,   // The crop's row was changed in the sheet since it was loaded, so it was left alone.
+        FAILED      // The request for this crop failed and the change should be retried.
+    }
+
+    private final Crop crop; // The crop that was pushed.
+    private final Status status; // What happened to the crop.
+    private final int row; // The sheet row that was written or cleared (-1 if none).
+    private final String message; // Additional detail, mostly useful for failures.
+    private final Crop current; // For a conflict, the crop as its row now reads in the sheet (null if unknown).
+
+
+    /**
+     * Constructor for the PushResult object.
+     *
+     * @param crop The crop that was pushed.
+     * @param status What happened to the crop.
+     * @param row The sheet row that was written or cleared, or -1 if no row was touched.
+     * @param message Additional detail about the outcome (may be empty).
+     */
+    public PushResult(Crop crop, Status status, int row, String message) {
+        this(crop, status, row, message, null);
+    }
+
+
+    /**
+     * Constructor for the PushResult object of a conflict, carrying what the sheet now holds.
+     *
+     * @param crop The crop that was pushed.
+     * @param status What happened to the crop.
+     * @param row The sheet row that was written or cleared, or -1 if no row was touched.
+     * @param message Additional detail about the outcome (may be empty).
+     * @param current The crop as its row now reads in the sheet, or null if the row no longer holds the crop.
+     */
+    public PushResult(Crop crop, Status status, int row, String message, Crop current) {
+        this.crop = crop;
+        this.status = status;
+        this.row = row;
+        this.message = message;
+        this.current = current;
+    }
+
+    /**
+     * Returns the crop that this result describes.
+     *
+     * @return crop The crop that was pushed.
+     */
+    public Crop getCrop() {return crop;}
+
+    /**
+     * Returns what happened to the crop.
+     *
+     * @return status The outcome of the push.
+     */
+    public Status getStatus() {return status;}
+
+    /**
+     * Returns the sheet row that was written or cleared.
+     *
+     * @return row The row number within the sheet, or -1 if no row was touched.
+     */
+    public int getRow() {return row;}
+
+    /**
+     * Returns additional detail about the outcome.
+     *
+     * @return message A human-readable description, mostly useful for failures.
+     */
+    public String getMessage() {return message;}
+
+    /**
+     * Returns, for a {@link Status#CONFLICT}, the crop as its row was read in the sheet during the push, so that
+     * the loaded copy can be brought up to date without reloading the sheet.
+     *
+     * @return current The crop the sheet now holds (unchanged, with its row's fingerprint), or null if the row
+     *         was emptied, no longer holds the crop, or was not read.
+     */
+    public Crop getCurrent() {return current;}
+
+    /**
+     * Returns whether the change reached the sheet.
+     *
+     * @return true if the crop was added, updated or deleted; false otherwise.
+     */
+    public boolean isSuccess() {
+        return status == Status.ADDED || status == Status.UPDATED || status == Status.DELETED;
+    }
+}
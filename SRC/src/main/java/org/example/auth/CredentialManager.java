@@ -0,0 +1,297 @@
+package org.example.auth;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.auth.http.HttpCredentialsAdapter;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the OAuth access token of a set of {@link GoogleCredentials} fresh in the background, so that
+ * requests made on behalf of a user never have to wait for a round trip to the token endpoint.
+ * <p>
+ * Left alone, GoogleCredentials only refreshes its token when a request finds it close to expiry, and that
+ * request (plus every request that arrives while it runs) waits for the refresh. The CredentialManager instead
+ * refreshes the token on a background thread a configurable margin before it expires. When a refresh has to
+ * happen right away (for example because the API rejected the token with a 401), concurrent callers share a
+ * single refresh instead of each starting their own.
+ * <p>
+ * The manager records the age of the current token and the latency of the last refresh, which makes it easy to
+ * confirm that token exchange is no longer on the request path.
+ */
+public class CredentialManager implements AutoCloseable {
+    private static final long DEFAULT_REFRESH_MARGIN_MILLIS = 10 * 60 * 1000; // Refresh ten minutes before expiry.
+    private static final long RETRY_DELAY_MILLIS = 30_000; // Wait before retrying a failed background refresh.
+    private static final long MIN_DELAY_MILLIS = 1_000; // Never schedule refreshes closer together than this.
+
+    private final GoogleCredentials credentials; // The credentials whose token is managed.
+    private final long refreshMarginMillis; // How long before expiry the token is refreshed.
+    private final ScheduledExecutorService refresher; // Runs the background refreshes.
+    private CompletableFuture<AccessToken> inFlight; // The refresh currently running, shared by every caller.
+    private ScheduledFuture<?> nextRefresh; // The pending background refresh, replaced whenever a refresh completes.
+
+    private volatile long tokenIssuedAtMillis = -1; // When the current token was obtained (-1 before the first refresh).
+    private volatile long lastRefreshLatencyMillis = -1; // How long the last successful refresh took.
+    private volatile long refreshCount; // Number of successful refreshes.
+    private volatile long failureCount; // Number of failed refreshes.
+    private volatile boolean closed; // Whether background refreshes have been stopped.
+
+
+    /**
+     * Constructs a CredentialManager with the default refresh margin of ten minutes.
+     *
+     * @param credentials The credentials whose access token should be kept fresh.
+     */
+    public CredentialManager(GoogleCredentials credentials) {
+        this(credentials, DEFAULT_REFRESH_MARGIN_MILLIS);
+    }
+
+
+    /**
+     * Constructs a CredentialManager.
+     *
+     * @param credentials The credentials whose access token should be kept fresh.
+     * @param refreshMarginMillis How long, in milliseconds, before expiry the token is refreshed. This should be
+     *                            larger than the library's own five minute margin so that requests never see a
+     *                            token that the library would refresh synchronously.
+     */
+    public CredentialManager(GoogleCredentials credentials, long refreshMarginMillis) {
+        this(credentials, refreshMarginMillis, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "credential-refresher");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+
+    /**
+     * Constructs a CredentialManager that runs its refreshes on the given executor, which lets tests decide
+     * when a scheduled background refresh runs instead of waiting for it. The executor is shut down by
+     * {@link #close()}.
+     *
+     * @param credentials The credentials whose access token should be kept fresh.
+     * @param refreshMarginMillis How long, in milliseconds, before expiry the token is refreshed.
+     * @param refresher Runs refreshes, and schedules the background ones.
+     */
+    CredentialManager(GoogleCredentials credentials, long refreshMarginMillis, ScheduledExecutorService refresher) {
+        this.credentials = credentials;
+        this.refreshMarginMillis = refreshMarginMillis;
+        this.refresher = refresher;
+    }
+
+
+    /**
+     * Starts keeping the token fresh by fetching the first token in the background.
+     *
+     * @return A future that completes once the first token has been obtained.
+     */
+    public CompletableFuture<AccessToken> start() {
+        return refreshAsync();
+    }
+
+
+    /**
+     * Returns the credentials whose token is managed.
+     *
+     * @return The managed GoogleCredentials.
+     */
+    public GoogleCredentials getCredentials() {
+        return credentials;
+    }
+
+
+    /**
+     * Returns a request initializer that authorizes requests with the managed credentials.
+     * When the API rejects a request with a 401, the token is refreshed through {@link #forceRefresh()},
+     * so a burst of rejected requests causes one refresh rather than one per request.
+     *
+     * @return An HttpRequestInitializer for building Google API clients.
+     */
+    public HttpRequestInitializer newRequestInitializer() {
+        return new HttpCredentialsAdapter(credentials) {
+            @Override
+            public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry) {
+                if (response.getStatusCode() != 401) {
+                    return false;
+                }
+                try {
+                    forceRefresh();
+                    return true;
+                } catch (IOException e) {
+                    System.err.println("Failed to refresh the access token: " + e.getMessage());
+                    return false;
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Refreshes the token right away and waits for the new token. If a refresh is already running, this
+     * waits for that refresh instead of starting another one.
+     *
+     * @return The new access token.
+     * @throws IOException If the token endpoint cannot be reached or rejects the credentials.
+     */
+    public AccessToken forceRefresh() throws IOException {
+        try {
+            return refreshAsync().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to refresh the access token.", e.getCause());
+        }
+    }
+
+
+    /**
+     * Starts a refresh on the background thread, or returns the refresh that is already running.
+     *
+     * @return A future holding the new access token.
+     */
+    public synchronized CompletableFuture<AccessToken> refreshAsync() {
+        if (inFlight == null) {
+            CompletableFuture<AccessToken> refresh = new CompletableFuture<>();
+            inFlight = refresh;
+            refresher.execute(() -> runRefresh(refresh));
+        }
+        return inFlight;
+    }
+
+
+    /**
+     * Performs a refresh, records its metrics and schedules the next one.
+     *
+     * @param refresh The future to complete with the outcome of the refresh.
+     */
+    private void runRefresh(CompletableFuture<AccessToken> refresh) {
+        long started = System.nanoTime();
+        AccessToken token = null;
+        Throwable failure = null;
+        try {
+            credentials.refresh();
+            token = credentials.getAccessToken();
+            lastRefreshLatencyMillis = (System.nanoTime() - started) / 1_000_000;
+            tokenIssuedAtMillis = System.currentTimeMillis();
+            refreshCount++;
+        } catch (Throwable t) {
+            failure = t;
+            failureCount++;
+            System.err.println("Background access token refresh failed: " + t.getMessage());
+        }
+
+        synchronized (this) {
+            inFlight = null;
+        }
+        scheduleNext(token);
+        if (failure == null) {
+            refresh.complete(token);
+        } else {
+            refresh.completeExceptionally(failure);
+        }
+    }
+
+
+    /**
+     * Schedules the next background refresh a margin before the token expires, or shortly after a failure.
+     * The refresh scheduled after the previous token is cancelled first, so forced refreshes (after a 401, for
+     * example) move the schedule rather than starting another chain of refreshes next to it.
+     *
+     * @param token The token that was just obtained, or null if the refresh failed.
+     */
+    private synchronized void scheduleNext(AccessToken token) {
+        if (closed) {
+            return;
+        }
+        long delay = RETRY_DELAY_MILLIS;
+        if (token != null && token.getExpirationTime() != null) {
+            delay = token.getExpirationTime().getTime() - System.currentTimeMillis() - refreshMarginMillis;
+        }
+        if (nextRefresh != null) {
+            nextRefresh.cancel(false);
+        }
+        nextRefresh = refresher.schedule(this::refreshAsync, Math.max(MIN_DELAY_MILLIS, delay), TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Returns how long ago the current token was obtained.
+     *
+     * @return The age of the token in milliseconds, or -1 if no token has been obtained yet.
+     */
+    public long getTokenAgeMillis() {
+        long issued = tokenIssuedAtMillis;
+        return issued < 0 ? -1 : System.currentTimeMillis() - issued;
+    }
+
+
+    /**
+     * Returns how long the current token remains valid.
+     *
+     * @return The time until expiry in milliseconds, or -1 if there is no token or it has no expiry.
+     */
+    public long getMillisUntilExpiry() {
+        AccessToken token = credentials.getAccessToken();
+        if (token == null || token.getExpirationTime() == null) {
+            return -1;
+        }
+        return token.getExpirationTime().getTime() - System.currentTimeMillis();
+    }
+
+
+    /**
+     * Returns how long the last successful refresh took.
+     *
+     * @return The latency of the last refresh in milliseconds, or -1 if no refresh has completed yet.
+     */
+    public long getLastRefreshLatencyMillis() {return lastRefreshLatencyMillis;}
+
+    /**
+     * Returns the number of successful refreshes.
+     *
+     * @return The refresh count.
+     */
+    public long getRefreshCount() {return refreshCount;}
+
+    /**
+     * Returns the number of failed refreshes.
+     *
+     * @return The failure count.
+     */
+    public long getFailureCount() {return failureCount;}
+
+
+    /**
+     * Stops the background refreshes. The credentials keep working, but fall back to refreshing lazily.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        refresher.shutdownNow();
+    }
+
+
+    /**
+     * Summarizes the manager's metrics in one line.
+     *
+     * @return A human-readable description of the token's state.
+     */
+    @Override
+    public String toString() {
+        return "tokenAgeMs=" + getTokenAgeMillis()
+                + ", expiresInMs=" + getMillisUntilExpiry()
+                + ", lastRefreshLatencyMs=" + getLastRefreshLatencyMillis()
+                + ", refreshes=" + getRefreshCount()
+                + ", failures=" + getFailureCount();
+    }
+}
@@ -0,0 +1,239 @@
+package org.example.auth;
+
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.SslUtils;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.auth.oauth2.GoogleCredentials;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates and shares the expensive objects needed to talk to the Google Sheets API, so that they are built
+ * once per process instead of once per GoogleSheetsService.
+ * <p>
+ * The factory owns a single HTTP transport backed by a pooled Apache HttpClient, which keeps connections
+ * (and their TLS sessions) alive between requests and across threads. It also loads the service account
+ * credentials once, and hands out one Sheets client per spreadsheet ID, so every GoogleSheetsService that
+ * targets the same spreadsheet reuses the same client. The credentials are handed to a {@link CredentialManager},
+ * which refreshes their access token in the background before it expires.
+ * <p>
+ * Usage example:
+ * SheetsClientFactory.configure(10, 30_000, true); // Optional, before the first call to getInstance().
+ * Sheets sheets = SheetsClientFactory.getInstance().getSheets(spreadsheetId);
+ */
+public class SheetsClientFactory {
+    private static final String KEY_FILE = "TEST-java-api-key.json"; // Service account key, loaded from the classpath.
+    private static final String SHEETS_SCOPE = "https://www.googleapis.com/auth/spreadsheets"; // Read/write access to spreadsheets.
+    private static final String APPLICATION_NAME = "Google Sheets Example"; // Reported to Google with every request.
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10; // All Sheets calls share one route.
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 60_000; // How long an idle connection is kept for reuse.
+    private static final boolean DEFAULT_GZIP = true; // Compress request and response bodies.
+
+    private static SheetsClientFactory instance; // The factory shared by the whole process.
+
+    private final int maxConnectionsPerRoute; // Size of the connection pool for the Sheets API host.
+    private final long keepAliveMillis; // How long an idle connection is kept for reuse.
+    private final boolean gzip; // Whether request and response bodies are compressed.
+    private final Map<String, Sheets> clients = new ConcurrentHashMap<>(); // Spreadsheet ID to its Sheets client.
+    private final Object transportLock = new Object(); // Guards transport, separately so it can warm up alongside the credentials.
+    private final Object credentialsLock = new Object(); // Guards credentialManager.
+    private HttpTransport transport; // Created on first use.
+    private CredentialManager credentialManager; // Loaded on first use; keeps the access token fresh.
+
+
+    /**
+     * Constructs a factory with the given connection settings. Nothing is created until it is first needed.
+     *
+     * @param maxConnectionsPerRoute The maximum number of pooled connections to the Sheets API host.
+     * @param keepAliveMillis How long, in milliseconds, an idle connection is kept for reuse.
+     * @param gzip Whether request and response bodies should be gzip compressed.
+     */
+    private SheetsClientFactory(int maxConnectionsPerRoute, long keepAliveMillis, boolean gzip) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.keepAliveMillis = keepAliveMillis;
+        this.gzip = gzip;
+    }
+
+
+    /**
+     * Returns the factory shared by the whole process, creating it with default settings if needed.
+     *
+     * @return The shared SheetsClientFactory.
+     */
+    public static synchronized SheetsClientFactory getInstance() {
+        if (instance == null) {
+            instance = new SheetsClientFactory(DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_KEEP_ALIVE_MILLIS, DEFAULT_GZIP);
+        }
+        return instance;
+    }
+
+
+    /**
+     * Sets the connection settings of the shared factory. Must be called before the first call to
+     * {@link #getInstance()}, since the transport cannot be changed once clients are using it.
+     *
+     * @param maxConnectionsPerRoute The maximum number of pooled connections to the Sheets API host.
+     * @param keepAliveMillis How long, in milliseconds, an idle connection is kept for reuse.
+     * @param gzip Whether request and response bodies should be gzip compressed.
+     * @throws IllegalStateException If the shared factory has already been created.
+     */
+    public static synchronized void configure(int maxConnectionsPerRoute, long keepAliveMillis, boolean gzip) {
+        if (instance != null) {
+            throw new IllegalStateException("SheetsClientFactory has already been created.");
+        }
+        instance = new SheetsClientFactory(maxConnectionsPerRoute, keepAliveMillis, gzip);
+    }
+
+
+    /**
+     * Loads the credentials and builds the transport in parallel on background threads, so that the first
+     * Sheets client can be created without waiting for either of them in turn.
+     *
+     * @return A future that completes once both the credentials and the transport are ready.
+     */
+    public CompletableFuture<Void> warmUp() {
+        CompletableFuture<Void> credentials = CompletableFuture.runAsync(() -> {
+            try {
+                getCredentialManager();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        CompletableFuture<Void> transport = CompletableFuture.runAsync(() -> {
+            try {
+                getTransport();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        return CompletableFuture.allOf(credentials, transport);
+    }
+
+
+    /**
+     * Returns the Sheets client for a spreadsheet, creating it on first use.
+     * Every caller asking for the same spreadsheet ID gets the same client.
+     *
+     * @param spreadsheetId The ID of the spreadsheet the client will be used with.
+     * @return The shared Sheets client for the spreadsheet.
+     * @throws Exception If the credentials or the transport cannot be created.
+     */
+    public Sheets getSheets(String spreadsheetId) throws Exception {
+        Sheets sheets = clients.get(spreadsheetId);
+        if (sheets == null) {
+            sheets = newSheets();
+            Sheets existing = clients.putIfAbsent(spreadsheetId, sheets);
+            if (existing != null) {
+                sheets = existing;
+            }
+        }
+        return sheets;
+    }
+
+
+    /**
+     * Builds a new Sheets client on top of the shared transport and credentials.
+     * Building a client is cheap; the expensive parts (TLS setup and key loading) are shared.
+     *
+     * @return A new Sheets client.
+     * @throws Exception If the credentials or the transport cannot be created.
+     */
+    public Sheets newSheets() throws Exception {
+        JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+        return new Sheets.Builder(getTransport(), jsonFactory, getCredentialManager().newRequestInitializer())
+                .setApplicationName(APPLICATION_NAME)
+                .setGoogleClientRequestInitializer(request -> request.setDisableGZipContent(!gzip))
+                .build();
+    }
+
+
+    /**
+     * Returns the shared service account credentials, loading them from the classpath on first use.
+     *
+     * @return The credentials, scoped to the Sheets API.
+     * @throws IOException If the key file is missing or cannot be read.
+     */
+    public GoogleCredentials getCredentials() throws IOException {
+        return getCredentialManager().getCredentials();
+    }
+
+
+    /**
+     * Returns the manager that keeps the shared credentials' access token fresh. On first use, the credentials
+     * are loaded from the classpath and the first token is requested in the background.
+     *
+     * @return The shared CredentialManager.
+     * @throws IOException If the key file is missing or cannot be read.
+     */
+    public CredentialManager getCredentialManager() throws IOException {
+        synchronized (credentialsLock) {
+            if (credentialManager != null) {
+                return credentialManager;
+            }
+            try (InputStream serviceAccountStream = SheetsClientFactory.class.getClassLoader().getResourceAsStream(KEY_FILE)) {
+                if (serviceAccountStream == null) {
+                    throw new IOException("Service account key file not found.");
+                }
+                GoogleCredentials credentials = GoogleCredentials.fromStream(serviceAccountStream)
+                        .createScoped(Collections.singleton(SHEETS_SCOPE));
+                credentialManager = new CredentialManager(credentials);
+                credentialManager.start();
+            }
+            return credentialManager;
+        }
+    }
+
+
+    /**
+     * Returns the shared HTTP transport, creating it on first use.
+     * The transport pools its connections, keeps idle connections alive for reuse and trusts only
+     * Google's certificates, just like the transport created by GoogleNetHttpTransport.newTrustedTransport().
+     *
+     * @return The shared transport.
+     * @throws Exception If the TLS context cannot be initialized.
+     */
+    public HttpTransport getTransport() throws Exception {
+        synchronized (transportLock) {
+            if (transport != null) {
+                return transport;
+            }
+            SSLContext sslContext = SslUtils.getTlsSslContext();
+            SslUtils.initSslContext(sslContext, GoogleUtils.getCertificateTrustStore(), SslUtils.getPkixTrustManagerFactory());
+
+            Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", new SSLConnectionSocketFactory(sslContext))
+                    .build();
+            PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(socketFactories);
+            pool.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+            pool.setMaxTotal(Math.max(maxConnectionsPerRoute, pool.getMaxTotal()));
+
+            HttpClientBuilder builder = ApacheHttpTransport.newDefaultHttpClientBuilder()
+                    .setConnectionManager(pool)
+                    .setKeepAliveStrategy((response, context) -> keepAliveMillis);
+            if (!gzip) {
+                builder.disableContentCompression();
+            }
+            transport = new ApacheHttpTransport(builder.build());
+            return transport;
+        }
+    }
+}
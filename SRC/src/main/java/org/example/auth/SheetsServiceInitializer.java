@@ -2,15 +2,7 @@ package org.example.auth;
 
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.model.Spreadsheet;
-import com.google.auth.oauth2.GoogleCredentials;
-import com.google.auth.http.HttpCredentialsAdapter;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.gson.GsonFactory;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Collections;
 
 /**
  * Initializes and provides a Google Sheets service instance.
@@ -41,26 +33,15 @@ public class SheetsServiceInitializer {
 
     /**
      * Creates and configures the Sheets service instance.
-     * This method sets up the authentication credentials and the HTTP transport for the Sheets service.
+     * The authentication credentials and the HTTP transport are shared by every Sheets service in the
+     * process through {@link SheetsClientFactory}, so only the lightweight client object is new.
      *
      * @return A Sheets service instance, ready for use.
      * @throws Exception if there are issues creating the Sheets service instance.
      */
     private Sheets getSheetsService() throws Exception {
         try {
-            InputStream serviceAccountStream = SheetsServiceInitializer.class.getClassLoader().getResourceAsStream("TEST-java-api-key.json");
-            if (serviceAccountStream == null) {
-                throw new IOException("Service account key file not found.");
-            }
-
-            GoogleCredentials credentials = GoogleCredentials.fromStream(serviceAccountStream)
-                    .createScoped(Collections.singleton("https://www.googleapis.com/auth/spreadsheets"));
-            NetHttpTransport HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
-            JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
-
-            return new Sheets.Builder(HTTP_TRANSPORT, JSON_FACTORY, new HttpCredentialsAdapter(credentials))
-                    .setApplicationName("Google Sheets Example")
-                    .build();
+            return SheetsClientFactory.getInstance().newSheets();
         } catch (IOException e) {
             System.err.println("Failed to initialize the Sheets service: " + e.getMessage());
             throw e;
@@ -0,0 +1,334 @@
+package org.example.services;
+
+import org.example.Crop;
+import org.example.GoogleSheetsApplicationInterface;
+import org.example.PushResult;
+import org.example.util.IntIntHashMap;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides a non-blocking view of a {@link GoogleSheetsApplicationInterface}.
+ * Every operation is submitted to an executor and returns a {@link CompletableFuture} right away, so callers
+ * such as a web or mobile frontend can overlap many Sheets calls without dedicating a blocked thread to each.
+ * <p>
+ * On runtimes that support virtual threads (Java 21 and later) every call runs on its own virtual thread;
+ * on older runtimes a pool of at most maxInFlight daemon threads is used instead, so calls beyond the limit
+ * wait in the pool's queue rather than each holding a platform thread. Either way, the number of calls in
+ * flight against one spreadsheet is bounded by a semaphore shared by every AsyncGoogleSheetsService that
+ * targets the same spreadsheet ID, which keeps bursts of requests from overrunning the Sheets API quota.
+ * Every instance for a spreadsheet must therefore be created with the same limit.
+ * <p>
+ * Usage example:
+ * AsyncGoogleSheetsService async = new AsyncGoogleSheetsService(SPREADSHEET_ID);
+ * async.getItemsInSheet("Sheet1").thenAccept(crops -> System.out.println(crops.size()));
+ */
+public class AsyncGoogleSheetsService implements AutoCloseable {
+    private static final int DEFAULT_MAX_IN_FLIGHT = 8; // Default number of concurrent calls per spreadsheet.
+    private static final Map<String, InFlightLimit> IN_FLIGHT_LIMITS = new ConcurrentHashMap<>(); // Spreadsheet ID to its shared limit.
+
+    private final GoogleSheetsApplicationInterface delegate; // The blocking service that performs the calls.
+    private final Semaphore inFlight; // Bounds the concurrent calls against this spreadsheet.
+    private final ExecutorService executor; // Runs the blocking calls.
+
+
+    /**
+     * Constructs an AsyncGoogleSheetsService backed by a new {@link GoogleSheetsService} for the given spreadsheet.
+     *
+     * @param spreadsheetId The ID of the Google Sheet to interact with.
+     * @throws Exception If the underlying GoogleSheetsService cannot be created.
+     */
+    public AsyncGoogleSheetsService(String spreadsheetId) throws Exception {
+        this(new GoogleSheetsService(spreadsheetId), spreadsheetId, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+
+    /**
+     * Constructs an AsyncGoogleSheetsService around an existing blocking service.
+     * The in-flight limit is shared per spreadsheet ID, so it must match the limit of any other instance
+     * created for the same spreadsheet.
+     *
+     * @param delegate The blocking service that performs the calls.
+     * @param spreadsheetId The ID of the spreadsheet the delegate works with.
+     * @param maxInFlight The maximum number of calls allowed in flight against the spreadsheet at once.
+     * @throws IllegalArgumentException If maxInFlight is below 1, or differs from the limit already set for the
+     *                                  spreadsheet by another instance.
+     */
+    public AsyncGoogleSheetsService(GoogleSheetsApplicationInterface delegate, String spreadsheetId, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1.");
+        }
+        this.delegate = delegate;
+        InFlightLimit limit = IN_FLIGHT_LIMITS.computeIfAbsent(spreadsheetId, id -> new InFlightLimit(maxInFlight));
+        if (limit.max != maxInFlight) {
+            throw new IllegalArgumentException("Spreadsheet " + spreadsheetId + " already allows " + limit.max
+                    + " calls in flight, not " + maxInFlight + ".");
+        }
+        this.inFlight = limit.permits;
+        this.executor = newExecutor(maxInFlight);
+    }
+
+
+    /**
+     * Tests the connection to the Google Sheets API.
+     *
+     * @return A future that completes once the connection has been verified.
+     */
+    public CompletableFuture<Void> testConnection() {
+        return submit(() -> {
+            delegate.testConnection();
+            return null;
+        });
+    }
+
+
+    /**
+     * Retrieves the names of the sheets in the spreadsheet.
+     *
+     * @return A future holding the sheet names.
+     */
+    public CompletableFuture<List<String>> getAvailableSheets() {
+        return submit(delegate::getAvailableSheets);
+    }
+
+
+    /**
+     * Retrieves the Crop objects of a sheet.
+     *
+     * @param sheetName The name of the sheet to retrieve items from.
+     * @return A future holding the crops of the sheet.
+     */
+    public CompletableFuture<List<Crop>> getItemsInSheet(String sheetName) {
+        return submit(() -> delegate.getItemsInSheet(sheetName));
+    }
+
+
+    /**
+     * Retrieves the Crop objects of several sheets in a single request.
+     *
+     * @param sheetNames The names of the sheets to retrieve items from.
+     * @return A future holding a Map from each sheet name to its crops.
+     */
+    public CompletableFuture<Map<String, List<Crop>>> getItemsInSheets(Collection<String> sheetNames) {
+        return submit(() -> delegate.getItemsInSheets(sheetNames));
+    }
+
+
+    /**
+     * Retrieves the Crop objects of every sheet in the spreadsheet.
+     *
+     * @return A future holding a Map from each sheet name to its crops.
+     */
+    public CompletableFuture<Map<String, List<Crop>>> getAllItems() {
+        return submit(delegate::getAllItems);
+    }
+
+
+    /**
+     * Adds a new Crop object as a row of its sheet.
+     *
+     * @param crop The Crop object to be added as a new row.
+     * @return A future that completes once the row has been written.
+     */
+    public CompletableFuture<Void> addDataRow(Crop crop) {
+        return submit(() -> {
+            delegate.addDataRow(crop);
+            return null;
+        });
+    }
+
+
+    /**
+     * Adds Crop objects as new rows after the last row of data in a sheet, with a single request.
+     *
+     * @param sheetName The name of the sheet to add the crops to.
+     * @param crops The Crop objects to add, in order.
+     * @return A future holding the row number of the first added crop, or -1 if crops is empty.
+     */
+    public CompletableFuture<Integer> appendRows(String sheetName, List<Crop> crops) {
+        return submit(() -> delegate.appendRows(sheetName, crops));
+    }
+
+
+    /**
+     * Retrieves the row of every crop in a sheet, reading only the Crop ID column.
+     *
+     * @param sheetName The name of the sheet to read.
+     * @return A future holding a map from crop ID to row number.
+     */
+    public CompletableFuture<IntIntHashMap> getCropRows(String sheetName) {
+        return submit(() -> delegate.getCropRows(sheetName));
+    }
+
+
+    /**
+     * Checks the existence of a Crop and displays its information.
+     *
+     * @param crop The Crop object to check and display.
+     * @return A future holding true if the crop exists in the sheet.
+     */
+    public CompletableFuture<Boolean> checkAndDisplayCrop(Crop crop) {
+        return submit(() -> delegate.checkAndDisplayCrop(crop));
+    }
+
+
+    /**
+     * Updates an existing Crop object's row in its sheet.
+     *
+     * @param crop The Crop object to update.
+     * @return A future that completes once the row has been written.
+     */
+    public CompletableFuture<Void> updateDataRow(Crop crop) {
+        return submit(() -> {
+            delegate.updateDataRow(crop);
+            return null;
+        });
+    }
+
+
+    /**
+     * Clears a Crop object's row in its sheet.
+     *
+     * @param crop The Crop object to clear data for.
+     * @return A future that completes once the row has been cleared.
+     */
+    public CompletableFuture<Void> deleteDataRow(Crop crop) {
+        return submit(() -> {
+            delegate.deleteDataRow(crop);
+            return null;
+        });
+    }
+
+
+    /**
+     * Retrieves the sheet ID associated with a sheet name.
+     *
+     * @param sheetName The name of the sheet for which the ID is being requested.
+     * @return A future holding the sheet ID.
+     */
+    public CompletableFuture<String> getSheetIdByName(String sheetName) {
+        return submit(() -> delegate.getSheetIdByName(sheetName));
+    }
+
+
+    /**
+     * Pushes a batch of staged Crop objects to their sheets.
+     *
+     * @param crops The staged Crop objects to push.
+     * @return A future holding one PushResult per crop, in the same order as the given collection.
+     */
+    public CompletableFuture<List<PushResult>> pushBatch(Collection<Crop> crops) {
+        return submit(() -> delegate.pushBatch(crops));
+    }
+
+
+    /**
+     * Adds amounts to the quantities of crops in a sheet, on top of the quantities currently in the sheet.
+     *
+     * @param sheetName The name of the sheet the crops are in.
+     * @param deltas A map from crop ID to the amount to add to its quantity.
+     * @return A future holding a map from crop ID to its new quantity, for every crop that was found.
+     */
+    public CompletableFuture<IntIntHashMap> applyQuantityDeltas(String sheetName, IntIntHashMap deltas) {
+        return submit(() -> delegate.applyQuantityDeltas(sheetName, deltas));
+    }
+
+
+    /**
+     * Returns the blocking service this instance delegates to.
+     *
+     * @return The underlying GoogleSheetsApplicationInterface.
+     */
+    public GoogleSheetsApplicationInterface getDelegate() {
+        return delegate;
+    }
+
+
+    /**
+     * Stops accepting new calls. Calls that were already submitted still run to completion.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+
+    /**
+     * Runs a blocking call on the executor once a slot for the spreadsheet is available.
+     *
+     * @param call The blocking call to run.
+     * @param <T> The type of the call's result.
+     * @return A future completed with the call's result, or exceptionally with the exception it threw.
+     */
+    private <T> CompletableFuture<T> submit(Callable<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return;
+            }
+            try {
+                future.complete(call.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                inFlight.release();
+            }
+        });
+        return future;
+    }
+
+
+    /**
+     * Creates the executor used to run calls: a virtual-thread-per-task executor when the runtime provides one,
+     * otherwise a pool of at most maxThreads daemon threads, which exit after a minute without work. Platform
+     * threads are bounded by the pool rather than by the semaphore, since a thread waiting for a permit would
+     * still be a thread.
+     *
+     * @param maxThreads The most platform threads the fallback pool may start.
+     * @return The executor for this instance.
+     */
+    private static ExecutorService newExecutor(int maxThreads) {
+        try {
+            // Looked up reflectively so that the project still builds and runs on Java 17.
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "sheets-async");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+
+    /**
+     * The in-flight limit shared by every instance that targets one spreadsheet.
+     */
+    private static final class InFlightLimit {
+        private final int max; // The number of calls allowed in flight at once.
+        private final Semaphore permits; // One permit per call that may start.
+
+        private InFlightLimit(int max) {
+            this.max = max;
+            this.permits = new Semaphore(max, true);
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package org.example.services;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.example.Crop;
+import org.example.GoogleSheetsApplicationInterface;
+import org.example.util.HarvestDates;
+import org.example.util.IntIntHashMap;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Imports crops from XLSX or CSV files into a sheet in bulk, for example to seed a new season from last
+ * year's DetailedCropsData.xlsx.
+ * <p>
+ * The file is streamed through a pipeline of three stages connected by bounded queues:
+ * <ol>
+ *     <li>a parser thread reads records one at a time, XLSX through POI's event model (XSSFReader and SAX,
+ *     so the worksheet is never loaded as a whole) and CSV with an RFC 4180 reader (gzip-compressed if the
+ *     file name ends in .gz);</li>
+ *     <li>the calling thread validates each record the way the Add Crop prompts do, drops crop IDs already in
+ *     the sheet or earlier in the file, and groups the rest into batches;</li>
+ *     <li>a writer thread appends each batch with a single appendRows call in the BULK lane of the
+ *     {@link RequestScheduler}.</li>
+ * </ol>
+ * When the scheduler holds the writer back to stay within the write quota, the batch queue fills up, the
+ * validator blocks, the record queue fills up and the parser blocks in turn. Memory therefore stays bounded by
+ * the queue sizes however large the file is, and 50,000 rows take ten append calls at the default batch size.
+ * <p>
+ * Rows are appended in the order of the file. Batches that were appended before an error stay in the sheet;
+ * the error is thrown once the pipeline has stopped.
+ * <p>
+ * Usage example:
+ * CropImporter.Result result = new CropImporter(service, CropImporter.DEFAULT_BATCH_SIZE)
+ *         .importFile(Paths.get("DetailedCropsData.xlsx"), "Sheet1", sheetID);
+ */
+public class CropImporter {
+    public static final int DEFAULT_BATCH_SIZE = 5000; // Rows per append call.
+    private static final int BATCHES_QUEUED = 2; // Batches that may wait for the writer.
+    private static final int MAX_REPORTED_ERRORS = 10; // Invalid records described individually.
+    private static final int FIELD_COUNT = 7; // Columns B through H of a sheet.
+    private static final long POLL_MILLIS = 100; // How often blocked stages check whether another stage failed.
+    private static final String[] END_OF_RECORDS = new String[0]; // Sent by the parser after the last record.
+    private static final List<Crop> END_OF_BATCHES = Collections.emptyList(); // Sent by the validator after the last batch.
+
+    private final GoogleSheetsApplicationInterface service; // Where the crops are appended.
+    private final int batchSize; // Rows per append call.
+
+
+    /**
+     * The file formats the importer can read.
+     */
+    public enum Format {
+        CSV,    // Comma-separated values, such as written by FlatFileExporter.
+        XLSX;   // Excel workbooks, such as written by ExcelExporter (only the first worksheet is read).
+
+        /**
+         * Chooses the format of a file from its name: .xlsx is read as XLSX, anything else as CSV. A trailing
+         * .gz is ignored, since compressed CSV is read as well.
+         *
+         * @param file The file to read.
+         * @return The format of the file.
+         */
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            if (name.endsWith(".gz")) {
+                name = name.substring(0, name.length() - 3);
+            }
+            return name.endsWith(".xlsx") ? XLSX : CSV;
+        }
+    }
+
+
+    /**
+     * What an import did.
+     */
+    public static class Result {
+        private final long recordCount; // Records read from the file, not counting a header.
+        private final long importedCount; // Crops appended to the sheet.
+        private final long invalidCount; // Records that failed validation.
+        private final long duplicateCount; // Records whose crop ID was already taken.
+        private final long appendCount; // Append calls made.
+        private final long millis; // How long the import took.
+
+        /**
+         * Constructs a result.
+         *
+         * @param recordCount Records read from the file, not counting a header.
+         * @param importedCount Crops appended to the sheet.
+         * @param invalidCount Records that failed validation.
+         * @param duplicateCount Records whose crop ID was already taken.
+         * @param appendCount Append calls made.
+         * @param millis How long the import took.
+         */
+        Result(long recordCount, long importedCount, long invalidCount, long duplicateCount, long appendCount, long millis) {
+            this.recordCount = recordCount;
+            this.importedCount = importedCount;
+            this.invalidCount = invalidCount;
+            this.duplicateCount = duplicateCount;
+            this.appendCount = appendCount;
+            this.millis = millis;
+        }
+
+        public long getRecordCount() {return recordCount;}
+
+        public long getImportedCount() {return importedCount;}
+
+        public long getInvalidCount() {return invalidCount;}
+
+        public long getDuplicateCount() {return duplicateCount;}
+
+        public long getAppendCount() {return appendCount;}
+
+        public long getMillis() {return millis;}
+
+        @Override
+        public String toString() {
+            return "Imported " + importedCount + " of " + recordCount + " rows (" + invalidCount + " invalid, "
+                    + duplicateCount + " duplicate IDs) with " + appendCount + " append calls in " + millis + " ms ("
+                    + (importedCount * 1000 / Math.max(1, millis)) + " rows/sec).";
+        }
+    }
+
+
+    /**
+     * Receives the records of a file as they are parsed.
+     */
+    private interface RecordSink {
+        /**
+         * Takes one record.
+         *
+         * @param fields The fields of the record, always FIELD_COUNT of them.
+         * @throws InterruptedException If the thread was interrupted while waiting for room in the queue.
+         */
+        void accept(String[] fields) throws InterruptedException;
+    }
+
+
+    /**
+     * Constructs an importer.
+     *
+     * @param service The service the crops are appended through.
+     * @param batchSize How many rows to send per append call.
+     */
+    public CropImporter(GoogleSheetsApplicationInterface service, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1.");
+        }
+        this.service = service;
+        this.batchSize = batchSize;
+    }
+
+
+    /**
+     * Imports a file into a sheet. A first record whose Crop ID field reads "Crop ID" (or "cropID") is taken to
+     * be a header and skipped, as are blank records. Invalid records and records whose crop ID is already in the
+     * sheet are counted and left out.
+     *
+     * @param file The XLSX or CSV file to read, with the columns in sheet order (Farm Name to In Season).
+     * @param sheetName The sheet to add the crops to.
+     * @param sheetID The ID of that sheet, stored in the imported crops.
+     * @return What the import did.
+     * @throws Exception If the file cannot be read or the crops cannot be appended. Batches appended before
+     *                   the error stay in the sheet.
+     */
+    public Result importFile(Path file, String sheetName, String sheetID) throws Exception {
+        long started = System.nanoTime();
+        Format format = Format.of(file);
+        IntIntHashMap takenIDs = RequestScheduler.runInLane(RequestScheduler.Lane.BULK, () -> service.getCropRows(sheetName));
+
+        BlockingQueue<String[]> records = new ArrayBlockingQueue<>(batchSize);
+        BlockingQueue<List<Crop>> batches = new ArrayBlockingQueue<>(BATCHES_QUEUED);
+        AtomicReference<Exception> failure = new AtomicReference<>(); // The first error of any stage.
+        AtomicLong importedCount = new AtomicLong();
+        AtomicLong appendCount = new AtomicLong();
+
+        // Stage 1: parse the file.
+        Thread parser = new Thread(() -> {
+            try {
+                RecordSink sink = fields -> put(records, fields, failure);
+                if (format == Format.XLSX) {
+                    parseXlsx(file, sink);
+                } else {
+                    parseCsv(file, sink);
+                }
+                put(records, END_OF_RECORDS, failure);
+            } catch (CancellationException ignored) {
+                // Another stage failed.
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        }, "crop-import-parser");
+
+        // Stage 3: append the batches.
+        Thread writer = new Thread(() -> {
+            try {
+                RequestScheduler.runInLane(RequestScheduler.Lane.BULK, () -> {
+                    for (List<Crop> batch = take(batches, failure); batch != END_OF_BATCHES; batch = take(batches, failure)) {
+                        int firstRow = service.appendRows(sheetName, batch);
+                        importedCount.addAndGet(batch.size());
+                        appendCount.incrementAndGet();
+                        System.out.println("Appended " + batch.size() + " rows at row " + firstRow + " (" + importedCount.get() + " so far).");
+                    }
+                    return null;
+                });
+            } catch (CancellationException ignored) {
+                // Another stage failed.
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        }, "crop-import-writer");
+
+        parser.setDaemon(true);
+        writer.setDaemon(true);
+        parser.start();
+        writer.start();
+
+        // Stage 2: validate, drop duplicates and batch, on this thread.
+        long recordCount = 0;
+        long invalidCount = 0;
+        long duplicateCount = 0;
+        try {
+            List<Crop> batch = new ArrayList<>(batchSize);
+            boolean first = true;
+            for (String[] fields = take(records, failure); fields != END_OF_RECORDS; fields = take(records, failure)) {
+                if (first) {
+                    first = false;
+                    if (isHeader(fields)) {
+                        continue;
+                    }
+                }
+                if (isBlank(fields)) {
+                    continue;
+                }
+                recordCount++;
+                Crop crop = toCrop(fields, recordCount, invalidCount < MAX_REPORTED_ERRORS, sheetName, sheetID);
+                if (crop == null) {
+                    invalidCount++;
+                    continue;
+                }
+                if (takenIDs.containsKey(crop.getCropID())) {
+                    duplicateCount++;
+                    continue;
+                }
+                takenIDs.put(crop.getCropID(), -1); // Taken by this file; the row is not known until it is appended.
+                batch.add(crop);
+                if (batch.size() == batchSize) {
+                    put(batches, batch, failure);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                put(batches, batch, failure);
+            }
+            put(batches, END_OF_BATCHES, failure);
+        } catch (CancellationException ignored) {
+            // Another stage failed; its error is thrown below.
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            parser.join();
+            writer.join();
+        }
+
+        if (invalidCount > MAX_REPORTED_ERRORS) {
+            System.err.println("... and " + (invalidCount - MAX_REPORTED_ERRORS) + " more invalid rows.");
+        }
+        if (failure.get() != null) {
+            System.err.println("Import stopped after appending " + importedCount.get() + " rows.");
+            throw failure.get();
+        }
+        Result result = new Result(recordCount, importedCount.get(), invalidCount, duplicateCount, appendCount.get(),
+                (System.nanoTime() - started) / 1_000_000);
+        System.out.println(result);
+        return result;
+    }
+
+
+    /**
+     * Streams the first worksheet of an XLSX file with the SAX-based event model, passing each row on as soon
+     * as it has been read. Cells are formatted the way Excel shows them, so a date cell formatted as
+     * yyyy-mm-dd arrives as "2024-05-01".
+     *
+     * @param file The file to read.
+     * @param sink Receives the records.
+     * @throws Exception If the file is not a readable workbook.
+     */
+    private static void parseXlsx(Path file, RecordSink sink) throws Exception {
+        OPCPackage workbook = OPCPackage.open(file.toFile(), PackageAccess.READ);
+        try {
+            XSSFReader reader = new XSSFReader(workbook);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(workbook);
+            StylesTable styles = reader.getStylesTable();
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return;
+            }
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings, new RowCollector(sink), new DataFormatter(), false));
+                parser.parse(new InputSource(sheet));
+            }
+        } finally {
+            workbook.revert(); // Closes a package opened for reading without trying to save it.
+        }
+    }
+
+
+    /**
+     * Collects the cells of each worksheet row into a record.
+     */
+    private static final class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final RecordSink sink; // Receives the records.
+        private String[] fields; // The record being collected.
+        private int column; // The column of the last cell, for cells without a reference.
+
+        /**
+         * Constructs a collector.
+         *
+         * @param sink Receives the records.
+         */
+        RowCollector(RecordSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            fields = new String[FIELD_COUNT];
+            Arrays.fill(fields, "");
+            column = -1;
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            column = cellReference == null ? column + 1 : new CellReference(cellReference).getCol();
+            if (column < FIELD_COUNT && formattedValue != null) {
+                fields[column] = formattedValue;
+            }
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            try {
+                sink.accept(fields);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while reading the workbook.");
+            }
+        }
+    }
+
+
+    /**
+     * Streams a CSV file record by record, following RFC 4180: fields may be quoted, quoted fields may contain
+     * commas and line breaks, and a doubled quote inside a quoted field stands for one quote. Lines may end in
+     * CRLF or LF. Fields after the seventh (such as the sheet name written by FlatFileExporter) are ignored.
+     *
+     * @param file The file to read, gzip-compressed if its name ends in .gz.
+     * @param sink Receives the records.
+     * @throws Exception If the file cannot be read.
+     */
+    private static void parseCsv(Path file, RecordSink sink) throws Exception {
+        InputStream in = Files.newInputStream(file);
+        if (file.getFileName().toString().toLowerCase().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 64 * 1024);
+        }
+        try (Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024)) {
+            char[] chars = new char[8192];
+            String[] fields = newRecord();
+            int column = 0;
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false; // Inside a quoted field.
+            boolean closed = false; // Just after the closing quote of a quoted field.
+            boolean pending = false; // The current record has content.
+            int n;
+            while ((n = reader.read(chars)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    char c = chars[i];
+                    if (quoted) {
+                        if (c == '"') {
+                            quoted = false;
+                            closed = true;
+                        } else {
+                            field.append(c);
+                        }
+                    } else if (c == '"') {
+                        if (closed) {
+                            field.append('"'); // A doubled quote.
+                            closed = false;
+                            quoted = true;
+                        } else if (field.length() == 0) {
+                            quoted = true;
+                        } else {
+                            field.append(c); // A stray quote inside an unquoted field is kept as is.
+                        }
+                        pending = true;
+                    } else if (c == ',') {
+                        if (column < FIELD_COUNT) {
+                            fields[column] = field.toString();
+                        }
+                        column++;
+                        field.setLength(0);
+                        closed = false;
+                        pending = true;
+                    } else if (c == '\n') {
+                        if (pending || field.length() > 0) {
+                            if (column < FIELD_COUNT) {
+                                fields[column] = field.toString();
+                            }
+                            sink.accept(fields);
+                            fields = newRecord();
+                        }
+                        column = 0;
+                        field.setLength(0);
+                        closed = false;
+                        pending = false;
+                    } else if (c != '\r') {
+                        field.append(c);
+                        closed = false;
+                        pending = true;
+                    }
+                }
+            }
+            if (pending || field.length() > 0) {
+                if (column < FIELD_COUNT) {
+                    fields[column] = field.toString();
+                }
+                sink.accept(fields);
+            }
+        }
+    }
+
+
+    /**
+     * Creates a record with every field empty.
+     *
+     * @return The record.
+     */
+    private static String[] newRecord() {
+        String[] fields = new String[FIELD_COUNT];
+        Arrays.fill(fields, "");
+        return fields;
+    }
+
+
+    /**
+     * Turns a record into a crop, validating it the way the Add Crop prompts do: the farm name, location and
+     * crop name must not be empty, the Crop ID and quantity must be whole numbers, the harvest date must be a
+     * valid date (stored as YYYY-MM-DD) and In Season must be true/false or yes/no.
+     *
+     * @param fields The fields of the record.
+     * @param number The position of the record in the file, for error messages.
+     * @param report Whether to describe the problem if the record is invalid.
+     * @param sheetName The sheet the crop is added to.
+     * @param sheetID The ID of that sheet.
+     * @return The crop to add, or null if the record is invalid.
+     */
+    private static Crop toCrop(String[] fields, long number, boolean report, String sheetName, String sheetID) {
+        String farmName = fields[0].trim();
+        String farmLocation = fields[1].trim();
+        String cropName = fields[3].trim();
+        String problem = null;
+        int cropID = 0;
+        int quantity = 0;
+        int harvestDay = HarvestDates.parse(fields[5]);
+        String season = fields[6].trim().toLowerCase();
+        try {
+            cropID = Integer.parseInt(fields[2].trim());
+        } catch (NumberFormatException e) {
+            problem = "Crop ID '" + fields[2] + "' is not a number";
+        }
+        try {
+            quantity = Integer.parseInt(fields[4].trim());
+        } catch (NumberFormatException e) {
+            problem = "quantity '" + fields[4] + "' is not a number";
+        }
+        if (farmName.isEmpty() || farmLocation.isEmpty() || cropName.isEmpty()) {
+            problem = "farm name, farm location and crop name cannot be empty";
+        } else if (harvestDay == HarvestDates.NO_DATE) {
+            problem = "harvest date '" + fields[5] + "' is not a valid YYYY-MM-DD date";
+        } else if (!season.equals("true") && !season.equals("false") && !season.equals("yes") && !season.equals("no")) {
+            problem = "In Season '" + fields[6] + "' is not true/false";
+        }
+
+        if (problem != null) {
+            if (report) {
+                System.err.println("Row " + number + " skipped: " + problem + ".");
+            }
+            return null;
+        }
+        Crop crop = new Crop(farmName, farmLocation, cropID, cropName, quantity, HarvestDates.format(harvestDay),
+                season.equals("true") || season.equals("yes"), sheetName, sheetID);
+        crop.setCropChanges(1);
+        return crop;
+    }
+
+
+    /**
+     * Checks whether a record is a header, as written by ExcelExporter ("Crop ID") or FlatFileExporter ("cropID").
+     *
+     * @param fields The fields of the record.
+     * @return true if the record is a header.
+     */
+    private static boolean isHeader(String[] fields) {
+        String id = fields[2].trim();
+        return id.equalsIgnoreCase("Crop ID") || id.equalsIgnoreCase("cropID");
+    }
+
+
+    /**
+     * Checks whether every field of a record is blank.
+     *
+     * @param fields The fields of the record.
+     * @return true if the record holds nothing.
+     */
+    private static boolean isBlank(String[] fields) {
+        for (String field : fields) {
+            if (!field.trim().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Puts an item on a queue, waiting while it is full unless another stage of the pipeline has failed.
+     *
+     * @param queue The queue.
+     * @param item The item.
+     * @param failure The first error of any stage.
+     * @param <T> The type of the items.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     * @throws CancellationException If another stage failed while waiting.
+     */
+    private static <T> void put(BlockingQueue<T> queue, T item, AtomicReference<Exception> failure) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) {
+                throw new CancellationException("Import stopped.");
+            }
+        }
+    }
+
+
+    /**
+     * Takes an item from a queue, waiting while it is empty unless another stage of the pipeline has failed.
+     *
+     * @param queue The queue.
+     * @param failure The first error of any stage.
+     * @param <T> The type of the items.
+     * @return The item.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     * @throws CancellationException If another stage failed while waiting.
+     */
+    private static <T> T take(BlockingQueue<T> queue, AtomicReference<Exception> failure) throws InterruptedException {
+        while (true) {
+            T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (item != null) {
+                return item;
+            }
+            if (failure.get() != null) {
+                throw new CancellationException("Import stopped.");
+            }
+        }
+    }
+}
@@ -1,12 +1,20 @@
 package org.example.services;
 
 import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.SheetsRequest;
 import com.google.api.services.sheets.v4.model.*;
 import org.example.GoogleSheetsApplicationInterface;
-import org.example.auth.SheetsServiceInitializer;
+import org.example.auth.SheetsClientFactory;
 import org.example.Crop;
+import org.example.CropTable;
+import org.example.PushResult;
+import org.example.util.IntIntHashMap;
+import org.example.util.RowFingerprint;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 /**
  * Provides services for interacting with Google Sheets, specifically tailored for managing crop data.
@@ -16,6 +24,15 @@ import java.util.*;
 public class GoogleSheetsService implements GoogleSheetsApplicationInterface {
     private final Sheets sheetsService; // The Sheets API service to perform operations with Google Sheets.
     private final String spreadsheetId; // The ID of the spreadsheet to interact with.
+    private final Map<String, SheetRowIndex> rowIndexes = new ConcurrentHashMap<>(); // Crop ID to row number, per sheet.
+    private final Map<String, CropTable> loadedTables = new ConcurrentHashMap<>(); // The last loaded crops of each sheet, indexed by crop ID.
+    private final RequestScheduler scheduler; // Paces every call to stay within the Sheets API quotas.
+    private final SheetMetadataCache metadataCache; // Sheet names, IDs and grid sizes, so loads don't re-fetch them.
+    private static final int FIRST_DATA_ROW = 4; // The first row of crop data in every sheet (the header is at row 3).
+    public static final long DEFAULT_METADATA_TTL_MILLIS = 5 * 60 * 1000; // Serve cached sheet metadata for five minutes.
+    private static final int PARALLEL_DECODE_THRESHOLD = 2000; // Rows above which a response is decoded in parallel.
+    private static final String CONNECTION_FIELDS = "properties.title"; // All that testConnection needs.
+    private static final String METADATA_FIELDS = "sheets.properties(sheetId,title,gridProperties.rowCount)"; // Only what the cache holds.
     // TODO: HAVE DIFFERENT METHODS AND CONSTANT VARIABLES SO THAT THE USER CAN CHANGE WHERE A ROW STARTS AND ENDS!!!
 
     /**
@@ -26,23 +43,69 @@ public class GoogleSheetsService implements GoogleSheetsApplicationInterface {
      * @throws IOException If an error occurs during the initialization of the Sheets service.
      */
     public GoogleSheetsService(String spreadsheetId) throws Exception {
-        SheetsServiceInitializer initializer = new SheetsServiceInitializer();
-        this.sheetsService = initializer.getSheets();
+        this(spreadsheetId, DEFAULT_METADATA_TTL_MILLIS);
+    }
+
+
+    /**
+     * Constructs a GoogleSheetsService object with a custom lifetime for its cached sheet metadata.
+     *
+     * @param spreadsheetId The ID of the Google Sheet to interact with.
+     * @param metadataTtlMillis How long, in milliseconds, sheet names and IDs are served from the cache
+     *                          before they are fetched from the API again.
+     * @throws IOException If an error occurs during the initialization of the Sheets service.
+     */
+    public GoogleSheetsService(String spreadsheetId, long metadataTtlMillis) throws Exception {
+        this(spreadsheetId, metadataTtlMillis, RequestScheduler.getDefault());
+    }
+
+
+    /**
+     * Constructs a GoogleSheetsService object that sends its calls through the given request scheduler.
+     *
+     * @param spreadsheetId The ID of the Google Sheet to interact with.
+     * @param metadataTtlMillis How long, in milliseconds, sheet names and IDs are served from the cache.
+     * @param scheduler The scheduler that paces this service's calls to the Google Sheets API.
+     * @throws IOException If an error occurs during the initialization of the Sheets service.
+     */
+    public GoogleSheetsService(String spreadsheetId, long metadataTtlMillis, RequestScheduler scheduler) throws Exception {
+        this(spreadsheetId, metadataTtlMillis, scheduler, true);
+    }
+
+
+    /**
+     * Constructs a GoogleSheetsService object, optionally without contacting the API.
+     * Skipping the connection test lets callers construct the service instantly and run
+     * {@link #testConnection()} later, for example in parallel with other start-up work.
+     *
+     * @param spreadsheetId The ID of the Google Sheet to interact with.
+     * @param metadataTtlMillis How long, in milliseconds, sheet names and IDs are served from the cache.
+     * @param scheduler The scheduler that paces this service's calls to the Google Sheets API.
+     * @param testConnection Whether to test the connection to the spreadsheet before returning.
+     * @throws IOException If an error occurs during the initialization of the Sheets service.
+     */
+    public GoogleSheetsService(String spreadsheetId, long metadataTtlMillis, RequestScheduler scheduler, boolean testConnection) throws Exception {
+        this.sheetsService = SheetsClientFactory.getInstance().getSheets(spreadsheetId); // Shared by every service on this spreadsheet.
         this.spreadsheetId = spreadsheetId;
-        testConnection();
+        this.scheduler = scheduler;
+        this.metadataCache = new SheetMetadataCache(metadataTtlMillis);
+        if (testConnection) {
+            testConnection();
+        }
     }
 
 
     /**
      * Attempts to establish a connection to a specified Google Spreadsheet.
      * Useful for testing if the Sheets service has been initialized correctly and can access spreadsheets.
+     * Only the spreadsheet's title is requested, so the check stays cheap even for large spreadsheets.
      *
      * @throws Exception if there are issues creating the Sheets service instance.
      */
     @Override
     public void testConnection() throws Exception {
         try {
-            Spreadsheet spreadsheet = sheetsService.spreadsheets().get(spreadsheetId).execute();
+            Spreadsheet spreadsheet = read(sheetsService.spreadsheets().get(spreadsheetId).setFields(CONNECTION_FIELDS));
             System.out.println("Successfully connected to the spreadsheet: " + spreadsheet.getProperties().getTitle());
         } catch (IOException e) {
             System.err.println("Failed to connect to the spreadsheet: " + e.getMessage());
@@ -53,9 +116,8 @@ public class GoogleSheetsService implements GoogleSheetsApplicationInterface {
 
     /**
      * Retrieves a list of titles for all available sheets within the specified Google Spreadsheet.
-     * This method calls the Google Sheets API to fetch the spreadsheet by its ID and iterates
-     * over each sheet within the spreadsheet to collect their titles. The list of titles is
-     * then returned to the caller.
+     * The titles are served from the metadata cache, which is only refreshed from the Google Sheets API
+     * (with a fields mask limited to the sheet properties) when it is empty or has expired.
      *
      * @return A List of Strings, each representing the title of a sheet within the spreadsheet.
      * @throws Exception If there's an error communicating with the Google Sheets API, such as
@@ -63,19 +125,15 @@ public class GoogleSheetsService implements GoogleSheetsApplicationInterface {
      */
     @Override
     public List<String> getAvailableSheets() throws Exception {
-        List<String> sheetTitles = new ArrayList<>();
-        Spreadsheet spreadsheet = sheetsService.spreadsheets().get(spreadsheetId).execute();
-        spreadsheet.getSheets().forEach(sheet -> sheetTitles.add(sheet.getProperties().getTitle()));
-        return sheetTitles;
+        return metadata().getSheetNames();
     }
 
 
     /**
      * Retrieves a mapping of sheet names to their corresponding IDs within the specified Google Spreadsheet.
      * This method is useful for operations that require both the name and ID of sheets, such as
-     * selecting a specific sheet for data manipulation or querying. It fetches the spreadsheet by its ID,
-     * iterates over each sheet to extract its title and ID, and stores this information in a map
-     * where each key is a sheet's name and each value is the sheet's ID.
+     * selecting a specific sheet for data manipulation or querying. The mapping is served from the
+     * metadata cache, which is only refreshed from the API when it is empty or has expired.
      *
      * @return A Map where each key is a String representing a sheet's name, and each value is a String
      *         representing the sheet's ID. This provides a convenient lookup for sheet IDs based on their names.
@@ -84,27 +142,21 @@ public class GoogleSheetsService implements GoogleSheetsApplicationInterface {
      *                   due to network problems or API access errors.
      */
     public Map<String, String> getSheetNamesAndIds() throws Exception {
-        Map<String, String> sheetInfo = new HashMap<>();
-        Spreadsheet spreadsheet = sheetsService.spreadsheets().get(spreadsheetId).setFields("sheets(properties)").execute();
-        for (Sheet sheet : spreadsheet.getSheets()) {
-            String name = sheet.getProperties().getTitle();
-            String id = sheet.getProperties().getSheetId().toString();
-            sheetInfo.put(name, id);
-        }
-        return sheetInfo;
+        return metadata().getSheetNamesAndIds();
     }
 
 
     /**
      * Returns the sheet ID for the given sheet name.
+     * A name that is missing from the cache triggers one refresh before giving up, so sheets created
+     * since the cache was loaded are still found.
      *
      * @param sheetName The name of the sheet for which the ID is desired.
      * @return The sheet ID corresponding to the given sheet name.
      * @throws Exception If an error occurs during the operation or if the sheet name does not exist.
      */
     public String getSheetIdByName(String sheetName) throws Exception {
-        Map<String, String> sheetInfo = getSheetNamesAndIds();
-        String sheetID = sheetInfo.get(sheetName);
+        String sheetID = lookupSheetId(sheetName);
         if (sheetID == null) {
             throw new Exception("Sheet name '" + sheetName + "' does not exist.");
         }
@@ -112,6 +164,38 @@ public class GoogleSheetsService implements GoogleSheetsApplicationInterface {
     }
 
 
+    /**
+     * Returns the number of rows in the grid of the given sheet, as recorded by the metadata cache.
+     *
+     * @param sheetName The name of the sheet.
+     * @return The number of rows in the sheet's grid, or -1 if the sheet is unknown.
+     * @throws Exception If the metadata has to be refreshed and the Google Sheets API cannot be reached.
+     */
+    public int getSheetRowCount(String sheetName) throws Exception {
+        return metadata().getRowCount(sheetName);
+    }
+
+
+    /**
+     * Returns the ID of the spreadsheet this service works with.
+     *
+     * @return The spreadsheet ID.
+     */
+    public String getSpreadsheetId() {
+        return spreadsheetId;
+    }
+
+
+    /**
+     * Drops the cached sheet metadata and row indexes, so that the next operation reloads them from the API.
+     * Useful after sheets have been renamed, added or removed outside of this application.
+     */
+    public void invalidateMetadata() {
+        metadataCache.invalidate();
+        rowIndexes.clear();
+    }
+
+
     /**
      * Retrieves a list of {@link Crop} objects from the specified sheet within the Google Spreadsheet.
      * This method queries a specific range in the given sheet name and parses each row of values
@@ -119,50 +203,200 @@ public class GoogleSheetsService implements GoogleSheetsApplicationInterface {
      * and convert row values to the appropriate types.
      *
      * @param sheetName The name of the sheet from which to retrieve crop data.
-     * @return A List of Crop objects, each representing a row from the specified sheet.
+     * @return A {@link CropTable} (a List of Crop views), each row representing a row from the specified sheet.
      * @throws Exception If there's an error retrieving data from the sheet or parsing the row data.
      */
     @Override
     public List<Crop> getItemsInSheet(String sheetName) throws Exception {
-        Map<String, String> sheetInfo = getSheetNamesAndIds();
-        String sheetID = sheetInfo.getOrDefault(sheetName, "Unknown Sheet ID");
+        String sheetID = lookupSheetId(sheetName);
+        if (sheetID == null) {
+            sheetID = "Unknown Sheet ID";
+        }
 
-        List<Crop> crops = new ArrayList<>();
         String range = sheetName + "!B4:H"; // TODO: HAVE DIFFERENT METHODS AND CONSTANT VARIABLES SO THAT THE USER CAN CHANGE WHERE A ROW STARTS AND ENDS!!!
-        ValueRange response = sheetsService.spreadsheets().values().get(spreadsheetId, range).execute();
+        ValueRange response;
+        try {
+            response = read(sheetsService.spreadsheets().values().get(spreadsheetId, range));
+        } catch (IOException e) {
+            checkForMissingSheet(e);
+            throw e;
+        }
         List<List<Object>> values = response.getValues();
 
         if (values == null || values.isEmpty()) {
             System.out.println("No data found.");
-            return crops;
+        }
+        return decodeSheet(sheetName, sheetID, values);
+    }
+
+
+    /**
+     * Retrieves the {@link Crop} objects of several sheets with a single values().batchGet call.
+     * The B4:H range of every requested sheet is fetched in one round trip and decoded into Crop objects
+     * that already carry their sheet's name and ID. Large responses are decoded in parallel.
+     *
+     * @param sheetNames The names of the sheets from which to retrieve crop data.
+     * @return A Map from each sheet name to the Crop objects of that sheet, in the order the names were given.
+     * @throws Exception If there's an error retrieving data from the sheets, such as a sheet that does not exist.
+     */
+    @Override
+    public Map<String, List<Crop>> getItemsInSheets(Collection<String> sheetNames) throws Exception {
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(sheetNames));
+        Map<String, List<Crop>> cropsBySheet = new LinkedHashMap<>();
+        if (names.isEmpty()) {
+            return cropsBySheet;
         }
 
-        for (int i = 0; i < values.size(); i++) {
+        Map<String, String> sheetInfo = metadata().getSheetNamesAndIds();
+        List<String> ranges = new ArrayList<>();
+        for (String sheetName : names) {
+            ranges.add(sheetName + "!B" + FIRST_DATA_ROW + ":H");
+        }
+
+        List<ValueRange> responses;
+        try {
+            responses = batchGet(ranges);
+        } catch (IOException e) {
+            checkForMissingSheet(e);
+            throw e;
+        }
+
+        for (int s = 0; s < names.size(); s++) {
+            String sheetName = names.get(s);
+            List<List<Object>> values = s < responses.size() ? responses.get(s).getValues() : null;
+            cropsBySheet.put(sheetName, decodeSheet(sheetName, sheetInfo.getOrDefault(sheetName, "Unknown Sheet ID"), values));
+        }
+        return cropsBySheet;
+    }
+
+
+    /**
+     * Retrieves the {@link Crop} objects of every sheet in the spreadsheet with a single values().batchGet call.
+     *
+     * @return A Map from each sheet name to the Crop objects of that sheet, in spreadsheet order.
+     * @throws Exception If there's an error retrieving the sheet names or their data.
+     */
+    @Override
+    public Map<String, List<Crop>> getAllItems() throws Exception {
+        return getItemsInSheets(getAvailableSheets());
+    }
+
+
+    /**
+     * Turns the rows of a sheet's B4:H range into a {@link CropTable} and refreshes the sheet's row index.
+     * The numeric cells are parsed first, on the common fork/join pool when the response has more than
+     * {@link #PARALLEL_DECODE_THRESHOLD} rows; the valid rows are then appended to the table's columns in
+     * order, so the order of the crops always matches the order of the rows.
+     *
+     * @param sheetName The name of the sheet the rows came from.
+     * @param sheetID The ID of the sheet the rows came from.
+     * @param values The rows returned by the API (may be null if the sheet has no data).
+     * @return A CropTable with one row per valid sheet row.
+     */
+    private CropTable decodeSheet(String sheetName, String sheetID, List<List<Object>> values) {
+        // Remember where every crop lives so later edits can go straight to their row.
+        rowIndexes.put(sheetName, SheetRowIndex.fromValues(values, 2, FIRST_DATA_ROW));
+
+        if (values == null || values.isEmpty()) {
+            loadedTables.put(sheetName, new CropTable());
+            return new CropTable();
+        }
+
+        int rowCount = values.size();
+        int[] cropIDs = new int[rowCount];
+        int[] quantities = new int[rowCount];
+        IntStream rowNumbers = IntStream.range(0, rowCount);
+        if (rowCount > PARALLEL_DECODE_THRESHOLD) {
+            rowNumbers = rowNumbers.parallel();
+        }
+        rowNumbers.forEach(i -> cropIDs[i] = decodeNumbers(values.get(i), i, quantities));
+
+        CropTable table = new CropTable(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            if (cropIDs[i] == -1) {
+                continue; // Skip rows where Crop ID is -1, or that could not be parsed.
+            }
             List<Object> row = values.get(i);
-            try {
-                int cropID = getIntValue(row, 2);
-                if (cropID == -1) continue; // Skip rows where Crop ID is -1
+            table.append(getStringValue(row, 0), getStringValue(row, 1), cropIDs[i], getStringValue(row, 3),
+                    quantities[i], getStringValue(row, 5), getBooleanValue(row, 6), sheetName, sheetID);
+        }
+        // The caller owns the returned table and may edit it; lookups and pushes work on a copy of their own.
+        loadedTables.put(sheetName, new CropTable(table));
+        return table;
+    }
+
+
+    /**
+     * Looks up a crop by its ID in the last loaded contents of a sheet, without contacting the API.
+     * The lookup goes through the table's crop ID index, so it takes constant time.
+     *
+     * @param sheetName The name of the sheet.
+     * @param cropID The crop ID to look for.
+     * @return A detached copy of the crop, or null if the sheet has not been loaded or holds no such crop.
+     */
+    public Crop findCrop(String sheetName, int cropID) {
+        CropTable table = loadedTables.get(sheetName);
+        if (table == null) {
+            return null;
+        }
+        synchronized (table) {
+            Crop crop = table.findByCropID(cropID);
+            return crop == null ? null : new Crop(crop);
+        }
+    }
 
-                String farmName = getStringValue(row, 0);
-                String farmLocation = getStringValue(row, 1);
-                String cropName = getStringValue(row, 3);
-                int quantityAvailable = getIntValue(row, 4);
-                String harvestDate = getStringValue(row, 5);
-                boolean inSeason = getBooleanValue(row, 6);
 
-                // Include sheetName and sheetID in the Crop constructor
-                Crop crop = new Crop(farmName, farmLocation, cropID, cropName, quantityAvailable, harvestDate, inSeason, sheetName, sheetID);
-                crops.add(crop);
-            } catch (NumberFormatException nfe) {
-                System.err.println("Invalid numeric value in row " + (i + 3) + ": " + nfe.getMessage());
-                // Handle the case where numeric conversion fails
-            } catch (Exception e) {
-                System.err.println("Error parsing row " + (i + 3) + ": " + e.getMessage());
-                // Handle or log other errors
+    /**
+     * Applies a change that was just written to the sheet to its last loaded contents, so that lookups by
+     * crop ID keep matching the sheet without loading it again. Those contents are a copy private to this
+     * service, so writing the pushed values over them cannot undo an edit a caller made to its own table;
+     * callers update their tables from the returned {@link PushResult}s (see {@link CropTable#markWritten(Crop)}).
+     *
+     * @param crop The crop that was written.
+     * @param status What happened to the crop's row.
+     */
+    private void updateLoadedTable(Crop crop, PushResult.Status status) {
+        CropTable table = loadedTables.get(crop.getSheetName());
+        if (table == null) {
+            return;
+        }
+        synchronized (table) {
+            if (status == PushResult.Status.DELETED) {
+                table.removeCropID(crop.getCropID());
+            } else {
+                int row = table.upsert(crop);
+                table.setCropChanges(row, 0);
+                table.setDirtyFields(row, 0);
+                table.setRowFingerprint(row, RowFingerprint.of(crop)); // The row now holds what was just written.
             }
         }
+    }
+
+
+    /**
+     * Parses the numeric cells (Crop ID and quantity) of a single row of a sheet's B4:H range.
+     * Rows that cannot be parsed are logged and skipped.
+     *
+     * @param row The cell values of the row.
+     * @param i The position of the row within the range.
+     * @param quantities Receives the row's quantity at position i.
+     * @return The row's Crop ID, or -1 if the row should be skipped.
+     */
+    private int decodeNumbers(List<Object> row, int i, int[] quantities) {
+        try {
+            int cropID = getIntValue(row, 2);
+            if (cropID == -1) return -1; // Skip rows where Crop ID is -1
 
-        return crops;
+            quantities[i] = getIntValue(row, 4);
+            return cropID;
+        } catch (NumberFormatException nfe) {
+            System.err.println("Invalid numeric value in row " + (i + 3) + ": " + nfe.getMessage());
+            // Handle the case where numeric conversion fails
+        } catch (Exception e) {
+            System.err.println("Error parsing row " + (i + 3) + ": " + e.getMessage());
+            // Handle or log other errors
+        }
+        return -1;
     }
 
 
@@ -214,10 +448,10 @@ public class GoogleSheetsService implements GoogleSheetsApplicationInterface {
 
 
     /**
-     * Adds a new row to the spreadsheet for the provided {@link Crop} object. This method first
-     * identifies the first empty row within a specified column to ensure that the new data is added
-     * at the correct location. It then prepares and inserts a new row containing the crop's details
-     * into the spreadsheet.
+     * Adds a new row to the spreadsheet for the provided {@link Crop} object. The row is taken from the
+     * sheet's row index, which reuses rows emptied by earlier deletes before appending after the data.
+     * The chosen row's Crop ID cell is re-read before writing so that a row filled in by someone else
+     * since the index was built is detected, in which case the index is rebuilt from the sheet.
      *
      * @param crop The {@link Crop} object containing the data to be added to the spreadsheet.
      * @throws Exception If an error occurs during communication with the Google Sheets API or
@@ -225,126 +459,170 @@ public class GoogleSheetsService implements GoogleSheetsApplicationInterface {
      */
     @Override
     public void addDataRow(Crop crop) throws Exception {
-        // First, find the first empty row in column D starting from row 4
-        String rangeToSearch = crop.getSheetName() + "!D4:D"; // TODO: HAVE DIFFERENT METHODS AND CONSTANT VARIABLES SO THAT THE USER CAN CHANGE WHERE A ROW STARTS AND ENDS!!!
-        ValueRange response = sheetsService.spreadsheets().values().get(spreadsheetId, rangeToSearch).execute();
-        List<List<Object>> values = response.getValues();
+        String sheetName = crop.getSheetName();
+        int firstEmptyRow = allocateRow(sheetName);
 
-        // TODO: HAVE DIFFERENT METHODS AND CONSTANT VARIABLES SO THAT THE USER CAN CHANGE WHERE A ROW STARTS AND ENDS!!!
+        // Insert the new crop data into the sheet
+        ValueRange body = new ValueRange().setValues(Collections.singletonList(toRowValues(crop)));
+        UpdateValuesResponse result;
+        try {
+            result = write(sheetsService.spreadsheets().values().update(spreadsheetId, rowRange(sheetName, firstEmptyRow), body)
+                    .setValueInputOption("USER_ENTERED"));
+        } catch (IOException e) {
+            rowIndexes.remove(sheetName); // The row may or may not have been written, so start over next time.
+            throw e;
+        }
 
-        int firstEmptyRow = 4; // Start searching from row 4
-        if (values != null) {
-            for (List<Object> row : values) {
-                if (row.isEmpty() || row.get(0) == null || row.get(0).toString().trim().isEmpty()) {
-                    break; // Found the first empty row
-                }
-                firstEmptyRow++;
+        SheetRowIndex index = rowIndexes.get(sheetName);
+        if (index != null) {
+            synchronized (index) {
+                index.put(crop.getCropID(), firstEmptyRow);
             }
         }
+        updateLoadedTable(crop, PushResult.Status.ADDED);
+        System.out.println("Added new crop data at row " + firstEmptyRow + ". Rows updated: " + result.getUpdatedRows());
+    }
 
-        // Now, prepare the data to insert for the new crop
-        List<List<Object>> dataToAdd = Arrays.asList(
-                Arrays.asList(
-                        crop.getFarmName(), // Column B
-                        crop.getFarmLocation(), // Column C
-                        String.valueOf(crop.getCropID()), // Column D
-                        crop.getCropName(), // Column E
-                        String.valueOf(crop.getQuantityAvailable()), // Column F
-                        crop.getHarvestDate(), // Column G
-                        crop.isInSeason() ? "TRUE" : "FALSE" // Column H
-                )
-        );
 
-        // Set the range to insert the new data starting from the first empty row found
-        String updateRange = crop.getSheetName() + "!B" + firstEmptyRow + ":H" + firstEmptyRow; // TODO: HAVE DIFFERENT METHODS AND CONSTANT VARIABLES SO THAT THE USER CAN CHANGE WHERE A ROW STARTS AND ENDS!!!
-        ValueRange body = new ValueRange().setValues(dataToAdd);
+    /**
+     * Appends crops after the last row of data in a sheet with one values().update call. The rows are taken
+     * from the end of the sheet's row index, and their Crop ID cells are read first so that rows filled in by
+     * someone else since the index was built are not overwritten (the index is rebuilt from the sheet in that
+     * case). Writing to an explicit range, rather than letting values().append look for the end of the data,
+     * means a retried request writes the same rows again instead of adding them twice. The grid is extended
+     * first if the rows fall past its end.
+     *
+     * @param sheetName The name of the sheet to add the crops to.
+     * @param crops The crops to add, in order.
+     * @return The row number of the first added crop, or -1 if crops is empty.
+     * @throws Exception If an error occurs during communication with the Google Sheets API.
+     */
+    @Override
+    public int appendRows(String sheetName, List<Crop> crops) throws Exception {
+        if (crops.isEmpty()) {
+            return -1;
+        }
+        List<List<Object>> values = new ArrayList<>(crops.size());
+        for (Crop crop : crops) {
+            values.add(toRowValues(crop));
+        }
 
-        // Insert the new crop data into the sheet
-        UpdateValuesResponse result = sheetsService.spreadsheets().values().update(spreadsheetId, updateRange, body)
-                .setValueInputOption("USER_ENTERED").execute();
+        int firstRow;
+        try {
+            firstRow = allocateRowsAfterData(sheetName, crops.size());
+            int lastRow = firstRow + crops.size() - 1;
+            ensureGridRows(sheetName, lastRow);
+            write(sheetsService.spreadsheets().values()
+                    .update(spreadsheetId, sheetName + "!B" + firstRow + ":H" + lastRow, new ValueRange().setValues(values))
+                    .setValueInputOption("USER_ENTERED")
+                    .setFields("updatedRows"));
+        } catch (IOException e) {
+            rowIndexes.remove(sheetName); // The rows may or may not have been written, so start over next time.
+            checkForMissingSheet(e);
+            throw e;
+        }
 
-        System.out.println("Added new crop data at row " + firstEmptyRow + ". Rows updated: " + result.getUpdatedRows());
+        SheetRowIndex index = rowIndexes.get(sheetName);
+        if (index != null) {
+            synchronized (index) {
+                for (int i = 0; i < crops.size(); i++) {
+                    index.put(crops.get(i).getCropID(), firstRow + i);
+                }
+            }
+        }
+        for (Crop crop : crops) {
+            updateLoadedTable(crop, PushResult.Status.ADDED);
+        }
+        return firstRow;
+    }
+
+
+    /**
+     * Returns the row of every crop in a sheet, from a row index rebuilt from the sheet's Crop ID column.
+     *
+     * @param sheetName The name of the sheet to read.
+     * @return A map from crop ID to row number.
+     * @throws Exception If an error occurs during communication with the Google Sheets API.
+     */
+    @Override
+    public IntIntHashMap getCropRows(String sheetName) throws Exception {
+        SheetRowIndex index = loadRowIndex(sheetName);
+        synchronized (index) {
+            return index.copyRows();
+        }
     }
 
 
     /**
-     * Logs the details of a given {@link Crop} object to the console. This method is a placeholder for
-     * potentially more complex operations, such as checking the existence of the crop in the sheet
-     * and displaying its details. Currently, it simply prints the crop's ID and name.
+     * Checks whether a given {@link Crop} exists in its sheet and logs its details to the console.
+     * If the sheet has been loaded, the crop is looked up in the loaded contents by its ID in constant time;
+     * otherwise the sheet's row index is consulted, which reads at most the Crop ID column.
      *
-     * @param crop The {@link Crop} object whose details are to be logged.
-     * @return Always returns true in this placeholder implementation. In practice, could return
-     *         a boolean indicating whether the crop exists in the spreadsheet.
+     * @param crop The {@link Crop} object to check and whose details are to be logged.
+     * @return true if a crop with the same ID exists in the crop's sheet.
      * @throws Exception If an issue arises in accessing or processing the crop's data.
      */
     @Override
     public boolean checkAndDisplayCrop(Crop crop) throws Exception {
-        // This method would likely change to directly utilize Crop object's attributes
-        // For simplicity, assuming that you simply log the crop's details
-        System.out.println("Crop ID: " + crop.getCropID() + ", Name: " + crop.getCropName());
-        return true; // or determine existence based on some criteria
+        boolean exists;
+        Crop loaded = findCrop(crop.getSheetName(), crop.getCropID());
+        if (loaded != null) {
+            crop = loaded;
+            exists = true;
+        } else if (loadedTables.containsKey(crop.getSheetName())) {
+            exists = false;
+        } else {
+            exists = resolveRow(crop.getSheetName(), crop.getCropID()) != -1;
+        }
+
+        if (exists) {
+            System.out.println("Crop ID: " + crop.getCropID() + ", Name: " + crop.getCropName());
+        } else {
+            System.out.println("Crop with ID " + crop.getCropID() + " not found.");
+        }
+        return exists;
     }
 
 
     /**
      * Updates the data row in the spreadsheet that corresponds to the specified {@link Crop}.
-     * This method searches for the crop's ID within a designated column to find the row that needs updating.
-     * Once found, it updates the row with the crop's current data. If the crop ID is not found,
-     * it logs a message indicating the crop was not found.
+     * The row is looked up in the sheet's row index and validated by re-reading only its Crop ID cell,
+     * so an edit costs one tiny read and a single write instead of a scan of the whole column.
+     * Only the cells of the fields the crop has marked as changed are written (see {@link Crop#getDirtyFields()}).
+     * If the crop ID is not found, it logs a message indicating the crop was not found. If the row was changed
+     * in the sheet since the crop was loaded, it is left alone and a message is logged instead.
      *
      * @param crop The {@link Crop} object containing updated data for the row.
      * @throws Exception If there's an error during the operation, such as issues with accessing the spreadsheet or updating the data.
      */
     @Override
     public void updateDataRow(Crop crop) throws Exception {
-
-        // Search for the crop ID in the sheet to find the row number
-        // TODO: HAVE DIFFERENT METHODS AND CONSTANT VARIABLES SO THAT THE USER CAN CHANGE WHERE A ROW STARTS AND ENDS!!!
-        String searchRange = crop.getSheetName() + "!D4:D"; // Assuming Crop ID is in column D
-        ValueRange response = sheetsService.spreadsheets().values().get(spreadsheetId, searchRange).execute();
-        List<List<Object>> values = response.getValues();
-
-        boolean found = false;
-        int rowIndexToUpdate = -1;
-
-        if (values != null) {
-            for (int i = 0; i < values.size(); i++) {
-                List<Object> row = values.get(i);
-                if (!row.isEmpty() && row.get(0) != null && row.get(0).toString().equals(String.valueOf(crop.getCropID()))) {
-                    rowIndexToUpdate = i + 4; // Adding 4 because data starts at row 4
-                    found = true;
-                    break;
-                }
-            }
-        }
-
-        if (!found) {
+        int rowIndexToUpdate = resolveRow(crop.getSheetName(), crop.getCropID());
+        if (rowIndexToUpdate == -1) {
             System.out.println("Crop with ID " + crop.getCropID() + " not found.");
             return;
         }
-
-        // Preparing the list of data to update
-        List<Object> rowData = Arrays.asList(
-                crop.getFarmName(),
-                crop.getFarmLocation(),
-                crop.getCropID(), // Assuming cropID is an Integer. No need to convert to String
-                crop.getCropName(),
-                crop.getQuantityAvailable(), // Assuming quantityAvailable is an Integer
-                crop.getHarvestDate(),
-                crop.isInSeason() ? "TRUE" : "FALSE"
-        );
-
-        // Update range to include the found row index
-        String updateRange = crop.getSheetName() + "!B" + rowIndexToUpdate + ":H" + rowIndexToUpdate; // TODO: HAVE DIFFERENT METHODS AND CONSTANT VARIABLES SO THAT THE USER CAN CHANGE WHERE A ROW STARTS AND ENDS!!!
-        ValueRange body = new ValueRange().setValues(Collections.singletonList(rowData));
+        if (rowChanged(crop, rowIndexToUpdate)) {
+            System.out.println(conflict(crop, rowIndexToUpdate).getMessage());
+            return;
+        }
 
         // Performing the update
-        UpdateValuesResponse updateResponse = sheetsService.spreadsheets().values()
-                .update(spreadsheetId, updateRange, body)
-                .setValueInputOption("USER_ENTERED")
-                .execute();
+        List<ValueRange> cells = changedCells(crop, rowIndexToUpdate);
+        int updatedCells;
+        if (cells.size() == 1) {
+            UpdateValuesResponse updateResponse = write(sheetsService.spreadsheets().values()
+                    .update(spreadsheetId, cells.get(0).getRange(), cells.get(0))
+                    .setValueInputOption("USER_ENTERED"));
+            updatedCells = updateResponse.getUpdatedCells() == null ? 0 : updateResponse.getUpdatedCells();
+        } else {
+            BatchUpdateValuesResponse updateResponse = write(sheetsService.spreadsheets().values()
+                    .batchUpdate(spreadsheetId, new BatchUpdateValuesRequest().setValueInputOption("USER_ENTERED").setData(cells)));
+            updatedCells = updateResponse.getTotalUpdatedCells() == null ? 0 : updateResponse.getTotalUpdatedCells();
+        }
 
-        System.out.println("Updated crop with ID " + crop.getCropID() + ". Rows updated: " + updateResponse.getUpdatedRows());
+        updateLoadedTable(crop, PushResult.Status.UPDATED);
+        System.out.println("Updated crop with ID " + crop.getCropID() + ". Cells updated: " + updatedCells);
     }
 
 
@@ -370,40 +648,1002 @@ public class GoogleSheetsService implements GoogleSheetsApplicationInterface {
 
     /**
      * Deletes the data row from the spreadsheet that corresponds to the specified {@link Crop}.
-     * Similar to updateDataRow, this method searches for the crop's ID within a designated column to find the specific row.
-     * Once the row is identified, it clears the row's contents from the sheet. If the crop ID is not found,
-     * it logs a message indicating the crop was not found.
+     * Similar to updateDataRow, this method finds the crop's row through the sheet's row index.
+     * Once the row is identified, it clears the row's contents from the sheet and hands the row back
+     * to the index so that a later add can reuse it. If the crop ID is not found,
+     * it logs a message indicating the crop was not found. As with updateDataRow, a row that was changed
+     * in the sheet since the crop was loaded is left alone.
      *
      * @param crop The {@link Crop} object whose data row is to be deleted from the spreadsheet.
      * @throws Exception If there's an error during the operation, such as issues with accessing the spreadsheet or clearing the data.
      */
     @Override
     public void deleteDataRow(Crop crop) throws Exception {
-        // Assuming Crop ID is in column D, starting from row 4
-        String searchRange = crop.getSheetName() + "!D4:D"; // TODO: HAVE DIFFERENT METHODS AND CONSTANT VARIABLES SO THAT THE USER CAN CHANGE WHERE A ROW STARTS AND ENDS!!!
-        ValueRange response = sheetsService.spreadsheets().values().get(spreadsheetId, searchRange).execute();
-        List<List<Object>> values = response.getValues();
+        int rowIndexToDelete = resolveRow(crop.getSheetName(), crop.getCropID());
+        if (rowIndexToDelete == -1) {
+            System.out.println("Crop with ID " + crop.getCropID() + " not found.");
+            return;
+        }
+        if (rowChanged(crop, rowIndexToDelete)) {
+            System.out.println(conflict(crop, rowIndexToDelete).getMessage());
+            return;
+        }
+
+        // Clear the contents of the found row in the sheet
+        String clearRange = rowRange(crop.getSheetName(), rowIndexToDelete);
+        write(sheetsService.spreadsheets().values().clear(spreadsheetId, clearRange, new ClearValuesRequest()));
+
+        SheetRowIndex index = rowIndexes.get(crop.getSheetName());
+        if (index != null) {
+            synchronized (index) {
+                index.release(crop.getCropID());
+            }
+        }
+        updateLoadedTable(crop, PushResult.Status.DELETED);
+        System.out.println("Crop with ID " + crop.getCropID() + " has been cleared from the sheet.");
+    }
 
-        int rowIndexToDelete = -1;
-        if (values != null) {
-            for (int i = 0; i < values.size(); i++) {
-                List<Object> row = values.get(i);
-                if (!row.isEmpty() && row.get(0) != null && row.get(0).toString().equals(String.valueOf(crop.getCropID()))) {
-                    rowIndexToDelete = i + 4; // Rows start at 1, and header is at row 3
+
+    /**
+     * Pushes a batch of staged {@link Crop} objects to the spreadsheet using a fixed number of round trips.
+     * Rows are resolved from each sheet's row index; a single batchGet then reads columns B through H of
+     * every targeted row, with one range per run of consecutive rows so that scattered rows cost no more than
+     * themselves (or the whole sheet, for a sheet that has no index yet). That read validates the
+     * Crop ID of each row and yields its current fingerprint: a crop being updated or deleted whose row no
+     * longer matches the fingerprint it was loaded with was changed in the sheet by someone else, and is
+     * reported as a {@link PushResult.Status#CONFLICT} instead of being overwritten. Only when the validation
+     * finds a row that has drifted is the affected sheet read again. All adds and
+     * updates are then written with one values().batchUpdate call and all deletes are cleared with one
+     * values().batchClear call, regardless of how many crops are in the batch. Updates only carry the cells of
+     * the fields each crop has marked as changed, so untouched columns are neither sent nor overwritten.
+     * <p>
+     * A failing request does not abort the batch; instead, every crop affected by it is reported with a
+     * {@link PushResult.Status#FAILED} result so that the caller can stage it again.
+     *
+     * @param crops The staged {@link Crop} objects to push (1 = add, 2 = update, 3 = delete).
+     * @return A List of {@link PushResult} objects, one per crop and in the same order as the given collection.
+     * @throws Exception If an unexpected error occurs while preparing the batch.
+     */
+    @Override
+    public List<PushResult> pushBatch(Collection<Crop> crops) throws Exception {
+        List<Crop> batch = new ArrayList<>(crops);
+        PushResult[] results = new PushResult[batch.size()];
+        if (batch.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Group the batch by sheet, keeping the order in which sheets first appear.
+        Map<String, List<Integer>> positionsBySheet = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            positionsBySheet.computeIfAbsent(batch.get(i).getSheetName(), name -> new ArrayList<>()).add(i);
+        }
+
+        int[] rows = new int[batch.size()];
+        Arrays.fill(rows, -1);
+
+        // Plan rows from the existing indexes, and collect every range needed to validate or build them: one
+        // range per run of consecutive planned rows, or the whole sheet for a sheet without a usable index.
+        List<String> ranges = new ArrayList<>();
+        List<String> rangeSheets = new ArrayList<>();
+        List<int[]> rangeRuns = new ArrayList<>(); // First and last row of each range, or null for a whole sheet.
+        for (Map.Entry<String, List<Integer>> entry : positionsBySheet.entrySet()) {
+            String sheetName = entry.getKey();
+            SheetRowIndex index = rowIndexes.get(sheetName);
+            if (index == null || !planRows(index, batch, entry.getValue(), rows)) {
+                ranges.add(sheetName + "!B" + FIRST_DATA_ROW + ":H");
+                rangeSheets.add(sheetName);
+                rangeRuns.add(null);
+                continue;
+            }
+            for (int[] run : rowRuns(entry.getValue(), rows)) {
+                ranges.add(sheetName + "!B" + run[0] + ":H" + run[1]);
+                rangeSheets.add(sheetName);
+                rangeRuns.add(run);
+            }
+        }
+
+        Map<String, Map<Integer, List<Object>>> currentRows = new HashMap<>(); // The B:H cells of each planned row, per sheet.
+        List<String> stale = new ArrayList<>();
+        try {
+            List<ValueRange> responses = batchGet(ranges);
+            Set<String> validated = new LinkedHashSet<>(); // Sheets whose planned rows were read and still have to be checked.
+            for (int r = 0; r < ranges.size(); r++) {
+                String sheetName = rangeSheets.get(r);
+                List<List<Object>> values = r < responses.size() ? responses.get(r).getValues() : null;
+                Map<Integer, List<Object>> cells = currentRows.computeIfAbsent(sheetName, name -> new HashMap<>());
+                int[] run = rangeRuns.get(r);
+                if (run == null) {
+                    SheetRowIndex index = SheetRowIndex.fromValues(values, 2, FIRST_DATA_ROW);
+                    rowIndexes.put(sheetName, index);
+                    planRows(index, batch, positionsBySheet.get(sheetName), rows);
+                    putPlannedRows(cells, values, positionsBySheet.get(sheetName), rows);
+                } else {
+                    putRows(cells, values, run[0], run[0], run[1]);
+                    validated.add(sheetName);
+                }
+            }
+            for (String sheetName : validated) {
+                if (!rowsStillMatch(currentRows.get(sheetName), batch, positionsBySheet.get(sheetName), rows)) {
+                    stale.add(sheetName);
+                }
+            }
+
+            // Rebuild the indexes that drifted away from the sheet and plan their rows again.
+            if (!stale.isEmpty()) {
+                System.out.println("Row index out of date for " + stale + "; rebuilding.");
+                List<String> sheetRanges = new ArrayList<>();
+                for (String sheetName : stale) {
+                    sheetRanges.add(sheetName + "!B" + FIRST_DATA_ROW + ":H");
+                }
+                List<ValueRange> sheets = batchGet(sheetRanges);
+                for (int s = 0; s < stale.size(); s++) {
+                    List<List<Object>> values = s < sheets.size() ? sheets.get(s).getValues() : null;
+                    SheetRowIndex index = SheetRowIndex.fromValues(values, 2, FIRST_DATA_ROW);
+                    rowIndexes.put(stale.get(s), index);
+                    planRows(index, batch, positionsBySheet.get(stale.get(s)), rows);
+                    Map<Integer, List<Object>> cells = new HashMap<>();
+                    putPlannedRows(cells, values, positionsBySheet.get(stale.get(s)), rows);
+                    currentRows.put(stale.get(s), cells);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to resolve rows for the batch: " + e.getMessage());
+            checkForMissingSheet(e);
+            positionsBySheet.keySet().forEach(rowIndexes::remove); // Tentative allocations are no longer trustworthy.
+            for (int i = 0; i < batch.size(); i++) {
+                results[i] = new PushResult(batch.get(i), PushResult.Status.FAILED, -1, e.getMessage());
+            }
+            return Arrays.asList(results);
+        }
+
+        // Sort every crop into the batch update or the batch clear.
+        List<ValueRange> data = new ArrayList<>();
+        List<Integer> updatePositions = new ArrayList<>();
+        List<String> clearRanges = new ArrayList<>();
+        List<Integer> clearPositions = new ArrayList<>();
+
+        for (int i = 0; i < batch.size(); i++) {
+            Crop crop = batch.get(i);
+            switch (crop.getCropChanges()) {
+                case 1: // Add new crop
+                case 2: // Modify existing crop
+                    if (rows[i] == -1) {
+                        results[i] = new PushResult(crop, PushResult.Status.NOT_FOUND, -1, "Crop with ID " + crop.getCropID() + " not found.");
+                        break;
+                    }
+                    if (crop.getCropChanges() == 2 && rowChanged(crop, currentRows, rows[i])) {
+                        results[i] = conflict(crop, rows[i], currentRows);
+                        break;
+                    }
+                    data.addAll(changedCells(crop, rows[i]));
+                    updatePositions.add(i);
+                    break;
+                case 3: // Delete crop
+                    if (rows[i] == -1) {
+                        results[i] = new PushResult(crop, PushResult.Status.NOT_FOUND, -1, "Crop with ID " + crop.getCropID() + " not found.");
+                        break;
+                    }
+                    if (rowChanged(crop, currentRows, rows[i])) {
+                        results[i] = conflict(crop, rows[i], currentRows);
+                        break;
+                    }
+                    clearRanges.add(rowRange(crop.getSheetName(), rows[i]));
+                    clearPositions.add(i);
                     break;
+                default:
+                    results[i] = new PushResult(crop, PushResult.Status.FAILED, -1, "Unrecognized crop change " + crop.getCropChanges());
+                    break;
+            }
+        }
+
+        // Send every add and update in one request.
+        if (!data.isEmpty()) {
+            BatchUpdateValuesRequest body = new BatchUpdateValuesRequest()
+                    .setValueInputOption("USER_ENTERED")
+                    .setData(data);
+            try {
+                BatchUpdateValuesResponse response = write(sheetsService.spreadsheets().values()
+                        .batchUpdate(spreadsheetId, body));
+                System.out.println("Batch update wrote " + response.getTotalUpdatedCells() + " cells for " + updatePositions.size() + " crops.");
+                for (int i : updatePositions) {
+                    Crop crop = batch.get(i);
+                    if (crop.getCropChanges() == 1) {
+                        SheetRowIndex index = rowIndexes.get(crop.getSheetName());
+                        if (index != null) {
+                            synchronized (index) {
+                                index.put(crop.getCropID(), rows[i]);
+                            }
+                        }
+                        results[i] = new PushResult(crop, PushResult.Status.ADDED, rows[i], "");
+                        updateLoadedTable(crop, PushResult.Status.ADDED);
+                    } else {
+                        results[i] = new PushResult(crop, PushResult.Status.UPDATED, rows[i], "");
+                        updateLoadedTable(crop, PushResult.Status.UPDATED);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Batch update failed: " + e.getMessage());
+                for (int i : updatePositions) {
+                    rowIndexes.remove(batch.get(i).getSheetName()); // Some rows may have been written, so start over next time.
+                    results[i] = new PushResult(batch.get(i), PushResult.Status.FAILED, rows[i], e.getMessage());
                 }
             }
         }
 
-        if (rowIndexToDelete == -1) {
-            System.out.println("Crop with ID " + crop.getCropID() + " not found.");
+        // Send every delete in one request.
+        if (!clearRanges.isEmpty()) {
+            try {
+                write(sheetsService.spreadsheets().values()
+                        .batchClear(spreadsheetId, new BatchClearValuesRequest().setRanges(clearRanges)));
+                System.out.println("Batch clear emptied " + clearRanges.size() + " rows.");
+                for (int i : clearPositions) {
+                    Crop crop = batch.get(i);
+                    SheetRowIndex index = rowIndexes.get(crop.getSheetName());
+                    if (index != null) {
+                        synchronized (index) {
+                            index.release(crop.getCropID());
+                        }
+                    }
+                    results[i] = new PushResult(crop, PushResult.Status.DELETED, rows[i], "");
+                    updateLoadedTable(crop, PushResult.Status.DELETED);
+                }
+            } catch (IOException e) {
+                System.err.println("Batch clear failed: " + e.getMessage());
+                for (int i : clearPositions) {
+                    rowIndexes.remove(batch.get(i).getSheetName());
+                    results[i] = new PushResult(batch.get(i), PushResult.Status.FAILED, rows[i], e.getMessage());
+                }
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+
+    /**
+     * Adds amounts to the quantities of crops in a sheet with a single read and a single write. The rows of
+     * the crops are resolved from the sheet's row index, and one batchGet reads columns D through F of those
+     * rows, with one range per run of consecutive rows, which both validates the Crop ID of every row and
+     * yields its current quantity. If a crop is missing from the index or its row has drifted, the index is
+     * rebuilt once and the rows read again.
+     * The new quantities are then written with one values().batchUpdate call that touches only the quantity
+     * cells, so other columns edited meanwhile are left alone.
+     * <p>
+     * Loaded crops are not updated here, since only the caller knows which adjustments it has already applied
+     * to them locally and which are still waiting.
+     *
+     * @param sheetName The name of the sheet the crops are in.
+     * @param deltas A map from crop ID to the amount to add to its quantity (negative to remove).
+     * @return A map from crop ID to its new quantity, for every crop that was found. Crops that are missing
+     *         from the sheet, or whose quantity cell does not hold a number, are left out.
+     * @throws Exception If the quantities could not be read or written.
+     */
+    @Override
+    public IntIntHashMap applyQuantityDeltas(String sheetName, IntIntHashMap deltas) throws Exception {
+        IntIntHashMap quantities = new IntIntHashMap(deltas.size());
+        if (deltas.isEmpty()) {
+            return quantities;
+        }
+        int[] cropIDs = new int[deltas.size()];
+        int[] amounts = new int[deltas.size()];
+        int[] count = {0};
+        deltas.forEach((cropID, delta) -> {
+            cropIDs[count[0]] = cropID;
+            amounts[count[0]++] = delta;
+        });
+
+        // Resolve the rows and read their current IDs and quantities, rebuilding the index at most once.
+        int[] rows = new int[cropIDs.length];
+        List<Integer> positions = new ArrayList<>(cropIDs.length);
+        for (int i = 0; i < cropIDs.length; i++) {
+            positions.add(i);
+        }
+        Map<Integer, List<Object>> cells = null; // The D:F cells of each resolved row, by row number.
+        SheetRowIndex index = rowIndexes.get(sheetName);
+        boolean fresh = false; // Whether the index was just rebuilt from the sheet.
+        while (cells == null) {
+            if (index == null) {
+                index = loadRowIndex(sheetName);
+                fresh = true;
+            }
+            boolean missing = false;
+            synchronized (index) {
+                for (int i = 0; i < cropIDs.length; i++) {
+                    rows[i] = index.rowOf(cropIDs[i]);
+                    missing |= rows[i] == -1;
+                }
+            }
+            List<int[]> runs = rowRuns(positions, rows);
+            if (runs.isEmpty() && fresh) {
+                return quantities; // None of the crops is in the sheet.
+            }
+            if (!runs.isEmpty()) {
+                List<String> ranges = new ArrayList<>(runs.size());
+                for (int[] run : runs) {
+                    ranges.add(sheetName + "!D" + run[0] + ":F" + run[1]);
+                }
+                List<ValueRange> responses = batchGet(ranges);
+                Map<Integer, List<Object>> read = new HashMap<>();
+                for (int r = 0; r < runs.size(); r++) {
+                    putRows(read, r < responses.size() ? responses.get(r).getValues() : null, runs.get(r)[0], runs.get(r)[0], runs.get(r)[1]);
+                }
+                if (fresh || (!missing && quantityRowsMatch(read, cropIDs, rows))) {
+                    cells = read;
+                    break;
+                }
+            }
+            System.out.println("Row index out of date for " + sheetName + "; rebuilding.");
+            index = null;
+        }
+
+        // Add each delta to the quantity just read, and write only the quantity cells.
+        List<ValueRange> data = new ArrayList<>();
+        List<Integer> written = new ArrayList<>();
+        int[] updated = new int[cropIDs.length];
+        for (int i = 0; i < cropIDs.length; i++) {
+            if (rows[i] == -1 || !String.valueOf(cropIDs[i]).equals(cellText(cells, rows[i], 0))) {
+                continue; // Not in the sheet.
+            }
+            String current = cellText(cells, rows[i], 2);
+            if (!current.isEmpty() && !isNumeric(current)) {
+                System.err.println("Quantity of crop " + cropIDs[i] + " in " + sheetName + " is not a number (" + current + "); adjustment skipped.");
+                continue;
+            }
+            updated[i] = (current.isEmpty() ? 0 : Integer.parseInt(current)) + amounts[i];
+            if (amounts[i] == 0) {
+                quantities.put(cropIDs[i], updated[i]); // Adjustments that cancelled out need no write.
+                continue;
+            }
+            data.add(new ValueRange().setRange(sheetName + "!F" + rows[i])
+                    .setValues(Collections.singletonList(Collections.singletonList(updated[i]))));
+            written.add(i);
+        }
+        if (data.isEmpty()) {
+            return quantities;
+        }
+
+        write(sheetsService.spreadsheets().values()
+                .batchUpdate(spreadsheetId, new BatchUpdateValuesRequest().setValueInputOption("USER_ENTERED").setData(data)));
+        for (int i : written) {
+            quantities.put(cropIDs[i], updated[i]);
+        }
+        System.out.println("Adjusted the quantities of " + written.size() + " crops in " + sheetName + ".");
+        return quantities;
+    }
+
+
+    /**
+     * Checks the freshly read D:F cells of a quantity adjustment against the rows resolved from the index.
+     *
+     * @param cells The D:F cells read for the resolved rows, by row number.
+     * @param cropIDs The crops being adjusted.
+     * @param rows The resolved row of each crop.
+     * @return true if every row still holds its crop's ID, false if the index has drifted.
+     */
+    private boolean quantityRowsMatch(Map<Integer, List<Object>> cells, int[] cropIDs, int[] rows) {
+        for (int i = 0; i < cropIDs.length; i++) {
+            if (!String.valueOf(cropIDs[i]).equals(cellText(cells, rows[i], 0))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Checks whether a crop's row was changed in the sheet since the crop was read, by comparing the row's
+     * current B:H cells with the fingerprint the crop was loaded with. Crops without a fingerprint are not checked.
+     *
+     * @param crop The crop about to be written or cleared.
+     * @param currentRows The B:H cells read for the planned rows of each sheet of the batch.
+     * @param row The row of the crop.
+     * @return true if the row no longer matches what the crop was loaded from.
+     */
+    private boolean rowChanged(Crop crop, Map<String, Map<Integer, List<Object>>> currentRows, int row) {
+        if (crop.getRowFingerprint() == RowFingerprint.UNKNOWN) {
+            return false;
+        }
+        Map<Integer, List<Object>> cells = currentRows.get(crop.getSheetName());
+        List<Object> current = cells == null ? null : cells.get(row);
+        if (current == null || current.isEmpty()) {
+            return true; // The row was not read, or has been emptied; either way it is not what was loaded.
+        }
+        return fingerprintOf(current) != crop.getRowFingerprint();
+    }
+
+
+    /**
+     * Checks whether a crop's row was changed in the sheet since the crop was read, by reading the row's B:H
+     * cells. Crops without a fingerprint are not checked, and cost no read.
+     *
+     * @param crop The crop about to be written or cleared.
+     * @param row The row of the crop.
+     * @return true if the row no longer matches what the crop was loaded from.
+     * @throws IOException If the Google Sheets API cannot be reached.
+     */
+    private boolean rowChanged(Crop crop, int row) throws IOException {
+        if (crop.getRowFingerprint() == RowFingerprint.UNKNOWN) {
+            return false;
+        }
+        ValueRange response = read(sheetsService.spreadsheets().values().get(spreadsheetId, rowRange(crop.getSheetName(), row)));
+        List<List<Object>> values = response.getValues();
+        return values == null || values.isEmpty() || fingerprintOf(values.get(0)) != crop.getRowFingerprint();
+    }
+
+
+    /**
+     * Computes the fingerprint of a row of B:H cells, decoding them the same way a loaded sheet is decoded.
+     *
+     * @param row The cells of the row.
+     * @return The fingerprint, or RowFingerprint.UNKNOWN if the row can no longer be decoded as a crop.
+     */
+    private int fingerprintOf(List<Object> row) {
+        try {
+            return RowFingerprint.of(getStringValue(row, 0), getStringValue(row, 1), getIntValue(row, 2), getStringValue(row, 3),
+                    getIntValue(row, 4), getStringValue(row, 5), getBooleanValue(row, 6));
+        } catch (RuntimeException e) {
+            return RowFingerprint.UNKNOWN; // Never equal to a loaded crop's fingerprint.
+        }
+    }
+
+
+    /**
+     * Builds the result of a crop whose row was changed in the sheet since the crop was read.
+     *
+     * @param crop The crop that was not pushed.
+     * @param row The row of the crop.
+     * @return A CONFLICT result.
+     */
+    private static PushResult conflict(Crop crop, int row) {
+        return new PushResult(crop, PushResult.Status.CONFLICT, row, "Crop with ID " + crop.getCropID()
+                + " was changed in " + crop.getSheetName() + " since it was loaded; reload the sheet and make the change again.");
+    }
+
+
+    /**
+     * Builds the result of a crop in a batch whose row was changed in the sheet since the crop was read. The
+     * result carries the row as it was just read, so the caller can show what the sheet now holds, and this
+     * service's copy of the sheet is brought up to date with it.
+     *
+     * @param crop The crop that was not pushed.
+     * @param row The row of the crop.
+     * @param currentRows The B:H cells read for the planned rows of each sheet of the batch.
+     * @return A CONFLICT result.
+     */
+    private PushResult conflict(Crop crop, int row, Map<String, Map<Integer, List<Object>>> currentRows) {
+        Map<Integer, List<Object>> cells = currentRows.get(crop.getSheetName());
+        Crop current = decodeRow(crop, cells == null ? null : cells.get(row));
+        if (current != null) {
+            updateLoadedTable(current, PushResult.Status.UPDATED);
+        } else {
+            updateLoadedTable(crop, PushResult.Status.DELETED); // The row no longer holds the crop.
+        }
+        return new PushResult(crop, PushResult.Status.CONFLICT, row, "Crop with ID " + crop.getCropID() + " was changed in "
+                + crop.getSheetName() + " since it was loaded, so the change was not pushed; make it again if it still applies.", current);
+    }
+
+
+    /**
+     * Decodes a row of B:H cells read during a push into the crop the sheet holds there.
+     *
+     * @param crop The crop the row was planned for, which supplies the sheet name and ID.
+     * @param row The cells of the row (may be null).
+     * @return The crop, or null if the row is empty, cannot be decoded, or holds another crop ID.
+     */
+    private Crop decodeRow(Crop crop, List<Object> row) {
+        if (row == null || row.isEmpty()) {
+            return null;
+        }
+        try {
+            Crop current = new Crop(getStringValue(row, 0), getStringValue(row, 1), getIntValue(row, 2), getStringValue(row, 3),
+                    getIntValue(row, 4), getStringValue(row, 5), getBooleanValue(row, 6), crop.getSheetName(), crop.getSheetID());
+            return current.getCropID() == crop.getCropID() ? current : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Resolves the rows of part of a batch from a sheet's row index. New crops are given empty rows and
+     * existing crops are looked up by their ID; crops that cannot be found are left at -1. A new crop whose
+     * ID is already in the sheet is written over its existing row, so pushing the same add twice is harmless.
+     *
+     * @param index The row index of the sheet.
+     * @param batch The whole batch being pushed.
+     * @param positions The positions within the batch of the crops that belong to this sheet.
+     * @param rows The rows of the batch, filled in by this method.
+     * @return false if a crop to update or delete was missing from the index (which means the index has to be
+     *         rebuilt anyway), true otherwise.
+     */
+    private boolean planRows(SheetRowIndex index, List<Crop> batch, List<Integer> positions, int[] rows) {
+        synchronized (index) {
+            for (int i : positions) {
+                Crop crop = batch.get(i);
+                rows[i] = index.rowOf(crop.getCropID());
+                if (crop.getCropChanges() == 1 && rows[i] == -1) {
+                    rows[i] = index.allocateRow(); // An add that already landed (e.g. replayed after a crash) reuses its row.
+                }
+                if (rows[i] == -1 && (crop.getCropChanges() == 2 || crop.getCropChanges() == 3)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Groups the planned rows of part of a batch into runs of consecutive rows, so that they can be read with
+     * one range per run instead of one range spanning everything from the lowest to the highest row.
+     *
+     * @param positions The positions within the batch of the crops whose rows are grouped.
+     * @param rows The planned rows of the batch; rows of -1 are skipped.
+     * @return The first and last row of each run, in ascending order.
+     */
+    private static List<int[]> rowRuns(List<Integer> positions, int[] rows) {
+        int[] sorted = positions.stream().mapToInt(i -> rows[i]).filter(row -> row != -1).sorted().distinct().toArray();
+        List<int[]> runs = new ArrayList<>();
+        for (int row : sorted) {
+            int[] run = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (run != null && row == run[1] + 1) {
+                run[1] = row;
+            } else {
+                runs.add(new int[]{row, row});
+            }
+        }
+        return runs;
+    }
+
+
+    /**
+     * Files the cells of some rows under their row numbers. Rows past the end of the values are empty in the
+     * sheet, and are filed as empty lists.
+     *
+     * @param cells The map to file the rows in.
+     * @param values The values of a range (may be null).
+     * @param first The row of the first of the values.
+     * @param fromRow The first row to file.
+     * @param toRow The last row to file.
+     */
+    private static void putRows(Map<Integer, List<Object>> cells, List<List<Object>> values, int first, int fromRow, int toRow) {
+        for (int row = fromRow; row <= toRow; row++) {
+            int offset = row - first;
+            cells.put(row, values != null && offset >= 0 && offset < values.size() ? values.get(offset) : Collections.emptyList());
+        }
+    }
+
+
+    /**
+     * Files the cells of the planned rows of part of a batch, taken from the values of a whole sheet.
+     *
+     * @param cells The map to file the rows in.
+     * @param values The values of the sheet, starting at FIRST_DATA_ROW (may be null).
+     * @param positions The positions within the batch of the crops whose rows are filed.
+     * @param rows The planned rows of the batch; rows of -1 are skipped.
+     */
+    private static void putPlannedRows(Map<Integer, List<Object>> cells, List<List<Object>> values, List<Integer> positions, int[] rows) {
+        for (int i : positions) {
+            if (rows[i] != -1) {
+                putRows(cells, values, FIRST_DATA_ROW, rows[i], rows[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Checks the freshly read Crop ID cells of the planned rows against the index.
+     * Rows planned for new crops must still be empty (or already hold the crop's ID), and rows planned for
+     * existing crops must still hold the crop's ID.
+     *
+     * @param cells The B:H cells read for the planned rows, by row number.
+     * @param batch The whole batch being pushed.
+     * @param positions The positions within the batch of the crops that belong to this sheet.
+     * @param rows The planned rows of the batch.
+     * @return true if every planned row still matches the sheet, false if the index has drifted.
+     */
+    private boolean rowsStillMatch(Map<Integer, List<Object>> cells, List<Crop> batch, List<Integer> positions, int[] rows) {
+        for (int i : positions) {
+            if (rows[i] == -1) {
+                continue;
+            }
+            Crop crop = batch.get(i);
+            String actual = cellText(cells, rows[i], 2);
+            String expected = String.valueOf(crop.getCropID());
+            if (!expected.equals(actual) && !(crop.getCropChanges() == 1 && actual.isEmpty())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the row holding a crop ID, using the sheet's row index when it has one.
+     * The indexed row is validated by reading only its Crop ID cell; if that cell no longer holds the ID
+     * (or the sheet has no index yet) the index is rebuilt from the Crop ID column.
+     *
+     * @param sheetName The name of the sheet to search.
+     * @param cropID The crop ID to look for.
+     * @return The row number holding the crop, or -1 if the crop is not in the sheet.
+     * @throws IOException If the Google Sheets API cannot be reached.
+     */
+    private int resolveRow(String sheetName, int cropID) throws IOException {
+        SheetRowIndex index = rowIndexes.get(sheetName);
+        if (index != null) {
+            int row;
+            synchronized (index) {
+                row = index.rowOf(cropID);
+            }
+            if (row != -1 && String.valueOf(cropID).equals(readIdCell(sheetName, row))) {
+                return row;
+            }
+        }
+        index = loadRowIndex(sheetName);
+        synchronized (index) {
+            return index.rowOf(cropID);
+        }
+    }
+
+
+    /**
+     * Reserves an empty row for a new crop, using the sheet's row index when it has one.
+     * The reserved row is validated by reading only its Crop ID cell; if that cell is no longer empty
+     * (or the sheet has no index yet) the index is rebuilt from the Crop ID column.
+     *
+     * @param sheetName The name of the sheet the crop is added to.
+     * @return The row number the new crop should be written to.
+     * @throws IOException If the Google Sheets API cannot be reached.
+     */
+    private int allocateRow(String sheetName) throws IOException {
+        SheetRowIndex index = rowIndexes.get(sheetName);
+        if (index != null) {
+            int row;
+            synchronized (index) {
+                row = index.allocateRow();
+            }
+            if (readIdCell(sheetName, row).isEmpty()) {
+                return row;
+            }
+        }
+        index = loadRowIndex(sheetName);
+        synchronized (index) {
+            return index.allocateRow();
+        }
+    }
+
+
+    /**
+     * Reserves consecutive rows after the end of a sheet's data for crops added together, using the sheet's
+     * row index when it has one. The reserved rows are validated by reading only their Crop ID cells; if any
+     * of them is no longer empty (or the sheet has no index yet) the index is rebuilt from the Crop ID column.
+     *
+     * @param sheetName The name of the sheet the crops are added to.
+     * @param count The number of rows to reserve.
+     * @return The row number of the first reserved row.
+     * @throws IOException If the Google Sheets API cannot be reached.
+     */
+    private int allocateRowsAfterData(String sheetName, int count) throws IOException {
+        SheetRowIndex index = rowIndexes.get(sheetName);
+        if (index != null) {
+            int firstRow;
+            synchronized (index) {
+                firstRow = index.allocateRowsAfterData(count);
+            }
+            List<List<Object>> ids = read(sheetsService.spreadsheets().values()
+                    .get(spreadsheetId, sheetName + "!D" + firstRow + ":D" + (firstRow + count - 1))).getValues();
+            boolean empty = true;
+            for (int i = 0; empty && ids != null && i < ids.size(); i++) {
+                empty = cellText(ids, i).isEmpty();
+            }
+            if (empty) {
+                return firstRow;
+            }
+        }
+        index = loadRowIndex(sheetName);
+        synchronized (index) {
+            return index.allocateRowsAfterData(count);
+        }
+    }
+
+
+    /**
+     * Adds rows to the end of a sheet's grid if it is shorter than the given row, since values().update does
+     * not grow the grid the way values().append does. Adding rows is not safe to repeat, so the request is
+     * not retried after a server-side error.
+     *
+     * @param sheetName The name of the sheet.
+     * @param lastRow The last row that is about to be written.
+     * @throws IOException If the Google Sheets API cannot be reached.
+     */
+    private void ensureGridRows(String sheetName, int lastRow) throws IOException {
+        SheetMetadataCache sheets = metadata();
+        int rowCount = sheets.getRowCount(sheetName);
+        String sheetID = sheets.getSheetId(sheetName);
+        if (rowCount == -1 || sheetID == null || lastRow <= rowCount) {
             return;
         }
+        AppendDimensionRequest rows = new AppendDimensionRequest()
+                .setSheetId(Integer.valueOf(sheetID))
+                .setDimension("ROWS")
+                .setLength(lastRow - rowCount);
+        BatchUpdateSpreadsheetRequest body = new BatchUpdateSpreadsheetRequest()
+                .setRequests(Collections.singletonList(new Request().setAppendDimension(rows)));
+        writeOnce(sheetsService.spreadsheets().batchUpdate(spreadsheetId, body).setFields("spreadsheetId"));
+        sheets.setRowCount(sheetName, lastRow);
+    }
 
-        // Clear the contents of the found row in the sheet
-        String clearRange = crop.getSheetName() + "!B" + rowIndexToDelete + ":H" + rowIndexToDelete; // TODO: HAVE DIFFERENT METHODS AND CONSTANT VARIABLES SO THAT THE USER CAN CHANGE WHERE A ROW STARTS AND ENDS!!!
-        sheetsService.spreadsheets().values().clear(spreadsheetId, clearRange, new ClearValuesRequest()).execute();
-        System.out.println("Crop with ID " + crop.getCropID() + " has been cleared from the sheet.");
+
+    /**
+     * Rebuilds the row index of a sheet from its Crop ID column.
+     *
+     * @param sheetName The name of the sheet to index.
+     * @return The new row index, which has also replaced any previous index for the sheet.
+     * @throws IOException If the Google Sheets API cannot be reached.
+     */
+    private SheetRowIndex loadRowIndex(String sheetName) throws IOException {
+        String searchRange = sheetName + "!D" + FIRST_DATA_ROW + ":D";
+        ValueRange response;
+        try {
+            response = read(sheetsService.spreadsheets().values().get(spreadsheetId, searchRange));
+        } catch (IOException e) {
+            checkForMissingSheet(e);
+            throw e;
+        }
+        SheetRowIndex index = SheetRowIndex.fromValues(response.getValues(), 0, FIRST_DATA_ROW);
+        rowIndexes.put(sheetName, index);
+        return index;
+    }
+
+
+    /**
+     * Reads the Crop ID cell of a single row.
+     *
+     * @param sheetName The name of the sheet to read from.
+     * @param row The row number to read.
+     * @return The text of the cell, or an empty string if the cell is empty.
+     * @throws IOException If the Google Sheets API cannot be reached.
+     */
+    private String readIdCell(String sheetName, int row) throws IOException {
+        ValueRange response = read(sheetsService.spreadsheets().values().get(spreadsheetId, sheetName + "!D" + row));
+        return cellText(response.getValues(), 0);
+    }
+
+
+    /**
+     * Returns the metadata cache, refreshing it from the Google Sheets API first if it is empty or expired.
+     * The refresh uses a fields mask so that only the sheet properties are transferred.
+     *
+     * @return The up-to-date metadata cache.
+     * @throws IOException If the metadata has to be refreshed and the Google Sheets API cannot be reached.
+     */
+    private SheetMetadataCache metadata() throws IOException {
+        if (!metadataCache.isFresh()) {
+            refreshMetadata();
+        }
+        return metadataCache;
+    }
+
+
+    /**
+     * Reloads the metadata cache from the Google Sheets API.
+     *
+     * @throws IOException If the Google Sheets API cannot be reached.
+     */
+    private void refreshMetadata() throws IOException {
+        Spreadsheet spreadsheet = read(sheetsService.spreadsheets().get(spreadsheetId).setFields(METADATA_FIELDS));
+        metadataCache.update(spreadsheet.getSheets());
+    }
+
+
+    /**
+     * Looks up the ID of a sheet in the metadata cache, refreshing the cache once if the name is missing.
+     *
+     * @param sheetName The name of the sheet.
+     * @return The sheet's ID, or null if the spreadsheet has no sheet with that name.
+     * @throws IOException If the metadata has to be refreshed and the Google Sheets API cannot be reached.
+     */
+    private String lookupSheetId(String sheetName) throws IOException {
+        boolean alreadyRefreshed = !metadataCache.isFresh();
+        String sheetID = metadata().getSheetId(sheetName);
+        if (sheetID == null && !alreadyRefreshed) {
+            refreshMetadata(); // The sheet may have been created since the cache was loaded.
+            sheetID = metadataCache.getSheetId(sheetName);
+        }
+        return sheetID;
+    }
+
+
+    /**
+     * Drops the cached metadata and row indexes when the API reports that a range refers to a sheet that
+     * does not exist, which means the sheet was renamed or removed since the cache was loaded.
+     *
+     * @param e The error returned by the Google Sheets API.
+     */
+    private void checkForMissingSheet(IOException e) {
+        if (e instanceof GoogleJsonResponseException
+                && ((GoogleJsonResponseException) e).getStatusCode() == 400
+                && String.valueOf(e.getMessage()).contains("Unable to parse range")) {
+            System.err.println("A sheet is missing from the spreadsheet; refreshing cached sheet metadata.");
+            invalidateMetadata();
+        }
+    }
+
+
+    /**
+     * Sends a read request through the request scheduler.
+     *
+     * @param request The request to send.
+     * @param <T> The type of the response.
+     * @return The response of the request.
+     * @throws IOException If the request fails, or is still throttled after the scheduler's last retry.
+     */
+    private <T> T read(SheetsRequest<T> request) throws IOException {
+        return scheduler.execute(RequestScheduler.Kind.READ, request::execute);
+    }
+
+
+    /**
+     * Sends a write request through the request scheduler.
+     *
+     * @param request The request to send.
+     * @param <T> The type of the response.
+     * @return The response of the request.
+     * @throws IOException If the request fails, or is still throttled after the scheduler's last retry.
+     */
+    private <T> T write(SheetsRequest<T> request) throws IOException {
+        return scheduler.execute(RequestScheduler.Kind.WRITE, request::execute);
+    }
+
+
+    /**
+     * Sends a write request that must not be applied twice through the request scheduler, which then only
+     * retries it while it is throttled (see {@link RequestScheduler#executeOnce}).
+     *
+     * @param request The request to send.
+     * @param <T> The type of the response.
+     * @return The response of the request.
+     * @throws IOException If the request fails, or is still throttled after the scheduler's last retry.
+     */
+    private <T> T writeOnce(SheetsRequest<T> request) throws IOException {
+        return scheduler.executeOnce(RequestScheduler.Kind.WRITE, request::execute);
+    }
+
+
+    /**
+     * Returns the request scheduler this service sends its calls through.
+     *
+     * @return The RequestScheduler of this service.
+     */
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+
+    /**
+     * Reads several ranges with a single values().batchGet call.
+     *
+     * @param ranges The ranges to read, in A1 notation.
+     * @return The value ranges in the same order as the requested ranges.
+     * @throws IOException If the Google Sheets API cannot be reached.
+     */
+    private List<ValueRange> batchGet(List<String> ranges) throws IOException {
+        List<ValueRange> valueRanges = read(sheetsService.spreadsheets().values().batchGet(spreadsheetId)
+                .setRanges(ranges)).getValueRanges();
+        return valueRanges != null ? valueRanges : new ArrayList<>();
+    }
+
+
+    /**
+     * Returns the trimmed text of the first cell of a row within a column of values.
+     *
+     * @param values The values of a single-column range (may be null).
+     * @param offset The position of the row within the range.
+     * @return The text of the cell, or an empty string if the row or cell is missing.
+     */
+    private static String cellText(List<List<Object>> values, int offset) {
+        return cellText(values, offset, 0);
+    }
+
+
+    /**
+     * Returns the trimmed text of one cell of a row within a range of values.
+     *
+     * @param values The values of a range (may be null).
+     * @param offset The position of the row within the range.
+     * @param column The position of the cell within the row.
+     * @return The text of the cell, or an empty string if the row or cell is missing.
+     */
+    private static String cellText(List<List<Object>> values, int offset, int column) {
+        if (values == null || offset < 0 || offset >= values.size()) {
+            return "";
+        }
+        List<Object> row = values.get(offset);
+        return row.size() <= column || row.get(column) == null ? "" : row.get(column).toString().trim();
+    }
+
+
+    /**
+     * Returns the trimmed text of one cell of a row that was read by row number.
+     *
+     * @param cells The cells read, by row number.
+     * @param row The row number.
+     * @param column The position of the cell within the row.
+     * @return The text of the cell, or an empty string if the row or cell is missing.
+     */
+    private static String cellText(Map<Integer, List<Object>> cells, int row, int column) {
+        List<Object> current = cells.get(row);
+        return current == null || current.size() <= column || current.get(column) == null ? "" : current.get(column).toString().trim();
+    }
+
+
+    /**
+     * Builds the A1 notation range covering columns B through H of a single row.
+     *
+     * @param sheetName The name of the sheet the row belongs to.
+     * @param row The row number within the sheet.
+     * @return The range, for example "Sheet1!B7:H7".
+     */
+    private String rowRange(String sheetName, int row) {
+        return sheetName + "!B" + row + ":H" + row;
+    }
+
+
+    /**
+     * Builds the ranges to write for a crop, covering only its changed fields. Adjacent changed columns are
+     * merged into one range, so a crop whose quantity and harvest date changed is written as F{row}:G{row}.
+     * New crops, and crops with no changed fields recorded (for example staged by an older version), are
+     * written as the whole B:H row.
+     *
+     * @param crop The crop to write.
+     * @param row The row of the crop in its sheet.
+     * @return The ranges and their values, in column order.
+     */
+    private List<ValueRange> changedCells(Crop crop, int row) {
+        List<Object> values = toRowValues(crop);
+        int fields = crop.getDirtyFields() & Crop.ALL_FIELDS;
+        if (crop.getCropChanges() == 1 || fields == 0 || fields == Crop.ALL_FIELDS) {
+            return Collections.singletonList(new ValueRange().setRange(rowRange(crop.getSheetName(), row))
+                    .setValues(Collections.singletonList(values)));
+        }
+
+        List<ValueRange> ranges = new ArrayList<>();
+        int column = 0;
+        while (column < values.size()) {
+            if ((fields & (1 << column)) == 0) {
+                column++;
+                continue;
+            }
+            int first = column;
+            while (column < values.size() && (fields & (1 << column)) != 0) {
+                column++;
+            }
+            char firstLetter = (char) ('B' + first);
+            char lastLetter = (char) ('B' + column - 1);
+            ranges.add(new ValueRange()
+                    .setRange(crop.getSheetName() + "!" + firstLetter + row + ":" + lastLetter + row)
+                    .setValues(Collections.singletonList(new ArrayList<>(values.subList(first, column)))));
+        }
+        return ranges;
+    }
+
+
+    /**
+     * Converts a {@link Crop} into the cell values of columns B through H.
+     *
+     * @param crop The crop to convert.
+     * @return The list of cell values in column order.
+     */
+    private List<Object> toRowValues(Crop crop) {
+        return Arrays.asList(
+                crop.getFarmName(), // Column B
+                crop.getFarmLocation(), // Column C
+                crop.getCropID(), // Column D
+                crop.getCropName(), // Column E
+                crop.getQuantityAvailable(), // Column F
+                crop.getHarvestDate(), // Column G
+                crop.isInSeason() ? "TRUE" : "FALSE" // Column H
+        );
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,398 @@
+package org.example.services;
+
+import com.google.api.client.http.HttpResponseException;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paces every call made to the Google Sheets API so that the application stays within its per-minute quotas.
+ * <p>
+ * Reads and writes each draw from their own token bucket, sized to the read and write requests allowed per
+ * minute. Callers that find their bucket empty wait for the next token, and waiting callers are served by
+ * priority lane: {@link Lane#INTERACTIVE} calls (such as loading a sheet to display it) go ahead of
+ * {@link Lane#NORMAL} calls, which go ahead of {@link Lane#BULK} calls (such as large pushes and exports).
+ * When the API still answers with 429 (quota exceeded) or a 5xx error, the call is retried with exponential
+ * backoff and full jitter instead of failing straight away.
+ * <p>
+ * The scheduler keeps counters of its queue depth, token waits and throttled responses so that it is easy
+ * to tell when the application is quota-bound. One shared instance is returned by {@link #getDefault()},
+ * since the quotas apply to the whole process rather than to a single GoogleSheetsService.
+ */
+public class RequestScheduler {
+
+    /**
+     * The priority lanes of the scheduler, from most to least urgent.
+     */
+    public enum Lane {
+        INTERACTIVE, // A person is waiting on the result.
+        NORMAL,      // Regular background work.
+        BULK         // Large pushes, exports and imports that can wait.
+    }
+
+    /**
+     * The kinds of calls, each with its own quota.
+     */
+    public enum Kind {
+        READ,
+        WRITE
+    }
+
+    /**
+     * A single blocking call to the Google Sheets API.
+     *
+     * @param <T> The type of the call's result.
+     */
+    public interface SheetsCall<T> {
+        /**
+         * Performs the call.
+         *
+         * @return The result of the call.
+         * @throws IOException If the Google Sheets API returns an error or cannot be reached.
+         */
+        T execute() throws IOException;
+    }
+
+    private static final int DEFAULT_READS_PER_MINUTE = 60; // Default Sheets read quota per user per minute.
+    private static final int DEFAULT_WRITES_PER_MINUTE = 60; // Default Sheets write quota per user per minute.
+    private static final int DEFAULT_MAX_RETRIES = 5; // How often a throttled call is retried.
+    private static final long DEFAULT_BASE_BACKOFF_MILLIS = 1000; // Backoff ceiling of the first retry.
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 64_000; // Largest backoff ceiling.
+    private static final RequestScheduler DEFAULT = new RequestScheduler(DEFAULT_READS_PER_MINUTE, DEFAULT_WRITES_PER_MINUTE,
+            DEFAULT_MAX_RETRIES, DEFAULT_BASE_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+    private static final ThreadLocal<Lane> CURRENT_LANE = new ThreadLocal<>(); // Lane chosen by the calling thread, if any.
+
+    private final Object lock = new Object(); // Guards the buckets and waiting counts.
+    private final TokenBucket[] buckets = new TokenBucket[Kind.values().length]; // One bucket per kind of call.
+    private final int[][] waiting = new int[Kind.values().length][Lane.values().length]; // Callers waiting per kind and lane.
+    private final int maxRetries; // How often a throttled call is retried.
+    private final long baseBackoffMillis; // Backoff ceiling of the first retry.
+    private final long maxBackoffMillis; // Largest backoff ceiling.
+
+    private final AtomicLong requestCount = new AtomicLong(); // Calls sent to the API (including retries).
+    private final AtomicLong tokenWaitCount = new AtomicLong(); // Calls that had to wait for a token.
+    private final AtomicLong throttleCount = new AtomicLong(); // Responses with status 429 or 5xx.
+    private final AtomicLong retryCount = new AtomicLong(); // Calls that were retried after a backoff.
+
+
+    /**
+     * Constructs a RequestScheduler with custom quotas and retry behaviour.
+     *
+     * @param readsPerMinute The number of read calls allowed per minute.
+     * @param writesPerMinute The number of write calls allowed per minute.
+     * @param maxRetries How often a call answered with 429 or 5xx is retried before its error is thrown.
+     * @param baseBackoffMillis The backoff ceiling of the first retry; it doubles with every further retry.
+     * @param maxBackoffMillis The largest backoff ceiling.
+     */
+    public RequestScheduler(int readsPerMinute, int writesPerMinute, int maxRetries, long baseBackoffMillis, long maxBackoffMillis) {
+        buckets[Kind.READ.ordinal()] = new TokenBucket(readsPerMinute);
+        buckets[Kind.WRITE.ordinal()] = new TokenBucket(writesPerMinute);
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+
+    /**
+     * Returns the scheduler shared by every GoogleSheetsService in the process.
+     *
+     * @return The shared RequestScheduler.
+     */
+    public static RequestScheduler getDefault() {
+        return DEFAULT;
+    }
+
+
+    /**
+     * Runs a task with every Sheets call it makes on the current thread assigned to the given lane.
+     * Without this, reads default to {@link Lane#INTERACTIVE} and writes to {@link Lane#NORMAL}.
+     *
+     * @param lane The lane to use for the task's calls.
+     * @param task The task to run.
+     * @param <T> The type of the task's result.
+     * @return The result of the task.
+     * @throws Exception If the task throws.
+     */
+    public static <T> T runInLane(Lane lane, Callable<T> task) throws Exception {
+        Lane previous = CURRENT_LANE.get();
+        CURRENT_LANE.set(lane);
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                CURRENT_LANE.remove();
+            } else {
+                CURRENT_LANE.set(previous);
+            }
+        }
+    }
+
+
+    /**
+     * Performs a call once a token of its kind is available, retrying with backoff while the API answers
+     * with 429 or a 5xx status.
+     *
+     * @param kind Whether the call reads or writes.
+     * @param call The call to perform.
+     * @param <T> The type of the call's result.
+     * @return The result of the call.
+     * @throws IOException If the call fails with a non-retryable error, or is still throttled after the last retry.
+     */
+    public <T> T execute(Kind kind, SheetsCall<T> call) throws IOException {
+        return execute(kind, call, true);
+    }
+
+
+    /**
+     * Performs a call that must not be applied twice (such as adding rows to a grid) once a token of its kind
+     * is available. The call is retried only while the API answers with 429, which means it was rejected
+     * without being applied; after a 5xx error it may or may not have been applied, so the error is thrown.
+     *
+     * @param kind Whether the call reads or writes.
+     * @param call The call to perform.
+     * @param <T> The type of the call's result.
+     * @return The result of the call.
+     * @throws IOException If the call fails with any error other than 429, or is still throttled after the last retry.
+     */
+    public <T> T executeOnce(Kind kind, SheetsCall<T> call) throws IOException {
+        return execute(kind, call, false);
+    }
+
+
+    /**
+     * Performs a call once a token of its kind is available, retrying with backoff while the API answers
+     * with 429, or with a 5xx status if the call is safe to repeat.
+     *
+     * @param kind Whether the call reads or writes.
+     * @param call The call to perform.
+     * @param idempotent Whether the call may be repeated after a server-side error.
+     * @param <T> The type of the call's result.
+     * @return The result of the call.
+     * @throws IOException If the call fails with a non-retryable error, or is still throttled after the last retry.
+     */
+    private <T> T execute(Kind kind, SheetsCall<T> call, boolean idempotent) throws IOException {
+        Lane lane = CURRENT_LANE.get();
+        if (lane == null) {
+            lane = kind == Kind.READ ? Lane.INTERACTIVE : Lane.NORMAL;
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            acquire(kind, lane);
+            requestCount.incrementAndGet();
+            try {
+                return call.execute();
+            } catch (IOException e) {
+                if (!isRetryable(e, idempotent)) {
+                    throw e;
+                }
+                throttleCount.incrementAndGet();
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                retryCount.incrementAndGet();
+                long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+                long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+                System.err.println("Sheets API throttled the request (" + e.getMessage() + "); retrying in " + delay + " ms.");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while backing off from a throttled request.", interrupted);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Waits until the caller's lane is the most urgent one waiting for the given kind of call and a token
+     * is available, then takes the token.
+     *
+     * @param kind Whether the call reads or writes.
+     * @param lane The lane of the caller.
+     * @throws IOException If the thread is interrupted while waiting.
+     */
+    private void acquire(Kind kind, Lane lane) throws IOException {
+        TokenBucket bucket = buckets[kind.ordinal()];
+        int[] lanes = waiting[kind.ordinal()];
+        boolean waited = false;
+        synchronized (lock) {
+            lanes[lane.ordinal()]++;
+            try {
+                while (true) {
+                    long waitMillis;
+                    if (moreUrgentWaiting(lanes, lane)) {
+                        waitMillis = 0; // Wait until a more urgent caller has taken its token.
+                    } else {
+                        waitMillis = bucket.tryTake();
+                        if (waitMillis == 0) {
+                            return;
+                        }
+                    }
+                    if (!waited) {
+                        waited = true;
+                        tokenWaitCount.incrementAndGet();
+                    }
+                    lock.wait(waitMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for Sheets API quota.", e);
+            } finally {
+                lanes[lane.ordinal()]--;
+                lock.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Returns whether any caller in a more urgent lane is waiting for the same kind of call.
+     *
+     * @param lanes The waiting counts of each lane for the kind of call.
+     * @param lane The lane of the caller.
+     * @return true if the caller has to let a more urgent caller go first.
+     */
+    private static boolean moreUrgentWaiting(int[] lanes, Lane lane) {
+        for (int l = 0; l < lane.ordinal(); l++) {
+            if (lanes[l] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns whether an error is worth retrying: quota exhaustion (429), or a server-side error (5xx) for
+     * calls that are safe to repeat.
+     *
+     * @param e The error returned by the call.
+     * @param idempotent Whether the call may be repeated after a server-side error.
+     * @return true if the call should be retried after a backoff.
+     */
+    private static boolean isRetryable(IOException e, boolean idempotent) {
+        if (!(e instanceof HttpResponseException)) {
+            return false;
+        }
+        int status = ((HttpResponseException) e).getStatusCode();
+        return status == 429 || (idempotent && status >= 500 && status < 600);
+    }
+
+
+    /**
+     * Returns the number of callers currently waiting for quota, across both kinds and all lanes.
+     *
+     * @return The current queue depth.
+     */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            int depth = 0;
+            for (int[] lanes : waiting) {
+                for (int count : lanes) {
+                    depth += count;
+                }
+            }
+            return depth;
+        }
+    }
+
+
+    /**
+     * Returns the number of callers currently waiting in one lane for one kind of call.
+     *
+     * @param kind Whether the callers read or write.
+     * @param lane The lane to inspect.
+     * @return The number of waiting callers.
+     */
+    public int getQueueDepth(Kind kind, Lane lane) {
+        synchronized (lock) {
+            return waiting[kind.ordinal()][lane.ordinal()];
+        }
+    }
+
+
+    /**
+     * Returns the number of calls sent to the API, including retries.
+     *
+     * @return The total number of requests.
+     */
+    public long getRequestCount() {return requestCount.get();}
+
+    /**
+     * Returns the number of calls that had to wait for a token before being sent.
+     *
+     * @return The number of calls delayed by the local quota.
+     */
+    public long getTokenWaitCount() {return tokenWaitCount.get();}
+
+    /**
+     * Returns the number of responses with status 429 or 5xx.
+     *
+     * @return The number of throttled responses.
+     */
+    public long getThrottleCount() {return throttleCount.get();}
+
+    /**
+     * Returns the number of calls that were retried after a backoff.
+     *
+     * @return The number of retries.
+     */
+    public long getRetryCount() {return retryCount.get();}
+
+
+    /**
+     * Summarizes the scheduler's counters in one line.
+     *
+     * @return A human-readable description of the scheduler's activity.
+     */
+    @Override
+    public String toString() {
+        return "requests=" + getRequestCount()
+                + ", queued=" + getQueueDepth()
+                + ", tokenWaits=" + getTokenWaitCount()
+                + ", throttled=" + getThrottleCount()
+                + ", retries=" + getRetryCount();
+    }
+
+
+    /**
+     * A token bucket holding up to a minute's worth of calls and refilling continuously.
+     * Only used while holding the scheduler's lock.
+     */
+    private static class TokenBucket {
+        private final double capacity; // The most tokens the bucket can hold.
+        private final double tokensPerNano; // Refill rate.
+        private double tokens; // Tokens currently available.
+        private long lastRefill = System.nanoTime(); // When tokens were last added.
+
+        /**
+         * Constructs a full bucket.
+         *
+         * @param perMinute The number of calls allowed per minute.
+         */
+        TokenBucket(int perMinute) {
+            this.capacity = Math.max(1, perMinute);
+            this.tokensPerNano = capacity / 60_000_000_000.0;
+            this.tokens = capacity;
+        }
+
+        /**
+         * Takes a token if one is available.
+         *
+         * @return 0 if a token was taken, otherwise the number of milliseconds until the next token.
+         */
+        long tryTake() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano / 1_000_000.0));
+        }
+    }
+}
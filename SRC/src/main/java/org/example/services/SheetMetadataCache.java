@@ -0,0 +1,146 @@
+package org.example.services;
+
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the sheet metadata of a spreadsheet (sheet names, sheet IDs and grid sizes) so that loading
+ * a sheet does not need its own spreadsheets().get() round trip just to translate a name into an ID.
+ * <p>
+ * Entries expire after a configurable time-to-live, and can be dropped at any time with {@link #invalidate()},
+ * for example when the API reports that a cached sheet no longer exists. All methods are thread-safe.
+ */
+public class SheetMetadataCache {
+    private final long ttlNanos; // How long loaded metadata stays fresh.
+    private final Map<String, String> idsByName = new LinkedHashMap<>(); // Sheet name to sheet ID, in spreadsheet order.
+    private final Map<String, String> namesById = new HashMap<>(); // Sheet ID to sheet name.
+    private final Map<String, Integer> rowCountsByName = new HashMap<>(); // Sheet name to the number of rows in its grid.
+    private long loadedAt; // When the metadata was last loaded (System.nanoTime()).
+    private boolean loaded; // Whether the cache holds metadata at all.
+
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param ttlMillis How long, in milliseconds, loaded metadata is served before it is considered stale.
+     */
+    public SheetMetadataCache(long ttlMillis) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+
+    /**
+     * Returns whether the cache holds metadata that has not yet expired.
+     *
+     * @return true if the cached metadata can be served, false if it has to be reloaded.
+     */
+    public synchronized boolean isFresh() {
+        return loaded && System.nanoTime() - loadedAt < ttlNanos;
+    }
+
+
+    /**
+     * Replaces the cached metadata with the properties of the given sheets.
+     *
+     * @param sheets The sheets returned by spreadsheets().get() (with at least their properties).
+     */
+    public synchronized void update(List<Sheet> sheets) {
+        idsByName.clear();
+        namesById.clear();
+        rowCountsByName.clear();
+        if (sheets != null) {
+            for (Sheet sheet : sheets) {
+                SheetProperties properties = sheet.getProperties();
+                String name = properties.getTitle();
+                String id = properties.getSheetId().toString();
+                idsByName.put(name, id);
+                namesById.put(id, name);
+                if (properties.getGridProperties() != null && properties.getGridProperties().getRowCount() != null) {
+                    rowCountsByName.put(name, properties.getGridProperties().getRowCount());
+                }
+            }
+        }
+        loadedAt = System.nanoTime();
+        loaded = true;
+    }
+
+
+    /**
+     * Drops the cached metadata so that the next lookup reloads it.
+     */
+    public synchronized void invalidate() {
+        loaded = false;
+    }
+
+
+    /**
+     * Returns the names of the cached sheets.
+     *
+     * @return The sheet names, in the order they appear in the spreadsheet.
+     */
+    public synchronized List<String> getSheetNames() {
+        return new ArrayList<>(idsByName.keySet());
+    }
+
+
+    /**
+     * Returns a copy of the cached sheet name to sheet ID mapping.
+     *
+     * @return A Map where each key is a sheet's name and each value is the sheet's ID.
+     */
+    public synchronized Map<String, String> getSheetNamesAndIds() {
+        return new LinkedHashMap<>(idsByName);
+    }
+
+
+    /**
+     * Returns the ID of a cached sheet.
+     *
+     * @param sheetName The name of the sheet.
+     * @return The sheet's ID, or null if no sheet with that name is cached.
+     */
+    public synchronized String getSheetId(String sheetName) {
+        return idsByName.get(sheetName);
+    }
+
+
+    /**
+     * Returns the name of a cached sheet.
+     *
+     * @param sheetID The ID of the sheet.
+     * @return The sheet's name, or null if no sheet with that ID is cached.
+     */
+    public synchronized String getSheetName(String sheetID) {
+        return namesById.get(sheetID);
+    }
+
+
+    /**
+     * Returns the number of rows in the grid of a cached sheet.
+     *
+     * @param sheetName The name of the sheet.
+     * @return The number of rows in the sheet's grid, or -1 if it is not known.
+     */
+    public synchronized int getRowCount(String sheetName) {
+        return rowCountsByName.getOrDefault(sheetName, -1);
+    }
+
+
+    /**
+     * Records a new grid size for a cached sheet, after rows have been added to it.
+     *
+     * @param sheetName The name of the sheet.
+     * @param rowCount The number of rows now in the sheet's grid.
+     */
+    public synchronized void setRowCount(String sheetName, int rowCount) {
+        if (idsByName.containsKey(sheetName)) {
+            rowCountsByName.put(sheetName, rowCount);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.example.services;
+
+import org.example.util.IntIntHashMap;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Remembers which row of a sheet holds each crop ID, so that updates and deletes can address a row
+ * directly instead of downloading and scanning the whole Crop ID column first.
+ * <p>
+ * The index is built from the rows the service has already read (either the full B:H data of
+ * getItemsInSheet or the D column alone) and is kept up to date as the service adds and clears rows.
+ * Because other people can edit the sheet at any time, callers are expected to validate the row
+ * they get back (for example by re-reading its Crop ID cell) and rebuild the index on a mismatch.
+ * <p>
+ * Instances are not thread-safe; GoogleSheetsService synchronizes on the index while using it.
+ */
+public class SheetRowIndex {
+    private final IntIntHashMap rowsById; // Crop ID to row number.
+    private final BitSet emptyRows = new BitSet(); // Empty rows within the data (such as cleared rows).
+    private int nextRowAfterData; // The first row after the last non-empty row.
+
+
+    /**
+     * Constructs an empty index whose data starts at the given row.
+     *
+     * @param firstDataRow The row number of the first data row in the sheet.
+     * @param expectedRows The number of rows the index is expected to hold.
+     */
+    private SheetRowIndex(int firstDataRow, int expectedRows) {
+        this.rowsById = new IntIntHashMap(expectedRows);
+        this.nextRowAfterData = firstDataRow;
+    }
+
+
+    /**
+     * Builds an index from the values of a range that starts at the first data row.
+     * The crop ID of each row is read from the given column of the range, so the same method
+     * works for the full B:H rows (column 2) and for the D column on its own (column 0).
+     *
+     * @param values The rows returned by the API (may be null if the range is empty).
+     * @param idColumn The index of the Crop ID column within each row.
+     * @param firstDataRow The row number of the first row in values.
+     * @return The index describing the given rows.
+     */
+    public static SheetRowIndex fromValues(List<List<Object>> values, int idColumn, int firstDataRow) {
+        SheetRowIndex index = new SheetRowIndex(firstDataRow, values == null ? 0 : values.size());
+        if (values == null) {
+            return index;
+        }
+        for (int i = 0; i < values.size(); i++) {
+            List<Object> row = values.get(i);
+            int rowNumber = i + firstDataRow;
+            String cell = row.size() > idColumn && row.get(idColumn) != null ? row.get(idColumn).toString().trim() : "";
+            if (cell.isEmpty()) {
+                index.emptyRows.set(rowNumber);
+                continue;
+            }
+            try {
+                int cropID = Integer.parseInt(cell);
+                if (!index.rowsById.containsKey(cropID)) {
+                    index.rowsById.put(cropID, rowNumber);
+                }
+            } catch (NumberFormatException ignored) {
+                // The row holds something other than a crop (such as a note), so it is neither indexed nor free.
+            }
+        }
+        index.nextRowAfterData = values.size() + firstDataRow;
+        return index;
+    }
+
+
+    /**
+     * Returns the row holding the given crop ID.
+     *
+     * @param cropID The crop ID to look up.
+     * @return The row number, or -1 if the ID is not in the index.
+     */
+    public int rowOf(int cropID) {
+        return rowsById.getOrDefault(cropID, -1);
+    }
+
+
+    /**
+     * Reserves the next empty row for a new crop. Rows left empty by earlier deletes are reused first,
+     * in order, followed by the rows after the end of the data. The row is not associated with a crop ID
+     * until {@link #put(int, int)} is called.
+     *
+     * @return The row number the new crop should be written to.
+     */
+    public int allocateRow() {
+        int row = emptyRows.nextSetBit(0);
+        if (row >= 0) {
+            emptyRows.clear(row);
+            return row;
+        }
+        return nextRowAfterData++;
+    }
+
+
+    /**
+     * Reserves a run of consecutive rows after the end of the data, for crops added together. Empty rows
+     * within the data are left for {@link #allocateRow()}.
+     *
+     * @param count The number of rows to reserve.
+     * @return The row number of the first reserved row.
+     */
+    public int allocateRowsAfterData(int count) {
+        int first = nextRowAfterData;
+        nextRowAfterData += count;
+        return first;
+    }
+
+
+    /**
+     * Records that a crop ID now lives in the given row.
+     *
+     * @param cropID The crop ID that was written.
+     * @param row The row number it was written to.
+     */
+    public void put(int cropID, int row) {
+        rowsById.put(cropID, row);
+        emptyRows.clear(row);
+        if (row >= nextRowAfterData) {
+            nextRowAfterData = row + 1;
+        }
+    }
+
+
+    /**
+     * Records that the row of a crop ID has been cleared, making the row available to new crops.
+     *
+     * @param cropID The crop ID whose row was cleared.
+     */
+    public void release(int cropID) {
+        int row = rowsById.remove(cropID, -1);
+        if (row != -1) {
+            emptyRows.set(row);
+        }
+    }
+
+
+    /**
+     * Returns a copy of the crop IDs in the index and their rows.
+     *
+     * @return A new map from crop ID to row number.
+     */
+    public IntIntHashMap copyRows() {
+        IntIntHashMap copy = new IntIntHashMap(rowsById.size());
+        rowsById.forEach(copy::put);
+        return copy;
+    }
+
+
+    /**
+     * Returns the number of crop IDs in the index.
+     *
+     * @return The number of indexed crops.
+     */
+    public int size() {
+        return rowsById.size();
+    }
+}
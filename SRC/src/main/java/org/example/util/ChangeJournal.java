@@ -0,0 +1,500 @@
+package org.example.util;
+
+import org.example.Crop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, write-ahead journal of the changes staged by the user, so that staged adds, modifications
+ * and deletions survive a crash or a failed push.
+ * <p>
+ * Every staged change is appended as a STAGE record holding a sequence number and a snapshot of the crop.
+ * Once the change has been pushed to Google Sheets, an ACK record with the same sequence number is appended.
+ * When the journal is opened, every STAGE record without a matching ACK is handed back by {@link #getPending()}
+ * so that it can be staged again.
+ * <p>
+ * Records are written to the file straight away, but forcing them to disk is left to a background flusher
+ * thread. Callers that need a record to be durable call {@link #awaitDurable(long)}; every caller waiting at the
+ * same time shares a single FileChannel.force(), so staging a thousand crops costs a handful of fsyncs rather
+ * than a thousand (group commit).
+ * <p>
+ * Record layout: int payload length, int CRC32 of the payload, then the payload (record type, sequence number
+ * and, for STAGE records, the crop). A torn or corrupt record at the end of the file, left by a crash mid-write,
+ * is discarded when the journal is opened.
+ * <p>
+ * Usage example:
+ * ChangeJournal journal = ChangeJournal.open(Paths.get("staged-changes.journal"));
+ * long seq = journal.append(crop);
+ * journal.awaitDurable(seq);
+ * // ... push the crop ...
+ * journal.acknowledge(Collections.singletonList(seq));
+ */
+public class ChangeJournal implements AutoCloseable {
+    private static final byte STAGE = 1; // Record type of a staged change.
+    private static final byte ACK = 2; // Record type of an acknowledgement.
+    private static final int HEADER_BYTES = 8; // Payload length and CRC32.
+    private static final int MAX_PAYLOAD_BYTES = 1 << 20; // Anything longer is treated as corruption.
+
+    private final Path path; // Where the journal lives.
+    private final FileChannel channel; // Open for appending.
+    private final Map<Long, Crop> pending = new LinkedHashMap<>(); // Unacknowledged changes, in sequence order.
+    private final Thread flusher; // Forces written records to disk.
+    private long nextSeq; // The sequence number of the next staged change.
+    private long writtenSeq; // The highest sequence number of any record written (STAGE or ACK).
+    private long durableSeq; // The highest sequence number known to be on disk.
+    private long forceCount; // Number of FileChannel.force() calls, for comparing against records written.
+    private long recordCount; // Number of records written since the journal was opened.
+    private IOException flushFailure; // Set if forcing the file failed; reported to every waiter.
+    private boolean closed; // Whether the journal has been closed.
+
+
+    /**
+     * Constructs a journal over an already opened channel. Use {@link #open(Path)} instead.
+     *
+     * @param path Where the journal lives.
+     * @param channel The channel, positioned at the end of the file.
+     * @param pending The unacknowledged changes read from the file.
+     * @param nextSeq The sequence number of the next staged change.
+     */
+    private ChangeJournal(Path path, FileChannel channel, Map<Long, Crop> pending, long nextSeq) {
+        this.path = path;
+        this.channel = channel;
+        this.pending.putAll(pending);
+        this.nextSeq = nextSeq;
+        this.writtenSeq = nextSeq - 1;
+        this.durableSeq = nextSeq - 1;
+        this.flusher = new Thread(this::flushLoop, "change-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+
+    /**
+     * Opens the journal at the given path, creating it if needed, and reads back every unacknowledged change.
+     * If the file holds acknowledged changes, it is compacted so that only the pending ones are kept.
+     *
+     * @param path Where the journal lives.
+     * @return The opened journal.
+     * @throws IOException If the file cannot be read or written.
+     */
+    public static ChangeJournal open(Path path) throws IOException {
+        Map<Long, Crop> pending = new LinkedHashMap<>();
+        long maxSeq = 0;
+        long validBytes = 0;
+        boolean hasAcks = false;
+
+        if (Files.exists(path)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+                while (true) {
+                    byte[] payload = readRecord(in);
+                    if (payload == null) {
+                        break;
+                    }
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                    byte type = record.readByte();
+                    long seq = record.readLong();
+                    if (type == STAGE) {
+                        pending.put(seq, readCrop(record));
+                    } else if (type == ACK) {
+                        pending.remove(seq);
+                        hasAcks = true;
+                    }
+                    maxSeq = Math.max(maxSeq, seq);
+                    validBytes += HEADER_BYTES + payload.length;
+                }
+            }
+        }
+
+        boolean torn = Files.exists(path) && Files.size(path) != validBytes;
+        if (torn) {
+            System.err.println("Discarding a damaged record at the end of " + path + ".");
+        }
+        if (hasAcks || torn) {
+            compact(path, pending);
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new ChangeJournal(path, channel, pending, maxSeq + 1);
+    }
+
+
+    /**
+     * Appends a staged change for the given crop. The crop's current state, including its change flag
+     * (1 = add, 2 = modify, 3 = delete), is recorded. The record is written but not yet forced to disk.
+     *
+     * @param crop The staged crop.
+     * @return The sequence number of the change.
+     * @throws IOException If the record cannot be written.
+     */
+    public synchronized long append(Crop crop) throws IOException {
+        ensureOpen();
+        long seq = nextSeq++;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(STAGE);
+        out.writeLong(seq);
+        writeCrop(out, crop);
+        write(bytes.toByteArray(), seq);
+        pending.put(seq, copyOf(crop));
+        return seq;
+    }
+
+
+    /**
+     * Records that the given changes have been pushed, so they are not replayed. Sequence numbers that are
+     * unknown or already acknowledged are ignored. When nothing is left pending, the file is truncated.
+     *
+     * @param seqs The sequence numbers of the pushed changes.
+     * @throws IOException If the acknowledgements cannot be written.
+     */
+    public void acknowledge(Collection<Long> seqs) throws IOException {
+        long last;
+        synchronized (this) {
+            ensureOpen();
+            last = -1;
+            for (long seq : seqs) {
+                if (pending.remove(seq) == null) {
+                    continue;
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(ACK);
+                out.writeLong(seq);
+                last = ++writtenSeq; // ACK records get their own position so awaitDurable can wait for them.
+                nextSeq = writtenSeq + 1;
+                writeBytes(bytes.toByteArray());
+            }
+            if (last == -1) {
+                return;
+            }
+            notifyAll();
+        }
+        awaitDurable(last);
+
+        synchronized (this) {
+            if (pending.isEmpty() && !closed) {
+                channel.truncate(0); // Everything has been pushed; start the file over.
+            }
+        }
+    }
+
+
+    /**
+     * Waits until every record up to and including the given sequence number is on disk.
+     *
+     * @param seq The sequence number returned by {@link #append(Crop)}.
+     * @throws IOException If forcing the file failed or the wait was interrupted.
+     */
+    public synchronized void awaitDurable(long seq) throws IOException {
+        while (durableSeq < seq) {
+            if (flushFailure != null) {
+                throw flushFailure;
+            }
+            if (closed) {
+                throw new IOException("Change journal is closed.");
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the change journal.", e);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the changes that have been staged but not acknowledged, including the ones read back when the
+     * journal was opened. Each crop is a copy with its change flag set.
+     *
+     * @return A Map from sequence number to staged crop, in sequence order.
+     */
+    public synchronized Map<Long, Crop> getPending() {
+        Map<Long, Crop> copy = new LinkedHashMap<>();
+        pending.forEach((seq, crop) -> copy.put(seq, copyOf(crop)));
+        return copy;
+    }
+
+
+    /**
+     * Returns the number of changes that have been staged but not acknowledged.
+     *
+     * @return The pending change count.
+     */
+    public synchronized int getPendingCount() {return pending.size();}
+
+    /**
+     * Returns the path of the journal file.
+     *
+     * @return The journal's path.
+     */
+    public Path getPath() {return path;}
+
+
+    /**
+     * Stops the flusher, forcing any written records to disk first, and closes the file.
+     *
+     * @throws IOException If the file cannot be forced or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.force(false);
+        channel.close();
+    }
+
+
+    /**
+     * Summarizes how many records were written and how many fsyncs they cost.
+     *
+     * @return A human-readable description of the journal's state.
+     */
+    @Override
+    public synchronized String toString() {
+        return "pending=" + pending.size()
+                + ", records=" + recordCount
+                + ", fsyncs=" + forceCount
+                + ", file=" + path;
+    }
+
+
+    /**
+     * Forces written records to disk whenever there are any, and wakes the callers waiting for them.
+     * Records written while a force is running are picked up by the next one.
+     */
+    private void flushLoop() {
+        while (true) {
+            long target;
+            synchronized (this) {
+                while (durableSeq >= writtenSeq && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (durableSeq >= writtenSeq) {
+                    return; // Closed with nothing left to force.
+                }
+                target = writtenSeq;
+            }
+
+            IOException failure = null;
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            synchronized (this) {
+                forceCount++;
+                if (failure != null) {
+                    flushFailure = failure;
+                    System.err.println("Failed to write the change journal to disk: " + failure.getMessage());
+                } else {
+                    durableSeq = Math.max(durableSeq, target);
+                }
+                notifyAll();
+                if (failure != null) {
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Writes a framed record and wakes the flusher. Must be called while holding the journal's lock.
+     *
+     * @param payload The record payload.
+     * @param seq The sequence number of the record.
+     * @throws IOException If the record cannot be written.
+     */
+    private void write(byte[] payload, long seq) throws IOException {
+        writeBytes(payload);
+        writtenSeq = Math.max(writtenSeq, seq);
+        notifyAll();
+    }
+
+
+    /**
+     * Writes a record's header and payload to the end of the file. Must be called while holding the journal's lock.
+     *
+     * @param payload The record payload.
+     * @throws IOException If the record cannot be written.
+     */
+    private void writeBytes(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        recordCount++;
+    }
+
+
+    /**
+     * Reads one framed record and checks its CRC.
+     *
+     * @param in The journal contents.
+     * @return The record's payload, or null at the end of the file or at the first torn or corrupt record.
+     * @throws IOException If the file cannot be read.
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int expectedCrc = in.readInt();
+            if (length <= 0 || length > MAX_PAYLOAD_BYTES) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == expectedCrc ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Rewrites the journal so that it only holds the given pending changes, replacing the old file atomically.
+     *
+     * @param path Where the journal lives.
+     * @param pending The changes to keep.
+     * @throws IOException If the file cannot be rewritten.
+     */
+    private static void compact(Path path, Map<Long, Crop> pending) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<Long, Crop> entry : pending.entrySet()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+                DataOutputStream record = new DataOutputStream(bytes);
+                record.writeByte(STAGE);
+                record.writeLong(entry.getKey());
+                writeCrop(record, entry.getValue());
+                byte[] payload = bytes.toByteArray();
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+                buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Writes every field of a crop that is needed to push it again, ending with the bitmask of its changed
+     * fields, so that only those cells are written when the change is replayed, and the fingerprint of its row
+     * as it was read, so that a replayed change still refuses to overwrite a row someone else has changed.
+     *
+     * @param out Where to write the crop.
+     * @param crop The crop to write.
+     * @throws IOException If the crop cannot be written.
+     */
+    private static void writeCrop(DataOutputStream out, Crop crop) throws IOException {
+        out.writeByte(crop.getCropChanges());
+        out.writeUTF(nullToEmpty(crop.getFarmName()));
+        out.writeUTF(nullToEmpty(crop.getFarmLocation()));
+        out.writeInt(crop.getCropID());
+        out.writeUTF(nullToEmpty(crop.getCropName()));
+        out.writeInt(crop.getQuantityAvailable());
+        out.writeUTF(nullToEmpty(crop.getHarvestDate()));
+        out.writeBoolean(crop.isInSeason());
+        out.writeUTF(nullToEmpty(crop.getSheetName()));
+        out.writeUTF(nullToEmpty(crop.getSheetID()));
+        out.writeByte(crop.getDirtyFields());
+        out.writeInt(crop.getRowFingerprint());
+    }
+
+
+    /**
+     * Reads a crop written by {@link #writeCrop(DataOutputStream, Crop)}.
+     *
+     * @param in Where to read the crop from.
+     * @return The crop, with its change flag, changed fields and row fingerprint set. Records written before
+     *         changed fields were journaled end after the sheet ID; their crops have no changed fields and are
+     *         pushed in full. Records written before fingerprints were journaled have an unknown fingerprint,
+     *         so their rows are not checked.
+     * @throws IOException If the crop cannot be read.
+     */
+    private static Crop readCrop(DataInputStream in) throws IOException {
+        int change = in.readByte();
+        Crop crop = new Crop(in.readUTF(), in.readUTF(), in.readInt(), in.readUTF(), in.readInt(),
+                in.readUTF(), in.readBoolean(), in.readUTF(), in.readUTF());
+        crop.setCropChanges(change);
+        if (in.available() > 0) {
+            crop.markDirty(in.readByte());
+        }
+        crop.setRowFingerprint(in.available() >= Integer.BYTES ? in.readInt() : RowFingerprint.UNKNOWN);
+        return crop;
+    }
+
+
+    /**
+     * Copies a crop so that later edits to the original do not change what the journal holds.
+     *
+     * @param crop The crop to copy.
+     * @return A copy of the crop, with the same change flag and changed fields.
+     */
+    private static Crop copyOf(Crop crop) {
+        return new Crop(crop);
+    }
+
+
+    /**
+     * Replaces null with an empty string, since DataOutputStream.writeUTF() cannot write null.
+     *
+     * @param value The value to write.
+     * @return The value, or "" if it was null.
+     */
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+
+    /**
+     * Throws if the journal has been closed. Must be called while holding the journal's lock.
+     *
+     * @throws IOException If the journal is closed.
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Change journal is closed.");
+        }
+    }
+}
@@ -0,0 +1,610 @@
+package org.example.util;
+
+import org.example.Crop;
+import org.example.CropTable;
+import org.example.PushResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the last known contents of each sheet on disk in a compact binary format, so that the application can
+ * show crops immediately at start-up and keep showing them while the Google Sheets API cannot be reached.
+ * <p>
+ * Each sheet is stored in its own file. The file starts with a header (magic number, format version, when the
+ * snapshot was saved, the sheet's name and ID), followed by a table of the distinct strings used by the crops
+ * (farm names, locations, crop names and harvest dates tend to repeat), then one fixed-size record per crop that
+ * refers to the strings by index, and finally a CRC32 of everything before it. Files are written to a temporary
+ * file and moved into place, so a crash never leaves a half-written snapshot behind. Snapshots that are only
+ * read (at start-up, say) go through a memory-mapped buffer.
+ * <p>
+ * Pushed changes are not written into the snapshot itself. They are appended to a small change log next to
+ * it (record layout as in {@link ChangeJournal}: length, CRC32, payload), which costs a write proportional to
+ * the changes rather than to the sheet, and is replayed on top of the snapshot when it is loaded. The log
+ * starts with the save time of the snapshot it belongs to, so a log left behind by a crash is never replayed
+ * on top of a newer snapshot. Once the log grows past half the size of the snapshot, the two are merged into
+ * a new snapshot. That read-modify-write reads the files into heap buffers, since a file that is still mapped
+ * cannot be replaced on some platforms.
+ * <p>
+ * Usage example:
+ * CropSnapshotStore store = new CropSnapshotStore(Paths.get("snapshots"));
+ * store.save("Sheet1", "0", crops);
+ * CropSnapshotStore.Snapshot snapshot = store.load("Sheet1");
+ */
+public class CropSnapshotStore {
+    private static final int MAGIC = 0x4352534E; // "CRSN", marks a crop snapshot file.
+    private static final short VERSION = 1; // Bumped whenever the layout changes.
+    private static final int RECORD_BYTES = 6 * Integer.BYTES + 1; // Farm name, location, ID, crop name, quantity, harvest date, in season.
+    private static final String EXTENSION = ".snapshot"; // File name extension of snapshot files.
+    private static final int LOG_MAGIC = 0x4352534C; // "CRSL", marks the change log of a snapshot.
+    private static final String LOG_EXTENSION = ".log"; // Appended to a snapshot's file name to name its change log.
+    private static final int LOG_HEADER_BYTES = Integer.BYTES + Short.BYTES + Long.BYTES; // Magic, version, save time of the snapshot.
+    private static final int SAVED_AT_OFFSET = Integer.BYTES + Short.BYTES; // Where the save time sits in both headers.
+    private static final int RECORD_HEADER_BYTES = 8; // Payload length and CRC32 of a change log record.
+    private static final int MAX_PAYLOAD_BYTES = 1 << 20; // Anything longer is treated as corruption.
+    private static final long MIN_COMPACT_BYTES = 64 * 1024; // Change logs smaller than this are never merged.
+    private static final byte UPSERT = 1; // Change log record: a crop was added or updated.
+    private static final byte DELETE = 2; // Change log record: a crop was deleted.
+    private static final byte QUANTITY = 3; // Change log record: a crop's quantity was set.
+
+    private final Path directory; // Where the snapshot files live.
+
+
+    /**
+     * A sheet's crops as they were when the snapshot was saved.
+     */
+    public static class Snapshot {
+        private final String sheetName; // The sheet the crops belong to.
+        private final String sheetID; // The ID of the sheet.
+        private final long savedAtMillis; // When the snapshot was saved (System.currentTimeMillis()).
+        private final List<Crop> crops; // The crops of the sheet.
+
+
+        /**
+         * Constructs a Snapshot.
+         *
+         * @param sheetName The sheet the crops belong to.
+         * @param sheetID The ID of the sheet.
+         * @param savedAtMillis When the snapshot was saved.
+         * @param crops The crops of the sheet.
+         */
+        public Snapshot(String sheetName, String sheetID, long savedAtMillis, List<Crop> crops) {
+            this.sheetName = sheetName;
+            this.sheetID = sheetID;
+            this.savedAtMillis = savedAtMillis;
+            this.crops = crops;
+        }
+
+        /**
+         * Returns the name of the sheet.
+         *
+         * @return The sheet's name.
+         */
+        public String getSheetName() {return sheetName;}
+
+        /**
+         * Returns the ID of the sheet.
+         *
+         * @return The sheet's ID.
+         */
+        public String getSheetID() {return sheetID;}
+
+        /**
+         * Returns when the snapshot was saved.
+         *
+         * @return The save time in milliseconds since the epoch.
+         */
+        public long getSavedAtMillis() {return savedAtMillis;}
+
+        /**
+         * Returns the crops of the sheet. Each call returns the same list, which the caller may modify.
+         *
+         * @return The crops, with their sheet name and ID set, as a {@link CropTable}.
+         */
+        public List<Crop> getCrops() {return crops;}
+
+        /**
+         * Returns how long ago the snapshot was saved.
+         *
+         * @return The age of the snapshot in milliseconds.
+         */
+        public long getAgeMillis() {return System.currentTimeMillis() - savedAtMillis;}
+    }
+
+
+    /**
+     * Constructs a store that keeps its snapshots in the given directory. The directory is created when the
+     * first snapshot is saved.
+     *
+     * @param directory Where the snapshot files live.
+     */
+    public CropSnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+
+    /**
+     * Saves the crops of a sheet, replacing any earlier snapshot of the same sheet and its change log.
+     *
+     * @param sheetName The sheet the crops belong to.
+     * @param sheetID The ID of the sheet.
+     * @param crops The crops of the sheet.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public synchronized void save(String sheetName, String sheetID, List<Crop> crops) throws IOException {
+        // Build the string table.
+        Map<String, Integer> indexes = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] refs = new int[crops.size() * 4];
+        int stringBytes = 0;
+        for (int i = 0; i < crops.size(); i++) {
+            Crop crop = crops.get(i);
+            String[] fields = {crop.getFarmName(), crop.getFarmLocation(), crop.getCropName(), crop.getHarvestDate()};
+            for (int f = 0; f < fields.length; f++) {
+                String value = fields[f] == null ? "" : fields[f];
+                Integer index = indexes.get(value);
+                if (index == null) {
+                    index = strings.size();
+                    indexes.put(value, index);
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    strings.add(bytes);
+                    stringBytes += Integer.BYTES + bytes.length;
+                }
+                refs[i * 4 + f] = index;
+            }
+        }
+
+        byte[] name = sheetName.getBytes(StandardCharsets.UTF_8);
+        byte[] id = (sheetID == null ? "" : sheetID).getBytes(StandardCharsets.UTF_8);
+        int size = Integer.BYTES + Short.BYTES + Long.BYTES
+                + Integer.BYTES + name.length + Integer.BYTES + id.length
+                + Integer.BYTES + stringBytes
+                + Integer.BYTES + crops.size() * RECORD_BYTES
+                + Integer.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        long savedAt = System.currentTimeMillis();
+        try {
+            if (savedAt == readSavedAt(fileFor(sheetName))) {
+                savedAt++; // Keep the save time unique, since it ties the change log to this snapshot.
+            }
+        } catch (IOException e) {
+            // A damaged snapshot is about to be replaced anyway.
+        }
+        buffer.putInt(MAGIC).putShort(VERSION).putLong(savedAt);
+        buffer.putInt(name.length).put(name);
+        buffer.putInt(id.length).put(id);
+        buffer.putInt(strings.size());
+        for (byte[] bytes : strings) {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        buffer.putInt(crops.size());
+        for (int i = 0; i < crops.size(); i++) {
+            Crop crop = crops.get(i);
+            buffer.putInt(refs[i * 4]).putInt(refs[i * 4 + 1]).putInt(crop.getCropID()).putInt(refs[i * 4 + 2])
+                    .putInt(crop.getQuantityAvailable()).putInt(refs[i * 4 + 3]).put((byte) (crop.isInSeason() ? 1 : 0));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Files.createDirectories(directory);
+        Path file = fileFor(sheetName);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(logFor(file)); // Already part of the crops just saved (and tied to the old save time).
+    }
+
+
+    /**
+     * Loads the last saved snapshot of a sheet, with the changes logged since it was saved applied to it.
+     *
+     * @param sheetName The name of the sheet.
+     * @return The snapshot, or null if there is none or it is damaged.
+     */
+    public synchronized Snapshot load(String sheetName) {
+        Path file = fileFor(sheetName);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return readWithLog(file, true);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Returns the names of the sheets that have a snapshot, reading only the header of each file.
+     *
+     * @return The sheet names, sorted alphabetically.
+     */
+    public synchronized List<String> getSheetNames() {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return names;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                try {
+                    names.add(read(file, false, true).getSheetName());
+                } catch (IOException | RuntimeException e) {
+                    // Damaged snapshots are skipped here and reported when they are loaded.
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not list snapshots in " + directory + ": " + e.getMessage());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+
+    /**
+     * Applies the successful results of a push to the snapshots of the sheets involved, so that the snapshots
+     * match the spreadsheet without downloading it again. The changes are appended to each sheet's change log.
+     * Sheets without a snapshot are left alone.
+     *
+     * @param results The results returned by pushBatch().
+     * @throws IOException If the changes cannot be logged.
+     */
+    public synchronized void apply(List<PushResult> results) throws IOException {
+        Map<String, List<byte[]>> bySheet = new LinkedHashMap<>();
+        for (PushResult result : results) {
+            if (!result.isSuccess()) {
+                continue;
+            }
+            Crop crop = result.getCrop();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (result.getStatus() == PushResult.Status.DELETED) {
+                out.writeByte(DELETE);
+                out.writeInt(crop.getCropID());
+            } else {
+                out.writeByte(UPSERT);
+                out.writeUTF(nullToEmpty(crop.getFarmName()));
+                out.writeUTF(nullToEmpty(crop.getFarmLocation()));
+                out.writeInt(crop.getCropID());
+                out.writeUTF(nullToEmpty(crop.getCropName()));
+                out.writeInt(crop.getQuantityAvailable());
+                out.writeUTF(nullToEmpty(crop.getHarvestDate()));
+                out.writeBoolean(crop.isInSeason());
+            }
+            bySheet.computeIfAbsent(crop.getSheetName(), name -> new ArrayList<>()).add(bytes.toByteArray());
+        }
+
+        for (Map.Entry<String, List<byte[]>> entry : bySheet.entrySet()) {
+            appendToLog(fileFor(entry.getKey()), entry.getValue());
+        }
+    }
+
+
+    /**
+     * Sets the quantities of crops in the snapshot of a sheet after quantity adjustments were applied to it.
+     * The new quantities are appended to the sheet's change log. Does nothing if the sheet has no snapshot.
+     *
+     * @param sheetName The name of the sheet.
+     * @param quantities A map from crop ID to its new quantity, as returned by applyQuantityDeltas().
+     * @throws IOException If the new quantities cannot be logged.
+     */
+    public synchronized void applyQuantities(String sheetName, IntIntHashMap quantities) throws IOException {
+        if (quantities.isEmpty()) {
+            return;
+        }
+        List<byte[]> records = new ArrayList<>(quantities.size());
+        quantities.forEach((cropID, quantity) -> {
+            ByteBuffer record = ByteBuffer.allocate(1 + 2 * Integer.BYTES);
+            record.put(QUANTITY).putInt(cropID).putInt(quantity);
+            records.add(record.array());
+        });
+        appendToLog(fileFor(sheetName), records);
+    }
+
+
+    /**
+     * Appends records to the change log of a snapshot, starting the log over if it belongs to an older save of
+     * the snapshot and cutting off a torn record left at its end. Merges the log into the snapshot once it has
+     * grown past half the snapshot's size. Does nothing if there is no snapshot.
+     *
+     * @param file The snapshot file.
+     * @param records The payloads of the records to append.
+     * @throws IOException If the log cannot be written, or the snapshot cannot be merged.
+     */
+    private void appendToLog(Path file, List<byte[]> records) throws IOException {
+        long savedAt = readSavedAt(file);
+        if (savedAt == -1 || records.isEmpty()) {
+            return;
+        }
+        Path log = logFor(file);
+        List<byte[]> existing = readLog(log, savedAt);
+        long validBytes = LOG_HEADER_BYTES;
+        if (existing != null) {
+            for (byte[] payload : existing) {
+                validBytes += RECORD_HEADER_BYTES + payload.length;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (existing == null) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES);
+                header.putInt(LOG_MAGIC).putShort(VERSION).putLong(savedAt).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            } else if (channel.size() > validBytes) {
+                channel.truncate(validBytes);
+            }
+            channel.position(validBytes);
+            for (byte[] payload : records) {
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+                buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            channel.force(false);
+        }
+
+        if (Files.size(log) > Math.max(MIN_COMPACT_BYTES, Files.size(file) / 2)) {
+            Snapshot merged = readWithLog(file, false);
+            save(merged.getSheetName(), merged.getSheetID(), merged.getCrops());
+        }
+    }
+
+
+    /**
+     * Reads a snapshot file and applies its change log.
+     *
+     * @param file The snapshot file.
+     * @param mapped Whether to read the snapshot through a memory-mapped buffer; pass false if the file is
+     *               about to be replaced.
+     * @return The snapshot, with the logged changes applied.
+     * @throws IOException If the snapshot cannot be read, is not a snapshot, or fails its checksum.
+     */
+    private Snapshot readWithLog(Path file, boolean mapped) throws IOException {
+        Snapshot snapshot = read(file, true, mapped);
+        List<byte[]> records = readLog(logFor(file), snapshot.getSavedAtMillis());
+        if (records == null || records.isEmpty()) {
+            return snapshot;
+        }
+
+        CropTable crops = (CropTable) snapshot.getCrops();
+        for (byte[] payload : records) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = in.readByte();
+            if (type == UPSERT) {
+                String farmName = in.readUTF();
+                String farmLocation = in.readUTF();
+                int cropID = in.readInt();
+                String cropName = in.readUTF();
+                int quantity = in.readInt();
+                String harvestDate = in.readUTF();
+                boolean inSeason = in.readBoolean();
+                crops.upsert(new Crop(farmName, farmLocation, cropID, cropName, quantity, harvestDate, inSeason,
+                        snapshot.getSheetName(), snapshot.getSheetID()));
+            } else if (type == DELETE) {
+                crops.removeCropID(in.readInt());
+            } else if (type == QUANTITY) {
+                int row = crops.indexOfCropID(in.readInt());
+                int quantity = in.readInt();
+                if (row != -1) {
+                    crops.setQuantityAvailable(row, quantity);
+                }
+            }
+        }
+
+        // The logged values are what the sheet holds, so the rows they touched are clean.
+        for (int row = 0; row < crops.size(); row++) {
+            if (crops.getDirtyFields(row) != 0) {
+                crops.setDirtyFields(row, 0);
+                crops.setCropChanges(row, 0);
+                crops.setRowFingerprint(row, RowFingerprint.of(crops.get(row)));
+            }
+        }
+        return snapshot;
+    }
+
+
+    /**
+     * Reads the records of a change log that belong to the given save of its snapshot.
+     *
+     * @param log The change log file.
+     * @param savedAt The save time of the snapshot.
+     * @return The payloads of the records, up to the first torn or corrupt one; null if there is no log or it
+     *         belongs to another save of the snapshot.
+     * @throws IOException If the log cannot be read.
+     */
+    private static List<byte[]> readLog(Path log, long savedAt) throws IOException {
+        if (!Files.isRegularFile(log)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(log));
+        if (buffer.remaining() < LOG_HEADER_BYTES || buffer.getInt() != LOG_MAGIC || buffer.getShort() != VERSION
+                || buffer.getLong() != savedAt) {
+            return null;
+        }
+        List<byte[]> records = new ArrayList<>();
+        while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+            int length = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (length <= 0 || length > MAX_PAYLOAD_BYTES || length > buffer.remaining()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            records.add(payload);
+        }
+        return records;
+    }
+
+
+    /**
+     * Reads the save time from the header of a snapshot file, without reading the rest of it.
+     *
+     * @param file The snapshot file.
+     * @return The save time, or -1 if there is no snapshot.
+     * @throws IOException If the file cannot be read or is not a snapshot.
+     */
+    private static long readSavedAt(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SAVED_AT_OFFSET + Long.BYTES);
+            while (header.hasRemaining() && channel.read(header) != -1) {
+                // Keep reading until the header is complete or the file ends.
+            }
+            header.flip();
+            if (header.remaining() < SAVED_AT_OFFSET + Long.BYTES || header.getInt() != MAGIC || header.getShort() != VERSION) {
+                throw new IOException("not a crop snapshot: " + file);
+            }
+            return header.getLong();
+        }
+    }
+
+
+    /**
+     * Reads a snapshot file, through a memory-mapped buffer or a heap buffer.
+     *
+     * @param file The snapshot file.
+     * @param withCrops Whether to decode the crops, or only the header.
+     * @param mapped Whether to map the file; pass false if the file is about to be replaced, since a mapped
+     *               file cannot be replaced on some platforms until the mapping is garbage collected.
+     * @return The snapshot (with an empty crop list if only the header was read).
+     * @throws IOException If the file cannot be read, is not a snapshot, or fails its checksum.
+     */
+    private static Snapshot read(Path file, boolean withCrops, boolean mapped) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer;
+            if (mapped) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } else {
+                buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // Keep reading until the buffer is full or the file ends.
+                }
+                buffer.flip();
+            }
+            if (buffer.remaining() < Integer.BYTES + Short.BYTES || buffer.getInt() != MAGIC) {
+                throw new IOException("not a crop snapshot");
+            }
+            if (buffer.getShort() != VERSION) {
+                throw new IOException("unsupported snapshot version");
+            }
+            long savedAt = buffer.getLong();
+            String sheetName = readString(buffer);
+            String sheetID = readString(buffer);
+            if (!withCrops) {
+                return new Snapshot(sheetName, sheetID, savedAt, new CropTable());
+            }
+
+            CRC32 crc = new CRC32();
+            ByteBuffer checked = buffer.duplicate();
+            checked.position(0).limit(buffer.capacity() - Integer.BYTES);
+            crc.update(checked);
+            if ((int) crc.getValue() != buffer.getInt(buffer.capacity() - Integer.BYTES)) {
+                throw new IOException("checksum mismatch");
+            }
+
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer);
+            }
+            int count = buffer.getInt();
+            CropTable crops = new CropTable(count);
+            for (int i = 0; i < count; i++) {
+                String farmName = strings[buffer.getInt()];
+                String farmLocation = strings[buffer.getInt()];
+                int cropID = buffer.getInt();
+                String cropName = strings[buffer.getInt()];
+                int quantity = buffer.getInt();
+                String harvestDate = strings[buffer.getInt()];
+                boolean inSeason = buffer.get() != 0;
+                crops.append(farmName, farmLocation, cropID, cropName, quantity, harvestDate, inSeason, sheetName, sheetID);
+            }
+            return new Snapshot(sheetName, sheetID, savedAt, crops);
+        }
+    }
+
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     *
+     * @param buffer The buffer, positioned at the string's length.
+     * @return The decoded string.
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Returns the change log file of a snapshot.
+     *
+     * @param file The snapshot file.
+     * @return The path of its change log.
+     */
+    private static Path logFor(Path file) {
+        return file.resolveSibling(file.getFileName() + LOG_EXTENSION);
+    }
+
+
+    /**
+     * Replaces null with an empty string, since the change log cannot store null.
+     *
+     * @param value The value.
+     * @return The value, or "" if it is null.
+     */
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+
+    /**
+     * Returns the file that holds a sheet's snapshot. Characters that are not safe in file names are replaced,
+     * and the hash of the real name is appended so that different sheet names never share a file.
+     *
+     * @param sheetName The name of the sheet.
+     * @return The path of the sheet's snapshot file.
+     */
+    private Path fileFor(String sheetName) {
+        String safe = sheetName.replaceAll("[^A-Za-z0-9_-]", "_");
+        return directory.resolve(safe + "-" + Integer.toHexString(sheetName.hashCode()) + EXTENSION);
+    }
+}
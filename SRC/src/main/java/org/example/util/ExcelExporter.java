@@ -1,63 +1,272 @@
 package org.example.util;
 
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
-import java.io.FileOutputStream;
-import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.text.SimpleDateFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import org.example.Crop;
 
+/**
+ * Exports crops to XLSX files.
+ * <p>
+ * Exports are streamed through an {@link SXSSFWorkbook}: only the last windowSize rows are kept in memory, and
+ * older rows are flushed to a temporary file (gzip-compressed unless turned off) as new ones are written. Crops
+ * are consumed from an iterator, so neither the crops nor the workbook have to fit in memory at once, and peak
+ * heap stays flat however many rows are exported.
+ * <p>
+ * Cells are typed: the Crop ID and quantity are numbers, valid harvest dates are date cells and the season flag
+ * is a boolean, so the exported sheet sorts and sums correctly in Excel. Formatting uses a handful of styles
+ * created once per workbook and shared by every cell, rather than a style per cell.
+ * <p>
+ * Usage example:
+ * long rows = ExcelExporter.streamToXLSX(table.iterator(), Paths.get("crops.xlsx"), 100, true);
+ * long all = ExcelExporter.exportWorkbook(service.getAllItems(), Paths.get("farm.xlsx"), 100, true); // One worksheet per sheet.
+ */
 public class ExcelExporter {
+    public static final int DEFAULT_WINDOW = 100; // Rows kept in memory while streaming (POI's default).
+    public static final String DEFAULT_FILE = "DetailedCropsData.xlsx"; // Where convertToXLSX writes.
+    public static final String DEFAULT_WORKBOOK_FILE = "AllCropsData.xlsx"; // Default file for a whole-spreadsheet export.
+    private static final String[] HEADERS = {"Farm Name", "Farm Location", "Crop ID", "Crop Name", "Quantity Available", "Harvest Date (YYYY-MM-DD)", "In Season"};
 
     /**
-     * Converts a list of Crop objects into an XLSX file, using primitive data types for all fields.
+     * Converts a list of Crop objects into an XLSX file, using typed cells for all fields.
      * If the first row of data matches header names, it is considered a duplicate header and not included in the XLSX.
+     * The file is written to {@link #DEFAULT_FILE} with {@link #streamToXLSX(Iterator, Path, int, boolean)}.
      *
      * @param crops the list of Crop objects to be converted into an XLSX file.
      *              Each Crop object represents a single row of data in the resulting Excel sheet.
      * @throws Exception if an error occurs during file creation, such as file access issues or errors writing to the file.
      */
     public static void convertToXLSX(List<Crop> crops) throws Exception {
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        XSSFSheet sheet = workbook.createSheet("Detailed Crops Data");
-
-        // Define headers
-        String[] headers = {"Farm Name", "Farm Location", "Crop ID", "Crop Name", "Quantity Available", "Harvest Date (MM-DD-YYYY)", "In Season"};
-        XSSFRow headerRow = sheet.createRow(0);
-        for (int h = 0; h < headers.length; h++) {
-            headerRow.createCell(h).setCellValue(headers[h]);
+        streamToXLSX(crops.iterator(), Paths.get(DEFAULT_FILE), DEFAULT_WINDOW, true);
+    }
+
+
+    /**
+     * Streams crops into an XLSX file. See {@link #streamToXLSX(Iterator, Path, int, boolean)}.
+     *
+     * @param crops The crops to export, in order; the stream is consumed but not closed.
+     * @param output The file to write.
+     * @param windowSize How many rows to keep in memory before flushing them to the temporary file.
+     * @param compressTempFiles Whether to gzip the temporary file.
+     * @return The number of crop rows written.
+     * @throws Exception if the file cannot be written.
+     */
+    public static long streamToXLSX(Stream<? extends Crop> crops, Path output, int windowSize, boolean compressTempFiles) throws Exception {
+        return streamToXLSX(crops.iterator(), output, windowSize, compressTempFiles);
+    }
+
+
+    /**
+     * Streams crops into an XLSX file, keeping at most windowSize rows in memory, and reports how fast the rows
+     * were written. If the first crop matches the header names, it is considered a duplicate header and skipped.
+     * The temporary file holding the flushed rows is deleted once the workbook has been written, even on failure.
+     *
+     * @param crops The crops to export, in order.
+     * @param output The file to write.
+     * @param windowSize How many rows to keep in memory before flushing them to the temporary file.
+     * @param compressTempFiles Whether to gzip the temporary file, which trades a little CPU for much less disk.
+     * @return The number of crop rows written.
+     * @throws Exception if the file cannot be written.
+     */
+    public static long streamToXLSX(Iterator<? extends Crop> crops, Path output, int windowSize, boolean compressTempFiles) throws Exception {
+        long started = System.nanoTime();
+        long rowCount;
+        SXSSFWorkbook workbook = new SXSSFWorkbook(Math.max(1, windowSize));
+        workbook.setCompressTempFiles(compressTempFiles);
+        try {
+            rowCount = writeSheet(workbook.createSheet("Detailed Crops Data"), new Styles(workbook), crops);
+            write(workbook, output);
+        } finally {
+            workbook.dispose(); // Deletes the temporary file.
+            workbook.close();
+        }
+
+        reportSpeed("XLSX file has been created successfully! Exported " + rowCount + " rows to " + output, rowCount, started);
+        return rowCount;
+    }
+
+
+    /**
+     * Streams the crops of several sheets into one XLSX file, with one worksheet per sheet in the order given.
+     * Worksheet names are the sheet names, made safe for Excel (and unique, should two names only differ in
+     * characters Excel does not allow). Every worksheet shares the same styles.
+     *
+     * @param cropsBySheet The crops of each sheet, for example as returned by getAllItems().
+     * @param output The file to write.
+     * @param windowSize How many rows of each worksheet to keep in memory before flushing them to a temporary file.
+     * @param compressTempFiles Whether to gzip the temporary files.
+     * @return The number of crop rows written, across all worksheets.
+     * @throws Exception if the file cannot be written.
+     */
+    public static long exportWorkbook(Map<String, ? extends Iterable<? extends Crop>> cropsBySheet, Path output,
+                                      int windowSize, boolean compressTempFiles) throws Exception {
+        long started = System.nanoTime();
+        long rowCount = 0;
+        SXSSFWorkbook workbook = new SXSSFWorkbook(Math.max(1, windowSize));
+        workbook.setCompressTempFiles(compressTempFiles);
+        try {
+            Styles styles = new Styles(workbook);
+            Set<String> used = new HashSet<>();
+            for (Map.Entry<String, ? extends Iterable<? extends Crop>> entry : cropsBySheet.entrySet()) {
+                rowCount += writeSheet(workbook.createSheet(uniqueSheetName(entry.getKey(), used)), styles, entry.getValue().iterator());
+            }
+            write(workbook, output);
+        } finally {
+            workbook.dispose(); // Deletes the temporary files.
+            workbook.close();
         }
 
-        // Iterate over each Crop object in the list, starting from the first data row
-        int rowIndex = 1;
-        for (Crop crop : crops) {
+        reportSpeed("XLSX workbook has been created successfully! Exported " + rowCount + " rows from "
+                + cropsBySheet.size() + " sheets to " + output, rowCount, started);
+        return rowCount;
+    }
+
+
+    /**
+     * Writes the header and the crops of one worksheet. If the first crop matches the header names, it is
+     * considered a duplicate header and skipped.
+     *
+     * @param sheet The worksheet to fill.
+     * @param styles The styles of the workbook.
+     * @param crops The crops to write, in order.
+     * @return The number of crop rows written.
+     */
+    private static long writeSheet(Sheet sheet, Styles styles, Iterator<? extends Crop> crops) {
+        Row headerRow = sheet.createRow(0);
+        for (int h = 0; h < HEADERS.length; h++) {
+            headerRow.createCell(h).setCellValue(HEADERS[h]);
+            headerRow.getCell(h).setCellStyle(styles.header);
+        }
+
+        long rowCount = 0;
+        boolean first = true;
+        while (crops.hasNext()) {
+            Crop crop = crops.next();
             // Check for duplicate headers in the first data row
-            if (rowIndex == 1 && isHeaderRow(crop, headers)) {
-                continue; // Skip this row and don't add it to the XLSX
+            if (first) {
+                first = false;
+                if (isHeaderRow(crop, HEADERS)) {
+                    continue; // Skip this row and don't add it to the XLSX
+                }
             }
+            writeRow(sheet.createRow((int) ++rowCount), crop, styles);
+        }
+        return rowCount;
+    }
 
-            XSSFRow row = sheet.createRow(rowIndex++);
 
-            // Populate cells with properties from each Crop object
-            row.createCell(0).setCellValue(crop.getFarmName());
-            row.createCell(1).setCellValue(crop.getFarmLocation());
-            row.createCell(2).setCellValue(Integer.toString(crop.getCropID())); // Convert int to String
-            row.createCell(3).setCellValue(crop.getCropName());
-            row.createCell(4).setCellValue(Integer.toString(crop.getQuantityAvailable())); // Convert int to String
-            row.createCell(5).setCellValue(crop.getHarvestDate()); // Directly use the String
-            row.createCell(6).setCellValue(crop.isInSeason() ? "Yes" : "No");
+    /**
+     * Fills a row with the properties of a crop, as typed cells.
+     *
+     * @param row The row to fill.
+     * @param crop The crop to write.
+     * @param styles The styles of the workbook.
+     */
+    private static void writeRow(Row row, Crop crop, Styles styles) {
+        row.createCell(0).setCellValue(crop.getFarmName());
+        row.createCell(1).setCellValue(crop.getFarmLocation());
+        row.createCell(2).setCellValue(crop.getCropID());
+        row.getCell(2).setCellStyle(styles.integer);
+        row.createCell(3).setCellValue(crop.getCropName());
+        row.createCell(4).setCellValue(crop.getQuantityAvailable());
+        row.getCell(4).setCellStyle(styles.integer);
+        LocalDate harvestDate = crop.getHarvestLocalDate();
+        if (harvestDate != null) {
+            row.createCell(5).setCellValue(harvestDate);
+            row.getCell(5).setCellStyle(styles.date);
+        } else {
+            row.createCell(5).setCellValue(crop.getHarvestDate()); // Not a valid date, so keep the text as is.
         }
+        row.createCell(6).setCellValue(crop.isInSeason());
+    }
 
-        // Writing the workbook to a file
-        FileOutputStream out = new FileOutputStream(new File("DetailedCropsData.xlsx"));
-        workbook.write(out);
-        out.close();
 
-        System.out.println("XLSX file has been created successfully!");
+    /**
+     * Writes a finished workbook to a file.
+     *
+     * @param workbook The workbook.
+     * @param output The file to write.
+     * @throws Exception if the file cannot be written.
+     */
+    private static void write(Workbook workbook, Path output) throws Exception {
+        try (OutputStream out = Files.newOutputStream(output)) {
+            workbook.write(out);
+        }
+    }
+
+
+    /**
+     * Prints a message followed by how long an export took and how many rows per second it wrote.
+     *
+     * @param message What was exported.
+     * @param rowCount The number of rows written.
+     * @param startedNanos When the export started, from System.nanoTime().
+     */
+    private static void reportSpeed(String message, long rowCount, long startedNanos) {
+        long millis = Math.max(1, (System.nanoTime() - startedNanos) / 1_000_000);
+        System.out.println(message + " in " + millis + " ms (" + (rowCount * 1000 / millis) + " rows/sec).");
+    }
+
+
+    /**
+     * Turns a sheet name into a worksheet name Excel accepts, different from every name used so far.
+     *
+     * @param sheetName The name of the Google sheet.
+     * @param used The worksheet names already in the workbook (lower-cased), updated by this method.
+     * @return The worksheet name.
+     */
+    private static String uniqueSheetName(String sheetName, Set<String> used) {
+        String safe = WorkbookUtil.createSafeSheetName(sheetName);
+        String name = safe;
+        for (int n = 2; !used.add(name.toLowerCase()); n++) {
+            String suffix = " (" + n + ")";
+            name = safe.substring(0, Math.min(safe.length(), 31 - suffix.length())) + suffix; // Excel allows 31 characters.
+        }
+        return name;
+    }
+
+
+    /**
+     * The cell styles of a workbook, created once and shared by every cell that needs them. Excel limits a
+     * workbook to about 64,000 styles, and every style is written to the file, so styles are never made per cell.
+     */
+    private static final class Styles {
+        private final CellStyle header; // Bold header cells.
+        private final CellStyle integer; // Whole numbers (Crop ID and quantity).
+        private final CellStyle date; // Harvest dates, shown as YYYY-MM-DD.
+
+        /**
+         * Creates the styles in a workbook.
+         *
+         * @param workbook The workbook.
+         */
+        Styles(Workbook workbook) {
+            Font bold = workbook.createFont();
+            bold.setBold(true);
+            header = workbook.createCellStyle();
+            header.setFont(bold);
+            integer = workbook.createCellStyle();
+            integer.setDataFormat(workbook.createDataFormat().getFormat("0"));
+            date = workbook.createCellStyle();
+            date.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+        }
     }
 
     /**
@@ -0,0 +1,550 @@
+package org.example.util;
+
+import org.example.Crop;
+import org.example.CropTable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes crops as CSV or JSON Lines, for reporting jobs that need to ingest many rows quickly.
+ * <p>
+ * Records are encoded straight into a direct ByteBuffer as UTF-8, one byte at a time: numbers are written digit
+ * by digit and harvest dates from their epoch day, so no String, char[] or byte[] is created per cell. The buffer
+ * is handed to a FileChannel whenever it fills up. With gzip turned on, the same buffer is fed to a
+ * {@link Deflater} whose output goes through a second direct buffer, and the gzip header and trailer are written
+ * around it, so compression adds no copies either.
+ * <p>
+ * An exporter opened in append mode adds to the end of an existing file. A CSV header is only written when the
+ * file is empty, and gzip output appends a new gzip member, which gzip tools (and GZIPInputStream) read as one
+ * continuous stream.
+ * <p>
+ * Usage example:
+ * try (FlatFileExporter exporter = FlatFileExporter.open(Paths.get("crops.jsonl.gz"), FlatFileExporter.Format.JSONL, true, true)) {
+ *     exporter.writeAll(table);
+ * }
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class FlatFileExporter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 256 * 1024; // Bytes encoded before they are written out.
+    private static final int MAX_CHAR_BYTES = 4; // Longest UTF-8 encoding of a single code point.
+    private static final String[] FIELDS = {"farmName", "farmLocation", "cropID", "cropName", "quantityAvailable", "harvestDate", "inSeason", "sheetName"};
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff}; // No name, no timestamp, unknown OS.
+
+    /**
+     * The file formats the exporter can write.
+     */
+    public enum Format {
+        CSV,    // Comma-separated values (RFC 4180) with a header line.
+        JSONL   // One JSON object per line.
+    }
+
+    private final WritableByteChannel channel; // The file (or other destination) being written.
+    private final Format format; // How records are encoded.
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE); // Encoded records waiting to be written.
+    private final Deflater deflater; // Compresses the records, or null without gzip.
+    private final ByteBuffer compressed; // Output of the deflater, or null without gzip.
+    private final CRC32 crc; // Checksum of the uncompressed bytes, for the gzip trailer (null without gzip).
+    private long uncompressedBytes; // Number of bytes encoded, for the gzip trailer.
+    private long rowCount; // Number of crops written.
+    private boolean closed; // Whether close() has been called.
+
+
+    /**
+     * Constructs an exporter over an open channel.
+     *
+     * @param channel Where to write.
+     * @param format How records are encoded.
+     * @param gzip Whether to compress the output.
+     * @param writeHeader Whether to start with a CSV header line.
+     * @throws IOException If the gzip header cannot be written.
+     */
+    private FlatFileExporter(WritableByteChannel channel, Format format, boolean gzip, boolean writeHeader) throws IOException {
+        this.channel = channel;
+        this.format = format;
+        if (gzip) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true); // Raw deflate; the gzip framing is written here.
+            compressed = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            crc = new CRC32();
+            writeFully(ByteBuffer.wrap(GZIP_HEADER));
+        } else {
+            deflater = null;
+            compressed = null;
+            crc = null;
+        }
+        if (writeHeader && format == Format.CSV) {
+            for (int f = 0; f < FIELDS.length; f++) {
+                if (f > 0) {
+                    buffer.put((byte) ',');
+                }
+                putAscii(FIELDS[f]);
+            }
+            putLineEnd();
+        }
+    }
+
+
+    /**
+     * Opens a file for exporting.
+     *
+     * @param output The file to write.
+     * @param format How records are encoded.
+     * @param gzip Whether to compress the output with gzip.
+     * @param append Whether to add to the end of the file instead of replacing it.
+     * @return The exporter; close it to finish the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static FlatFileExporter open(Path output, Format format, boolean gzip, boolean append) throws IOException {
+        FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return new FlatFileExporter(channel, format, gzip, channel.size() == 0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Starts exporting to an open channel, such as standard output. The channel is closed by {@link #close()}.
+     *
+     * @param channel Where to write.
+     * @param format How records are encoded.
+     * @param gzip Whether to compress the output with gzip.
+     * @param writeHeader Whether to start a CSV export with a header line (ignored for JSON Lines).
+     * @return The exporter; close it to finish the output.
+     * @throws IOException If the gzip header cannot be written.
+     */
+    public static FlatFileExporter open(WritableByteChannel channel, Format format, boolean gzip, boolean writeHeader) throws IOException {
+        return new FlatFileExporter(channel, format, gzip, writeHeader);
+    }
+
+
+    /**
+     * Exports a whole sheet into a new file (replacing any file already there) and reports how fast it went.
+     *
+     * @param crops The crops to export, in order.
+     * @param output The file to write.
+     * @param format How records are encoded.
+     * @param gzip Whether to compress the output with gzip.
+     * @return The number of crops written.
+     * @throws IOException If the file cannot be written.
+     */
+    public static long export(Iterable<? extends Crop> crops, Path output, Format format, boolean gzip) throws IOException {
+        long started = System.nanoTime();
+        long rows;
+        try (FlatFileExporter exporter = open(output, format, gzip, false)) {
+            rows = exporter.writeAll(crops);
+        }
+        long millis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+        System.out.println("Exported " + rows + " rows to " + output + " in " + millis + " ms (" + (rows * 1000 / millis) + " rows/sec).");
+        return rows;
+    }
+
+
+    /**
+     * Writes one crop.
+     *
+     * @param crop The crop to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(Crop crop) throws IOException {
+        writeRecord(crop.getFarmName(), crop.getFarmLocation(), crop.getCropID(), crop.getCropName(), crop.getQuantityAvailable(),
+                crop.getHarvestEpochDay(), crop.getHarvestDate(), crop.isInSeason(), crop.getSheetName());
+    }
+
+
+    /**
+     * Writes crops in order. The rows of a {@link CropTable} are read straight from its columns, without creating
+     * a Crop view per row.
+     *
+     * @param crops The crops to write.
+     * @return The number of crops written.
+     * @throws IOException If the file cannot be written.
+     */
+    public long writeAll(Iterable<? extends Crop> crops) throws IOException {
+        long before = rowCount;
+        if (crops instanceof CropTable) {
+            CropTable table = (CropTable) crops;
+            for (int row = 0; row < table.size(); row++) {
+                int epochDay = table.getHarvestEpochDay(row);
+                writeRecord(table.getFarmName(row), table.getFarmLocation(row), table.getCropID(row), table.getCropName(row),
+                        table.getQuantityAvailable(row), epochDay, epochDay == HarvestDates.NO_DATE ? table.getHarvestDate(row) : null,
+                        table.isInSeason(row), table.getSheetName(row));
+            }
+        } else {
+            for (Crop crop : crops) {
+                write(crop);
+            }
+        }
+        return rowCount - before;
+    }
+
+
+    /**
+     * Returns the number of crops written so far.
+     *
+     * @return The row count.
+     */
+    public long getRowCount() {return rowCount;}
+
+
+    /**
+     * Writes what is still buffered, finishes the gzip stream if there is one, and closes the file.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flushBuffer();
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    drainDeflater();
+                }
+                ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                trailer.putInt((int) crc.getValue()).putInt((int) uncompressedBytes).flip();
+                writeFully(trailer);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Encodes one record in the exporter's format.
+     *
+     * @param farmName Column B.
+     * @param farmLocation Column C.
+     * @param cropID Column D.
+     * @param cropName Column E.
+     * @param quantity Column F.
+     * @param harvestDay Column G as an epoch day, or HarvestDates.NO_DATE.
+     * @param rawHarvestDate Column G as text, used when harvestDay is NO_DATE.
+     * @param inSeason Column H.
+     * @param sheetName The sheet the crop is in.
+     * @throws IOException If the buffer has to be written out and the file cannot be written.
+     */
+    private void writeRecord(String farmName, String farmLocation, int cropID, String cropName, int quantity,
+                             int harvestDay, String rawHarvestDate, boolean inSeason, String sheetName) throws IOException {
+        if (format == Format.CSV) {
+            putCsv(farmName);
+            put(',');
+            putCsv(farmLocation);
+            put(',');
+            putInt(cropID);
+            put(',');
+            putCsv(cropName);
+            put(',');
+            putInt(quantity);
+            put(',');
+            if (harvestDay != HarvestDates.NO_DATE) {
+                putDate(harvestDay);
+            } else {
+                putCsv(rawHarvestDate);
+            }
+            put(',');
+            putAscii(inSeason ? "true" : "false");
+            put(',');
+            putCsv(sheetName);
+        } else {
+            putAscii("{\"farmName\":");
+            putJson(farmName);
+            putAscii(",\"farmLocation\":");
+            putJson(farmLocation);
+            putAscii(",\"cropID\":");
+            putInt(cropID);
+            putAscii(",\"cropName\":");
+            putJson(cropName);
+            putAscii(",\"quantityAvailable\":");
+            putInt(quantity);
+            putAscii(",\"harvestDate\":");
+            if (harvestDay != HarvestDates.NO_DATE) {
+                put('"');
+                putDate(harvestDay);
+                put('"');
+            } else {
+                putJson(rawHarvestDate);
+            }
+            putAscii(inSeason ? ",\"inSeason\":true" : ",\"inSeason\":false");
+            putAscii(",\"sheetName\":");
+            putJson(sheetName);
+            put('}');
+        }
+        putLineEnd();
+        rowCount++;
+    }
+
+
+    /**
+     * Encodes a CSV field, quoting it only if it contains a comma, quote or line break.
+     *
+     * @param value The field (null is written as an empty field).
+     * @throws IOException If the buffer has to be written out and the file cannot be written.
+     */
+    private void putCsv(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            putChars(value);
+            return;
+        }
+        put('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                put('"'); // Quotes are escaped by doubling them.
+            }
+            i = putChar(value, i);
+        }
+        put('"');
+    }
+
+
+    /**
+     * Encodes a JSON string, escaping quotes, backslashes and control characters.
+     *
+     * @param value The string (null is written as JSON null).
+     * @throws IOException If the buffer has to be written out and the file cannot be written.
+     */
+    private void putJson(String value) throws IOException {
+        if (value == null) {
+            putAscii("null");
+            return;
+        }
+        put('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                put('\\');
+                put(c);
+            } else if (c == '\n') {
+                putAscii("\\n");
+            } else if (c == '\r') {
+                putAscii("\\r");
+            } else if (c == '\t') {
+                putAscii("\\t");
+            } else if (c < 0x20) {
+                putAscii("\\u00");
+                put(Character.forDigit(c >> 4, 16));
+                put(Character.forDigit(c & 0xF, 16));
+            } else {
+                i = putChar(value, i);
+            }
+        }
+        put('"');
+    }
+
+
+    /**
+     * Encodes every character of a string as UTF-8.
+     *
+     * @param value The string.
+     * @throws IOException If the buffer has to be written out and the file cannot be written.
+     */
+    private void putChars(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            i = putChar(value, i);
+        }
+    }
+
+
+    /**
+     * Encodes the character at a position of a string as UTF-8, together with its low surrogate if it is the
+     * first half of a pair. Unpaired surrogates are written as '?'.
+     *
+     * @param value The string.
+     * @param i The position of the character.
+     * @return The position of the last character consumed.
+     * @throws IOException If the buffer has to be written out and the file cannot be written.
+     */
+    private int putChar(String value, int i) throws IOException {
+        if (buffer.remaining() < MAX_CHAR_BYTES) {
+            flushBuffer();
+        }
+        char c = value.charAt(i);
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++i));
+            buffer.put((byte) (0xF0 | (codePoint >> 18)));
+            buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+        } else if (Character.isSurrogate(c)) {
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+        return i;
+    }
+
+
+    /**
+     * Encodes a string known to be plain ASCII, such as a field name.
+     *
+     * @param value The string.
+     * @throws IOException If the buffer has to be written out and the file cannot be written.
+     */
+    private void putAscii(String value) throws IOException {
+        if (buffer.remaining() < value.length()) {
+            flushBuffer();
+        }
+        for (int i = 0; i < value.length(); i++) {
+            buffer.put((byte) value.charAt(i));
+        }
+    }
+
+
+    /**
+     * Encodes a single ASCII character.
+     *
+     * @param c The character.
+     * @throws IOException If the buffer has to be written out and the file cannot be written.
+     */
+    private void put(char c) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.put((byte) c);
+    }
+
+
+    /**
+     * Encodes an int in decimal, without creating a String.
+     *
+     * @param value The number.
+     * @throws IOException If the buffer has to be written out and the file cannot be written.
+     */
+    private void putInt(int value) throws IOException {
+        if (buffer.remaining() < 11) {
+            flushBuffer();
+        }
+        long v = value; // Widened, so that Integer.MIN_VALUE can be negated.
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= v) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + v / divisor % 10));
+        }
+    }
+
+
+    /**
+     * Encodes an epoch day as YYYY-MM-DD, without creating a String.
+     *
+     * @param epochDay The number of days since 1970-01-01.
+     * @throws IOException If the buffer has to be written out and the file cannot be written.
+     */
+    private void putDate(int epochDay) throws IOException {
+        if (buffer.remaining() < 10) {
+            flushBuffer();
+        }
+        int yearMonthDay = HarvestDates.toYearMonthDay(epochDay);
+        int year = yearMonthDay / 10_000;
+        buffer.put((byte) ('0' + year / 1000 % 10));
+        buffer.put((byte) ('0' + year / 100 % 10));
+        buffer.put((byte) ('0' + year / 10 % 10));
+        buffer.put((byte) ('0' + year % 10));
+        buffer.put((byte) '-');
+        buffer.put((byte) ('0' + yearMonthDay / 1000 % 10));
+        buffer.put((byte) ('0' + yearMonthDay / 100 % 10));
+        buffer.put((byte) '-');
+        buffer.put((byte) ('0' + yearMonthDay / 10 % 10));
+        buffer.put((byte) ('0' + yearMonthDay % 10));
+    }
+
+
+    /**
+     * Ends a record. CSV uses CRLF as RFC 4180 asks; JSON Lines uses LF.
+     *
+     * @throws IOException If the buffer has to be written out and the file cannot be written.
+     */
+    private void putLineEnd() throws IOException {
+        if (format == Format.CSV) {
+            put('\r');
+        }
+        put('\n');
+    }
+
+
+    /**
+     * Writes the buffered bytes to the file, compressing them first if gzip is on, and empties the buffer.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        if (deflater == null) {
+            writeFully(buffer);
+        } else {
+            uncompressedBytes += buffer.remaining();
+            crc.update(buffer.duplicate());
+            deflater.setInput(buffer.slice()); // A view of its own, so clearing the buffer below does not hand the bytes to the deflater again.
+            while (!deflater.needsInput()) {
+                drainDeflater();
+            }
+        }
+        buffer.clear();
+    }
+
+
+    /**
+     * Runs the deflater once and writes whatever it produced.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    private void drainDeflater() throws IOException {
+        deflater.deflate(compressed);
+        compressed.flip();
+        writeFully(compressed);
+        compressed.clear();
+    }
+
+
+    /**
+     * Writes every remaining byte of a buffer to the file.
+     *
+     * @param bytes The bytes to write.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.example.util;
+
+import java.time.LocalDate;
+
+/**
+ * Reads and writes harvest dates as int epoch days (days since 1970-01-01), so that dates can be compared,
+ * sorted and range-filtered as plain integers.
+ * <p>
+ * The parser accepts the forms that show up in our sheets: YYYY-MM-DD (what this program writes), MM-DD-YYYY
+ * (what the old modify prompt asked for) and M/D/YYYY (how Google Sheets displays a date cell in the US locale).
+ * Month and day may have one or two digits in every form, and surrounding spaces are ignored. Parsing does not
+ * allocate any objects, and impossible dates such as 2023-02-29 are rejected.
+ * <p>
+ * Dates are always written back as YYYY-MM-DD, which Google Sheets reads as a date when values are entered
+ * with USER_ENTERED.
+ * <p>
+ * Usage example:
+ * int day = HarvestDates.parse("3/15/2024"); // 19797
+ * String text = HarvestDates.format(day); // "2024-03-15"
+ */
+public class HarvestDates {
+    /** Returned by {@link #parse(CharSequence)} when the text is not a valid date. */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final int MIN_YEAR = 1; // Earliest year accepted.
+    private static final int MAX_YEAR = 9999; // Latest year accepted (keeps the canonical form at four digits).
+
+
+    /**
+     * Utility class; not meant to be instantiated.
+     */
+    private HarvestDates() {
+    }
+
+
+    /**
+     * Parses a harvest date in any of the supported forms.
+     *
+     * @param text The date text (may be null).
+     * @return The number of days since 1970-01-01, or {@link #NO_DATE} if the text is not a valid date.
+     */
+    public static int parse(CharSequence text) {
+        if (text == null) {
+            return NO_DATE;
+        }
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+
+        // Read up to three numbers and the two separators between them, without creating substrings.
+        int first = -1, second = -1, third = -1;
+        int firstDigits = 0, secondDigits = 0, thirdDigits = 0;
+        char separator = 0;
+        int field = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? text.charAt(i) : 0;
+            if (c >= '0' && c <= '9') {
+                if (++digits > 4) {
+                    return NO_DATE;
+                }
+                value = value * 10 + (c - '0');
+                continue;
+            }
+            if (digits == 0) {
+                return NO_DATE;
+            }
+            if (field == 0) {
+                first = value;
+                firstDigits = digits;
+            } else if (field == 1) {
+                second = value;
+                secondDigits = digits;
+            } else {
+                third = value;
+                thirdDigits = digits;
+            }
+            field++;
+            value = 0;
+            digits = 0;
+            if (i == end) {
+                break;
+            }
+            if (field == 3 || (c != '-' && c != '/') || (separator != 0 && c != separator)) {
+                return NO_DATE;
+            }
+            separator = c;
+        }
+        if (field != 3) {
+            return NO_DATE;
+        }
+
+        if (firstDigits == 4 && secondDigits <= 2 && thirdDigits <= 2) {
+            return toEpochDay(first, second, third); // YYYY-MM-DD
+        }
+        if (firstDigits <= 2 && secondDigits <= 2 && thirdDigits == 4) {
+            return toEpochDay(third, first, second); // MM-DD-YYYY or M/D/YYYY
+        }
+        return NO_DATE;
+    }
+
+
+    /**
+     * Checks whether text is a valid harvest date in any of the supported forms.
+     *
+     * @param text The date text.
+     * @return true if {@link #parse(CharSequence)} accepts it.
+     */
+    public static boolean isValid(CharSequence text) {
+        return parse(text) != NO_DATE;
+    }
+
+
+    /**
+     * Rewrites a harvest date in the canonical YYYY-MM-DD form.
+     *
+     * @param text The date text.
+     * @return The canonical form, or the text unchanged if it is not a valid date (so nothing is lost).
+     */
+    public static String canonicalize(String text) {
+        int day = parse(text);
+        return day == NO_DATE ? text : format(day);
+    }
+
+
+    /**
+     * Splits an epoch day into its year, month and day, packed into one int as the digits YYYYMMDD
+     * (for example 20240315), so that callers can write a date without allocating.
+     *
+     * @param epochDay The number of days since 1970-01-01 (not {@link #NO_DATE}).
+     * @return year * 10000 + month * 100 + day.
+     */
+    public static int toYearMonthDay(int epochDay) {
+        // Civil-from-days (proleptic Gregorian calendar), shifted so that years start on March 1st.
+        long z = epochDay + 719_468L;
+        long era = Math.floorDiv(z, 146_097L);
+        long dayOfEra = z - era * 146_097L;
+        long yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        return year * 10_000 + month * 100 + day;
+    }
+
+
+    /**
+     * Formats an epoch day in the canonical YYYY-MM-DD form.
+     *
+     * @param epochDay The number of days since 1970-01-01.
+     * @return The formatted date, or an empty String for {@link #NO_DATE}.
+     */
+    public static String format(int epochDay) {
+        if (epochDay == NO_DATE) {
+            return "";
+        }
+        int yearMonthDay = toYearMonthDay(epochDay);
+        int year = yearMonthDay / 10_000;
+        int month = yearMonthDay / 100 % 100;
+        int day = yearMonthDay % 100;
+
+        char[] chars = new char[10];
+        chars[0] = (char) ('0' + year / 1000 % 10);
+        chars[1] = (char) ('0' + year / 100 % 10);
+        chars[2] = (char) ('0' + year / 10 % 10);
+        chars[3] = (char) ('0' + year % 10);
+        chars[4] = '-';
+        chars[5] = (char) ('0' + month / 10);
+        chars[6] = (char) ('0' + month % 10);
+        chars[7] = '-';
+        chars[8] = (char) ('0' + day / 10);
+        chars[9] = (char) ('0' + day % 10);
+        return new String(chars);
+    }
+
+
+    /**
+     * Converts an epoch day to a LocalDate.
+     *
+     * @param epochDay The number of days since 1970-01-01.
+     * @return The date, or null for {@link #NO_DATE}.
+     */
+    public static LocalDate toLocalDate(int epochDay) {
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+
+    /**
+     * Validates a calendar date and converts it to an epoch day.
+     *
+     * @param year The year.
+     * @param month The month (1-12).
+     * @param day The day of the month.
+     * @return The number of days since 1970-01-01, or {@link #NO_DATE} if the date does not exist.
+     */
+    private static int toEpochDay(int year, int month, int day) {
+        if (year < MIN_YEAR || year > MAX_YEAR || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return NO_DATE;
+        }
+        // Days-from-civil (proleptic Gregorian calendar), shifted so that years start on March 1st.
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400; // y is never negative here.
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+
+
+    /**
+     * Returns the number of days in a month.
+     *
+     * @param year The year.
+     * @param month The month (1-12).
+     * @return The number of days.
+     */
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.example.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive int keys to primitive int values.
+ * Unlike a HashMap&lt;Integer, Integer&gt;, this map stores its keys and values in two plain int arrays
+ * using open addressing with linear probing, so lookups and insertions never box their arguments
+ * and the whole map costs two array slots per entry instead of three objects.
+ * <p>
+ * The key 0 is used internally to mark free slots, so it is stored separately from the arrays.
+ * This class is not thread-safe; callers that share a map between threads must synchronize on it.
+ */
+public class IntIntHashMap {
+    private static final int FREE_KEY = 0; // Marks an unused slot in the keys array.
+    private static final float LOAD_FACTOR = 0.5f; // Keep probe sequences short.
+
+    private int[] keys; // The keys of the map (FREE_KEY for unused slots).
+    private int[] values; // The values of the map, stored at the same index as their key.
+    private int size; // The number of entries stored in the arrays (excluding the zero key).
+    private int mask; // keys.length - 1, used to wrap indices.
+    private int resizeAt; // The size at which the arrays are doubled.
+    private boolean hasZeroKey; // Whether the key 0 has a value.
+    private int zeroValue; // The value stored for the key 0.
+
+    /**
+     * Functional interface used to visit the entries of the map without boxing.
+     */
+    public interface EntryConsumer {
+        /**
+         * Visits a single entry of the map.
+         *
+         * @param key The key of the entry.
+         * @param value The value of the entry.
+         */
+        void accept(int key, int value);
+    }
+
+    /**
+     * Constructs an empty map with a small default capacity.
+     */
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty map able to hold the given number of entries without resizing.
+     *
+     * @param expectedSize The number of entries the map is expected to hold.
+     */
+    public IntIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Returns the value stored for a key.
+     *
+     * @param key The key to look up.
+     * @param defaultValue The value to return if the key is not present.
+     * @return The value stored for the key, or defaultValue if there is none.
+     */
+    public int getOrDefault(int key, int defaultValue) {
+        if (key == FREE_KEY) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : defaultValue;
+    }
+
+    /**
+     * Returns whether the map contains a key.
+     *
+     * @param key The key to look for.
+     * @return true if the key has a value, false otherwise.
+     */
+    public boolean containsKey(int key) {
+        return key == FREE_KEY ? hasZeroKey : indexOf(key) >= 0;
+    }
+
+    /**
+     * Stores a value for a key, replacing any previous value.
+     *
+     * @param key The key to store.
+     * @param value The value to store for the key.
+     */
+    public void put(int key, int value) {
+        if (key == FREE_KEY) {
+            hasZeroKey = true;
+            zeroValue = value;
+            return;
+        }
+        int index = slot(key);
+        while (keys[index] != FREE_KEY) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Adds a delta to the value stored for a key, treating a missing key as 0.
+     *
+     * @param key The key to update.
+     * @param delta The amount to add to the key's value.
+     * @return The new value stored for the key.
+     */
+    public int addTo(int key, int delta) {
+        int value = getOrDefault(key, 0) + delta;
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Removes a key from the map.
+     *
+     * @param key The key to remove.
+     * @param defaultValue The value to return if the key is not present.
+     * @return The value that was stored for the key, or defaultValue if there was none.
+     */
+    public int remove(int key, int defaultValue) {
+        if (key == FREE_KEY) {
+            if (!hasZeroKey) {
+                return defaultValue;
+            }
+            hasZeroKey = false;
+            return zeroValue;
+        }
+        int index = indexOf(key);
+        if (index < 0) {
+            return defaultValue;
+        }
+        int removed = values[index];
+        shiftKeys(index);
+        size--;
+        return removed;
+    }
+
+    /**
+     * Returns the number of entries in the map.
+     *
+     * @return The number of keys that have a value.
+     */
+    public int size() {
+        return size + (hasZeroKey ? 1 : 0);
+    }
+
+    /**
+     * Returns whether the map has no entries.
+     *
+     * @return true if the map is empty, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes every entry from the map while keeping its current capacity.
+     */
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    /**
+     * Visits every entry of the map in no particular order.
+     *
+     * @param consumer The consumer to call for every entry.
+     */
+    public void forEach(EntryConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(FREE_KEY, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Finds the slot holding a non-zero key.
+     *
+     * @param key The key to find.
+     * @return The index of the key in the arrays, or -1 if it is not present.
+     */
+    private int indexOf(int key) {
+        int index = slot(key);
+        while (keys[index] != FREE_KEY) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the preferred slot of a key by scrambling its bits, so that sequential IDs spread evenly.
+     *
+     * @param key The key to place.
+     * @return The preferred index of the key in the arrays.
+     */
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Closes the gap left by a removed entry by moving later entries of the same probe sequence back,
+     * which keeps lookups correct without needing tombstones.
+     *
+     * @param index The index of the slot that was emptied.
+     */
+    private void shiftKeys(int index) {
+        int last;
+        while (true) {
+            last = index;
+            index = (index + 1) & mask;
+            while (true) {
+                int key = keys[index];
+                if (key == FREE_KEY) {
+                    keys[last] = FREE_KEY;
+                    return;
+                }
+                int preferred = slot(key);
+                // Move the entry back if its preferred slot is not between the gap and its current slot.
+                if (last <= index ? (last >= preferred || preferred > index) : (last >= preferred && preferred > index)) {
+                    break;
+                }
+                index = (index + 1) & mask;
+            }
+            keys[last] = keys[index];
+            values[last] = values[index];
+        }
+    }
+
+    /**
+     * Allocates empty arrays of the given capacity.
+     *
+     * @param capacity The new capacity (a power of two).
+     */
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Moves every entry into arrays of a new capacity.
+     *
+     * @param capacity The new capacity (a power of two).
+     */
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.example.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Quantity adjustments (picks and restocks) waiting to be applied to the sheets.
+ * <p>
+ * Unlike a modified crop, which carries an absolute quantity and overwrites whatever the sheet holds, an
+ * adjustment only says "add this much". Adjustments commute, so they are summed per crop as they come in: ten
+ * picks of the same crop become a single change of the total, applied to the value the sheet holds at the time
+ * of the push. Two volunteers who each pick 3 tomatoes therefore remove 6, instead of one overwriting the other.
+ * <p>
+ * Sums are kept per sheet in an {@link IntIntHashMap} from crop ID to delta, together with the sequence numbers
+ * of the journal entries behind them, so that a whole sheet can be pushed and acknowledged at once.
+ * <p>
+ * Usage example:
+ * deltas.add("Sheet1", 42, -3, seq);
+ * for (QuantityDeltas.Pending pending : deltas.drain()) {
+ *     // ... apply pending.getDeltas() to pending.getSheetName(), or deltas.requeue(pending) on failure ...
+ * }
+ * <p>
+ * All methods are synchronized.
+ */
+public class QuantityDeltas {
+    private Map<String, Pending> pendingBySheet = new LinkedHashMap<>(); // Adjustments per sheet, in the order sheets were first adjusted.
+    private long adjustmentCount; // Number of adjustments ever added, before summing.
+
+
+    /**
+     * The adjustments of one sheet.
+     */
+    public static class Pending {
+        private final String sheetName; // The sheet the crops are in.
+        private final IntIntHashMap deltas = new IntIntHashMap(); // Crop ID to the sum of its adjustments.
+        private final List<Long> journalSeqs = new ArrayList<>(); // Journal entries summed into the deltas.
+
+        /**
+         * Constructs an empty set of adjustments for a sheet.
+         *
+         * @param sheetName The sheet the crops are in.
+         */
+        Pending(String sheetName) {
+            this.sheetName = sheetName;
+        }
+
+        /**
+         * Returns the sheet the crops are in.
+         *
+         * @return The sheet name.
+         */
+        public String getSheetName() {return sheetName;}
+
+        /**
+         * Returns the summed adjustment of each crop. Crops whose adjustments cancel out have a delta of 0.
+         *
+         * @return A map from crop ID to delta.
+         */
+        public IntIntHashMap getDeltas() {return deltas;}
+
+        /**
+         * Returns the sequence numbers of the journal entries behind these adjustments.
+         *
+         * @return The journal sequence numbers.
+         */
+        public List<Long> getJournalSeqs() {return journalSeqs;}
+    }
+
+
+    /**
+     * Adds an adjustment to a crop's quantity.
+     *
+     * @param sheetName The sheet the crop is in.
+     * @param cropID The ID of the crop.
+     * @param delta The amount to add (negative to remove).
+     * @param journalSeq The sequence number of the adjustment in the journal, or -1 if it was not journaled.
+     */
+    public synchronized void add(String sheetName, int cropID, int delta, long journalSeq) {
+        Pending pending = pendingBySheet.computeIfAbsent(sheetName, Pending::new);
+        pending.deltas.addTo(cropID, delta);
+        if (journalSeq >= 0) {
+            pending.journalSeqs.add(journalSeq);
+        }
+        adjustmentCount++;
+    }
+
+
+    /**
+     * Returns the adjustment still waiting to be applied to a crop.
+     *
+     * @param sheetName The sheet the crop is in.
+     * @param cropID The ID of the crop.
+     * @return The summed delta, or 0 if nothing is waiting.
+     */
+    public synchronized int getPendingDelta(String sheetName, int cropID) {
+        Pending pending = pendingBySheet.get(sheetName);
+        return pending == null ? 0 : pending.deltas.getOrDefault(cropID, 0);
+    }
+
+
+    /**
+     * Removes every waiting adjustment so that it can be applied.
+     *
+     * @return The adjustments of each sheet.
+     */
+    public synchronized List<Pending> drain() {
+        List<Pending> drained = new ArrayList<>(pendingBySheet.values());
+        pendingBySheet = new LinkedHashMap<>();
+        return drained;
+    }
+
+
+    /**
+     * Puts back adjustments that could not be applied, adding them to any made since they were drained.
+     *
+     * @param pending The adjustments of a sheet, as returned by {@link #drain()}.
+     */
+    public synchronized void requeue(Pending pending) {
+        Pending current = pendingBySheet.computeIfAbsent(pending.sheetName, Pending::new);
+        pending.deltas.forEach((cropID, delta) -> current.deltas.addTo(cropID, delta));
+        current.journalSeqs.addAll(0, pending.journalSeqs);
+    }
+
+
+    /**
+     * Returns the number of crops with adjustments waiting.
+     *
+     * @return The number of crops, across all sheets.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Pending pending : pendingBySheet.values()) {
+            size += pending.deltas.size();
+        }
+        return size;
+    }
+
+
+    /**
+     * Checks whether any adjustment is waiting.
+     *
+     * @return true if nothing is waiting.
+     */
+    public synchronized boolean isEmpty() {return pendingBySheet.isEmpty();}
+
+
+    /**
+     * Returns the number of adjustments ever added, before they were summed per crop.
+     *
+     * @return The adjustment count.
+     */
+    public synchronized long getAdjustmentCount() {return adjustmentCount;}
+}
@@ -0,0 +1,106 @@
+package org.example.util;
+
+import org.example.Crop;
+
+/**
+ * Computes compact fingerprints of sheet rows, so that a push can tell whether a row was changed in Google Sheets
+ * since it was loaded without keeping a second copy of the row.
+ * <p>
+ * A fingerprint is a 32-bit FNV-1a hash of the seven values of columns B through H, taken after they have been
+ * decoded the way a loaded crop is (the quantity and ID as numbers, a valid harvest date as its epoch day), so
+ * the same row gives the same fingerprint whether it is hashed from a Crop or from freshly read cells, however
+ * Google Sheets happens to display the date. Hashing does not allocate. 0 is never produced and stands for "unknown".
+ * <p>
+ * Usage example:
+ * int loaded = RowFingerprint.of(crop); // When the crop is read from the sheet.
+ * // ... later, after reading the row again ...
+ * boolean changed = RowFingerprint.of(farmName, farmLocation, cropID, cropName, quantity, harvestDate, inSeason) != loaded;
+ */
+public class RowFingerprint {
+    /** The fingerprint of a crop whose row was never read (for example one replayed from an older journal). */
+    public static final int UNKNOWN = 0;
+
+    private static final int OFFSET_BASIS = 0x811C9DC5; // FNV-1a 32-bit offset basis.
+    private static final int PRIME = 0x01000193; // FNV-1a 32-bit prime.
+    private static final int SEPARATOR = 0x1F; // Mixed in after every value, so that "ab","c" and "a","bc" differ.
+
+
+    /**
+     * Utility class; not meant to be instantiated.
+     */
+    private RowFingerprint() {
+    }
+
+
+    /**
+     * Computes the fingerprint of the row a crop would be written as.
+     *
+     * @param crop The crop.
+     * @return The fingerprint (never {@link #UNKNOWN}).
+     */
+    public static int of(Crop crop) {
+        return of(crop.getFarmName(), crop.getFarmLocation(), crop.getCropID(), crop.getCropName(),
+                crop.getQuantityAvailable(), crop.getHarvestDate(), crop.isInSeason());
+    }
+
+
+    /**
+     * Computes the fingerprint of a row from its decoded values.
+     *
+     * @param farmName Column B.
+     * @param farmLocation Column C.
+     * @param cropID Column D.
+     * @param cropName Column E.
+     * @param quantityAvailable Column F.
+     * @param harvestDate Column G, in any form accepted by {@link HarvestDates#parse(CharSequence)}.
+     * @param inSeason Column H.
+     * @return The fingerprint (never {@link #UNKNOWN}).
+     */
+    public static int of(String farmName, String farmLocation, int cropID, String cropName, int quantityAvailable,
+                         String harvestDate, boolean inSeason) {
+        int hash = OFFSET_BASIS;
+        hash = mix(hash, farmName);
+        hash = mix(hash, farmLocation);
+        hash = mix(hash, cropID);
+        hash = mix(hash, cropName);
+        hash = mix(hash, quantityAvailable);
+        int harvestDay = HarvestDates.parse(harvestDate);
+        hash = harvestDay != HarvestDates.NO_DATE ? mix(hash, harvestDay) : mix(hash, harvestDate);
+        hash = mix(hash, inSeason ? 1 : 0);
+        return hash == UNKNOWN ? 1 : hash;
+    }
+
+
+    /**
+     * Mixes the characters of a value into a hash.
+     *
+     * @param hash The hash so far.
+     * @param value The value (null is hashed like an empty string).
+     * @return The new hash.
+     */
+    private static int mix(int hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                hash = (hash ^ (c & 0xFF)) * PRIME;
+                hash = (hash ^ (c >>> 8)) * PRIME;
+            }
+        }
+        return (hash ^ SEPARATOR) * PRIME;
+    }
+
+
+    /**
+     * Mixes the four bytes of a number into a hash.
+     *
+     * @param hash The hash so far.
+     * @param value The number.
+     * @return The new hash.
+     */
+    private static int mix(int hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xFF)) * PRIME;
+        }
+        return (hash ^ SEPARATOR) * PRIME;
+    }
+}
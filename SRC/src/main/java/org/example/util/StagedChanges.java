@@ -0,0 +1,332 @@
+package org.example.util;
+
+import org.example.Crop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The changes staged by the user and not yet pushed, with at most one change per crop.
+ * <p>
+ * Changes are keyed by sheet name and crop ID. Staging a change for a crop that already has one merges the two,
+ * so the number of changes pushed depends on how many rows were touched rather than on how many edits were made:
+ * <ul>
+ *     <li>modify after modify: one modify with the latest values, writing every field changed by either;</li>
+ *     <li>modify after add: one add with the latest values;</li>
+ *     <li>delete after add: nothing is pushed at all, unless the add may already have reached the sheet (it was
+ *     part of a push that failed, or was recovered from the journal), in which case the delete is kept;</li>
+ *     <li>anything else: the latest change replaces the earlier one.</li>
+ * </ul>
+ * Crops keep the position of their first staged change, so pushes follow the order the user worked in.
+ * <p>
+ * Every change can carry the sequence numbers of its {@link ChangeJournal} entries. Merged changes carry all of
+ * them, and they are handed back once the change has been pushed (or cancelled), ready to be acknowledged.
+ * <p>
+ * Usage example:
+ * List&lt;Crop&gt; batch = staged.drain();
+ * // ... push the batch, then for each crop ...
+ * journal.acknowledge(staged.complete(pushedCrops));
+ * staged.requeue(failedCrops);
+ * <p>
+ * All methods are synchronized, so a push running on another thread can drain and requeue safely.
+ */
+public class StagedChanges {
+    private static final int ADD = 1; // Change flag of a new crop (see Crop.getCropChanges()).
+    private static final int MODIFY = 2; // Change flag of a modified crop.
+    private static final int DELETE = 3; // Change flag of a deleted crop.
+
+    private Map<Key, Entry> staged = new LinkedHashMap<>(); // Changes waiting to be pushed, in staging order.
+    private final Map<Crop, Entry> inFlight = new IdentityHashMap<>(); // Changes handed out by drain() and not yet settled.
+    private long stagedCount; // Number of changes ever staged, before merging.
+    private long mergedCount; // Number of staged changes folded into an earlier one (or cancelled).
+
+
+    /**
+     * Stages a change. The crop must not be modified afterwards; stage a copy of anything that is still edited.
+     *
+     * @param crop The crop, with its change flag set (1 = add, 2 = modify, 3 = delete).
+     * @param journalSeq The sequence number of the change in the journal, or -1 if it was not journaled.
+     * @return The journal sequence numbers of changes that were cancelled by this one and can be
+     *         acknowledged straight away (usually empty).
+     */
+    public synchronized List<Long> stage(Crop crop, long journalSeq) {
+        stagedCount++;
+        Entry entry = new Entry(crop, false);
+        if (journalSeq >= 0) {
+            entry.journalSeqs.add(journalSeq);
+        }
+        return put(entry);
+    }
+
+
+    /**
+     * Stages a change recovered from the journal at start-up. Such a change may already have reached the
+     * sheet before the application stopped, so an add recovered this way is never cancelled by a later delete.
+     *
+     * @param crop The recovered crop, with its change flag set.
+     * @param journalSeq The sequence number of the change in the journal.
+     * @return The journal sequence numbers that can be acknowledged straight away (usually empty).
+     */
+    public synchronized List<Long> recover(Crop crop, long journalSeq) {
+        stagedCount++;
+        Entry entry = new Entry(crop, true);
+        entry.journalSeqs.add(journalSeq);
+        return put(entry);
+    }
+
+
+    /**
+     * Removes every staged change so it can be pushed. The changes stay in flight until they are passed to
+     * {@link #complete(Collection)} or {@link #requeue(Collection)}.
+     *
+     * @return The staged crops, one per changed row, in staging order.
+     */
+    public synchronized List<Crop> drain() {
+        return drain(Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Removes up to the given number of the oldest staged changes so they can be pushed. The changes stay in
+     * flight until they are passed to {@link #complete(Collection)} or {@link #requeue(Collection)}.
+     *
+     * @param maxChanges The largest number of changes to remove.
+     * @return The staged crops, one per changed row, in staging order.
+     */
+    public synchronized List<Crop> drain(int maxChanges) {
+        List<Crop> batch = new ArrayList<>(Math.min(maxChanges, staged.size()));
+        Iterator<Entry> entries = staged.values().iterator();
+        while (entries.hasNext() && batch.size() < maxChanges) {
+            Entry entry = entries.next();
+            entries.remove();
+            entry.attempted = true; // From now on the change may reach the sheet.
+            inFlight.put(entry.crop, entry);
+            batch.add(entry.crop);
+        }
+        return batch;
+    }
+
+
+    /**
+     * Settles changes that no longer need to be pushed, because they were applied or cannot be applied.
+     *
+     * @param crops Crops previously returned by {@link #drain()}.
+     * @return The journal sequence numbers of those changes, ready to be acknowledged.
+     */
+    public synchronized List<Long> complete(Collection<Crop> crops) {
+        List<Long> seqs = new ArrayList<>();
+        for (Crop crop : crops) {
+            Entry entry = inFlight.remove(crop);
+            if (entry != null) {
+                seqs.addAll(entry.journalSeqs);
+            }
+        }
+        return seqs;
+    }
+
+
+    /**
+     * Stages again changes that could not be pushed. Each one is merged in front of any change staged for the
+     * same crop since it was drained, and the requeued changes go back to the front of the queue.
+     *
+     * @param crops Crops previously returned by {@link #drain()}.
+     * @return The journal sequence numbers that can be acknowledged straight away (usually empty).
+     */
+    public synchronized List<Long> requeue(Collection<Crop> crops) {
+        Map<Key, Entry> newer = staged;
+        staged = new LinkedHashMap<>();
+        List<Long> cancelled = new ArrayList<>();
+        for (Crop crop : crops) {
+            Entry entry = inFlight.remove(crop);
+            if (entry != null) {
+                cancelled.addAll(put(entry));
+            }
+        }
+        for (Entry entry : newer.values()) {
+            cancelled.addAll(put(entry));
+        }
+        return cancelled;
+    }
+
+
+    /**
+     * Moves a staged change of a crop onto the row an earlier change of the same crop has just written. A change
+     * staged while the earlier one was being pushed still carries the fingerprint of the row before that push,
+     * and would otherwise be reported as conflicting with this application's own write.
+     *
+     * @param pushed The crop whose change was just written, as returned by {@link #drain()}.
+     * @param fingerprint The fingerprint of the row as it was written.
+     */
+    public synchronized void rebase(Crop pushed, int fingerprint) {
+        Entry entry = staged.get(new Key(pushed.getSheetName(), pushed.getCropID()));
+        if (entry != null && entry.crop.getRowFingerprint() == pushed.getRowFingerprint()) {
+            entry.crop.setRowFingerprint(fingerprint);
+        }
+    }
+
+
+    /**
+     * Returns the change staged for a crop that has not been drained yet.
+     *
+     * @param sheetName The sheet of the crop.
+     * @param cropID The ID of the crop.
+     * @return A copy of the staged crop, with its change flag, or null if no change of the crop is waiting.
+     */
+    public synchronized Crop find(String sheetName, int cropID) {
+        Entry entry = staged.get(new Key(sheetName, cropID));
+        return entry == null ? null : new Crop(entry.crop);
+    }
+
+
+    /**
+     * Returns the number of changes waiting to be pushed, one per changed row.
+     *
+     * @return The number of staged changes.
+     */
+    public synchronized int size() {return staged.size();}
+
+
+    /**
+     * Checks whether anything is waiting to be pushed.
+     *
+     * @return true if no change is staged.
+     */
+    public synchronized boolean isEmpty() {return staged.isEmpty();}
+
+
+    /**
+     * Returns how long the oldest staged change has been waiting to be pushed. A change that failed to push
+     * and was requeued keeps the time it was first staged.
+     *
+     * @return The age of the oldest staged change in milliseconds, or 0 if nothing is staged.
+     */
+    public synchronized long getOldestAgeMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (Entry entry : staged.values()) {
+            oldest = Math.min(oldest, entry.stagedAtNanos);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : (System.nanoTime() - oldest) / 1_000_000;
+    }
+
+
+    /**
+     * Returns the number of changes ever staged, before merging.
+     *
+     * @return The number of calls to stage() and recover().
+     */
+    public synchronized long getStagedCount() {return stagedCount;}
+
+
+    /**
+     * Returns the number of staged changes that were merged into an earlier change or cancelled it.
+     * These are the pushes saved by coalescing.
+     *
+     * @return The number of merged changes.
+     */
+    public synchronized long getMergedCount() {return mergedCount;}
+
+
+    /**
+     * Adds an entry to the staged changes, merging it with the entry already staged for the same crop.
+     *
+     * @param entry The entry to add.
+     * @return The journal sequence numbers of entries cancelled by the merge.
+     */
+    private List<Long> put(Entry entry) {
+        Key key = new Key(entry.crop.getSheetName(), entry.crop.getCropID());
+        Entry earlier = staged.get(key);
+        if (earlier == null) {
+            staged.put(key, entry);
+            return new ArrayList<>();
+        }
+
+        mergedCount++;
+        entry.journalSeqs.addAll(0, earlier.journalSeqs);
+        entry.attempted |= earlier.attempted;
+        entry.stagedAtNanos = Math.min(entry.stagedAtNanos, earlier.stagedAtNanos);
+        if (earlier.crop.getRowFingerprint() != RowFingerprint.UNKNOWN) {
+            // The merged change is based on the row the earlier change saw, as moved on by rebase() while pushes land.
+            entry.crop.setRowFingerprint(earlier.crop.getRowFingerprint());
+        }
+        int before = earlier.crop.getCropChanges();
+        int after = entry.crop.getCropChanges();
+
+        if (before == ADD && after == DELETE && !entry.attempted) {
+            staged.remove(key); // The crop never reached the sheet, so there is nothing to push.
+            return entry.journalSeqs;
+        }
+        if (before == ADD && after == MODIFY) {
+            entry.crop.setCropChanges(ADD); // Still a new row; it is simply written with the latest values.
+        } else if (before == MODIFY && after == MODIFY) {
+            if (earlier.crop.getDirtyFields() == 0) {
+                entry.crop.clearDirtyFields(); // The earlier change did not know its fields, so write the whole row.
+            } else if (entry.crop.getDirtyFields() != 0) {
+                entry.crop.markDirty(earlier.crop.getDirtyFields());
+            }
+        }
+        staged.put(key, entry); // Replacing the value keeps the crop's original position.
+        return new ArrayList<>();
+    }
+
+
+    /**
+     * Identifies a row: a crop ID within a sheet.
+     */
+    private static final class Key {
+        private final String sheetName; // The sheet of the crop.
+        private final int cropID; // The ID of the crop.
+
+        /**
+         * Constructs a key.
+         *
+         * @param sheetName The sheet of the crop.
+         * @param cropID The ID of the crop.
+         */
+        Key(String sheetName, int cropID) {
+            this.sheetName = sheetName;
+            this.cropID = cropID;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return cropID == key.cropID && Objects.equals(sheetName, key.sheetName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(sheetName) + cropID;
+        }
+    }
+
+
+    /**
+     * A staged change and the journal entries behind it.
+     */
+    private static final class Entry {
+        private final Crop crop; // The crop to push, with its change flag.
+        private final List<Long> journalSeqs = new ArrayList<>(); // Journal entries merged into this change.
+        private boolean attempted; // Whether the change may already have reached the sheet.
+        private long stagedAtNanos = System.nanoTime(); // When the change (or the earliest change merged into it) was staged.
+
+        /**
+         * Constructs an entry.
+         *
+         * @param crop The crop to push.
+         * @param attempted Whether the change may already have reached the sheet.
+         */
+        Entry(Crop crop, boolean attempted) {
+            this.crop = crop;
+            this.attempted = attempted;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package org.example.util;
+
+/**
+ * Pushes staged changes in the background, so that edits reach Google Sheets without the user choosing
+ * "Push Changes" and without the menu waiting on the push.
+ * <p>
+ * The flusher thread wakes up when {@link #changeStaged()} is called or a timer runs out, and pushes every
+ * staged change once either the number of staged changes reaches maxPending or the oldest one has waited
+ * maxDelayMillis, whichever comes first. Changes are pushed in batches whose size adapts to how long Google
+ * Sheets takes to answer: a batch that comes back well under the target latency doubles the next batch, and
+ * one that takes longer than the target halves it. After a failed push the flusher waits before trying again,
+ * doubling the wait each time up to a minute.
+ * <p>
+ * {@link #flush()} is a barrier: it pushes everything staged before it was called, on the caller's thread, and
+ * only returns once that is done. Pushes are never run concurrently, whether they come from the flusher thread
+ * or from flush().
+ * <p>
+ * Usage example:
+ * WriteBehindFlusher flusher = new WriteBehindFlusher(staged, maxChanges -&gt; pushSomeChanges(maxChanges), 25, 5_000, 2_000);
+ * staged.stage(crop, seq);
+ * flusher.changeStaged();
+ * // ...
+ * flusher.close(); // Pushes what is left.
+ */
+public class WriteBehindFlusher implements AutoCloseable {
+    private static final int MIN_BATCH = 5; // Smallest batch the adaptive sizing will shrink to.
+    private static final int MAX_BATCH = 1_000; // Largest batch the adaptive sizing will grow to.
+    private static final long MAX_RETRY_DELAY_MILLIS = 60_000; // Longest wait between attempts after failures.
+
+    /**
+     * Pushes some of the staged changes.
+     */
+    public interface BatchPusher {
+        /**
+         * Pushes up to the given number of the oldest staged changes, requeueing any that fail.
+         *
+         * @param maxChanges The largest number of changes to push.
+         * @return The number of changes that were settled (pushed, or found not to apply).
+         * @throws Exception If the push could not be made at all; the changes must have been requeued.
+         */
+        int push(int maxChanges) throws Exception;
+    }
+
+    private final StagedChanges staged; // The changes to push.
+    private final BatchPusher pusher; // Performs the pushes.
+    private final int maxPending; // Staged change count that triggers a flush.
+    private final long maxDelayMillis; // Age of the oldest staged change that triggers a flush.
+    private final long targetLatencyMillis; // How long a single batch push should take.
+    private final Object pushLock = new Object(); // Held while pushing, so that pushes never overlap.
+    private final Thread thread; // Waits for a trigger and flushes.
+
+    private int batchSize; // Current batch size, adapted to the observed latency.
+    private long retryDelayMillis; // Wait before the next attempt after a failure (0 after a success).
+    private long retryAtMillis; // Earliest time of the next background attempt.
+    private long flushCount; // Number of batch pushes made.
+    private long changesFlushed; // Number of changes settled by those pushes.
+    private long lastFlushMillis = -1; // Latency of the last batch push, or -1 before the first.
+    private double averageFlushMillis; // Exponentially weighted average of the batch push latency.
+    private String lastFailure; // Message of the last failed push, or null if the last push succeeded.
+    private boolean closed; // Whether the flusher has been closed.
+
+
+    /**
+     * Constructs a flusher and starts its background thread.
+     *
+     * @param staged The staged changes to push.
+     * @param pusher Pushes a batch of staged changes.
+     * @param maxPending Push once this many changes are staged.
+     * @param maxDelayMillis Push once the oldest staged change has waited this long.
+     * @param targetLatencyMillis How long a single batch push should take; batch sizes adapt towards it.
+     */
+    public WriteBehindFlusher(StagedChanges staged, BatchPusher pusher, int maxPending, long maxDelayMillis, long targetLatencyMillis) {
+        this.staged = staged;
+        this.pusher = pusher;
+        this.maxPending = Math.max(1, maxPending);
+        this.maxDelayMillis = Math.max(1, maxDelayMillis);
+        this.targetLatencyMillis = Math.max(1, targetLatencyMillis);
+        this.batchSize = Math.max(MIN_BATCH, Math.min(MAX_BATCH, this.maxPending * 2));
+        this.thread = new Thread(this::flushLoop, "write-behind-flusher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+
+    /**
+     * Tells the flusher that a change was staged, so that it can check whether a flush is due.
+     */
+    public synchronized void changeStaged() {
+        notifyAll();
+    }
+
+
+    /**
+     * Pushes every staged change on the calling thread and waits for it to finish. Changes that fail are
+     * left staged.
+     *
+     * @return The number of changes that were settled.
+     * @throws Exception If a push could not be made at all; the remaining changes stay staged.
+     */
+    public int flush() throws Exception {
+        synchronized (pushLock) {
+            int settled = 0;
+            while (!staged.isEmpty()) {
+                int drained = Math.min(getBatchSize(), staged.size());
+                int batch = pushBatch();
+                settled += batch;
+                if (batch < drained || batch == 0) {
+                    break; // Some changes failed; retrying them straight away would not help.
+                }
+            }
+            return settled;
+        }
+    }
+
+
+    /**
+     * Returns the number of changes waiting to be pushed.
+     *
+     * @return The staged change count.
+     */
+    public int getPendingCount() {return staged.size();}
+
+
+    /**
+     * Returns how long the last batch push took.
+     *
+     * @return The latency in milliseconds, or -1 if nothing has been pushed yet.
+     */
+    public synchronized long getLastFlushMillis() {return lastFlushMillis;}
+
+
+    /**
+     * Returns the average latency of batch pushes, weighted towards recent ones.
+     *
+     * @return The average latency in milliseconds, or 0 if nothing has been pushed yet.
+     */
+    public synchronized long getAverageFlushMillis() {return Math.round(averageFlushMillis);}
+
+
+    /**
+     * Returns the number of changes the next batch will hold at most.
+     *
+     * @return The current batch size.
+     */
+    public synchronized int getBatchSize() {return batchSize;}
+
+
+    /**
+     * Stops the background thread and pushes whatever is still staged. Changes that cannot be pushed stay
+     * staged (and in the journal), so they are pushed the next time the application runs; the failure is
+     * reported rather than thrown. If the calling thread is interrupted while the background thread finishes,
+     * its interrupt flag is restored.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while pushing the remaining changes; they will be pushed next time.");
+        } catch (Exception e) {
+            System.err.println("Could not push the remaining changes (" + e.getMessage() + "); they will be pushed next time.");
+        }
+    }
+
+
+    /**
+     * Summarizes the pending changes and recent push latency.
+     *
+     * @return A human-readable description of the flusher's state.
+     */
+    @Override
+    public synchronized String toString() {
+        return "pending=" + staged.size()
+                + ", flushes=" + flushCount
+                + ", changesFlushed=" + changesFlushed
+                + ", lastFlushMs=" + lastFlushMillis
+                + ", averageFlushMs=" + Math.round(averageFlushMillis)
+                + ", batchSize=" + batchSize
+                + (lastFailure == null ? "" : ", lastFailure=" + lastFailure);
+    }
+
+
+    /**
+     * Waits for a flush to be due, then pushes every staged change, until the flusher is closed.
+     */
+    private void flushLoop() {
+        while (true) {
+            synchronized (this) {
+                while (!closed && !flushDue()) {
+                    try {
+                        wait(millisUntilDue());
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return; // close() pushes what is left.
+                }
+            }
+
+            try {
+                flush();
+            } catch (Exception e) {
+                // Already recorded by pushBatch(); the changes stay staged until the next attempt.
+            }
+        }
+    }
+
+
+    /**
+     * Checks whether enough changes have been staged, or the oldest has waited long enough, to push now.
+     * Must be called while holding this object's lock.
+     *
+     * @return true if a flush is due.
+     */
+    private boolean flushDue() {
+        int pending = staged.size();
+        if (pending == 0 || System.currentTimeMillis() < retryAtMillis) {
+            return false;
+        }
+        return pending >= maxPending || staged.getOldestAgeMillis() >= maxDelayMillis;
+    }
+
+
+    /**
+     * Works out how long the flusher thread can sleep before a flush may become due on its own.
+     * Must be called while holding this object's lock.
+     *
+     * @return The time to wait in milliseconds (0 to wait until woken up).
+     */
+    private long millisUntilDue() {
+        if (staged.isEmpty()) {
+            return 0;
+        }
+        long untilRetry = retryAtMillis - System.currentTimeMillis();
+        long untilOld = maxDelayMillis - staged.getOldestAgeMillis();
+        return Math.max(1, Math.max(untilRetry, untilOld));
+    }
+
+
+    /**
+     * Pushes one batch of the oldest staged changes, then adapts the batch size to how long it took.
+     * Must be called while holding pushLock.
+     *
+     * @return The number of changes settled.
+     * @throws Exception If the push could not be made.
+     */
+    private int pushBatch() throws Exception {
+        int size;
+        synchronized (this) {
+            size = batchSize;
+        }
+        int drained = Math.min(size, staged.size());
+        long started = System.nanoTime();
+        try {
+            int settled = pusher.push(size);
+            long millis = (System.nanoTime() - started) / 1_000_000;
+            if (settled < drained) {
+                backOff((drained - settled) + " change(s) could not be pushed");
+            }
+            synchronized (this) {
+                flushCount++;
+                changesFlushed += settled;
+                lastFlushMillis = millis;
+                averageFlushMillis = flushCount == 1 ? millis : 0.8 * averageFlushMillis + 0.2 * millis;
+                if (millis > targetLatencyMillis) {
+                    batchSize = Math.max(MIN_BATCH, batchSize / 2);
+                } else if (millis < targetLatencyMillis / 2 && settled >= size) {
+                    batchSize = Math.min(MAX_BATCH, batchSize * 2);
+                }
+                if (settled >= drained) {
+                    lastFailure = null;
+                    retryDelayMillis = 0;
+                    retryAtMillis = 0;
+                }
+            }
+            return settled;
+        } catch (Exception e) {
+            backOff(e.getMessage());
+            throw e;
+        }
+    }
+
+
+    /**
+     * Records a failed push and delays the next background attempt, doubling the delay after each failure.
+     *
+     * @param reason Why the push failed.
+     */
+    private synchronized void backOff(String reason) {
+        lastFailure = reason;
+        retryDelayMillis = retryDelayMillis == 0 ? maxDelayMillis : Math.min(MAX_RETRY_DELAY_MILLIS, retryDelayMillis * 2);
+        retryAtMillis = System.currentTimeMillis() + retryDelayMillis;
+        System.err.println("Automatic push failed; retrying in " + Math.max(1, retryDelayMillis / 1000) + " s: " + reason);
+    }
+}
@@ -0,0 +1,67 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that CropTable's crop ID index stays in step with its rows.
+ */
+class CropTableTest {
+
+    /**
+     * Builds a crop with the given ID and otherwise fixed values.
+     */
+    private static Crop crop(int cropID) {
+        return new Crop("Farm", "Valley", cropID, "Crop " + cropID, 5, "2024-03-05", true, "Sheet1", "0");
+    }
+
+
+    /**
+     * Checks every lookup against a scan of the ID column.
+     */
+    private static void assertIndexMatchesRows(CropTable table, int maxCropID) {
+        for (int cropID = 0; cropID <= maxCropID; cropID++) {
+            int first = -1;
+            for (int row = 0; row < table.size(); row++) {
+                if (table.getCropID(row) == cropID) {
+                    first = row;
+                    break;
+                }
+            }
+            assertEquals(first, table.indexOfCropID(cropID), "crop ID " + cropID);
+        }
+    }
+
+
+    @Test
+    void removingAndReplacingRowsKeepsTheIndexInStep() {
+        int maxCropID = 60;
+        CropTable table = new CropTable();
+        for (int cropID = 0; cropID < 40; cropID++) {
+            table.add(crop(cropID));
+        }
+        Random random = new Random(7);
+        for (int step = 0; step < 2000; step++) {
+            int op = random.nextInt(6);
+            if (op == 0 || table.size() < 2) {
+                table.add(crop(random.nextInt(maxCropID + 1))); // Sometimes a duplicate.
+            } else if (op == 1) {
+                int from = random.nextInt(table.size());
+                table.subList(from, from + random.nextInt(Math.min(3, table.size() - from) + 1)).clear();
+            } else if (op == 2) {
+                int cropID = random.nextInt(maxCropID + 1);
+                table.removeIf(crop -> crop.getCropID() % 7 == cropID % 7 && crop.getCropID() > cropID);
+            } else if (op == 3) {
+                table.set(random.nextInt(table.size()), crop(random.nextInt(maxCropID + 1)));
+            } else if (op == 4) {
+                table.remove(random.nextInt(table.size()));
+            } else {
+                table.upsert(crop(random.nextInt(maxCropID + 1)));
+            }
+            assertIndexMatchesRows(table, maxCropID);
+        }
+    }
+}
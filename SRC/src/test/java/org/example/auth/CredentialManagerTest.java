@@ -0,0 +1,185 @@
+package org.example.auth;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.UserCredentials;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests CredentialManager against a local stand-in for the OAuth token endpoint.
+ */
+class CredentialManagerTest {
+    private static final long TIMEOUT_SECONDS = 10; // Upper bound on any wait; only reached if the test fails.
+
+    private final AtomicInteger tokenRequests = new AtomicInteger(); // Requests the stub has answered.
+    private volatile CountDownLatch requestArrived = new CountDownLatch(0); // Counted down when the stub receives a request.
+    private volatile CountDownLatch release = new CountDownLatch(0); // The stub answers once this reaches zero.
+    private final ManualScheduler refresher = new ManualScheduler(); // Runs refreshes, but holds back scheduled ones.
+    private HttpServer server; // The stand-in token endpoint.
+    private CredentialManager manager; // The manager under test.
+
+
+    /**
+     * Runs submitted tasks right away, but records scheduled tasks instead of running them when they come due,
+     * so that a test can run a background refresh when it chooses to.
+     */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+        private final List<ScheduledFuture<?>> scheduled = new CopyOnWriteArrayList<>(); // Every scheduled task, in order.
+        private final List<Callable<?>> tasks = new CopyOnWriteArrayList<>(); // The task of each scheduled future.
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.schedule(command, 0, TimeUnit.NANOSECONDS); // What execute() does, without being recorded.
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            tasks.add(Executors.callable(command));
+            ScheduledFuture<?> future = super.schedule(command, 1, TimeUnit.DAYS); // Never comes due during a test.
+            scheduled.add(future);
+            return future;
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            tasks.add(callable);
+            ScheduledFuture<V> future = super.schedule(callable, 1, TimeUnit.DAYS); // Never comes due during a test.
+            scheduled.add(future);
+            return future;
+        }
+    }
+
+
+    @BeforeEach
+    void startTokenEndpoint() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/token", exchange -> {
+            int n = tokenRequests.incrementAndGet();
+            requestArrived.countDown();
+            try {
+                release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = ("{\"access_token\":\"token-" + n + "\",\"token_type\":\"Bearer\",\"expires_in\":3600}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        UserCredentials credentials = UserCredentials.newBuilder()
+                .setClientId("client")
+                .setClientSecret("secret")
+                .setRefreshToken("refresh")
+                .setTokenServerUri(URI.create("http://localhost:" + server.getAddress().getPort() + "/token"))
+                .build();
+        manager = new CredentialManager(credentials, 60_000, refresher);
+    }
+
+
+    @AfterEach
+    void stopTokenEndpoint() {
+        manager.close();
+        server.stop(0);
+    }
+
+
+    @Test
+    void forcedRefreshesReplaceThePendingBackgroundRefresh() throws Exception {
+        manager.start().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; i++) {
+            manager.forceRefresh();
+        }
+        assertEquals(4, tokenRequests.get());
+
+        // Each refresh scheduled the next one and cancelled the one before, so only the last is still pending;
+        // with a chain per forced refresh, all four would be.
+        assertEquals(4, refresher.scheduled.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(refresher.scheduled.get(i).isCancelled());
+        }
+        assertFalse(refresher.scheduled.get(3).isCancelled());
+
+        // The pending background refresh comes due.
+        ((CompletableFuture<?>) refresher.tasks.get(3).call()).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(5, tokenRequests.get());
+        assertEquals(5, manager.getRefreshCount());
+        assertEquals(5, refresher.scheduled.size());
+        assertFalse(refresher.scheduled.get(4).isCancelled());
+    }
+
+
+    @Test
+    void concurrentForcedRefreshesShareOneRequest() throws Exception {
+        manager.start().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        requestArrived = new CountDownLatch(1);
+        release = new CountDownLatch(1); // Hold the next refresh open until every caller has asked for it.
+
+        int callerCount = 8;
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch asked = new CountDownLatch(callerCount);
+        List<CompletableFuture<AccessToken>> tokens = new ArrayList<>();
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < callerCount; i++) {
+            CompletableFuture<AccessToken> token = new CompletableFuture<>();
+            tokens.add(token);
+            Thread caller = new Thread(() -> {
+                try {
+                    go.await();
+                    CompletableFuture<AccessToken> refresh = manager.refreshAsync(); // What forceRefresh() waits on.
+                    asked.countDown();
+                    token.complete(refresh.join());
+                } catch (Throwable t) {
+                    token.completeExceptionally(t);
+                }
+            });
+            caller.start();
+            callers.add(caller);
+        }
+
+        go.countDown();
+        assertTrue(asked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(requestArrived.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        release.countDown();
+
+        for (CompletableFuture<AccessToken> token : tokens) {
+            assertEquals("token-2", token.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getTokenValue());
+        }
+        for (Thread caller : callers) {
+            caller.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        }
+        assertEquals(2, tokenRequests.get());
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.util;
+
+import org.example.Crop;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that ChangeJournal hands back exactly the unacknowledged changes after it is reopened.
+ */
+class ChangeJournalTest {
+    @TempDir
+    Path directory;
+
+
+    /**
+     * Creates a crop of Sheet1 with the given change flag (1 = add, 2 = modify, 3 = delete).
+     */
+    private static Crop crop(int cropID, String cropName, int changes) {
+        Crop crop = new Crop("Green Acres", "Valley", cropID, cropName, 10, "2024-06-01", true, "Sheet1", "0");
+        crop.setCropChanges(changes);
+        return crop;
+    }
+
+
+    @Test
+    void replaysUnacknowledgedChangesAfterReopening() throws IOException {
+        Path path = directory.resolve("staged.journal");
+        long first;
+        long second;
+        long third;
+        try (ChangeJournal journal = ChangeJournal.open(path)) {
+            first = journal.append(crop(1, "Corn", 1));
+            Crop renamed = crop(2, "Beans", 2);
+            renamed.setCropName("Green Beans");
+            second = journal.append(renamed);
+            third = journal.append(crop(3, "Peas", 3));
+            journal.awaitDurable(third);
+            journal.acknowledge(Collections.singletonList(first));
+        }
+
+        try (ChangeJournal journal = ChangeJournal.open(path)) {
+            Map<Long, Crop> pending = journal.getPending();
+            assertArrayEquals(new Long[] {second, third}, pending.keySet().toArray(new Long[0]));
+            Crop renamed = pending.get(second);
+            assertEquals("Green Beans", renamed.getCropName());
+            assertEquals(2, renamed.getCropChanges());
+            assertEquals(Crop.CROP_NAME, renamed.getDirtyFields());
+            assertEquals(3, pending.get(third).getCropChanges());
+            assertTrue(journal.append(crop(4, "Kale", 1)) > third); // Sequence numbers keep increasing.
+        }
+    }
+
+
+    @Test
+    void acknowledgingEverythingTruncatesTheFile() throws IOException {
+        Path path = directory.resolve("staged.journal");
+        try (ChangeJournal journal = ChangeJournal.open(path)) {
+            long first = journal.append(crop(1, "Corn", 1));
+            long second = journal.append(crop(2, "Beans", 1));
+            journal.acknowledge(Arrays.asList(first, second, 99L)); // Unknown sequence numbers are ignored.
+            assertEquals(0, journal.getPendingCount());
+            assertEquals(0, Files.size(path));
+        }
+        try (ChangeJournal journal = ChangeJournal.open(path)) {
+            assertTrue(journal.getPending().isEmpty());
+        }
+    }
+
+
+    @Test
+    void discardsATornRecordAtTheEndAndTruncatesIt() throws IOException {
+        Path path = directory.resolve("staged.journal");
+        long seq;
+        try (ChangeJournal journal = ChangeJournal.open(path)) {
+            seq = journal.append(crop(1, "Corn", 2));
+            journal.awaitDurable(seq);
+        }
+        long intact = Files.size(path);
+        // A crash mid-write: the header of a 200-byte record, followed by only part of its payload.
+        byte[] torn = {0, 0, 0, (byte) 200, 1, 2, 3, 4, 1, 0, 0, 0};
+        Files.write(path, torn, StandardOpenOption.APPEND);
+
+        try (ChangeJournal journal = ChangeJournal.open(path)) {
+            assertEquals(Collections.singleton(seq), journal.getPending().keySet());
+            assertEquals(intact, Files.size(path));
+        }
+    }
+
+
+    @Test
+    void discardsARecordWhoseChecksumDoesNotMatch() throws IOException {
+        Path path = directory.resolve("staged.journal");
+        long first;
+        try (ChangeJournal journal = ChangeJournal.open(path)) {
+            first = journal.append(crop(1, "Corn", 2));
+            journal.awaitDurable(first);
+        }
+        long intact = Files.size(path);
+        try (ChangeJournal journal = ChangeJournal.open(path)) {
+            journal.awaitDurable(journal.append(crop(2, "Beans", 2)));
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 0x55; // Flip bits in the last payload byte of the second record.
+        Files.write(path, bytes);
+
+        try (ChangeJournal journal = ChangeJournal.open(path)) {
+            assertEquals(Collections.singleton(first), journal.getPending().keySet());
+            assertEquals(intact, Files.size(path));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.example.util;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.example.Crop;
+import org.example.CropTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the CSV and JSON Lines encodings of FlatFileExporter, and gzip and append output.
+ */
+class FlatFileExporterTest {
+    private static final String CSV_HEADER = "farmName,farmLocation,cropID,cropName,quantityAvailable,harvestDate,inSeason,sheetName\r\n";
+
+    @TempDir
+    Path directory;
+
+
+    /**
+     * Creates a crop of Sheet1.
+     */
+    private static Crop crop(String farmName, int cropID, String cropName, String harvestDate) {
+        return new Crop(farmName, "Valley", cropID, cropName, 12, harvestDate, true, "Sheet1", "0");
+    }
+
+
+    /**
+     * Reads a whole file as UTF-8, decompressing it first if it is gzip-compressed.
+     */
+    private static String read(Path path, boolean gzip) throws IOException {
+        if (!gzip) {
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            for (int n; (n = in.read(chunk)) != -1; ) {
+                out.write(chunk, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+
+    @Test
+    void csvQuotesOnlyFieldsThatNeedIt() throws IOException {
+        Path path = directory.resolve("crops.csv");
+        List<Crop> crops = Arrays.asList(
+                crop("Smith, Jones & Co", 1, "Corn", "2024-03-05"),
+                crop("Plain Farm", 2, "\"Sweet\" peas", "next week"),
+                crop("Ferme \u00c9t\u00e9", 3, "Line\nbreak", "3/5/2024"));
+        FlatFileExporter.export(crops, path, FlatFileExporter.Format.CSV, false);
+
+        assertEquals(CSV_HEADER
+                        + "\"Smith, Jones & Co\",Valley,1,Corn,12,2024-03-05,true,Sheet1\r\n"
+                        + "Plain Farm,Valley,2,\"\"\"Sweet\"\" peas\",12,next week,true,Sheet1\r\n"
+                        + "Ferme \u00c9t\u00e9,Valley,3,\"Line\nbreak\",12,2024-03-05,true,Sheet1\r\n",
+                read(path, false));
+    }
+
+
+    @Test
+    void jsonLinesEscapeQuotesBackslashesAndControlCharacters() throws IOException {
+        Path path = directory.resolve("crops.jsonl");
+        String name = "Say \"hi\"\\ tab\there\u0001 \uD83C\uDF3D";
+        FlatFileExporter.export(Arrays.asList(crop(name, 1, "Line\r\nbreak", "2024-02-29")), path, FlatFileExporter.Format.JSONL, false);
+
+        String text = read(path, false);
+        assertTrue(text.endsWith("}\n"));
+        assertFalse(text.substring(0, text.length() - 1).contains("\n")); // One record per line.
+        assertTrue(text.contains("\\u0001"));
+        JsonObject record = JsonParser.parseString(text).getAsJsonObject();
+        assertEquals(name, record.get("farmName").getAsString());
+        assertEquals("Line\r\nbreak", record.get("cropName").getAsString());
+        assertEquals(1, record.get("cropID").getAsInt());
+        assertEquals(12, record.get("quantityAvailable").getAsInt());
+        assertEquals("2024-02-29", record.get("harvestDate").getAsString());
+        assertTrue(record.get("inSeason").getAsBoolean());
+        assertEquals("Sheet1", record.get("sheetName").getAsString());
+    }
+
+
+    @Test
+    void tablesAndCropsAreWrittenAlike() throws IOException {
+        List<Crop> crops = Arrays.asList(crop("A, B", 1, "Corn", "2024-03-05"), crop("C", 2, "Kale", "unknown"));
+        Path fromList = directory.resolve("list.jsonl");
+        Path fromTable = directory.resolve("table.jsonl");
+        FlatFileExporter.export(crops, fromList, FlatFileExporter.Format.JSONL, false);
+        FlatFileExporter.export(new CropTable(crops), fromTable, FlatFileExporter.Format.JSONL, false);
+
+        assertEquals(read(fromList, false), read(fromTable, false));
+    }
+
+
+    @Test
+    void gzipAppendWritesOneHeaderAndEveryRow() throws IOException {
+        Path path = directory.resolve("crops.csv.gz");
+        List<Crop> first = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) { // Enough to fill the buffers several times.
+            first.add(crop("Farm " + i, i, "Crop " + i, "2024-01-01"));
+        }
+        try (FlatFileExporter exporter = FlatFileExporter.open(path, FlatFileExporter.Format.CSV, true, true)) {
+            assertEquals(first.size(), exporter.writeAll(first));
+        }
+        try (FlatFileExporter exporter = FlatFileExporter.open(path, FlatFileExporter.Format.CSV, true, true)) {
+            exporter.writeAll(Collections.singletonList(crop("Late Farm", 99_999, "Squash", "2024-10-01")));
+            assertEquals(1, exporter.getRowCount());
+        }
+
+        String[] lines = read(path, true).split("\r\n");
+        assertEquals(CSV_HEADER.trim(), lines[0]);
+        assertEquals(first.size() + 2, lines.length);
+        assertEquals("Farm 0,Valley,0,Crop 0,12,2024-01-01,true,Sheet1", lines[1]);
+        assertEquals("Late Farm,Valley,99999,Squash,12,2024-10-01,true,Sheet1", lines[lines.length - 1]);
+    }
+
+
+    @Test
+    void exportReplacesAnExistingFile() throws IOException {
+        Path path = directory.resolve("crops.jsonl");
+        Files.write(path, "left over from an older export, and longer than the new one\n".getBytes(StandardCharsets.UTF_8));
+        FlatFileExporter.export(Collections.singletonList(crop("A", 1, "Corn", "2024-03-05")), path, FlatFileExporter.Format.JSONL, false);
+
+        String text = read(path, false);
+        assertTrue(text.startsWith("{\"farmName\":\"A\""));
+        assertEquals(1, text.split("\n").length);
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests HarvestDates against java.time.
+ */
+class HarvestDatesTest {
+
+    /**
+     * Returns the epoch day of a date, the way java.time computes it.
+     */
+    private static int day(int year, int month, int dayOfMonth) {
+        return (int) LocalDate.of(year, month, dayOfMonth).toEpochDay();
+    }
+
+
+    @Test
+    void parsesEverySupportedForm() {
+        assertEquals(day(2024, 3, 15), HarvestDates.parse("2024-03-15"));
+        assertEquals(day(2024, 3, 15), HarvestDates.parse("2024-3-15"));
+        assertEquals(day(2024, 3, 15), HarvestDates.parse("03-15-2024"));
+        assertEquals(day(2024, 3, 15), HarvestDates.parse("3/15/2024"));
+        assertEquals(day(2024, 3, 15), HarvestDates.parse("  2024-03-15 "));
+        assertEquals(day(1970, 1, 1), HarvestDates.parse("1970-01-01"));
+        assertEquals(day(1969, 12, 31), HarvestDates.parse("12/31/1969"));
+    }
+
+
+    @Test
+    void acceptsMonthEndsAndLeapDays() {
+        assertEquals(day(2024, 1, 31), HarvestDates.parse("2024-01-31"));
+        assertEquals(day(2024, 4, 30), HarvestDates.parse("2024-04-30"));
+        assertEquals(day(2024, 2, 29), HarvestDates.parse("2024-02-29"));
+        assertEquals(day(2000, 2, 29), HarvestDates.parse("2/29/2000")); // Divisible by 400.
+        assertEquals(day(2023, 12, 31), HarvestDates.parse("2023-12-31"));
+    }
+
+
+    @Test
+    void rejectsImpossibleDates() {
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2023-02-29"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("1900-02-29")); // Divisible by 100 but not 400.
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024-04-31"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024-13-01"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024-00-10"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024-01-00"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024-01-32"));
+    }
+
+
+    @Test
+    void rejectsMalformedText() {
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse(null));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse(""));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("   "));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("soon"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024-03"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024-03-15-01"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024/03-15")); // Mixed separators.
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024.03.15"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024--15"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("24-03-15")); // No four-digit year.
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("20240-03-15"));
+        assertEquals(HarvestDates.NO_DATE, HarvestDates.parse("2024-003-15"));
+        assertFalse(HarvestDates.isValid("2024-02-30"));
+        assertTrue(HarvestDates.isValid("2/3/2024"));
+    }
+
+
+    @Test
+    void formatMatchesLocalDateForEveryDayOfALeapCycle() {
+        LocalDate date = LocalDate.of(1999, 1, 1);
+        for (int i = 0; i < 4 * 366 + 60; i++, date = date.plusDays(1)) {
+            int epochDay = (int) date.toEpochDay();
+            assertEquals(date.toString(), HarvestDates.format(epochDay));
+            assertEquals(epochDay, HarvestDates.parse(date.toString()));
+            assertEquals(date, HarvestDates.toLocalDate(epochDay));
+        }
+    }
+
+
+    @Test
+    void canonicalizeKeepsTextThatIsNotADate() {
+        assertEquals("2024-03-05", HarvestDates.canonicalize("3/5/2024"));
+        assertEquals("next week", HarvestDates.canonicalize("next week"));
+        assertEquals("", HarvestDates.format(HarvestDates.NO_DATE));
+        assertNull(HarvestDates.toLocalDate(HarvestDates.NO_DATE));
+    }
+}
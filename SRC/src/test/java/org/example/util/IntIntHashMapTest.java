@@ -0,0 +1,96 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests IntIntHashMap against java.util.HashMap.
+ */
+class IntIntHashMapTest {
+
+    /**
+     * Checks that the map holds exactly the entries of the expected map.
+     */
+    private static void assertSameEntries(Map<Integer, Integer> expected, IntIntHashMap actual) {
+        assertEquals(expected.size(), actual.size());
+        expected.forEach((key, value) -> assertEquals(value.intValue(), actual.getOrDefault(key, Integer.MIN_VALUE), "key " + key));
+        Map<Integer, Integer> visited = new HashMap<>();
+        actual.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+
+
+    @Test
+    void randomOperationsMatchHashMap() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        IntIntHashMap actual = new IntIntHashMap(); // Starts small, so it resizes several times.
+        for (int i = 0; i < 200_000; i++) {
+            int key = random.nextInt(4_000) - 2_000; // Includes 0 and negative keys, and keeps clusters dense.
+            int op = random.nextInt(10);
+            if (op < 5) {
+                int value = random.nextInt();
+                expected.put(key, value);
+                actual.put(key, value);
+            } else if (op < 9) {
+                assertEquals(expected.getOrDefault(key, -1).intValue(), actual.remove(key, -1));
+                expected.remove(key);
+            } else {
+                assertEquals(expected.containsKey(key), actual.containsKey(key));
+            }
+        }
+        assertSameEntries(expected, actual);
+    }
+
+
+    @Test
+    void removingFromAClusterKeepsTheKeysAfterItReachable() {
+        IntIntHashMap map = new IntIntHashMap(4);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int key = 1; key <= 1_000; key++) {
+            map.put(key * 64, key); // Keys sharing their low bits probe into the same clusters.
+            expected.put(key * 64, key);
+        }
+        for (int key = 1; key <= 1_000; key += 2) {
+            assertEquals(key, map.remove(key * 64, -1));
+            expected.remove(key * 64);
+        }
+        assertSameEntries(expected, map);
+        assertEquals(-1, map.remove(64, -1));
+    }
+
+
+    @Test
+    void zeroKeyIsStoredLikeAnyOther() {
+        IntIntHashMap map = new IntIntHashMap();
+        assertFalse(map.containsKey(0));
+        map.put(0, 5);
+        assertEquals(6, map.addTo(0, 1));
+        assertTrue(map.containsKey(0));
+        assertEquals(1, map.size());
+        assertEquals(6, map.remove(0, -1));
+        assertTrue(map.isEmpty());
+    }
+
+
+    @Test
+    void clearKeepsTheMapUsable() {
+        IntIntHashMap map = new IntIntHashMap();
+        for (int key = -100; key < 100; key++) {
+            map.put(key, key * 2);
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(0));
+        map.put(3, 9);
+        assertEquals(9, map.getOrDefault(3, -1));
+        assertEquals(1, map.size());
+    }
+}
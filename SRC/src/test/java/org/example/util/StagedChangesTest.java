@@ -0,0 +1,126 @@
+package org.example.util;
+
+import org.example.Crop;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests how StagedChanges merges changes of the same crop.
+ */
+class StagedChangesTest {
+    private final StagedChanges staged = new StagedChanges();
+
+
+    /**
+     * Creates a crop of Sheet1 with the given change flag (1 = add, 2 = modify, 3 = delete).
+     */
+    private static Crop crop(int cropID, String cropName, int quantity, int changes) {
+        Crop crop = new Crop("Green Acres", "Valley", cropID, cropName, quantity, "2024-06-01", true, "Sheet1", "0");
+        crop.setCropChanges(changes);
+        return crop;
+    }
+
+
+    @Test
+    void modifyAfterAddIsPushedAsOneAddWithTheLatestValues() {
+        staged.stage(crop(7, "Corn", 10, 1), 1);
+        Crop modified = crop(7, "Corn", 10, 2);
+        modified.setQuantityAvailable(25);
+        staged.stage(modified, 2);
+
+        List<Crop> batch = staged.drain();
+        assertEquals(1, batch.size());
+        assertEquals(1, batch.get(0).getCropChanges());
+        assertEquals(25, batch.get(0).getQuantityAvailable());
+        assertEquals(1, staged.getMergedCount());
+        assertEquals(Arrays.asList(1L, 2L), staged.complete(batch));
+    }
+
+
+    @Test
+    void modifyAfterModifyWritesTheFieldsChangedByEither() {
+        Crop renamed = crop(7, "Corn", 10, 2);
+        renamed.setCropName("Maize");
+        staged.stage(renamed, -1);
+        Crop restocked = crop(7, "Maize", 10, 2);
+        restocked.setQuantityAvailable(40);
+        staged.stage(restocked, -1);
+
+        Crop merged = staged.drain().get(0);
+        assertEquals(Crop.CROP_NAME | Crop.QUANTITY_AVAILABLE, merged.getDirtyFields());
+        assertEquals("Maize", merged.getCropName());
+        assertEquals(40, merged.getQuantityAvailable());
+    }
+
+
+    @Test
+    void deleteAfterUnpushedAddCancelsBoth() {
+        staged.stage(crop(7, "Corn", 10, 1), 1);
+        List<Long> cancelled = staged.stage(crop(7, "Corn", 10, 3), 2);
+
+        assertEquals(Arrays.asList(1L, 2L), cancelled);
+        assertTrue(staged.isEmpty());
+    }
+
+
+    @Test
+    void deleteWinsOverARequeuedAdd() {
+        staged.stage(crop(7, "Corn", 10, 1), 1);
+        List<Crop> batch = staged.drain();
+        staged.stage(crop(7, "Corn", 10, 3), 2); // Staged while the add was being pushed.
+        List<Long> cancelled = staged.requeue(batch); // The push failed, but the add may have reached the sheet.
+
+        assertTrue(cancelled.isEmpty());
+        List<Crop> retried = staged.drain();
+        assertEquals(1, retried.size());
+        assertEquals(3, retried.get(0).getCropChanges());
+        assertEquals(Arrays.asList(1L, 2L), staged.complete(retried));
+    }
+
+
+    @Test
+    void requeuedChangesGoBackToTheFront() {
+        staged.stage(crop(1, "Corn", 10, 2), -1);
+        List<Crop> batch = staged.drain();
+        staged.stage(crop(2, "Beans", 5, 2), -1);
+        staged.requeue(batch);
+
+        List<Crop> retried = staged.drain();
+        assertEquals(1, retried.get(0).getCropID());
+        assertEquals(2, retried.get(1).getCropID());
+    }
+
+
+    @Test
+    void mergedChangeKeepsTheFingerprintOfTheEarlierChange() {
+        Crop first = crop(7, "Corn", 10, 2);
+        first.setRowFingerprint(111);
+        staged.stage(first, -1);
+        Crop second = crop(7, "Corn", 12, 2);
+        second.setRowFingerprint(222);
+        staged.stage(second, -1);
+
+        assertEquals(111, staged.drain().get(0).getRowFingerprint());
+    }
+
+
+    @Test
+    void rebaseMovesAChangeStagedDuringAPushOntoTheWrittenRow() {
+        Crop pushed = crop(7, "Corn", 10, 2);
+        pushed.setRowFingerprint(111);
+        staged.stage(pushed, -1);
+        List<Crop> batch = staged.drain();
+        Crop later = crop(7, "Corn", 15, 2);
+        later.setRowFingerprint(111);
+        staged.stage(later, -1);
+
+        staged.rebase(batch.get(0), 333);
+        staged.complete(batch);
+        assertEquals(333, staged.drain().get(0).getRowFingerprint());
+    }
+}